@@ -0,0 +1,147 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Глубокая страница сырой таблицы: LIMIT/OFFSET против keyset по (timestamp, id), тот же
+ * запрос, что getRawTablePage. Для каждой глубины страница читается обоими способами
+ * PAGE_REPEATS раз; id строк должны совпасть. Аргумент инструментации pageRows
+ * (по умолчанию 500 000), результат — в logcat:
+ *
+ *   adb shell am instrument -w -e class com.example.santiway.upload_data.DevicePageBenchmarkTest \
+ *       -e pageRows 500000 com.example.santiway.test/androidx.test.runner.AndroidJUnitRunner
+ */
+@RunWith(AndroidJUnit4.class)
+public class DevicePageBenchmarkTest {
+    private static final String TAG = "DevicePageBenchmark";
+    private static final String FOLDER = "Bench";
+    private static final int DEFAULT_ROWS = 500_000;
+    private static final int PAGE_SIZE = 50;
+    private static final int PAGE_REPEATS = 20;
+    /** Номера страниц от начала списка; страницы глубже таблицы пропускаются */
+    private static final int[] DEPTHS = {1, 10, 100, 1_000, 5_000};
+
+    private static File file;
+    private static SQLiteDatabase db;
+    private static int rows;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        rows = Integer.parseInt(arguments.getString("pageRows", String.valueOf(DEFAULT_ROWS)));
+
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = context.getDatabasePath("device_page_benchmark.db");
+        SQLiteDatabase.deleteDatabase(file);
+        file.getParentFile().mkdirs();
+        db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.enableWriteAheadLogging();
+        UploadDrainBenchmarkTest.createFolder(db, FOLDER);
+        // Тот же индекс, что createFolderRawTableIndexes строит для списка папки
+        db.execSQL("CREATE INDEX \"idx_" + FOLDER + "_timestamp\" ON \"" + FOLDER + "\"(timestamp)");
+
+        long started = SystemClock.elapsedRealtime();
+        UploadDrainBenchmarkTest.fill(db, FOLDER, rows);
+        Log.i(TAG, "Filled " + rows + " rows in " + (SystemClock.elapsedRealtime() - started) + " ms");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        db.close();
+        SQLiteDatabase.deleteDatabase(file);
+    }
+
+    @Test
+    public void keysetMatchesOffsetOnDeepPages() {
+        int measured = 0;
+        for (int depth : DEPTHS) {
+            long offset = (long) depth * PAGE_SIZE;
+            if (offset + PAGE_SIZE > rows) continue;
+
+            // Токен предыдущей страницы: последняя строка перед offset, как его отдал бы прошлый вызов
+            long[] last = rowAt(offset - 1);
+            String[] keysetArgs = {String.valueOf(last[0]), String.valueOf(last[0]), String.valueOf(last[0]),
+                    String.valueOf(last[1]), String.valueOf(PAGE_SIZE)};
+            String[] offsetArgs = {String.valueOf(PAGE_SIZE), String.valueOf(offset)};
+
+            List<Long> byOffset = null;
+            long started = SystemClock.elapsedRealtime();
+            for (int i = 0; i < PAGE_REPEATS; i++) {
+                byOffset = page(offsetSql(), offsetArgs);
+            }
+            long offsetMs = SystemClock.elapsedRealtime() - started;
+
+            List<Long> byKeyset = null;
+            started = SystemClock.elapsedRealtime();
+            for (int i = 0; i < PAGE_REPEATS; i++) {
+                byKeyset = page(keysetSql(), keysetArgs);
+            }
+            long keysetMs = SystemClock.elapsedRealtime() - started;
+
+            assertEquals(PAGE_SIZE, byOffset.size());
+            assertEquals(byOffset, byKeyset);
+            Log.i(TAG, String.format(Locale.US, "page %d (offset %d): OFFSET %.2f ms/page, keyset %.2f ms/page",
+                    depth, offset, offsetMs / (double) PAGE_REPEATS, keysetMs / (double) PAGE_REPEATS));
+            measured++;
+        }
+        assertTrue("no page depth fits into " + rows + " rows", measured > 0);
+    }
+
+    private static String offsetSql() {
+        return "SELECT id, type, name, bssid, cell_id, latitude, longitude, timestamp, status " +
+                "FROM " + DeviceDictionary.source(FOLDER) + " " +
+                "ORDER BY timestamp DESC, id DESC LIMIT ? OFFSET ?";
+    }
+
+    private static String keysetSql() {
+        return "SELECT id, type, name, bssid, cell_id, latitude, longitude, timestamp, status " +
+                "FROM " + DeviceDictionary.source(FOLDER) + " " +
+                "WHERE timestamp <= ? AND (timestamp < ? OR (timestamp = ? AND id < ?)) " +
+                "ORDER BY timestamp DESC, id DESC LIMIT ?";
+    }
+
+    /** {timestamp, id} строки с номером position в порядке списка */
+    private static long[] rowAt(long position) {
+        try (Cursor cursor = db.rawQuery("SELECT timestamp, id FROM \"" + FOLDER + "\" " +
+                "ORDER BY timestamp DESC, id DESC LIMIT 1 OFFSET ?", new String[]{String.valueOf(position)})) {
+            assertTrue(cursor.moveToFirst());
+            return new long[]{cursor.getLong(0), cursor.getLong(1)};
+        }
+    }
+
+    /** id строк страницы; остальные колонки читаются, как их читает адаптер списка */
+    private static List<Long> page(String sql, String[] args) {
+        List<Long> ids = new ArrayList<>(PAGE_SIZE);
+        try (Cursor cursor = db.rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                cursor.getString(2);
+                cursor.getString(3);
+                cursor.getDouble(5);
+                cursor.getDouble(6);
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Поиск по таблице уникальных устройств папки: FTS-индекс DeviceSearchIndex против прежнего
+ * LIKE по подстроке, те же условия, что queryDevicesPage, страница из PAGE_SIZE строк.
+ * Запросы выбраны так, что оба способа находят одни и те же строки: имя и MAC с границы слова.
+ * Аргумент инструментации searchRows (по умолчанию 100 000), результат — в logcat:
+ *
+ *   adb shell am instrument -w -e class com.example.santiway.upload_data.DeviceSearchBenchmarkTest \
+ *       -e searchRows 100000 com.example.santiway.test/androidx.test.runner.AndroidJUnitRunner
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceSearchBenchmarkTest {
+    private static final String TAG = "DeviceSearchBenchmark";
+    /** Своё имя: признаки готовности таблицы и движок индекса кэшируются по имени на весь процесс */
+    private static final String TABLE = "SearchBench_unique";
+    private static final int DEFAULT_ROWS = 100_000;
+    private static final int PAGE_SIZE = 50;
+    private static final int REPEATS = 20;
+    private static final String[] QUERIES = {"net-123", "net-9", "AA:BB:CC:00:2", "CC:00:FF"};
+
+    private static File file;
+    private static SQLiteDatabase db;
+    private static int rows;
+    private static int engine;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        rows = Integer.parseInt(arguments.getString("searchRows", String.valueOf(DEFAULT_ROWS)));
+
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = context.getDatabasePath("device_search_benchmark.db");
+        SQLiteDatabase.deleteDatabase(file);
+        file.getParentFile().mkdirs();
+        db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.enableWriteAheadLogging();
+
+        // Первая строка через помощник создаёт таблицу, её индексы и FTS с триггерами, остальные — пачкой
+        new UniqueDevicesHelper(context, TABLE).addOrUpdateDevice(db, device(0));
+        engine = DeviceSearchIndex.ensure(db, TABLE);
+        long started = SystemClock.elapsedRealtime();
+        fill(1, rows);
+        Log.i(TAG, "Filled " + rows + " devices (search engine " + engine + ") in " +
+                (SystemClock.elapsedRealtime() - started) + " ms");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        db.close();
+        SQLiteDatabase.deleteDatabase(file);
+    }
+
+    @Test
+    public void ftsFindsSameRowsAsLike() {
+        assumeTrue("FTS is not available on this device", engine != DeviceSearchIndex.ENGINE_NONE);
+        String fts = "\"" + DeviceSearchIndex.ftsTableName(TABLE) + "\"";
+        String ftsSql = "SELECT id FROM \"" + TABLE + "\" " +
+                "WHERE id IN (SELECT rowid FROM " + fts + " WHERE " + fts + " MATCH ?) " +
+                "ORDER BY last_seen DESC, id DESC LIMIT " + PAGE_SIZE;
+        String likeSql = "SELECT id FROM \"" + TABLE + "\" " +
+                "WHERE (UPPER(COALESCE(name, '')) LIKE ? " +
+                "   OR UPPER(COALESCE(bssid, '')) LIKE ? " +
+                "   OR UPPER(COALESCE(unique_identifier, '')) LIKE ? " +
+                "   OR CAST(COALESCE(cell_id, '') AS TEXT) LIKE ? " +
+                "   OR UPPER(COALESCE(network_type, '')) LIKE ?) " +
+                "ORDER BY last_seen DESC, id DESC LIMIT " + PAGE_SIZE;
+
+        for (String query : QUERIES) {
+            String normalized = query.toUpperCase(Locale.US);
+            String match = DeviceSearchIndex.buildMatchQuery(normalized, engine);
+            String like = "%" + normalized + "%";
+
+            List<Long> byLike = null;
+            long started = SystemClock.elapsedRealtime();
+            for (int i = 0; i < REPEATS; i++) {
+                byLike = ids(likeSql, new String[]{like, like, like, like, like});
+            }
+            long likeMs = SystemClock.elapsedRealtime() - started;
+
+            List<Long> byFts = null;
+            started = SystemClock.elapsedRealtime();
+            for (int i = 0; i < REPEATS; i++) {
+                byFts = ids(ftsSql, new String[]{match});
+            }
+            long ftsMs = SystemClock.elapsedRealtime() - started;
+
+            assertFalse("nothing found for " + query, byLike.isEmpty());
+            assertEquals("rows for " + query, byLike, byFts);
+            Log.i(TAG, String.format(Locale.US, "\"%s\" (%d rows): LIKE %.2f ms, FTS %.2f ms",
+                    query, byFts.size(), likeMs / (double) REPEATS, ftsMs / (double) REPEATS));
+        }
+    }
+
+    private static void fill(int from, int to) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO \"" + TABLE + "\" " +
+                "(type, name, bssid, unique_identifier, signal_strength, latitude, longitude, " +
+                "first_seen, last_seen, status, total_scans) " +
+                "VALUES ('Wi-Fi', ?, ?, ?, ?, ?, ?, ?, ?, 'GREY', 1)");
+        long base = System.currentTimeMillis() - to * 1000L;
+        db.beginTransaction();
+        try {
+            for (int i = from; i < to; i++) {
+                String mac = mac(i);
+                insert.bindString(1, "net-" + i);
+                insert.bindString(2, mac);
+                insert.bindString(3, mac);
+                insert.bindLong(4, -40 - i % 50);
+                insert.bindDouble(5, 55.75 + (i % 1000) * 1e-5);
+                insert.bindDouble(6, 37.61 + (i % 1000) * 1e-5);
+                insert.bindLong(7, base + i * 1000L);
+                insert.bindLong(8, base + i * 1000L);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    private static ContentValues device(int i) {
+        ContentValues values = new ContentValues();
+        values.put("type", "Wi-Fi");
+        values.put("name", "net-" + i);
+        values.put("bssid", mac(i));
+        values.put("signal_strength", -40);
+        values.put("latitude", 55.75);
+        values.put("longitude", 37.61);
+        values.put("timestamp", System.currentTimeMillis() - rows * 1000L);
+        return values;
+    }
+
+    private static String mac(int i) {
+        return String.format(Locale.US, "AA:BB:CC:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF);
+    }
+
+    private static List<Long> ids(String sql, String[] args) {
+        List<Long> ids = new ArrayList<>(PAGE_SIZE);
+        try (Cursor cursor = db.rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        }
+        return ids;
+    }
+}
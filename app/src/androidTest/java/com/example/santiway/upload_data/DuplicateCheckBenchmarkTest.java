@@ -0,0 +1,137 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Вставка наблюдений в папку с миллионом строк: проверка дубликата запросом в SQLite на каждую
+ * вставку против DuplicateWindowIndex с откатом в SQLite только для холодного окна.
+ * Каждый прогон идёт в транзакции, которая откатывается, поэтому оба начинают с одной таблицы.
+ * Аргументы инструментации dedupRows (по умолчанию 1 000 000) и dedupInserts (20 000),
+ * результат — в logcat:
+ *
+ *   adb shell am instrument -w -e class com.example.santiway.upload_data.DuplicateCheckBenchmarkTest \
+ *       -e dedupRows 1000000 com.example.santiway.test/androidx.test.runner.AndroidJUnitRunner
+ */
+@RunWith(AndroidJUnit4.class)
+public class DuplicateCheckBenchmarkTest {
+    private static final String TAG = "DuplicateCheckBenchmark";
+    private static final String FOLDER = "Bench";
+    private static final int DEFAULT_ROWS = 1_000_000;
+    private static final int DEFAULT_INSERTS = 20_000;
+    /** Как MainDatabaseHelper.DUPLICATE_WINDOW_MS */
+    private static final long WINDOW_MS = 30_000L;
+    /** Устройств в обходе и шаг времени: каждое возвращается примерно раз в окно */
+    private static final int DEVICES = 600;
+    private static final long STEP_MS = 50L;
+
+    private static File file;
+    private static SQLiteDatabase db;
+    private static int inserts;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        int rows = Integer.parseInt(arguments.getString("dedupRows", String.valueOf(DEFAULT_ROWS)));
+        inserts = Integer.parseInt(arguments.getString("dedupInserts", String.valueOf(DEFAULT_INSERTS)));
+
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = context.getDatabasePath("duplicate_check_benchmark.db");
+        SQLiteDatabase.deleteDatabase(file);
+        file.getParentFile().mkdirs();
+        db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.enableWriteAheadLogging();
+        UploadDrainBenchmarkTest.createFolder(db, FOLDER);
+        // Тот же индекс, что createFolderRawTableIndexes строит для проверки дубликатов по MAC
+        db.execSQL("CREATE INDEX \"idx_" + FOLDER + "_mac_norm_timestamp\" ON \"" + FOLDER + "\"(UPPER(bssid),timestamp)");
+
+        long started = SystemClock.elapsedRealtime();
+        UploadDrainBenchmarkTest.fill(db, FOLDER, rows);
+        Log.i(TAG, "Filled " + rows + " rows in " + (SystemClock.elapsedRealtime() - started) + " ms");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        db.close();
+        SQLiteDatabase.deleteDatabase(file);
+    }
+
+    @Test
+    public void indexMatchesDatabaseCheck() {
+        // Обход начинается сразу за заполненным хвостом: первое окно индекс отдаёт SQLite
+        long start = System.currentTimeMillis();
+        int withoutIndex = run("SQLite check", start, null);
+        int withIndex = run("in-memory window", start, new DuplicateWindowIndex(WINDOW_MS));
+        assertEquals(withoutIndex, withIndex);
+    }
+
+    /**
+     * Вставляет обход и возвращает число записанных строк; index == null — проверка только в SQLite.
+     */
+    private static int run(String mode, long start, DuplicateWindowIndex index) {
+        SQLiteStatement check = db.compileStatement("SELECT COUNT(*) FROM \"" + FOLDER + "\" " +
+                "WHERE UPPER(bssid) = ? AND bssid IS NOT NULL AND timestamp BETWEEN ? AND ?");
+        SQLiteStatement insert = db.compileStatement("INSERT INTO \"" + FOLDER + "\" " +
+                "(type, name, bssid, signal_strength, latitude, longitude, timestamp, status, is_uploaded, folder_name) " +
+                "VALUES ('Wi-Fi', ?, ?, -60, 55.75, 37.61, ?, 'GREY', 0, ?)");
+        int written = 0;
+        long started = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < inserts; i++) {
+                int device = i % DEVICES;
+                String key = String.format(Locale.US, "AA:BB:CC:00:%02X:%02X", device / 256, device % 256);
+                long timestamp = start + i * STEP_MS;
+
+                boolean duplicate;
+                if (index != null && index.isWarm(FOLDER, timestamp)) {
+                    duplicate = index.containsWithinWindow(FOLDER, key, timestamp);
+                } else {
+                    check.bindString(1, key);
+                    check.bindLong(2, timestamp - WINDOW_MS);
+                    check.bindLong(3, timestamp + WINDOW_MS);
+                    duplicate = check.simpleQueryForLong() > 0;
+                }
+                if (duplicate) continue;
+
+                insert.bindString(1, "net-" + device);
+                insert.bindString(2, key);
+                insert.bindLong(3, timestamp);
+                insert.bindString(4, FOLDER);
+                insert.executeInsert();
+                if (index != null) {
+                    index.record(FOLDER, key, timestamp);
+                }
+                written++;
+            }
+        } finally {
+            // Без setTransactionSuccessful: следующий прогон начинает с той же таблицы
+            db.endTransaction();
+            check.close();
+            insert.close();
+        }
+
+        long elapsedMs = SystemClock.elapsedRealtime() - started;
+        double perSecond = elapsedMs > 0 ? inserts * 1000.0 / elapsedMs : inserts;
+        Log.i(TAG, String.format(Locale.US, "%s: %d observations (%d written) in %d ms, %.0f inserts/s",
+                mode, inserts, written, elapsedMs, perSecond));
+        return written;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Каталог схемы при DDL внутри транзакции: читатель пула не должен ни увидеть таблицу
+ * до коммита, ни закэшировать список без неё после коммита.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SchemaCatalogTest {
+    private File file;
+    private SQLiteDatabase writer;
+    private SQLiteDatabase reader;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = context.getDatabasePath("schema_catalog_test.db");
+        SQLiteDatabase.deleteDatabase(file);
+        file.getParentFile().mkdirs();
+        writer = SQLiteDatabase.openOrCreateDatabase(file, null);
+        writer.enableWriteAheadLogging();
+        writer.execSQL("CREATE TABLE base (id INTEGER PRIMARY KEY)");
+        // Как ReadConnectionPool: отдельный read-only объект на тот же файл, общий каталог
+        reader = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        SchemaCatalog.invalidateAll();
+    }
+
+    @After
+    public void tearDown() {
+        reader.close();
+        writer.close();
+        SQLiteDatabase.deleteDatabase(file);
+    }
+
+    @Test
+    public void createdTableIsPublishedOnlyAfterCommit() throws Exception {
+        SchemaCatalog catalog = SchemaCatalog.of(writer);
+
+        writer.beginTransaction();
+        try {
+            writer.execSQL("CREATE TABLE folder (id INTEGER PRIMARY KEY)");
+            catalog.onTableCreated(writer, "folder");
+
+            // Владелец транзакции видит свою таблицу, читатель пула — только закоммиченную схему
+            assertTrue(catalog.tableExists(writer, "folder"));
+            assertFalse(readOnOtherThread("folder"));
+            writer.setTransactionSuccessful();
+        } finally {
+            writer.endTransaction();
+            SchemaCatalog.onTransactionEnded(writer);
+        }
+
+        assertTrue(readOnOtherThread("folder"));
+        assertTrue(catalog.tables(reader).contains("folder"));
+    }
+
+    @Test
+    public void rolledBackTableNeverReachesSnapshot() throws Exception {
+        SchemaCatalog catalog = SchemaCatalog.of(writer);
+        assertTrue(catalog.tableExists(reader, "base"));
+
+        writer.beginTransaction();
+        try {
+            writer.execSQL("CREATE TABLE folder (id INTEGER PRIMARY KEY)");
+            catalog.onTableCreated(writer, "folder");
+            writer.execSQL("ALTER TABLE base ADD COLUMN extra TEXT");
+            catalog.onColumnAdded(writer, "base", "extra");
+            assertTrue(catalog.hasColumn(writer, "base", "extra"));
+        } finally {
+            writer.endTransaction();
+            SchemaCatalog.onTransactionEnded(writer);
+        }
+
+        assertFalse(catalog.tableExists(reader, "folder"));
+        assertFalse(catalog.hasColumn(reader, "base", "extra"));
+        assertFalse(catalog.tableExists(writer, "folder"));
+    }
+
+    @Test
+    public void invalidationInsideTransactionDoesNotPublishStaleList() throws Exception {
+        SchemaCatalog catalog = SchemaCatalog.of(writer);
+
+        writer.beginTransaction();
+        try {
+            writer.execSQL("CREATE TABLE folder (id INTEGER PRIMARY KEY)");
+            catalog.invalidate(writer);
+            // Читатель пула перечитывает закоммиченную схему и кладёт её в снимок
+            assertFalse(readOnOtherThread("folder"));
+            writer.setTransactionSuccessful();
+        } finally {
+            writer.endTransaction();
+            SchemaCatalog.onTransactionEnded(writer);
+        }
+
+        // Снимок без folder, загруженный во время транзакции, сброшен после коммита
+        assertTrue(readOnOtherThread("folder"));
+    }
+
+    private boolean readOnOtherThread(String table) throws InterruptedException {
+        AtomicBoolean exists = new AtomicBoolean();
+        Thread thread = new Thread(() -> exists.set(SchemaCatalog.of(reader).tableExists(reader, table)));
+        thread.start();
+        thread.join();
+        return exists.get();
+    }
+}
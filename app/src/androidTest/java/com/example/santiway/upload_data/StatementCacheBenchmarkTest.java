@@ -0,0 +1,159 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Горячие команды пути записи сканера — вставка в сырую таблицу, UPSERT в _unique и
+ * синхронизация служебной таблицы статусов — с компиляцией на каждую строку против
+ * StatementCache. Каждый прогон идёт в транзакции, которая откатывается.
+ * Аргумент инструментации statementRows (по умолчанию 20 000), результат — в logcat:
+ *
+ *   adb shell am instrument -w -e class com.example.santiway.upload_data.StatementCacheBenchmarkTest \
+ *       -e statementRows 20000 com.example.santiway.test/androidx.test.runner.AndroidJUnitRunner
+ */
+@RunWith(AndroidJUnit4.class)
+public class StatementCacheBenchmarkTest {
+    private static final String TAG = "StatementCacheBenchmark";
+    private static final String FOLDER = "Bench";
+    private static final String STATUS_TABLE = "target_devices";
+    private static final int DEFAULT_ROWS = 20_000;
+    private static final int DEVICES = 600;
+    private static final String[] RAW_COLUMNS = {
+            "type", "name", "bssid", "signal_strength", "latitude", "longitude", "timestamp",
+            "status", "is_uploaded", "folder_name"
+    };
+
+    private static Context context;
+    private static File file;
+    private static SQLiteDatabase db;
+    private static int rows;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        rows = Integer.parseInt(arguments.getString("statementRows", String.valueOf(DEFAULT_ROWS)));
+
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = context.getDatabasePath("statement_cache_benchmark.db");
+        SQLiteDatabase.deleteDatabase(file);
+        file.getParentFile().mkdirs();
+        db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.enableWriteAheadLogging();
+        UploadDrainBenchmarkTest.createFolder(db, FOLDER);
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + STATUS_TABLE + " (device_key TEXT PRIMARY KEY)");
+        // Таблицу _unique создаёт первый вызов помощника; создаём её до замеров
+        new UniqueDevicesHelper(context, FOLDER + "_unique").addOrUpdateDevice(db, observation(0));
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        db.close();
+        SQLiteDatabase.deleteDatabase(file);
+    }
+
+    @Test
+    public void cachedStatementsMatchPerRowCompile() {
+        int compiled = run("compile per row", null);
+        int cached = run("StatementCache", new StatementCache());
+        assertEquals(compiled, cached);
+    }
+
+    /**
+     * Пишет rows наблюдений тремя командами на строку и возвращает число вставленных сырых строк;
+     * statements == null — команды компилируются заново на каждую строку.
+     */
+    private static int run(String mode, StatementCache statements) {
+        String rawSql = rawInsertSql();
+        String statusSql = "INSERT OR IGNORE INTO " + STATUS_TABLE + "(device_key) VALUES (?)";
+        UniqueDevicesHelper unique = statements != null
+                ? new UniqueDevicesHelper(context, FOLDER + "_unique", statements)
+                : new UniqueDevicesHelper(context, FOLDER + "_unique");
+        int written = 0;
+        long started = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < rows; i++) {
+                ContentValues values = observation(i);
+                Object[] args = new Object[RAW_COLUMNS.length];
+                for (int c = 0; c < RAW_COLUMNS.length; c++) {
+                    args[c] = values.get(RAW_COLUMNS[c]);
+                }
+                Object[] statusArgs = {values.getAsString("bssid")};
+
+                if (statements != null) {
+                    if (statements.bind(db, FOLDER, rawSql, args).executeInsert() > 0) written++;
+                    statements.bind(db, STATUS_TABLE, statusSql, statusArgs).executeInsert();
+                } else {
+                    if (executeOnce(rawSql, args) > 0) written++;
+                    executeOnce(statusSql, statusArgs);
+                }
+                unique.addOrUpdateDevice(db, values);
+            }
+        } finally {
+            // Без setTransactionSuccessful: следующий прогон начинает с тех же таблиц
+            db.endTransaction();
+        }
+
+        long elapsedMs = SystemClock.elapsedRealtime() - started;
+        double perSecond = elapsedMs > 0 ? rows * 1000.0 / elapsedMs : rows;
+        Log.i(TAG, String.format(Locale.US, "%s: %d observations in %d ms, %.0f rows/s",
+                mode, rows, elapsedMs, perSecond));
+        return written;
+    }
+
+    private static long executeOnce(String sql, Object[] args) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, args[i]);
+            }
+            return statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static String rawInsertSql() {
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < RAW_COLUMNS.length; i++) {
+            params.append(i == 0 ? "?" : ", ?");
+        }
+        return "INSERT INTO \"" + FOLDER + "\" (" + String.join(", ", RAW_COLUMNS) + ") VALUES (" + params + ")";
+    }
+
+    private static ContentValues observation(int i) {
+        int device = i % DEVICES;
+        ContentValues values = new ContentValues();
+        values.put("type", "Wi-Fi");
+        values.put("name", "net-" + device);
+        values.put("bssid", String.format(Locale.US, "AA:BB:CC:00:%02X:%02X", device / 256, device % 256));
+        values.put("signal_strength", -40 - i % 50);
+        values.put("latitude", 55.75 + (i % 1000) * 1e-5);
+        values.put("longitude", 37.61 + (i % 1000) * 1e-5);
+        values.put("timestamp", System.currentTimeMillis() + i * 1000L);
+        values.put("status", "GREY");
+        values.put("is_uploaded", 0);
+        values.put("folder_name", FOLDER);
+        return values;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Наблюдение без координат: известное устройство получает last_seen и total_scans,
+ * а новое без координат не вставляется (NOT NULL и CHECK в схеме _unique).
+ */
+@RunWith(AndroidJUnit4.class)
+public class UniqueDevicesHelperTest {
+    private static final String TABLE = "Unique_test_unique";
+    private static final String MAC = "AA:BB:CC:DD:EE:01";
+
+    private File file;
+    private SQLiteDatabase db;
+    private UniqueDevicesHelper helper;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = context.getDatabasePath("unique_devices_test.db");
+        SQLiteDatabase.deleteDatabase(file);
+        file.getParentFile().mkdirs();
+        db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        helper = new UniqueDevicesHelper(context, TABLE);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        SQLiteDatabase.deleteDatabase(file);
+    }
+
+    @Test
+    public void observationWithoutFixUpdatesKnownDevice() {
+        helper.addOrUpdateDevice(db, observation(MAC, -50, 55.75, 37.61, 1_000L));
+        helper.addOrUpdateDevice(db, observation(MAC, -70, null, null, 2_000L));
+
+        try (Cursor cursor = db.rawQuery("SELECT total_scans, first_seen, last_seen, latitude, longitude, " +
+                "avg_signal_strength FROM \"" + TABLE + "\" WHERE unique_identifier = ?", new String[]{MAC})) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(2, cursor.getInt(0));
+            assertEquals(1_000L, cursor.getLong(1));
+            assertEquals(2_000L, cursor.getLong(2));
+            // Координаты остаются от последнего наблюдения с фиксацией
+            assertEquals(55.75, cursor.getDouble(3), 1e-9);
+            assertEquals(37.61, cursor.getDouble(4), 1e-9);
+            assertEquals(-60.0, cursor.getDouble(5), 1e-9);
+        }
+    }
+
+    @Test
+    public void newDeviceWithoutFixIsSkipped() {
+        helper.addOrUpdateDevice(db, observation(MAC, -50, null, null, 1_000L));
+
+        try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM \"" + TABLE + "\"", null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(0, cursor.getInt(0));
+        }
+    }
+
+    private static ContentValues observation(String mac, int signal, Double latitude, Double longitude, long timestamp) {
+        ContentValues values = new ContentValues();
+        values.put("type", "Wi-Fi");
+        values.put("name", "net");
+        values.put("bssid", mac);
+        values.put("signal_strength", signal);
+        values.put("latitude", latitude);
+        values.put("longitude", longitude);
+        values.put("timestamp", timestamp);
+        values.put("folder_name", "Unique_test");
+        return values;
+    }
+}
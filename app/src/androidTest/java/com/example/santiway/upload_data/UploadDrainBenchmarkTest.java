@@ -0,0 +1,197 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Выгрузка накопленного хвоста без сети: те же запросы, что у DeviceUploadManager, и то же
+ * подтверждение — сдвиг водяного знака против UPDATE is_uploaded по каждой строке.
+ * Число строк — аргумент инструментации drainRows (по умолчанию 2 000 000), результат — в logcat:
+ *
+ *   adb shell am instrument -w -e class com.example.santiway.upload_data.UploadDrainBenchmarkTest \
+ *       -e drainRows 2000000 com.example.santiway.test/androidx.test.runner.AndroidJUnitRunner
+ */
+@RunWith(AndroidJUnit4.class)
+public class UploadDrainBenchmarkTest {
+    private static final String TAG = "UploadDrainBenchmark";
+    private static final String FOLDER = "Bench";
+    private static final int DEFAULT_ROWS = 2_000_000;
+    private static final int BATCH = 500;
+    /** Как DeviceUploadManager.BATCH_SIZE: порция id в одном UPDATE ... IN (...) */
+    private static final int MARK_CHUNK = 100;
+
+    private static File file;
+    private static SQLiteDatabase db;
+    private static int rows;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        rows = Integer.parseInt(arguments.getString("drainRows", String.valueOf(DEFAULT_ROWS)));
+
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = context.getDatabasePath("upload_drain_benchmark.db");
+        SQLiteDatabase.deleteDatabase(file);
+        file.getParentFile().mkdirs();
+        db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.enableWriteAheadLogging();
+        createFolder(db, FOLDER);
+
+        long started = SystemClock.elapsedRealtime();
+        fill(db, FOLDER, rows);
+        Log.i(TAG, "Filled " + rows + " rows in " + (SystemClock.elapsedRealtime() - started) + " ms");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        db.close();
+        SQLiteDatabase.deleteDatabase(file);
+    }
+
+    @Test
+    public void watermarkDrain() {
+        db.execSQL("DELETE FROM " + UploadOutbox.TABLE);
+
+        long started = SystemClock.elapsedRealtime();
+        long watermark = 0;
+        int drained = 0;
+        while (true) {
+            List<Long> ids = readIds(DeviceUploadManager.uploadSelect(FOLDER) +
+                    "WHERE s.id > ? ORDER BY s.id ASC LIMIT " + BATCH, FOLDER, String.valueOf(watermark));
+            if (ids.isEmpty()) break;
+            watermark = ids.get(ids.size() - 1);
+
+            db.beginTransaction();
+            try {
+                UploadOutbox.advance(db, FOLDER, watermark);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            drained += ids.size();
+        }
+
+        report("watermark", drained, SystemClock.elapsedRealtime() - started);
+        assertEquals(rows, drained);
+    }
+
+    @Test
+    public void legacyFlagDrain() {
+        db.execSQL("UPDATE \"" + FOLDER + "\" SET is_uploaded = 0 WHERE is_uploaded = 1");
+
+        long started = SystemClock.elapsedRealtime();
+        int drained = 0;
+        while (true) {
+            List<Long> ids = readIds(DeviceUploadManager.uploadSelect(FOLDER) +
+                    "WHERE s.is_uploaded = 0 AND u.row_id IS NULL ORDER BY s.timestamp ASC LIMIT " + BATCH, FOLDER);
+            if (ids.isEmpty()) break;
+
+            db.beginTransaction();
+            try {
+                for (int start = 0; start < ids.size(); start += MARK_CHUNK) {
+                    List<Long> chunk = ids.subList(start, Math.min(start + MARK_CHUNK, ids.size()));
+                    StringBuilder placeholders = new StringBuilder();
+                    Object[] args = new Object[chunk.size()];
+                    for (int i = 0; i < chunk.size(); i++) {
+                        if (i > 0) placeholders.append(',');
+                        placeholders.append('?');
+                        args[i] = chunk.get(i);
+                    }
+                    db.execSQL("UPDATE \"" + FOLDER + "\" SET is_uploaded = 1 WHERE id IN (" + placeholders + ")", args);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            drained += ids.size();
+        }
+
+        report("legacy flags", drained, SystemClock.elapsedRealtime() - started);
+        assertEquals(rows, drained);
+    }
+
+    /**
+     * Читает пачку целиком, как cursorToApiDevice: каждая колонка выборки достаётся из курсора.
+     */
+    private static List<Long> readIds(String sql, String... args) {
+        List<Long> ids = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery(sql, args)) {
+            int idCol = cursor.getColumnIndexOrThrow("id");
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    cursor.getString(i);
+                }
+                ids.add(cursor.getLong(idCol));
+            }
+        }
+        return ids;
+    }
+
+    private static void report(String mode, int drained, long elapsedMs) {
+        double perSecond = elapsedMs > 0 ? drained * 1000.0 / elapsedMs : drained;
+        Log.i(TAG, String.format(Locale.US, "%s: %d rows in %d ms, %.0f rows/s", mode, drained, elapsedMs, perSecond));
+    }
+
+    /**
+     * Сырая таблица папки с колонками RawPartitions.COLUMNS и индексом выгрузки по флагам,
+     * плюс служебные таблицы, которые читают запросы выгрузки.
+     */
+    static void createFolder(SQLiteDatabase db, String folder) {
+        StringBuilder columns = new StringBuilder("id INTEGER PRIMARY KEY AUTOINCREMENT");
+        for (String column : RawPartitions.COLUMNS.split(",")) {
+            column = column.trim();
+            if (column.equals("id")) continue;
+            columns.append(", ").append(column).append(column.equals("is_uploaded") ? " INTEGER DEFAULT 0" : "");
+        }
+        columns.append(", device_id INTEGER");
+        db.execSQL("CREATE TABLE \"" + folder + "\" (" + columns + ")");
+        db.execSQL("CREATE INDEX \"idx_" + folder + "_upload\" ON \"" + folder + "\"(is_uploaded, timestamp)");
+        RawPartitions.ensureCatalog(db);
+        DeviceDictionary.ensureTable(db);
+        UploadOutbox.ensureTable(db);
+    }
+
+    static void fill(SQLiteDatabase db, String folder, int count) {
+        long base = System.currentTimeMillis() - count * 1000L;
+        SQLiteStatement insert = db.compileStatement("INSERT INTO \"" + folder + "\" " +
+                "(type, name, bssid, signal_strength, latitude, longitude, timestamp, status, is_uploaded, folder_name) " +
+                "VALUES ('Wi-Fi', ?, ?, ?, ?, ?, ?, 'GREY', 0, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                insert.bindString(1, "net-" + (i % 600));
+                insert.bindString(2, String.format(Locale.US, "AA:BB:CC:00:%02X:%02X", (i % 600) / 256, (i % 600) % 256));
+                insert.bindLong(3, -40 - i % 50);
+                insert.bindDouble(4, 55.75 + (i % 1000) * 1e-5);
+                insert.bindDouble(5, 37.61 + (i % 1000) * 1e-5);
+                insert.bindLong(6, base + i * 1000L);
+                insert.bindString(7, folder);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+}
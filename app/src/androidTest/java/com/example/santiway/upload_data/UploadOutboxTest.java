@@ -0,0 +1,106 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Исправленная строка ниже водяного знака: выгрузка читает её из списка исправлений,
+ * а подтверждение старой версии не снимает с очереди новую.
+ */
+@RunWith(AndroidJUnit4.class)
+public class UploadOutboxTest {
+    private static final String FOLDER = "Outbox";
+
+    private File file;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = context.getDatabasePath("upload_outbox_test.db");
+        SQLiteDatabase.deleteDatabase(file);
+        file.getParentFile().mkdirs();
+        db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        UploadDrainBenchmarkTest.createFolder(db, FOLDER);
+        UploadDrainBenchmarkTest.fill(db, FOLDER, 100);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        SQLiteDatabase.deleteDatabase(file);
+    }
+
+    @Test
+    public void correctedRowBelowWatermarkIsReadAgain() {
+        UploadOutbox.advance(db, FOLDER, 50);
+        UploadOutbox.markDirty(db, FOLDER, 10);
+        UploadOutbox.markDirty(db, FOLDER, 70);
+
+        // Строка 70 ещё впереди знака и уйдёт обычным диапазоном
+        List<UploadOutbox.DirtyRow> dirty = UploadOutbox.dirtyRows(db, FOLDER, 50, 10);
+        assertEquals(1, dirty.size());
+        assertEquals(10, dirty.get(0).rowId);
+        assertEquals(1, UploadOutbox.dirtyCount(db, FOLDER, 50));
+
+        try (Cursor cursor = db.rawQuery(DeviceUploadManager.uploadSelect(FOLDER) +
+                "WHERE s.id > ? ORDER BY s.id LIMIT 100", new String[]{FOLDER, "50"})) {
+            int revision = cursor.getColumnIndexOrThrow("dirty_revision");
+            int seen = 0;
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(cursor.getColumnIndexOrThrow("id"));
+                assertEquals(id == 70, !cursor.isNull(revision));
+                seen++;
+            }
+            assertEquals(50, seen);
+        }
+    }
+
+    @Test
+    public void ackOfOlderRevisionKeepsNewerCorrection() {
+        UploadOutbox.advance(db, FOLDER, 50);
+        UploadOutbox.markDirty(db, FOLDER, 10);
+        UploadOutbox.DirtyRow sent = UploadOutbox.dirtyRows(db, FOLDER, 50, 10).get(0);
+
+        // Пока пачка в полёте, строку исправили ещё раз
+        UploadOutbox.markDirty(db, FOLDER, 10);
+        UploadOutbox.clearDirty(db, sent);
+
+        List<UploadOutbox.DirtyRow> left = UploadOutbox.dirtyRows(db, FOLDER, 50, 10);
+        assertEquals(1, left.size());
+        assertTrue(left.get(0).revision > sent.revision);
+
+        UploadOutbox.clearDirty(db, left.get(0));
+        assertEquals(0, UploadOutbox.dirtyCount(db, FOLDER, 50));
+    }
+
+    @Test
+    public void syncUploadFlagsKeepsCorrectedRowsPending() {
+        UploadOutbox.advance(db, FOLDER, 50);
+        UploadOutbox.markDirty(db, FOLDER, 10);
+
+        UploadOutbox.syncUploadFlags(db, FOLDER);
+
+        // Режим совместимости видит исправленную строку и всё, что выше знака
+        try (Cursor cursor = db.rawQuery("SELECT id FROM \"" + FOLDER + "\" WHERE is_uploaded = 0 ORDER BY id", null)) {
+            assertEquals(51, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(10, cursor.getLong(0));
+        }
+    }
+}
@@ -18,6 +18,7 @@ public final class AlarmModeConfig {
     private static final String KEY_ALARM_MODE = "alarm_mode";
     private static final String KEY_QUIET_MODE = "alarm_quiet_mode_enabled";
     private static final String KEY_QUIET_INCLUDE_CELL_TOWERS = "alarm_quiet_include_cell_towers";
+    private static final String KEY_STREAMING_MOVEMENT_DETECTOR = "alarm_streaming_movement_detector";
 
     public static final int MODE_OFF = 0;
 
@@ -105,6 +106,28 @@ public final class AlarmModeConfig {
                 .apply();
     }
 
+    /**
+     * Классификатор перемещений для канала CHANNEL_TRACKING_DEVICES:
+     * true — потоковый детектор сессий с гистерезисом, false — правила по прыжку и пути за 24 часа.
+     */
+    public static boolean isStreamingMovementDetectorEnabled(Context context) {
+        if (context == null) return false;
+
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(KEY_STREAMING_MOVEMENT_DETECTOR, false);
+    }
+
+    public static void saveStreamingMovementDetectorEnabled(Context context, boolean enabled) {
+        if (context == null) return;
+
+        context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(KEY_STREAMING_MOVEMENT_DETECTOR, enabled)
+                .apply();
+    }
+
     public static int bellColorForMode(int mode) {
         mode = sanitizeMask(mode);
 
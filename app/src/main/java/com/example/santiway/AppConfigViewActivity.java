@@ -3,9 +3,12 @@ package com.example.santiway;
 import com.example.santiway.host_database.*;
 import com.example.santiway.esp32.Esp32DatabaseHelper;
 import com.example.santiway.activity_map.MapLayerManager;
+import com.example.santiway.upload_data.DeviceIngestQueue;
 import com.example.santiway.upload_data.MainDatabaseHelper;
 import com.example.santiway.upload_data.DeviceUploadService;
+import com.example.santiway.upload_data.ReadConnectionPool;
 import com.example.santiway.upload_data.ServerUploadConfig;
+import com.example.santiway.upload_data.UploadBatchSizer;
 import com.example.santiway.upload_name_device.UserDeviceSyncManager;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
@@ -63,6 +66,7 @@ public class AppConfigViewActivity extends BaseLocalizedActivity {
     private Switch alarmMarkedTargetsSwitch;
     private Switch alarmAllSwitch;
     private Switch alarmQuietModeSwitch;
+    private Switch alarmStreamingDetectorSwitch;
     private Switch staticLocationSwitch;
     private EditText staticLatitudeInput;
     private EditText staticLongitudeInput;
@@ -105,6 +109,7 @@ public class AppConfigViewActivity extends BaseLocalizedActivity {
         alarmMarkedTargetsSwitch = findViewById(R.id.alarm_mode_marked_targets_switch);
         alarmAllSwitch = findViewById(R.id.alarm_mode_all_switch);
         alarmQuietModeSwitch = findViewById(R.id.alarm_quiet_mode_switch);
+        alarmStreamingDetectorSwitch = findViewById(R.id.alarm_streaming_detector_switch);
         staticLocationSwitch = findViewById(R.id.static_location_switch);
         staticLatitudeInput = findViewById(R.id.static_latitude_input);
         staticLongitudeInput = findViewById(R.id.static_longitude_input);
@@ -129,6 +134,9 @@ public class AppConfigViewActivity extends BaseLocalizedActivity {
         selectedAlarmMode = AlarmModeConfig.getMode(this);
         selectedQuietMode = AlarmModeConfig.isQuietModeEnabled(this);
         setupAlarmModeSwitches();
+        if (alarmStreamingDetectorSwitch != null) {
+            alarmStreamingDetectorSwitch.setChecked(AlarmModeConfig.isStreamingMovementDetectorEnabled(this));
+        }
 
         setupSpinners();
         setupMapLayerSpinner();
@@ -212,6 +220,9 @@ public class AppConfigViewActivity extends BaseLocalizedActivity {
     @Override
     protected void onResume() {
         super.onResume();
+        showReadPoolStats();
+        showIngestQueueStats();
+        showUploadBatchStats();
 
         if (staticLatitudeInput != null && staticLongitudeInput != null && staticLocationSwitch != null) {
             SharedPreferences prefs = getSharedPreferences("AppSettings", MODE_PRIVATE);
@@ -230,6 +241,40 @@ public class AppConfigViewActivity extends BaseLocalizedActivity {
         }
     }
 
+    private void showReadPoolStats() {
+        TextView statsText = findViewById(R.id.db_read_pool_stats_text);
+        if (statsText == null) return;
+
+        ReadConnectionPool.Stats stats = ReadConnectionPool.getInstance(this).getStats();
+        statsText.setText(getString(R.string.db_read_pool_stats,
+                stats.opened, stats.poolSize, stats.inUse,
+                stats.acquires, stats.waits, stats.timeouts,
+                stats.averageWaitMs(), stats.maxWaitMs));
+    }
+
+    private void showIngestQueueStats() {
+        TextView statsText = findViewById(R.id.ingest_queue_stats_text);
+        if (statsText == null) return;
+
+        DeviceIngestQueue.Metrics metrics = DeviceIngestQueue.getInstance(this).getMetrics();
+        statsText.setText(getString(R.string.ingest_queue_stats,
+                metrics.depth, metrics.capacity, metrics.policy.name(),
+                metrics.enqueued, metrics.written, metrics.dropped, metrics.failed,
+                metrics.lastBatchSize, metrics.lastFlushLatencyMs, metrics.maxFlushLatencyMs,
+                metrics.lastQueueWaitMs));
+    }
+
+    private void showUploadBatchStats() {
+        TextView statsText = findViewById(R.id.upload_batch_stats_text);
+        if (statsText == null) return;
+
+        UploadBatchSizer sizer = UploadBatchSizer.getInstance(this);
+        UploadBatchSizer.Stats stats = sizer.getStats(sizer.currentNetwork());
+        statsText.setText(getString(R.string.upload_batch_stats,
+                stats.profile.label, stats.batchSize, stats.latencyMs,
+                stats.devicesPerSecond, stats.failureRate * 100));
+    }
+
     private void applyNavigationBarColor() {
         getWindow().setNavigationBarColor(Color.parseColor("#172A46"));
 
@@ -538,6 +583,9 @@ public class AppConfigViewActivity extends BaseLocalizedActivity {
         }
         AlarmModeConfig.saveMode(this, selectedAlarmMode);
         AlarmModeConfig.saveQuietModeEnabled(this, selectedQuietMode);
+        if (alarmStreamingDetectorSwitch != null) {
+            AlarmModeConfig.saveStreamingMovementDetectorEnabled(this, alarmStreamingDetectorSwitch.isChecked());
+        }
         ServerUploadConfig.setEnabled(this, serverUploadSwitch.isChecked());
         if (!serverUploadSwitch.isChecked()) {
             stopService(new Intent(this, DeviceUploadService.class));
@@ -769,6 +817,8 @@ public class AppConfigViewActivity extends BaseLocalizedActivity {
 
         if (AlarmModeConfig.sanitizeMask(selectedAlarmMode) != AlarmModeConfig.getMode(this)) return true;
         if (selectedQuietMode != AlarmModeConfig.isQuietModeEnabled(this)) return true;
+        if (alarmStreamingDetectorSwitch != null
+                && alarmStreamingDetectorSwitch.isChecked() != AlarmModeConfig.isStreamingMovementDetectorEnabled(this)) return true;
         if (serverUploadSwitch.isChecked() != ServerUploadConfig.isEnabled(this)) return true;
 
         if (staticLocationSwitch.isChecked() != prefs.getBoolean("static_location_enabled", false)) return true;
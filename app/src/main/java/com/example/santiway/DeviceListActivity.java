@@ -17,6 +17,7 @@ import android.location.Location;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MenuItem;
@@ -30,6 +31,8 @@ import android.content.IntentFilter;
 import android.graphics.drawable.GradientDrawable;
 import android.text.TextUtils;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.widget.Toolbar;
 import androidx.constraintlayout.widget.ConstraintLayout;
@@ -40,6 +43,8 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.santiway.activity_map.ActivityMapActivity;
+import com.example.santiway.upload_data.DevicePage;
+import com.example.santiway.upload_data.FolderArchive;
 import com.example.santiway.upload_data.MainDatabaseHelper;
 import com.example.santiway.upload_data.UniqueDevicesHelper;
 import com.google.android.material.tabs.TabLayout;
@@ -67,6 +72,7 @@ import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.CheckBox;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -92,6 +98,15 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
     private TabLayout tabLayout;
     private RecyclerView devicesRecyclerView;
     private MainDatabaseHelper databaseHelper;
+    private String pendingExportFolder;
+    private final ActivityResultLauncher<String> exportFolderLauncher =
+            registerForActivityResult(new ActivityResultContracts.CreateDocument(FolderArchive.MIME_TYPE), uri -> {
+                String folderName = pendingExportFolder;
+                pendingExportFolder = null;
+                if (uri != null && folderName != null) {
+                    exportFolder(folderName, uri);
+                }
+            });
     private DeviceListAdapter adapter;
     private LinearLayoutManager layoutManager;
 
@@ -99,10 +114,12 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
     private boolean isLoading = false;
     private boolean hasMoreData = true;
     private int currentOffset = 0;
+    private String nextPageToken = null; // keyset-позиция следующей страницы в БД
+    private boolean pagingRawTable = false; // страницы читаются из сырой таблицы (unique пуста)
     private final int PAGE_SIZE = 50; // Количество элементов на странице
     private String currentTable = "";
     private MaterialButton btnTypeAll, btnTypeWifi, btnTypeBluetooth, btnTypeCell;
-    private MaterialButton btnFilterTarget, btnFilterSafe, btnFilterAll;
+    private MaterialButton btnFilterTarget, btnFilterSafe, btnFilterAll, btnFilterAnomaly;
     private MaterialButtonToggleGroup deviceTypeFilterGroup, statusFilterGroup;
 
     private final List<Device> allLoadedDevices = new ArrayList<>();
@@ -212,6 +229,9 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         btnFilterTarget = findViewById(R.id.btn_filter_target);
         btnFilterSafe = findViewById(R.id.btn_filter_safe);
         btnFilterAll = findViewById(R.id.btn_filter_all);
+        btnFilterAnomaly = findViewById(R.id.btn_filter_anomaly);
+        // Без модели скоринг не идёт, и фильтру аномалий нечего показывать
+        btnFilterAnomaly.setVisibility(BuildConfig.ANOMALY_SCORING ? View.VISIBLE : View.GONE);
         etSearchDevice = findViewById(R.id.et_search_device);
         loadSavedFilters();
 
@@ -321,6 +341,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
                             // В. Сбрасываем пагинацию
                             // Это важно, чтобы при добавлении новых данных загрузка началась с 0
                             currentOffset = 0;
+                            nextPageToken = null;
                             hasMoreData = false;
 
                             Toast.makeText(this, getString(R.string.toast_folder_data_deleted, getDisplayTableName(currentFolder)), Toast.LENGTH_SHORT).show();
@@ -487,17 +508,17 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         String deviceStatus = device.getStatus() != null ? device.getStatus() : "GREY";
 
         MainDatabaseHelper dbHelper = new MainDatabaseHelper(this);
-        List<MainDatabaseHelper.DeviceLocation> history =
-                dbHelper.getDeviceHistoryByKey(tableName, deviceKey, device.getType());
+        // Для открытия карты нужна только последняя точка, а не вся история
+        MainDatabaseHelper.DeviceHistorySummary summary =
+                dbHelper.getDeviceHistorySummaryByKey(tableName, deviceKey, device.getType(), 1);
+        dbHelper.close();
 
-        if (history == null || history.isEmpty()) {
-            dbHelper.close();
+        if (summary.isEmpty()) {
             Toast.makeText(this, getString(R.string.error_no_device_location_data), Toast.LENGTH_SHORT).show();
             return;
         }
 
-        MainDatabaseHelper.DeviceLocation lastLocation = history.get(history.size() - 1);
-        dbHelper.close();
+        MainDatabaseHelper.DeviceLocation lastLocation = summary.points.get(summary.points.size() - 1);
 
         Intent intent = new Intent(this, ActivityMapActivity.class);
         intent.putExtra("latitude", lastLocation.latitude);
@@ -520,78 +541,62 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         }
 
         String deviceKey = device.getMac().trim();
-        List<MainDatabaseHelper.DeviceLocation> history =
-                databaseHelper.getDeviceHistoryByKey(exportTable, deviceKey, device.getType());
+        String exportedAt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date());
 
-        if (history == null || history.isEmpty()) {
-            Toast.makeText(this, getString(R.string.error_no_export_data), Toast.LENGTH_SHORT).show();
-            return;
-        }
+        // История пишется в файл потоково прямо из курсора, поэтому работаем вне UI-потока
+        new Thread(() -> {
+            try {
+                java.io.File cacheRoot = getExternalCacheDir() != null ? getExternalCacheDir() : getCacheDir();
+                java.io.File cachePath = new java.io.File(cacheRoot, "exports");
+                if (!cachePath.exists() && !cachePath.mkdirs()) {
+                    throw new java.io.IOException("Cannot create export directory");
+                }
+                java.io.File tempFile = new java.io.File(cachePath, safeExportFileName(deviceKey));
+
+                int points;
+                try (android.util.JsonWriter writer = new android.util.JsonWriter(new java.io.BufferedWriter(
+                        new java.io.OutputStreamWriter(new java.io.FileOutputStream(tempFile),
+                                java.nio.charset.StandardCharsets.UTF_8)))) {
+                    writer.setIndent("    ");
+                    writer.beginObject();
+                    writer.name("name").value(device.getName());
+                    writer.name("device_id").value(deviceKey);
+                    writer.name("type").value(device.getType());
+                    writer.name("status").value(device.getStatus());
+                    writer.name("folder").value(exportTable);
+                    writer.name("exported_at").value(exportedAt);
+                    writer.name("points_history");
+                    points = new MainDatabaseHelper(getApplicationContext())
+                            .writeDeviceHistory(exportTable, deviceKey, device.getType(), writer);
+                    writer.endObject();
+                }
 
-        try {
-            String jsonString = buildDeviceShareJson(device, deviceKey, exportTable, history);
-            java.io.File cacheRoot = getExternalCacheDir() != null ? getExternalCacheDir() : getCacheDir();
-            java.io.File cachePath = new java.io.File(cacheRoot, "exports");
-            if (!cachePath.exists() && !cachePath.mkdirs()) {
-                throw new java.io.IOException("Cannot create export directory");
+                if (points == 0) {
+                    if (!tempFile.delete()) Log.w(TAG, "Could not delete empty export " + tempFile);
+                    runOnUiThread(() -> Toast.makeText(this, getString(R.string.error_no_export_data), Toast.LENGTH_SHORT).show());
+                    return;
+                }
+                runOnUiThread(() -> shareExportFile(tempFile, "application/json", getString(R.string.share_json_title)));
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to share device JSON", e);
+                runOnUiThread(() -> Toast.makeText(this, getString(R.string.error_with_message, e.getMessage()), Toast.LENGTH_SHORT).show());
             }
-            java.io.File tempFile = new java.io.File(cachePath, safeExportFileName(deviceKey));
+        }).start();
+    }
 
-            try (java.io.FileOutputStream stream = new java.io.FileOutputStream(tempFile)) {
-                stream.write(jsonString.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            }
+    private void shareExportFile(java.io.File file, String mimeType, String chooserTitle) {
+        if (isFinishing() || isDestroyed()) return;
+        android.net.Uri contentUri = androidx.core.content.FileProvider.getUriForFile(
+                this, getPackageName() + ".provider", file);
 
-            android.net.Uri contentUri = androidx.core.content.FileProvider.getUriForFile(
-                    this, getPackageName() + ".provider", tempFile);
-
-            Intent shareIntent = new Intent(Intent.ACTION_SEND);
-            shareIntent.setType("application/json");
-            shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
-            shareIntent.putExtra(Intent.EXTRA_SUBJECT, tempFile.getName());
-            shareIntent.putExtra(Intent.EXTRA_TEXT, tempFile.getName());
-            shareIntent.setClipData(android.content.ClipData.newUri(getContentResolver(), tempFile.getName(), contentUri));
-            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-            startActivity(Intent.createChooser(shareIntent, getString(R.string.share_json_title)));
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to share device JSON", e);
-            Toast.makeText(this, getString(R.string.error_with_message, e.getMessage()), Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    private String buildDeviceShareJson(Device device,
-                                        String deviceKey,
-                                        String exportTable,
-                                        List<MainDatabaseHelper.DeviceLocation> history) throws org.json.JSONException {
-        org.json.JSONObject root = new org.json.JSONObject();
-        root.put("name", device.getName());
-        root.put("device_id", deviceKey);
-        root.put("type", device.getType());
-        root.put("status", device.getStatus());
-        root.put("folder", exportTable);
-        root.put("exported_at", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date()));
-
-        JSONArray points = new JSONArray();
-        SimpleDateFormat detectedFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
-        for (MainDatabaseHelper.DeviceLocation location : history) {
-            org.json.JSONObject point = new org.json.JSONObject();
-            long timestamp = parseLongOrZero(location.timestamp);
-            point.put("latitude", location.latitude);
-            point.put("longitude", location.longitude);
-            point.put("timestamp", timestamp);
-            point.put("detected_at", timestamp > 0 ? detectedFormat.format(new Date(timestamp)) : location.timestamp);
-            points.put(point);
-        }
-        root.put("points_history", points);
-        return root.toString(4);
-    }
-
-    private long parseLongOrZero(String value) {
-        if (value == null) return 0L;
-        try {
-            return Long.parseLong(value);
-        } catch (NumberFormatException e) {
-            return 0L;
-        }
+        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+        shareIntent.setType(mimeType);
+        shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
+        shareIntent.putExtra(Intent.EXTRA_SUBJECT, file.getName());
+        shareIntent.putExtra(Intent.EXTRA_TEXT, file.getName());
+        shareIntent.setClipData(android.content.ClipData.newUri(getContentResolver(), file.getName(), contentUri));
+        shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(shareIntent, chooserTitle));
     }
 
     private String safeExportFileName(String deviceKey) {
@@ -822,6 +827,11 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
                 armFolderTrigger(folderName);
             }
         });
+        content.findViewById(R.id.folder_action_export_button).setOnClickListener(v -> {
+            dialog.dismiss();
+            pendingExportFolder = folderName;
+            exportFolderLauncher.launch(safeArchiveFileName(folderName));
+        });
         content.findViewById(R.id.folder_action_delete_button).setOnClickListener(v -> {
             dialog.dismiss();
             showDeleteFolderDialog(folderName);
@@ -837,6 +847,52 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         dialog.show();
     }
 
+    /**
+     * Потоковый экспорт папки в выбранный через SAF файл; в диалоге — число выгруженных записей.
+     */
+    private void exportFolder(String folderName, android.net.Uri uri) {
+        AlertDialog progressDialog = new AlertDialog.Builder(this, R.style.CustomAlertDialogTheme)
+                .setTitle(R.string.dialog_folder_export_title)
+                .setMessage(getString(R.string.dialog_folder_archive_progress, 0))
+                .setCancelable(false)
+                .create();
+        progressDialog.show();
+
+        new Thread(() -> {
+            long rows;
+            try {
+                java.io.OutputStream out = getContentResolver().openOutputStream(uri, "wt");
+                if (out == null) throw new java.io.IOException("Cannot open " + uri);
+                rows = new MainDatabaseHelper(getApplicationContext()).exportFolder(folderName, out,
+                        exported -> runOnUiThread(() -> progressDialog.setMessage(
+                                getString(R.string.dialog_folder_archive_progress, exported))));
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to open folder export target", e);
+                rows = -1;
+            }
+
+            long exportedRows = rows;
+            runOnUiThread(() -> {
+                if (progressDialog.isShowing() && !isFinishing() && !isDestroyed()) {
+                    progressDialog.dismiss();
+                }
+                if (exportedRows < 0) {
+                    Toast.makeText(this, getString(R.string.error_folder_export), Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(this,
+                            getString(R.string.toast_folder_exported, getDisplayTableName(folderName), exportedRows),
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
+        }).start();
+    }
+
+    private String safeArchiveFileName(String folderName) {
+        String safeName = folderName == null ? "folder" : folderName.replaceAll("[\\\\/:*?\"<>|]", "_");
+        return safeName + "_" + new SimpleDateFormat("yyyyMMdd_HHmm", Locale.US).format(new Date())
+                + FolderArchive.FILE_EXTENSION;
+    }
+
     private void armFolderTrigger(String folderName) {
         Location origin = null;
         try {
@@ -1604,6 +1660,8 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
 
     private void resetPagination() {
         currentOffset = 0;
+        nextPageToken = null;
+        pagingRawTable = false;
         hasMoreData = true;
         isLoading = false;
         allLoadedDevices.clear();
@@ -1618,6 +1676,8 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
     private void loadDevicesForTable(String tableName, boolean isFirstLoad) {
         if (isFirstLoad) {
             currentOffset = 0;
+            nextPageToken = null;
+            pagingRawTable = false;
             hasMoreData = true;
             adapter.showLoading(true);
         }
@@ -1625,39 +1685,60 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         adapter.setCurrentTableName(tableName);
         isLoading = true;
         int loadOffset = isFirstLoad ? 0 : currentOffset;
+        String pageToken = isFirstLoad ? null : nextPageToken;
+        boolean rawTable = !isFirstLoad && pagingRawTable;
 
         new Thread(() -> {
             List<Device> deviceList = new ArrayList<>();
+            String loadedNextToken = null;
+            boolean loadedFromRaw = rawTable;
+            long startedAt = SystemClock.elapsedRealtime();
 
             try {
                 if (isCellSystemFolder(tableName)) {
                     deviceList = loadCellSystemFolderDevices(tableName, loadOffset, PAGE_SIZE);
                 } else {
-                String uniqueTableName = getUniqueTableName(tableName);
-                UniqueDevicesHelper uniqueHelper =
-                        new UniqueDevicesHelper(DeviceListActivity.this, uniqueTableName);
-
-                if (currentSearchQuery == null || currentSearchQuery.isEmpty()) {
-                    deviceList = uniqueHelper.getDevicesPage(loadOffset, PAGE_SIZE);
-                } else {
-                    deviceList = uniqueHelper.getDevicesPageWithSearch(currentSearchQuery, loadOffset, PAGE_SIZE);
+                DevicePage page = null;
+                boolean anomaliesOnly = "ANOMALY".equals(currentStatusFilter);
+
+                if (!rawTable) {
+                    String uniqueTableName = getUniqueTableName(tableName);
+                    UniqueDevicesHelper uniqueHelper =
+                            new UniqueDevicesHelper(DeviceListActivity.this, uniqueTableName);
+
+                    if (anomaliesOnly) {
+                        page = uniqueHelper.getAnomalousDevicesPage(currentSearchQuery, pageToken, PAGE_SIZE);
+                    } else if (currentSearchQuery == null || currentSearchQuery.isEmpty()) {
+                        page = uniqueHelper.getDevicesPage(pageToken, PAGE_SIZE);
+                    } else {
+                        page = uniqueHelper.getDevicesPageWithSearch(currentSearchQuery, pageToken, PAGE_SIZE);
+                    }
                 }
 
-                // Fallback: если unique-представление пустое, читаем из raw-таблицы
-                if (deviceList == null || deviceList.isEmpty()) {
-                    Log.w("LOAD_DEVICES", "Unique table is empty for " + tableName + ", fallback to raw table");
+                // Fallback: если unique-представление пустое уже на первой странице, листаем raw-таблицу
+                boolean uniqueEmpty = page == null || page.devices.isEmpty();
+                if (!anomaliesOnly && (rawTable || (pageToken == null && uniqueEmpty))) {
+                    if (!rawTable) {
+                        Log.w("LOAD_DEVICES", "Unique table is empty for " + tableName + ", fallback to raw table");
+                    }
+                    loadedFromRaw = true;
 
                     if (currentSearchQuery == null || currentSearchQuery.isEmpty()) {
-                        deviceList = databaseHelper.getAllDataFromTableWithPagination(tableName, loadOffset, PAGE_SIZE);
+                        page = databaseHelper.getAllDataFromTableWithPagination(tableName, pageToken, PAGE_SIZE);
                     } else {
-                        deviceList = databaseHelper.getAllDataFromTableWithPaginationAndSearch(
+                        page = databaseHelper.getAllDataFromTableWithPaginationAndSearch(
                                 tableName,
                                 currentSearchQuery,
-                                loadOffset,
+                                pageToken,
                                 PAGE_SIZE
                         );
                     }
                 }
+
+                if (page != null) {
+                    deviceList = page.devices;
+                    loadedNextToken = page.nextPageToken;
+                }
                 }
 
                 if (!isCellSystemFolder(tableName)) {
@@ -1684,8 +1765,13 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
             }
 
             List<Device> finalDeviceList = deviceList;
-            boolean finalHasMore = finalDeviceList.size() >= PAGE_SIZE;
-            Log.d("LOAD_DEVICES", "table=" + tableName + ", loaded=" + deviceList.size());
+            String finalNextToken = loadedNextToken;
+            boolean finalFromRaw = loadedFromRaw;
+            boolean finalHasMore = isCellSystemFolder(tableName)
+                    ? finalDeviceList.size() >= PAGE_SIZE
+                    : finalNextToken != null;
+            Log.d("LOAD_DEVICES", "table=" + tableName + ", loaded=" + deviceList.size()
+                    + ", page ms=" + (SystemClock.elapsedRealtime() - startedAt));
             runOnUiThread(() -> {
                 adapter.hideLoading();
                 if (isFirstLoad) {
@@ -1693,6 +1779,8 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
                 }
                 allLoadedDevices.addAll(finalDeviceList);
                 currentOffset = allLoadedDevices.size();
+                nextPageToken = finalNextToken;
+                pagingRawTable = finalFromRaw;
                 hasMoreData = finalHasMore;
                 applyCurrentFilter();
                 isLoading = false;
@@ -1713,6 +1801,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
             if (isCellSystemFolder(folder)) continue;
             UniqueDevicesHelper helper = new UniqueDevicesHelper(this, getUniqueTableName(folder));
             List<Device> devices = helper.getAllDevices();
+            Set<String> matchingIds = query.isEmpty() ? null : helper.findMatchingDeviceIds(query);
             Set<String> cellKeys = new LinkedHashSet<>();
             for (Device device : devices) {
                 if (isCellDevice(device) && !TextUtils.isEmpty(device.getMac())) {
@@ -1731,7 +1820,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
                 }
                 String status = device.getStatus() == null ? "GREY" : device.getStatus().trim().toUpperCase(Locale.US);
                 if (!requiredStatus.equals(status)) continue;
-                if (!query.isEmpty() && !matchesDeviceQuery(device, query)) continue;
+                if (!query.isEmpty() && !matchesDeviceQuery(device, query, matchingIds, normalizedKey)) continue;
                 device.setSourceFolder(folder);
                 if (!normalizedKey.isEmpty()) {
                     seenKeys.add(normalizedKey);
@@ -1762,6 +1851,17 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         return new ArrayList<>(result.subList(start, end));
     }
 
+    /**
+     * Имя и идентификатор проверяются по результату FTS-поиска папки, если он есть;
+     * тип и статус индекс не покрывает, они по-прежнему сравниваются подстрокой.
+     */
+    private boolean matchesDeviceQuery(Device device, String query, Set<String> matchingIds, String normalizedKey) {
+        if (matchingIds == null) return matchesDeviceQuery(device, query);
+        return matchingIds.contains(normalizedKey)
+                || containsIgnoreCase(device.getType(), query)
+                || containsIgnoreCase(device.getStatus(), query);
+    }
+
     private boolean matchesDeviceQuery(Device device, String query) {
         return containsIgnoreCase(device.getName(), query)
                 || containsIgnoreCase(device.getMac(), query)
@@ -1840,12 +1940,21 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
     private void updateAllDevicesStatus(String folder, String status,
                                         boolean includeCellTowers,
                                         boolean includeSafeDevices) {
+        ProgressBar progressBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        AlertDialog progressDialog = showBulkStatusProgressDialog(status, progressBar);
 
         new Thread(() -> {
             int count = new MainDatabaseHelper(DeviceListActivity.this)
-                    .updateAllDeviceStatusForTable(folder, status, includeCellTowers, includeSafeDevices);
+                    .updateAllDeviceStatusForTable(folder, status, includeCellTowers, includeSafeDevices,
+                            (completed, total) -> runOnUiThread(() -> {
+                                progressBar.setMax(Math.max(1, total));
+                                progressBar.setProgress(completed);
+                            }));
 
             runOnUiThread(() -> {
+                if (progressDialog.isShowing() && !isFinishing() && !isDestroyed()) {
+                    progressDialog.dismiss();
+                }
                 Toast.makeText(
                         DeviceListActivity.this,
                         getString(R.string.toast_devices_status_updated, count, status),
@@ -1858,6 +1967,39 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         }).start();
     }
 
+    /**
+     * Неотменяемый диалог с ходом массовой смены статуса: на больших папках она занимает заметное время.
+     */
+    private AlertDialog showBulkStatusProgressDialog(String status, ProgressBar progressBar) {
+        LinearLayout content = new LinearLayout(this);
+        content.setOrientation(LinearLayout.VERTICAL);
+        int padding = dpToPx(20);
+        content.setPadding(padding, dpToPx(8), padding, dpToPx(8));
+
+        TextView message = new TextView(this);
+        message.setText(getString(R.string.dialog_bulk_status_progress_message, status));
+        message.setTextColor(Color.WHITE);
+        message.setTextSize(15);
+        content.addView(message);
+
+        progressBar.setMax(1);
+        progressBar.setProgress(0);
+        LinearLayout.LayoutParams progressParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                dpToPx(24)
+        );
+        progressParams.setMargins(0, dpToPx(12), 0, 0);
+        content.addView(progressBar, progressParams);
+
+        AlertDialog dialog = new AlertDialog.Builder(this, R.style.CustomAlertDialogTheme)
+                .setTitle(R.string.dialog_bulk_status_progress_title)
+                .setView(content)
+                .setCancelable(false)
+                .create();
+        dialog.show();
+        return dialog;
+    }
+
     private void loadMoreData() {
         if (!isLoading && hasMoreData && !currentTable.isEmpty()) {
             isLoading = true;
@@ -1894,15 +2036,25 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
             statusFilterGroup.check(statusFilterButtonId(currentStatusFilter));
             statusFilterGroup.addOnButtonCheckedListener((group, checkedId, isChecked) -> {
                 if (!isChecked) return;
+                boolean wasAnomalyFilter = "ANOMALY".equals(currentStatusFilter);
                 if (checkedId == R.id.btn_filter_target) {
                     currentStatusFilter = "TARGET";
                 } else if (checkedId == R.id.btn_filter_safe) {
                     currentStatusFilter = "SAFE";
                 } else if (checkedId == R.id.btn_filter_all) {
                     currentStatusFilter = "ALL";
+                } else if (checkedId == R.id.btn_filter_anomaly) {
+                    currentStatusFilter = "ANOMALY";
                 }
                 saveFilters();
-                applyCurrentFilter();
+                if (wasAnomalyFilter != "ANOMALY".equals(currentStatusFilter)
+                        && currentTable != null && !currentTable.isEmpty()) {
+                    // Фильтр аномалий меняет порядок выборки в БД — перезагружаем страницы
+                    resetPagination();
+                    loadDevicesForTable(currentTable, true);
+                } else {
+                    applyCurrentFilter();
+                }
                 updateFilterButtonsUI();
             });
         }
@@ -1935,6 +2087,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
 
     private String sanitizeStatusFilter(String value) {
         if ("TARGET".equals(value) || "SAFE".equals(value)) return value;
+        if ("ANOMALY".equals(value) && BuildConfig.ANOMALY_SCORING) return value;
         return "ALL";
     }
 
@@ -1948,6 +2101,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
     private int statusFilterButtonId(String statusFilter) {
         if ("TARGET".equals(statusFilter)) return R.id.btn_filter_target;
         if ("SAFE".equals(statusFilter)) return R.id.btn_filter_safe;
+        if ("ANOMALY".equals(statusFilter)) return R.id.btn_filter_anomaly;
         return R.id.btn_filter_all;
     }
 
@@ -1993,7 +2147,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
                 continue;
             }
 
-            if (!"ALL".equalsIgnoreCase(currentStatusFilter)) {
+            if (!"ALL".equalsIgnoreCase(currentStatusFilter) && !"ANOMALY".equals(currentStatusFilter)) {
                 String status = device.getStatus() != null
                         ? device.getStatus().trim().toUpperCase(Locale.ROOT)
                         : "GREY";
@@ -2149,6 +2303,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         styleToggleButton(btnFilterTarget, "TARGET".equals(currentStatusFilter), "#FF3B30");
         styleToggleButton(btnFilterAll, "ALL".equals(currentStatusFilter), "#3A4A63");
         styleToggleButton(btnFilterSafe, "SAFE".equals(currentStatusFilter), "#34C759");
+        styleToggleButton(btnFilterAnomaly, "ANOMALY".equals(currentStatusFilter), "#AF52DE");
     }
 
     private void styleToggleButton(MaterialButton button, boolean selected, String selectedColor) {
@@ -2193,6 +2348,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         String status;
         long timestamp;
         String sourceFolder;
+        float anomalyScore = Float.NaN;
 
         public Device(String name, String type, String location, String time) {
             this.name = name;
@@ -2231,6 +2387,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
             status = in.readString();
             timestamp = in.readLong();
             sourceFolder = in.readString();
+            anomalyScore = in.readFloat();
         }
 
         public static final Creator<Device> CREATOR = new Creator<Device>() {
@@ -2260,6 +2417,7 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
             dest.writeString(status);
             dest.writeLong(timestamp);
             dest.writeString(sourceFolder);
+            dest.writeFloat(anomalyScore);
         }
 
         public String getName() { return name; }
@@ -2270,9 +2428,11 @@ public class DeviceListActivity extends BaseLocalizedActivity implements DeviceL
         public String getStatus() { return status; }
         public long getTimestamp() { return timestamp; }
         public String getSourceFolder() { return sourceFolder; }
+        public float getAnomalyScore() { return anomalyScore; }
 
         public void setStatus(String status) { this.status = status; }
         public void setMac(String mac) { this.mac = mac; }
         public void setSourceFolder(String sourceFolder) { this.sourceFolder = sourceFolder; }
+        public void setAnomalyScore(float anomalyScore) { this.anomalyScore = anomalyScore; }
     }
 }
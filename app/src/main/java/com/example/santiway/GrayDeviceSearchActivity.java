@@ -3,15 +3,24 @@ package com.example.santiway;
 import android.content.Intent;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.LinearLayout;
+import android.widget.ScrollView;
 import android.widget.TextView;
 
+import com.example.santiway.grey_search.GreySearchEngine;
+import com.example.santiway.upload_data.MainDatabaseHelper;
+
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class GrayDeviceSearchActivity extends BaseLocalizedActivity {
 
@@ -36,12 +45,39 @@ public class GrayDeviceSearchActivity extends BaseLocalizedActivity {
     private long secondEnd;
     private ArrayList<String> secondFolders;
 
+    private static final int MAX_LISTED_DEVICES = 100;
+    private static final long UI_REFRESH_MS = 300L;
+
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, MainDatabaseHelper.GreySearchDevice> foundDevices = new HashMap<>();
+    private GreySearchEngine.Handle searchHandle;
+    private TextView progressView;
+    private TextView resultsView;
+    private Button stopButton;
+    private int sourceMacCount = -1;
+    private int folderCount;
+    private int completedFolders;
+    private int pointCount;
+    private boolean finished;
+    private boolean cancelled;
+    private boolean refreshScheduled;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         readExtras();
         buildUi();
+        startSearch();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (searchHandle != null) {
+            searchHandle.cancel();
+        }
+        uiHandler.removeCallbacksAndMessages(null);
+        super.onDestroy();
     }
 
     private void readExtras() {
@@ -85,6 +121,36 @@ public class GrayDeviceSearchActivity extends BaseLocalizedActivity {
         info.setText(buildInfoText());
         root.addView(info);
 
+        progressView = new TextView(this);
+        progressView.setTextColor(Color.parseColor("#9FB3C8"));
+        progressView.setTextSize(14);
+        progressView.setPadding(0, dp(12), 0, dp(8));
+        progressView.setText("Поиск...");
+        root.addView(progressView);
+
+        ScrollView resultsScroll = new ScrollView(this);
+        resultsView = new TextView(this);
+        resultsView.setTextColor(Color.WHITE);
+        resultsView.setTextSize(14);
+        resultsScroll.addView(resultsView);
+        root.addView(resultsScroll, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, 0, 1f));
+
+        stopButton = new Button(this);
+        stopButton.setText("Остановить");
+        stopButton.setTextColor(Color.WHITE);
+        stopButton.setBackgroundColor(Color.parseColor("#172A46"));
+        stopButton.setOnClickListener(v -> {
+            if (searchHandle != null) searchHandle.cancel();
+            stopButton.setEnabled(false);
+        });
+        LinearLayout.LayoutParams stopParams = new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                dp(52)
+        );
+        stopParams.setMargins(0, dp(12), 0, 0);
+        root.addView(stopButton, stopParams);
+
         Button closeButton = new Button(this);
         closeButton.setText("Назад");
         closeButton.setTextColor(Color.WHITE);
@@ -136,11 +202,133 @@ public class GrayDeviceSearchActivity extends BaseLocalizedActivity {
             }
         }
 
-        sb.append("\nЭкран создан для восстановления сборки и дальнейшего расширения логики поиска GREY-устройств.");
-
         return sb.toString();
     }
 
+    /**
+     * Запускает потоковый поиск: результаты по папкам приходят по мере готовности,
+     * экран перерисовывается не чаще раза в UI_REFRESH_MS.
+     */
+    private void startSearch() {
+        List<String> folders = new ArrayList<>(secondFolders);
+        if (folders.isEmpty()) {
+            folders.addAll(new MainDatabaseHelper(this).getAllTables());
+        }
+
+        searchHandle = new GreySearchEngine(this).start(
+                sourceFolder,
+                firstHasPeriod ? firstStart : null,
+                firstHasPeriod ? firstEnd : null,
+                secondHasPeriod ? secondStart : null,
+                secondHasPeriod ? secondEnd : null,
+                folders,
+                new GreySearchEngine.Listener() {
+                    @Override
+                    public void onSourceMacs(int macCount, int folderTotal) {
+                        uiHandler.post(() -> {
+                            sourceMacCount = macCount;
+                            folderCount = folderTotal;
+                            scheduleRefresh();
+                        });
+                    }
+
+                    @Override
+                    public void onPoints(String folder, List<MainDatabaseHelper.GreySearchPoint> points) {
+                        int count = points.size();
+                        uiHandler.post(() -> {
+                            pointCount += count;
+                            scheduleRefresh();
+                        });
+                    }
+
+                    @Override
+                    public void onFolderDone(String folder,
+                                             Map<String, MainDatabaseHelper.GreySearchDevice> devices,
+                                             int completed) {
+                        uiHandler.post(() -> {
+                            mergeDevices(devices);
+                            completedFolders = completed;
+                            scheduleRefresh();
+                        });
+                    }
+
+                    @Override
+                    public void onFinished(boolean wasCancelled) {
+                        uiHandler.post(() -> {
+                            finished = true;
+                            cancelled = wasCancelled;
+                            stopButton.setEnabled(false);
+                            refreshResults();
+                        });
+                    }
+                });
+    }
+
+    private void mergeDevices(Map<String, MainDatabaseHelper.GreySearchDevice> devices) {
+        for (MainDatabaseHelper.GreySearchDevice device : devices.values()) {
+            MainDatabaseHelper.GreySearchDevice merged = foundDevices.get(device.mac);
+            if (merged == null) {
+                foundDevices.put(device.mac, device);
+                continue;
+            }
+            merged.detectionCount += device.detectionCount;
+            merged.lastSeen = Math.max(merged.lastSeen, device.lastSeen);
+            if ((merged.name == null || merged.name.trim().isEmpty()) && device.name != null) {
+                merged.name = device.name;
+            }
+            if ((merged.type == null || merged.type.trim().isEmpty()) && device.type != null) {
+                merged.type = device.type;
+            }
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (refreshScheduled) return;
+        refreshScheduled = true;
+        uiHandler.postDelayed(() -> {
+            refreshScheduled = false;
+            refreshResults();
+        }, UI_REFRESH_MS);
+    }
+
+    private void refreshResults() {
+        if (isFinishing() || isDestroyed()) return;
+
+        StringBuilder progress = new StringBuilder();
+        if (sourceMacCount < 0) {
+            progress.append("Сбор серых устройств исходной папки...");
+        } else {
+            progress.append("Серых устройств в исходной папке: ").append(sourceMacCount)
+                    .append("\nПапок обработано: ").append(completedFolders).append(" из ").append(folderCount)
+                    .append("\nНайдено устройств: ").append(foundDevices.size())
+                    .append(", точек: ").append(pointCount);
+        }
+        if (finished) {
+            progress.append(cancelled ? "\nПоиск остановлен" : "\nПоиск завершён");
+        }
+        progressView.setText(progress.toString());
+
+        List<MainDatabaseHelper.GreySearchDevice> sorted = new ArrayList<>(foundDevices.values());
+        sorted.sort((left, right) -> {
+            int byCount = Integer.compare(right.detectionCount, left.detectionCount);
+            if (byCount != 0) return byCount;
+            return Long.compare(right.lastSeen, left.lastSeen);
+        });
+
+        StringBuilder results = new StringBuilder();
+        for (int i = 0; i < sorted.size() && i < MAX_LISTED_DEVICES; i++) {
+            MainDatabaseHelper.GreySearchDevice device = sorted.get(i);
+            results.append(device.mac);
+            if (device.name != null && !device.name.trim().isEmpty()) {
+                results.append("  ").append(device.name);
+            }
+            results.append("\n   обнаружений: ").append(device.detectionCount)
+                    .append(", последнее: ").append(formatTime(device.lastSeen))
+                    .append("\n");
+        }
+        resultsView.setText(results.toString());
+    }
+
     private String formatTime(long value) {
         if (value <= 0) return "-";
 
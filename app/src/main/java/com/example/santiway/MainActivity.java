@@ -53,6 +53,7 @@ import androidx.core.view.WindowInsetsControllerCompat;
 import androidx.drawerlayout.widget.DrawerLayout;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
+import com.example.santiway.anomaly_scoring.AnomalyScoringWorker;
 import com.example.santiway.bluetooth_scanner.BluetoothForegroundService;
 import com.example.santiway.cell_scanner.CellForegroundService;
 import com.example.santiway.esp32.Esp32Activity;
@@ -62,6 +63,7 @@ import com.example.santiway.opencellid.OpenCellIdSyncScheduler;
 import com.example.santiway.upload_data.ApiConfig;
 import com.example.santiway.upload_data.DeviceUploadManager;
 import com.example.santiway.upload_data.DeviceUploadService;
+import com.example.santiway.upload_data.FolderArchive;
 import com.example.santiway.upload_data.ServerUploadConfig;
 import com.example.santiway.upload_data.MainDatabaseHelper;
 import com.example.santiway.upload_data.UniqueDevicesHelper;
@@ -164,6 +166,11 @@ public class MainActivity extends BaseLocalizedActivity implements NavigationVie
     private boolean isGpsProviderEnabled = false;
     private boolean isNetworkProviderEnabled = false;
 
+    private final ActivityResultLauncher<String[]> importFolderLauncher =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri != null) importFolder(uri);
+            });
+
     private final ActivityResultLauncher<String[]> requestPermissionLauncher =
             registerForActivityResult(new ActivityResultContracts.RequestMultiplePermissions(),
                     permissions -> {
@@ -262,6 +269,7 @@ public class MainActivity extends BaseLocalizedActivity implements NavigationVie
         databaseHelper = new MainDatabaseHelper(this);
         OpenCellIdSyncScheduler.scheduleDaily(this);
         OpenCellIdSyncScheduler.enqueueIfDue(this);
+        AnomalyScoringWorker.schedule(this);
 
         SharedPreferences appPrefs = getSharedPreferences(PREFS_APP, MODE_PRIVATE);
         currentScanFolder = appPrefs.getString(KEY_CURRENT_FOLDER, DEFAULT_FOLDER_INTERNAL);
@@ -1206,10 +1214,56 @@ public class MainActivity extends BaseLocalizedActivity implements NavigationVie
             }
         }
 
+        if (id == R.id.nav_import_folder) {
+            // Часть файловых менеджеров отдаёт .gz как octet-stream
+            importFolderLauncher.launch(new String[]{FolderArchive.MIME_TYPE, "application/json", "application/octet-stream"});
+        }
+
         drawerLayout.closeDrawer(GravityCompat.START);
         return true;
     }
 
+    /**
+     * Потоковый импорт архива папки (FolderArchive) в новую папку; сканирование не прерывается.
+     */
+    private void importFolder(android.net.Uri uri) {
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.dialog_folder_import_title)
+                .setMessage(getString(R.string.dialog_folder_archive_progress, 0))
+                .setCancelable(false)
+                .create();
+        progressDialog.show();
+
+        new Thread(() -> {
+            String folderName = null;
+            try (java.io.InputStream in = getContentResolver().openInputStream(uri)) {
+                if (in == null) throw new java.io.IOException("Cannot open " + uri);
+                folderName = databaseHelper.importFolder(in,
+                        rows -> runOnUiThread(() -> progressDialog.setMessage(
+                                getString(R.string.dialog_folder_archive_progress, rows))));
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to read folder archive", e);
+            }
+
+            String importedFolder = folderName;
+            if (importedFolder != null) {
+                new UserDeviceFolderSyncManager(this).syncFolderCreated(importedFolder);
+            }
+            runOnUiThread(() -> {
+                if (progressDialog.isShowing() && !isFinishing() && !isDestroyed()) {
+                    progressDialog.dismiss();
+                }
+                if (importedFolder == null) {
+                    Toast.makeText(this, getString(R.string.error_folder_import), Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(this,
+                            getString(R.string.toast_folder_imported, getDisplayFolderName(importedFolder)),
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
+        }).start();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         return super.onOptionsItemSelected(item);
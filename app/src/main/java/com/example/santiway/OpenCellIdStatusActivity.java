@@ -73,6 +73,9 @@ public class OpenCellIdStatusActivity extends BaseLocalizedActivity {
         int count = OpenCellIdSyncScheduler.getImportedCount(this);
         String result = OpenCellIdSyncScheduler.getLastResult(this);
         String sourceUrl = OpenCellIdSyncScheduler.getSourceUrl(this);
+        long importMs = OpenCellIdSyncScheduler.getImportDurationMs(this);
+        long indexSize = OpenCellIdSyncScheduler.getIndexSizeBytes(this);
+        long lookupMicros = OpenCellIdSyncScheduler.getLastLookupMicros();
 
         String lastSyncText = lastSync > 0
                 ? new SimpleDateFormat("dd.MM.yyyy HH:mm:ss", Locale.getDefault()).format(new Date(lastSync))
@@ -83,6 +86,9 @@ public class OpenCellIdStatusActivity extends BaseLocalizedActivity {
                         "Файл существует: " + (dbFile.exists() ? "да" : "нет") + "\n" +
                         "Размер файла: " + (dbFile.exists() ? dbFile.length() : 0) + " bytes\n" +
                         "Импортировано вышек: " + count + "\n" +
+                        "Размер индекса: " + indexSize + " bytes\n" +
+                        "Время импорта: " + importMs + " ms\n" +
+                        "Последний поиск по индексу: " + lookupMicros + " µs\n" +
                         "Последняя синхронизация: " + lastSyncText + "\n" +
                         "Последний результат: " + (result == null || result.isEmpty() ? "-" : result) + "\n\n" +
                         "Источник: " + (sourceUrl == null || sourceUrl.isEmpty()
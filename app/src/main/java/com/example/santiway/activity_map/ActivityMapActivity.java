@@ -60,6 +60,9 @@ public class ActivityMapActivity extends BaseLocalizedActivity {
     private String deviceName;
     private String deviceType = "Wi-Fi";
     private static final String TAG = "ActivityMapActivity";
+    // Радиус первичной выборки точек вокруг последнего обнаружения
+    private static final double INITIAL_RADIUS_METERS = 2000.0;
+    private static final double METERS_PER_DEGREE = 111320.0;
     private String tableName;
     private String currentStatus = "GREY";
     private long firstDetectionTime = 0;
@@ -189,14 +192,20 @@ public class ActivityMapActivity extends BaseLocalizedActivity {
         }
     }
 
+    /**
+     * Первичная загрузка не читает историю целиком: счётчик и время первого/последнего
+     * обнаружения считаются агрегатом, а точки берутся из пространственного индекса
+     * в квадрате вокруг последней точки. Остальное карта догружает при панорамировании.
+     */
     private void loadDeviceData() {
         MainDatabaseHelper dbHelper = new MainDatabaseHelper(this);
-        int summaryPointLimit = getSharedPreferences("AppSettings", MODE_PRIVATE)
-                .getInt("map_point_limit", 100);
-        MainDatabaseHelper.DeviceHistorySummary summary =
-                dbHelper.getDeviceHistorySummaryByKey(tableName, deviceMac, deviceType, summaryPointLimit);
+        try {
+            MainDatabaseHelper.DeviceHistorySummary summary =
+                    dbHelper.getDeviceHistorySummaryByKey(tableName, deviceMac, deviceType, 1);
+            if (summary.isEmpty()) {
+                return;
+            }
 
-        if (!summary.isEmpty()) {
             detectionCount = summary.detectionCount;
             firstDetectionTime = summary.firstTimestamp;
             lastDetectionTime = summary.lastTimestamp;
@@ -209,78 +218,41 @@ public class ActivityMapActivity extends BaseLocalizedActivity {
                 currentStatus = dbHelper.getStatusFromServiceTables(deviceMac);
             }
 
-            for (MainDatabaseHelper.DeviceLocation loc : summary.points) {
-                deviceHistoryPoints.add(new GeoPoint(loc.latitude, loc.longitude));
-                deviceTimestamps.add(Long.parseLong(loc.timestamp));
-            }
-            dbHelper.close();
-            return;
-        }
-
-        // Получаем историю устройства
-        List<MainDatabaseHelper.DeviceLocation> history =
-                dbHelper.getDeviceHistoryByKey(tableName, deviceMac, deviceType);
-
-        if (!history.isEmpty()) {
-            detectionCount = history.size();
-
-            // Ищем самую старую и самую новую запись
-            MainDatabaseHelper.DeviceLocation firstLocation = history.get(0);
-            MainDatabaseHelper.DeviceLocation lastLocation = history.get(0);
-            long minTimestamp = Long.parseLong(firstLocation.timestamp);
-            long maxTimestamp = Long.parseLong(firstLocation.timestamp);
-
-            for (MainDatabaseHelper.DeviceLocation loc : history) {
-                long timestamp = Long.parseLong(loc.timestamp);
-
-                // Ищем самую старую запись (минимальное время)
-                if (timestamp < minTimestamp) {
-                    minTimestamp = timestamp;
-                    firstLocation = loc;
-                }
-
-                // Ищем самую новую запись (максимальное время)
-                if (timestamp > maxTimestamp) {
-                    maxTimestamp = timestamp;
-                    lastLocation = loc;
-                }
-            }
-
-            firstDetectionTime = minTimestamp;
-            lastDetectionTime = maxTimestamp;
-
-            // Получаем тип устройства из первой записи
-            if (deviceType == null) {
-                // Можно определить по MAC или другим параметрам
-                deviceType = "Wi-Fi/Bluetooth";
-            }
-
-            // Получаем текущий статус устройства из БД
-            if (currentStatus == null || "GREY".equalsIgnoreCase(currentStatus)) {
-                currentStatus = getDeviceStatus(tableName, deviceMac);
-            }
-
-            // Собираем точки для карты в хронологическом порядке
-            // Сортируем историю по времени для правильного отображения на карте
-            List<MainDatabaseHelper.DeviceLocation> sortedHistory = new ArrayList<>(history);
-            sortedHistory.sort((loc1, loc2) -> {
-                long time1 = Long.parseLong(loc1.timestamp);
-                long time2 = Long.parseLong(loc2.timestamp);
-                return Long.compare(time1, time2);
-            });
-
+            MainDatabaseHelper.DeviceLocation last = summary.points.get(summary.points.size() - 1);
             int pointLimit = getSharedPreferences("AppSettings", MODE_PRIVATE)
                     .getInt("map_point_limit", 100);
+            double latRadius = INITIAL_RADIUS_METERS / METERS_PER_DEGREE;
+            double lonRadius = latRadius / Math.max(0.01, Math.cos(Math.toRadians(last.latitude)));
+            List<MainDatabaseHelper.ObservationPoint> points = dbHelper.getObservationsInBounds(
+                    tableName, deviceMac, deviceType,
+                    Math.max(-90.0, last.latitude - latRadius),
+                    normalizeLongitude(last.longitude - lonRadius),
+                    Math.min(90.0, last.latitude + latRadius),
+                    normalizeLongitude(last.longitude + lonRadius),
+                    null, null, pointLimit);
+
+            if (points.isEmpty()) {
+                // Точка (0,0) в индекс не попадает — показываем хотя бы последнюю
+                deviceHistoryPoints.add(new GeoPoint(last.latitude, last.longitude));
+                deviceTimestamps.add(Long.parseLong(last.timestamp));
+                return;
+            }
 
-            int startIndex = Math.max(0, sortedHistory.size() - pointLimit);
-
-            for (int i = startIndex; i < sortedHistory.size(); i++) {
-                MainDatabaseHelper.DeviceLocation loc = sortedHistory.get(i);
-                deviceHistoryPoints.add(new GeoPoint(loc.latitude, loc.longitude));
-                deviceTimestamps.add(Long.parseLong(loc.timestamp));
+            // Индекс отдаёт точки от новых к старым, карте нужен хронологический порядок
+            for (int i = points.size() - 1; i >= 0; i--) {
+                MainDatabaseHelper.ObservationPoint point = points.get(i);
+                deviceHistoryPoints.add(new GeoPoint(point.latitude, point.longitude));
+                deviceTimestamps.add(point.timestamp);
             }
+        } finally {
+            dbHelper.close();
         }
-        dbHelper.close();
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        if (longitude < -180.0) return longitude + 360.0;
+        if (longitude > 180.0) return longitude - 360.0;
+        return longitude;
     }
 
     public String getDeviceStatus(String tableName, String mac) {
@@ -525,6 +497,10 @@ public class ActivityMapActivity extends BaseLocalizedActivity {
             args.putString("device_name", deviceName);
             args.putInt("history_count", deviceHistoryPoints.size());
             args.putString("device_status", currentStatus); // Передаем статус для маркеров
+            args.putString("table_name", tableName);
+            args.putString("device_type", deviceType);
+            args.putInt("point_limit", getSharedPreferences("AppSettings", MODE_PRIVATE)
+                    .getInt("map_point_limit", 100));
         }
         mapFragment.setArguments(args);
 
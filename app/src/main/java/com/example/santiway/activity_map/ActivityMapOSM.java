@@ -23,6 +23,11 @@ import androidx.fragment.app.Fragment;
 
 import org.osmdroid.api.IMapController;
 import org.osmdroid.config.Configuration;
+import org.osmdroid.events.DelayedMapListener;
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
+import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.Marker;
@@ -32,12 +37,18 @@ import org.osmdroid.views.overlay.mylocation.GpsMyLocationProvider;
 import org.osmdroid.views.overlay.mylocation.MyLocationNewOverlay;
 
 import com.example.santiway.R;
+import com.example.santiway.upload_data.MainDatabaseHelper;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ActivityMapOSM extends Fragment {
+    private static final long VIEWPORT_RELOAD_DELAY_MS = 400L;
 
     private MapView mapView;
     private MyLocationNewOverlay myLocationOverlay;
@@ -50,6 +61,12 @@ public class ActivityMapOSM extends Fragment {
     private String deviceMac;
     private String deviceName;
     private String deviceStatus = "scanned";
+    // Папка и тип устройства: с ними точки подгружаются по видимой области карты
+    private String tableName;
+    private String deviceType;
+    private int pointLimit = 100;
+    private final ExecutorService viewportExecutor = Executors.newSingleThreadExecutor();
+    private int viewportRequest;
     private View[] hideWhenDrawerOpen = new View[0];
     private MapLayerManager.DrawerStateListener drawerStateListener;
 
@@ -83,6 +100,9 @@ public class ActivityMapOSM extends Fragment {
             String[] timestamps = args.getStringArray("history_timestamps");
             deviceMac = args.getString("device_mac");
             deviceName = args.getString("device_name", getString(R.string.device_label));
+            tableName = args.getString("table_name");
+            deviceType = args.getString("device_type");
+            pointLimit = args.getInt("point_limit", pointLimit);
 
             if (lats != null && lons != null && lats.length == lons.length) {
                 for (int i = 0; i < lats.length; i++) {
@@ -185,6 +205,55 @@ public class ActivityMapOSM extends Fragment {
         mapView.getOverlays().add(rotationOverlay);
 
         addDeviceHistoryMarkers();
+
+        if (tableName != null && deviceMac != null) {
+            // Панорамирование и зум догружают только точки видимой области
+            mapView.addMapListener(new DelayedMapListener(new MapListener() {
+                @Override
+                public boolean onScroll(ScrollEvent event) {
+                    loadViewportPoints();
+                    return false;
+                }
+
+                @Override
+                public boolean onZoom(ZoomEvent event) {
+                    loadViewportPoints();
+                    return false;
+                }
+            }, VIEWPORT_RELOAD_DELAY_MS));
+        }
+    }
+
+    /**
+     * Точки устройства в текущем прямоугольнике карты: последние pointLimit наблюдений
+     * из пространственного индекса, в хронологическом порядке.
+     */
+    private void loadViewportPoints() {
+        if (mapView == null || !isAdded()) return;
+
+        BoundingBox box = mapView.getBoundingBox();
+        int request = ++viewportRequest;
+        MainDatabaseHelper helper = new MainDatabaseHelper(requireContext().getApplicationContext());
+        viewportExecutor.execute(() -> {
+            List<MainDatabaseHelper.ObservationPoint> points = helper.getObservationsInBounds(
+                    tableName, deviceMac, deviceType,
+                    box.getLatSouth(), box.getLonWest(), box.getLatNorth(), box.getLonEast(),
+                    null, null, pointLimit);
+            if (mapView == null) return;
+            mapView.post(() -> {
+                if (request != viewportRequest || mapView == null || !isAdded() || points.isEmpty()) return;
+
+                SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+                deviceHistoryPoints.clear();
+                deviceHistoryTimestamps.clear();
+                for (int i = points.size() - 1; i >= 0; i--) {
+                    MainDatabaseHelper.ObservationPoint point = points.get(i);
+                    deviceHistoryPoints.add(new GeoPoint(point.latitude, point.longitude));
+                    deviceHistoryTimestamps.add(timeFormat.format(new Date(point.timestamp)));
+                }
+                renderHistory();
+            });
+        });
     }
 
     private void addDeviceHistoryMarkers() {
@@ -192,11 +261,24 @@ public class ActivityMapOSM extends Fragment {
             return;
         }
 
+        renderHistory();
+
+        // Центрируем карту на ПОСЛЕДНЕЙ точке
+        centerMapOnLastPoint();
+
+        mapView.invalidate();
+    }
+
+    private void renderHistory() {
         // Очищаем старые маркеры
         for (Marker marker : historyMarkers) {
             mapView.getOverlays().remove(marker);
         }
         historyMarkers.clear();
+        if (historyPolyline != null) {
+            mapView.getOverlays().remove(historyPolyline);
+            historyPolyline = null;
+        }
 
         // Создаем маркеры для всех точек
         for (int i = 0; i < deviceHistoryPoints.size(); i++) {
@@ -247,9 +329,6 @@ public class ActivityMapOSM extends Fragment {
             drawHistoryLine();
         }
 
-        // Центрируем карту на ПОСЛЕДНЕЙ точке
-        centerMapOnLastPoint();
-
         mapView.invalidate();
     }
 
@@ -386,6 +465,12 @@ public class ActivityMapOSM extends Fragment {
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        viewportExecutor.shutdownNow();
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
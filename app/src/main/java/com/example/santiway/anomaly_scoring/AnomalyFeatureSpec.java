@@ -0,0 +1,129 @@
+package com.example.santiway.anomaly_scoring;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+
+/**
+ * Входная спецификация модели: какие признаки и в каком порядке ждёт anomaly.onnx.
+ * Берётся из metadata.json.gz, который обучение кладёт рядом с моделью (feature_names, n_features —
+ * те же поля, что читает AnomalyOnnx и отдаёт /model/info), и сверяется с шириной входа сессии.
+ * Если модель ждёт признак, которого приложение не умеет считать по строке _unique-таблицы,
+ * спецификация не строится: скоринг пропускается, а не подставляет нули на чужие места.
+ * KNOWN_NAMES — словарь признаков самого приложения, а не выгрузка из существующей модели:
+ * модель для этой стадии должна обучаться на этих именах. Пока её нет, стадия выключена
+ * (santiway.anomalyScoring).
+ */
+final class AnomalyFeatureSpec {
+    // Признаки, которые приложение умеет считать; индекс — место в буфере known
+    static final int IS_WIFI = 0;
+    static final int IS_BLUETOOTH = 1;
+    static final int IS_CELL = 2;
+    static final int TOTAL_SCANS = 3;
+    static final int LOG_TOTAL_SCANS = 4;
+    static final int AVG_SIGNAL_STRENGTH = 5;
+    static final int SIGNAL_STRENGTH = 6;
+    static final int LIFETIME_HOURS = 7;
+    static final int LOG_LIFETIME_HOURS = 8;
+    static final int HOURS_SINCE_MOVE = 9;
+    static final int LOG_HOURS_SINCE_MOVE = 10;
+    static final int LOCATION_ACCURACY = 11;
+    static final int FREQUENCY = 12;
+    static final int FREQUENCY_GHZ = 13;
+    static final int KNOWN_COUNT = 14;
+
+    private static final String[] KNOWN_NAMES = {
+            "is_wifi",
+            "is_bluetooth",
+            "is_cell",
+            "total_scans",
+            "log_total_scans",
+            "avg_signal_strength",
+            "signal_strength",
+            "lifetime_hours",
+            "log_lifetime_hours",
+            "hours_since_move",
+            "log_hours_since_move",
+            "location_accuracy",
+            "frequency",
+            "frequency_ghz"
+    };
+
+    private final String[] names;
+    private final int[] sources;
+
+    private AnomalyFeatureSpec(String[] names, int[] sources) {
+        this.names = names;
+        this.sources = sources;
+    }
+
+    /**
+     * Разбирает метаданные модели. modelWidth — ширина входа из сессии, 0 если она динамическая.
+     */
+    static AnomalyFeatureSpec parse(Reader metadata, int modelWidth) throws IOException {
+        JsonObject root;
+        try {
+            root = new Gson().fromJson(metadata, JsonObject.class);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed model metadata: " + e.getMessage(), e);
+        }
+        if (root == null) {
+            throw new IOException("Model metadata is empty");
+        }
+
+        JsonElement namesElement = root.get("feature_names");
+        if (namesElement == null || !namesElement.isJsonArray() || namesElement.getAsJsonArray().size() == 0) {
+            throw new IOException("Model metadata has no feature_names");
+        }
+        JsonArray namesArray = namesElement.getAsJsonArray();
+        int width = namesArray.size();
+
+        JsonElement declared = root.get("n_features");
+        if (declared != null && !declared.isJsonNull() && declared.getAsInt() != width) {
+            throw new IOException("n_features " + declared.getAsInt() + " != " + width + " feature_names");
+        }
+        if (modelWidth > 0 && modelWidth != width) {
+            throw new IOException("Model input has " + modelWidth + " features, metadata names " + width);
+        }
+
+        String[] names = new String[width];
+        int[] sources = new int[width];
+        for (int i = 0; i < width; i++) {
+            names[i] = namesArray.get(i).getAsString().trim().toLowerCase(Locale.US);
+            sources[i] = indexOf(names[i]);
+            if (sources[i] < 0) {
+                throw new IOException("Unsupported model feature: " + names[i]);
+            }
+        }
+        return new AnomalyFeatureSpec(names, sources);
+    }
+
+    int width() {
+        return sources.length;
+    }
+
+    String name(int column) {
+        return names[column];
+    }
+
+    /**
+     * Раскладывает посчитанные признаки строки (known, KNOWN_COUNT значений) в порядке модели.
+     */
+    void fill(float[] known, float[] buffer, int offset) {
+        for (int i = 0; i < sources.length; i++) {
+            buffer[offset + i] = known[sources[i]];
+        }
+    }
+
+    private static int indexOf(String name) {
+        for (int i = 0; i < KNOWN_NAMES.length; i++) {
+            if (KNOWN_NAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+}
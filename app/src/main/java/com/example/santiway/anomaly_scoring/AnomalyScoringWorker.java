@@ -0,0 +1,165 @@
+package com.example.santiway.anomaly_scoring;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.santiway.BuildConfig;
+import com.example.santiway.upload_data.MainDatabaseHelper;
+import com.example.santiway.upload_data.UniqueDevicesHelper;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновая стадия ONNX-скоринга уникальных устройств.
+ * За проход берёт из каждой папки только строки, у которых last_seen изменился
+ * с прошлого скоринга, собирает признаки в переиспользуемые буферы и скорит пачками.
+ */
+public class AnomalyScoringWorker extends Worker {
+    private static final String TAG = "AnomalyScoringWorker";
+    private static final String WORK_NAME = "anomaly_scoring";
+    private static final String PREFS = "anomaly_scoring_prefs";
+
+    public static final String KEY_BATCH_SIZE = "batch_size";
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    private static final long HOUR_MS = 60L * 60L * 1000L;
+
+    public AnomalyScoringWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    public static void schedule(Context context) {
+        WorkManager workManager = WorkManager.getInstance(context.getApplicationContext());
+        if (!BuildConfig.ANOMALY_SCORING) {
+            // Сборка без модели: снимаем работу, запланированную прежней версией
+            workManager.cancelUniqueWork(WORK_NAME);
+            return;
+        }
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                AnomalyScoringWorker.class, 30, TimeUnit.MINUTES)
+                .setInputData(new Data.Builder()
+                        .putInt(KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE)
+                        .build())
+                .build();
+        workManager.enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        OnnxAnomalyScorer scorer = OnnxAnomalyScorer.open(context);
+        if (scorer == null) {
+            Log.d(TAG, "Anomaly model not available, skipping scoring");
+            return Result.success();
+        }
+
+        int batchSize = Math.max(1, getInputData().getInt(KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        int featureCount = scorer.getFeatureCount();
+        AnomalyFeatureSpec spec = scorer.getFeatureSpec();
+
+        // Буферы пачки выделяются один раз на проход
+        float[] features = new float[batchSize * featureCount];
+        float[] known = new float[AnomalyFeatureSpec.KNOWN_COUNT];
+        float[] scores = new float[batchSize];
+        int[] labels = new int[batchSize];
+        long[] ids = new long[batchSize];
+        long[] lastSeen = new long[batchSize];
+
+        MainDatabaseHelper dbHelper = MainDatabaseHelper.getInstance(context);
+        long startedAt = SystemClock.elapsedRealtime();
+        long now = System.currentTimeMillis();
+        int totalScored = 0;
+
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            List<String> folders = dbHelper.getAllTables();
+
+            for (String folder : folders) {
+                if (isStopped()) break;
+                UniqueDevicesHelper uniqueHelper = new UniqueDevicesHelper(context, folder + "_unique");
+                long afterId = 0L;
+
+                while (!isStopped()) {
+                    int rows = 0;
+                    Arrays.fill(features, 0f);
+                    try (Cursor cursor = uniqueHelper.queryChangedForScoring(db, afterId, batchSize)) {
+                        while (cursor.moveToNext()) {
+                            ids[rows] = cursor.getLong(0);
+                            lastSeen[rows] = cursor.getLong(6);
+                            computeFeatures(cursor, known, now);
+                            spec.fill(known, features, rows * featureCount);
+                            rows++;
+                        }
+                    }
+                    if (rows == 0) break;
+
+                    scorer.scoreBatch(features, rows, scores, labels);
+                    uniqueHelper.saveAnomalyScores(db, ids, lastSeen, scores, labels, rows);
+                    totalScored += rows;
+                    afterId = ids[rows - 1];
+                    if (rows < batchSize) break;
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error in anomaly scoring: " + e.getMessage(), e);
+            return Result.retry();
+        } finally {
+            scorer.close();
+        }
+
+        long elapsedMs = Math.max(1L, SystemClock.elapsedRealtime() - startedAt);
+        float devicesPerSecond = totalScored * 1000f / elapsedMs;
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .edit()
+                .putLong("last_run_time", now)
+                .putInt("last_scored_count", totalScored)
+                .putFloat("last_devices_per_sec", devicesPerSecond)
+                .apply();
+        Log.i(TAG, String.format(Locale.US, "Scored %d devices in %d ms (%.1f devices/sec, batch %d)",
+                totalScored, elapsedMs, devicesPerSecond, batchSize));
+        return Result.success();
+    }
+
+    /**
+     * Считает все известные признаки строки _unique-таблицы в буфер known;
+     * в порядке модели их раскладывает AnomalyFeatureSpec.
+     */
+    private static void computeFeatures(Cursor cursor, float[] known, long now) {
+        String type = cursor.getString(1);
+        long firstSeen = cursor.getLong(5);
+        long lastSeen = cursor.getLong(6);
+        long lastMove = cursor.getLong(9);
+        int totalScans = Math.max(0, cursor.getInt(7));
+        double lifetimeHours = Math.max(0L, lastSeen - firstSeen) / (double) HOUR_MS;
+        double hoursSinceMove = lastMove > 0 ? Math.max(0L, now - lastMove) / (double) HOUR_MS : 0;
+
+        known[AnomalyFeatureSpec.IS_WIFI] = "Wi-Fi".equalsIgnoreCase(type) ? 1f : 0f;
+        known[AnomalyFeatureSpec.IS_BLUETOOTH] = "Bluetooth".equalsIgnoreCase(type) ? 1f : 0f;
+        known[AnomalyFeatureSpec.IS_CELL] = "Cell".equalsIgnoreCase(type) ? 1f : 0f;
+        known[AnomalyFeatureSpec.TOTAL_SCANS] = totalScans;
+        known[AnomalyFeatureSpec.LOG_TOTAL_SCANS] = (float) Math.log1p(totalScans);
+        known[AnomalyFeatureSpec.AVG_SIGNAL_STRENGTH] = cursor.getFloat(8);
+        known[AnomalyFeatureSpec.SIGNAL_STRENGTH] = cursor.getFloat(2);
+        known[AnomalyFeatureSpec.LIFETIME_HOURS] = (float) lifetimeHours;
+        known[AnomalyFeatureSpec.LOG_LIFETIME_HOURS] = (float) Math.log1p(lifetimeHours);
+        known[AnomalyFeatureSpec.HOURS_SINCE_MOVE] = (float) hoursSinceMove;
+        known[AnomalyFeatureSpec.LOG_HOURS_SINCE_MOVE] = (float) Math.log1p(hoursSinceMove);
+        known[AnomalyFeatureSpec.LOCATION_ACCURACY] = cursor.getFloat(4);
+        known[AnomalyFeatureSpec.FREQUENCY] = cursor.getInt(3);
+        known[AnomalyFeatureSpec.FREQUENCY_GHZ] = cursor.getInt(3) / 1000f;
+    }
+}
@@ -29,7 +29,7 @@ import androidx.core.app.NotificationCompat;
 
 import com.example.santiway.LocaleHelper;
 import com.example.santiway.R;
-import com.example.santiway.upload_data.MainDatabaseHelper;
+import com.example.santiway.upload_data.DeviceIngestQueue;
 import com.example.santiway.host_database.AppSettingsRepository;
 import com.example.santiway.host_database.ScannerSettings;
 import com.example.santiway.gsm_protocol.LocationManager;
@@ -51,7 +51,7 @@ public class BluetoothForegroundService extends Service {
     private ScannerSettings scannerSettings;
 
     // Сканеры и адаптеры Bluetooth
-    private MainDatabaseHelper databaseHelper;
+    private DeviceIngestQueue ingestQueue;
     private LocationManager locationManager;
     private BluetoothAdapter btAdapter;
     private BluetoothLeScanner bleScanner;
@@ -95,7 +95,7 @@ public class BluetoothForegroundService extends Service {
         Log.d(TAG, "Service onCreate");
 
         handler = new Handler(Looper.getMainLooper());
-        databaseHelper = new MainDatabaseHelper(this);
+        ingestQueue = DeviceIngestQueue.getInstance(this);
         appSettingsRepository = new AppSettingsRepository(this);
         locationManager = LocationManager.getInstance(this);
         if (checkPermissions()) {
@@ -226,11 +226,11 @@ public class BluetoothForegroundService extends Service {
             return;
         }
 
-        long rowId = databaseHelper.addBluetoothDevice(myDev, currentTableName);
+        boolean queued = ingestQueue.enqueueBluetooth(myDev, currentTableName);
 
-        Log.d(TAG, (isBle ? "BLE" : "Classic") + " устройство сохранено: " + name +
+        Log.d(TAG, (isBle ? "BLE" : "Classic") + " устройство поставлено в очередь: " + name +
                 " [" + address + "] RSSI=" + rssi + " at [" + currentLatitude + ", " +
-                currentLongitude + "] rowId=" + rowId);
+                currentLongitude + "] queued=" + queued);
     }
 
     public static String getVendor(String macAddress) {
@@ -614,11 +614,6 @@ public class BluetoothForegroundService extends Service {
             seenAddresses.clear();
         }
 
-        // Закрываем базу данных
-        if (databaseHelper != null) {
-            databaseHelper.close();
-        }
-
         Log.d(TAG, "Очистка ресурсов сервиса завершена");
     }
 
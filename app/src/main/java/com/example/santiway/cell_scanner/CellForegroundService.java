@@ -7,7 +7,6 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
@@ -21,7 +20,7 @@ import com.example.santiway.FolderNameHelper;
 import com.example.santiway.LocaleHelper;
 import com.example.santiway.R;
 import com.example.santiway.opencellid.OpenCellIdSyncScheduler;
-import com.example.santiway.upload_data.MainDatabaseHelper;
+import com.example.santiway.upload_data.DeviceIngestQueue;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
@@ -33,7 +32,7 @@ public class CellForegroundService extends Service {
     private static final String CHANNEL_ID = "cell_scanner_channel";
     private static final int NOTIFICATION_ID = 1003;
 
-    private MainDatabaseHelper databaseHelper;
+    private DeviceIngestQueue ingestQueue;
     private CellScanner cellScanner;
     private Handler handler;
     private Runnable scanRunnable;
@@ -56,7 +55,7 @@ public class CellForegroundService extends Service {
 
         cellScanner = new CellScanner(this);
         handler = new Handler(Looper.getMainLooper());
-        databaseHelper = new MainDatabaseHelper(this);
+        ingestQueue = DeviceIngestQueue.getInstance(this);
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
         OpenCellIdSyncScheduler.scheduleDaily(this);
         OpenCellIdSyncScheduler.enqueueIfDue(this);
@@ -160,10 +159,6 @@ public class CellForegroundService extends Service {
     private void scanAndSave() {
         List<CellTower> towers = cellScanner.getAllCellTowers();
         if (towers != null) {
-            SQLiteDatabase db = databaseHelper.getWritableDatabase();
-            boolean ownsTransaction = !db.inTransaction();
-            if (ownsTransaction) db.beginTransaction();
-            try {
             for (CellTower tower : towers) {
                 // Записываем координаты в объект перед сохранением
                 tower.setLatitude(currentLatitude);
@@ -173,10 +168,6 @@ public class CellForegroundService extends Service {
 
                 saveToDatabase(tower);
             }
-            if (ownsTransaction) db.setTransactionSuccessful();
-            } finally {
-                if (ownsTransaction && db.inTransaction()) db.endTransaction();
-            }
             Log.d(TAG, "Cell scan successful. Found " + towers.size() + " towers.");
         } else {
             Log.e(TAG, "Cell scan failed.");
@@ -184,31 +175,12 @@ public class CellForegroundService extends Service {
     }
 
     private boolean saveToDatabase(CellTower tower) {
-        try {
-            long resultId = databaseHelper.addCellTower(tower, currentTableName);
-            if (resultId != -1) return true;
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to save to database. Retrying with 'Основная'. Error: " + e.getMessage());
-            currentTableName = FolderNameHelper.MAIN_FOLDER_INTERNAL;
-            try {
-                long retryResultId = databaseHelper.addCellTower(tower, currentTableName);
-                if (retryResultId != -1) {
-                    sendFolderSwitchedBroadcast(currentTableName);
-                    return true;
-                }
-            } catch (Exception retryE) {
-                Log.e(TAG, "Failed to save to 'Основная' as well. Error: " + retryE.getMessage());
-            }
-        }
+        // Ошибки записи видны только потоку-писателю очереди: они попадают в её метрики
+        if (ingestQueue.enqueueCell(tower, currentTableName)) return true;
+        Log.w(TAG, "✗ Failed to queue cell " + tower.getCellId() + " for " + currentTableName);
         return false;
     }
 
-    private void sendFolderSwitchedBroadcast(String newTableName) {
-        Intent broadcastIntent = new Intent("com.example.santiway.FOLDER_SWITCHED");
-        broadcastIntent.putExtra("newTableName", newTableName);
-        sendBroadcast(broadcastIntent);
-    }
-
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel channel = new NotificationChannel(
@@ -238,10 +210,6 @@ public class CellForegroundService extends Service {
             handler.removeCallbacks(scanRunnable);
         }
 
-        if (databaseHelper != null) {
-            databaseHelper.close();
-        }
-
         Log.d(TAG, "Service cleanup completed");
     }
 
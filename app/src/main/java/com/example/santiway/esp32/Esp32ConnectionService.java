@@ -39,7 +39,7 @@ import android.location.Location;
 import com.example.santiway.gsm_protocol.LocationManager;
 import com.example.santiway.FolderNameHelper;
 import com.example.santiway.R;
-import com.example.santiway.upload_data.MainDatabaseHelper;
+import com.example.santiway.upload_data.DeviceIngestQueue;
 import com.example.santiway.wifi_scanner.WifiDevice;
 
 import java.nio.charset.StandardCharsets;
@@ -75,14 +75,14 @@ public class Esp32ConnectionService extends Service {
     private BluetoothLeAdvertiser advertiser;
     private String phoneBeaconId;
     private Esp32DatabaseHelper database;
-    private MainDatabaseHelper mainDatabase;
+    private DeviceIngestQueue ingestQueue;
     private long discoverNewUntil;
 
     @Override public void onCreate() {
         super.onCreate();
         database = new Esp32DatabaseHelper(this);
         database.markAllDisconnected();
-        mainDatabase = new MainDatabaseHelper(this);
+        ingestQueue = DeviceIngestQueue.getInstance(this);
         BluetoothManager manager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
         adapter = manager != null ? manager.getAdapter() : null;
         phoneBeaconId = getOrCreatePhoneBeaconId();
@@ -444,7 +444,7 @@ public class Esp32ConnectionService extends Service {
             device.setVendor("ESP32");
             device.setLatitude(coordinates[0]); device.setLongitude(coordinates[1]); device.setAltitude(coordinates[2]);
             device.setLocationAccuracy(0); device.setTimestamp(now);
-            mainDatabase.addWifiDevice(device, folder);
+            ingestQueue.enqueueWifi(device, folder);
         } else {
             com.example.santiway.bluetooth_scanner.BluetoothDevice device =
                     new com.example.santiway.bluetooth_scanner.BluetoothDevice();
@@ -454,7 +454,7 @@ public class Esp32ConnectionService extends Service {
             device.setVendor("ESP32");
             device.setLatitude(coordinates[0]); device.setLongitude(coordinates[1]); device.setAltitude(coordinates[2]);
             device.setLocationAccuracy(0); device.setTimestamp(now);
-            mainDatabase.addBluetoothDevice(device, folder);
+            ingestQueue.enqueueBluetooth(device, folder);
         }
     }
 
@@ -474,7 +474,7 @@ public class Esp32ConnectionService extends Service {
         if (advertiser != null && hasPermissions()) advertiser.stopAdvertising(advertiseCallback);
         for (BluetoothGatt gatt : gatts.values()) { if (hasPermissions()) gatt.disconnect(); gatt.close(); }
         database.markAllDisconnected();
-        database.close(); mainDatabase.close();
+        database.close();
         super.onDestroy();
     }
 
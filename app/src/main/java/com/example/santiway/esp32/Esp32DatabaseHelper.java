@@ -8,7 +8,8 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 import com.example.santiway.FolderNameHelper;
 import com.example.santiway.bluetooth_scanner.BluetoothDevice;
-import com.example.santiway.upload_data.MainDatabaseHelper;
+import com.example.santiway.upload_data.DeviceIngestQueue;
+import com.example.santiway.upload_data.SchemaCatalog;
 import com.example.santiway.wifi_scanner.WifiDevice;
 
 import java.util.ArrayList;
@@ -119,6 +120,7 @@ public class Esp32DatabaseHelper extends SQLiteOpenHelper {
     @Override
     public void onOpen(SQLiteDatabase db) {
         super.onOpen(db);
+        SchemaCatalog.onTransactionEnded(db);
         if (db.isReadOnly()) return;
         createTriangulatedDevices(db);
         createIndexes(db);
@@ -136,12 +138,10 @@ public class Esp32DatabaseHelper extends SQLiteOpenHelper {
     }
 
     private void addColumnIfMissing(SQLiteDatabase db, String table, String column, String definition) {
-        try (Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null)) {
-            while (cursor.moveToNext()) {
-                if (column.equalsIgnoreCase(cursor.getString(cursor.getColumnIndexOrThrow("name")))) return;
-            }
-        }
+        SchemaCatalog catalog = SchemaCatalog.of(db);
+        if (catalog.hasColumn(db, table, column)) return;
         db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        catalog.onColumnAdded(db, table, column);
     }
 
     public void markAllDisconnected() {
@@ -675,33 +675,34 @@ public class Esp32DatabaseHelper extends SQLiteOpenHelper {
     private void mirrorTriangulatedToMainDb(String transport, String mac, TriangulatedPosition position, long lastSeen) {
         String folder = context.getSharedPreferences("app_prefs", Context.MODE_PRIVATE)
                 .getString("current_folder", FolderNameHelper.MAIN_FOLDER_INTERNAL);
-        try (MainDatabaseHelper main = new MainDatabaseHelper(context)) {
-            if ("Wi-Fi".equals(transport)) {
-                WifiDevice device = new WifiDevice();
-                device.setBssid(mac);
-                device.setSsid(position.name);
-                device.setSignalStrength((int) Math.round(position.rssiAverage));
-                device.setVendor("ESP32 triangulation");
-                device.setCapabilities("TRIANGULATED");
-                device.setLatitude(position.latitude);
-                device.setLongitude(position.longitude);
-                device.setAltitude(position.altitude);
-                device.setLocationAccuracy((float) position.accuracy);
-                device.setTimestamp(lastSeen);
-                main.addTriangulatedWifiDevice(device, folder);
-            } else if ("Bluetooth".equals(transport)) {
-                BluetoothDevice device = new BluetoothDevice();
-                device.setMacAddress(mac);
-                device.setDeviceName(position.name);
-                device.setSignalStrength((int) Math.round(position.rssiAverage));
-                device.setVendor("ESP32 triangulation");
-                device.setLatitude(position.latitude);
-                device.setLongitude(position.longitude);
-                device.setAltitude(position.altitude);
-                device.setLocationAccuracy((float) position.accuracy);
-                device.setTimestamp(lastSeen);
-                main.addTriangulatedBluetoothDevice(device, folder);
-            }
+        // Главная БД пишется только потоком очереди: отдельный помощник и его соединение
+        // обходили бы групповые транзакции и кэши записи
+        DeviceIngestQueue queue = DeviceIngestQueue.getInstance(context);
+        if ("Wi-Fi".equals(transport)) {
+            WifiDevice device = new WifiDevice();
+            device.setBssid(mac);
+            device.setSsid(position.name);
+            device.setSignalStrength((int) Math.round(position.rssiAverage));
+            device.setVendor("ESP32 triangulation");
+            device.setCapabilities("TRIANGULATED");
+            device.setLatitude(position.latitude);
+            device.setLongitude(position.longitude);
+            device.setAltitude(position.altitude);
+            device.setLocationAccuracy((float) position.accuracy);
+            device.setTimestamp(lastSeen);
+            queue.enqueueTriangulatedWifi(device, folder);
+        } else if ("Bluetooth".equals(transport)) {
+            BluetoothDevice device = new BluetoothDevice();
+            device.setMacAddress(mac);
+            device.setDeviceName(position.name);
+            device.setSignalStrength((int) Math.round(position.rssiAverage));
+            device.setVendor("ESP32 triangulation");
+            device.setLatitude(position.latitude);
+            device.setLongitude(position.longitude);
+            device.setAltitude(position.altitude);
+            device.setLocationAccuracy((float) position.accuracy);
+            device.setTimestamp(lastSeen);
+            queue.enqueueTriangulatedBluetooth(device, folder);
         }
     }
 
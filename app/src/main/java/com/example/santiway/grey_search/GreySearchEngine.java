@@ -0,0 +1,256 @@
+package com.example.santiway.grey_search;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import com.example.santiway.upload_data.MainDatabaseHelper;
+import com.example.santiway.upload_data.RawPartitions;
+import com.example.santiway.upload_data.ReadConnectionPool;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Поиск GREY-устройств исходной папки по другим папкам.
+ * Папки обходятся параллельно на ограниченном пуле; каждая задача берёт своё
+ * соединение из ReadConnectionPool (в WAL читатели не блокируют друг друга и сканирование).
+ * Потоков меньше, чем соединений в пуле, чтобы список устройств не ждал поиска.
+ * Результаты отдаются слушателю порциями по мере чтения, поиск можно отменить.
+ */
+public final class GreySearchEngine {
+    private static final String TAG = "GreySearchEngine";
+    private static final int MAC_CHUNK = 400;
+    // Лимит параметров запроса в SQLite до 3.32 (Android 7–10)
+    private static final int MAX_QUERY_ARGS = 999;
+    private static final int POINT_BATCH = 500;
+    private static final int MAX_THREADS = 3;
+
+    /**
+     * Колбэки вызываются на потоках пула, слушатель сам переносит их на UI-поток.
+     */
+    public interface Listener {
+        void onSourceMacs(int macCount, int folderCount);
+
+        void onPoints(String folder, List<MainDatabaseHelper.GreySearchPoint> points);
+
+        /** Агрегаты по устройствам одной папки: detectionCount и lastSeen только по этой папке */
+        void onFolderDone(String folder, Map<String, MainDatabaseHelper.GreySearchDevice> devices,
+                          int completedFolders);
+
+        void onFinished(boolean cancelled);
+    }
+
+    public static final class Handle {
+        private final CancellationSignal signal = new CancellationSignal();
+        private volatile ExecutorService executor;
+
+        public void cancel() {
+            signal.cancel();
+            ExecutorService current = executor;
+            if (current != null) {
+                current.shutdownNow();
+            }
+        }
+
+        public boolean isCancelled() {
+            return signal.isCanceled();
+        }
+    }
+
+    private final ReadConnectionPool pool;
+
+    public GreySearchEngine(Context context) {
+        this.pool = ReadConnectionPool.getInstance(context);
+    }
+
+    public Handle start(String sourceFolder, Long firstStart, Long firstEnd,
+                        Long secondStart, Long secondEnd, List<String> folders, Listener listener) {
+        Handle handle = new Handle();
+        Thread coordinator = new Thread(() ->
+                run(handle, sourceFolder, firstStart, firstEnd, secondStart, secondEnd, folders, listener),
+                "grey-search");
+        coordinator.start();
+        return handle;
+    }
+
+    private void run(Handle handle, String sourceFolder, Long firstStart, Long firstEnd,
+                     Long secondStart, Long secondEnd, List<String> folders, Listener listener) {
+        if (sourceFolder == null || sourceFolder.trim().isEmpty() || folders == null) {
+            listener.onFinished(false);
+            return;
+        }
+
+        List<String> macs;
+        try {
+            macs = new ArrayList<>(loadGreyMacs(sourceFolder, firstStart, firstEnd, handle.signal));
+        } catch (OperationCanceledException e) {
+            listener.onFinished(true);
+            return;
+        }
+
+        List<String> targets = new ArrayList<>();
+        for (String folder : folders) {
+            if (folder != null && !folder.trim().isEmpty()) targets.add(folder);
+        }
+        listener.onSourceMacs(macs.size(), targets.size());
+        if (macs.isEmpty() || targets.isEmpty() || handle.isCancelled()) {
+            listener.onFinished(handle.isCancelled());
+            return;
+        }
+
+        int threads = Math.max(1, Math.min(MAX_THREADS,
+                Math.min(targets.size(), Runtime.getRuntime().availableProcessors() - 1)));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        handle.executor = executor;
+        if (handle.isCancelled()) {
+            executor.shutdownNow();
+            listener.onFinished(true);
+            return;
+        }
+
+        AtomicInteger completed = new AtomicInteger();
+        for (String folder : targets) {
+            executor.execute(() -> {
+                if (handle.isCancelled()) return;
+                try {
+                    Map<String, MainDatabaseHelper.GreySearchDevice> devices =
+                            searchFolder(folder, macs, secondStart, secondEnd, handle.signal, listener);
+                    listener.onFolderDone(folder, devices, completed.incrementAndGet());
+                } catch (OperationCanceledException ignored) {
+                    // отмена — результат папки не нужен
+                } catch (Exception e) {
+                    Log.e(TAG, "Error searching grey devices in " + folder + ": " + e.getMessage(), e);
+                    listener.onFolderDone(folder, new LinkedHashMap<>(), completed.incrementAndGet());
+                }
+            });
+        }
+        executor.shutdown();
+
+        try {
+            while (!executor.awaitTermination(200, TimeUnit.MILLISECONDS)) {
+                if (handle.isCancelled()) executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        listener.onFinished(handle.isCancelled());
+    }
+
+    private Set<String> loadGreyMacs(String folderName, Long start, Long end, CancellationSignal signal) {
+        Set<String> macs = new LinkedHashSet<>();
+        Cursor cursor = null;
+        try (ReadConnectionPool.Lease lease = pool.acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
+            List<String> args = new ArrayList<>();
+            String sql = "SELECT DISTINCT UPPER(bssid) AS mac FROM " +
+                    RawPartitions.source(db, folderName, start, end,
+                            "bssid IS NOT NULL AND TRIM(bssid) != '' " +
+                                    "AND UPPER(COALESCE(status, 'GREY')) = 'GREY' " +
+                                    "AND UPPER(COALESCE(type, '')) != 'CELL'",
+                            null, args);
+            cursor = db.rawQuery(sql, args.toArray(new String[0]), signal);
+            while (cursor.moveToNext()) {
+                String mac = cursor.getString(0);
+                if (mac != null && !mac.trim().isEmpty()) {
+                    macs.add(mac.trim().toUpperCase(Locale.US));
+                }
+            }
+        } catch (OperationCanceledException e) {
+            throw e;
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading grey MACs from " + folderName + ": " + e.getMessage(), e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return macs;
+    }
+
+    /**
+     * Ищет MAC-адреса в одной папке. Условие UPPER(bssid) IN (...) совпадает с выражением
+     * индекса "(UPPER(bssid), timestamp)" сырой таблицы, поэтому каждый MAC — поиск по индексу.
+     * Партиции вне [start, end] в запрос не попадают. Список MAC повторяется в каждой ветке
+     * UNION ALL, поэтому порция MAC уменьшается с числом партиций.
+     */
+    private Map<String, MainDatabaseHelper.GreySearchDevice> searchFolder(
+            String folderName, List<String> macs, Long start, Long end,
+            CancellationSignal signal, Listener listener) {
+        Map<String, MainDatabaseHelper.GreySearchDevice> devices = new LinkedHashMap<>();
+        List<MainDatabaseHelper.GreySearchPoint> batch = new ArrayList<>(POINT_BATCH);
+
+        try (ReadConnectionPool.Lease lease = pool.acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
+            // +1 — запас на партицию, запечатанную между подсчётом и запросом
+            int branches = RawPartitions.tables(db, folderName, start, end).size() + 1;
+            int chunkSize = Math.max(1, Math.min(MAC_CHUNK, MAX_QUERY_ARGS / branches - 2));
+            for (int offset = 0; offset < macs.size(); offset += chunkSize) {
+                signal.throwIfCanceled();
+                List<String> chunk = macs.subList(offset, Math.min(offset + chunkSize, macs.size()));
+
+                StringBuilder placeholders = new StringBuilder();
+                for (int i = 0; i < chunk.size(); i++) {
+                    if (i > 0) placeholders.append(',');
+                    placeholders.append('?');
+                }
+
+                List<String> args = new ArrayList<>();
+                String sql = "SELECT type, name, UPPER(bssid) AS mac, latitude, longitude, timestamp, status " +
+                        "FROM " + RawPartitions.source(db, folderName, start, end,
+                        "UPPER(bssid) IN (" + placeholders + ")", chunk.toArray(new String[0]), args);
+
+                try (Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]), signal)) {
+                    while (cursor.moveToNext()) {
+                        String mac = cursor.getString(2);
+                        if (mac == null || mac.isEmpty()) continue;
+
+                        String type = cursor.getString(0);
+                        String name = cursor.getString(1);
+                        double latitude = cursor.getDouble(3);
+                        double longitude = cursor.getDouble(4);
+                        long timestamp = cursor.getLong(5);
+
+                        MainDatabaseHelper.GreySearchDevice device = devices.get(mac);
+                        if (device == null) {
+                            device = new MainDatabaseHelper.GreySearchDevice(mac, name, type);
+                            devices.put(mac, device);
+                        }
+                        device.detectionCount++;
+                        device.lastSeen = Math.max(device.lastSeen, timestamp);
+                        if ((device.name == null || device.name.trim().isEmpty()) && name != null && !name.trim().isEmpty()) {
+                            device.name = name;
+                        }
+                        if ((device.type == null || device.type.trim().isEmpty()) && type != null && !type.trim().isEmpty()) {
+                            device.type = type;
+                        }
+
+                        if (latitude != 0.0 && longitude != 0.0) {
+                            batch.add(new MainDatabaseHelper.GreySearchPoint(
+                                    mac, name, type, folderName, latitude, longitude, timestamp, cursor.getString(6)));
+                            if (batch.size() >= POINT_BATCH) {
+                                listener.onPoints(folderName, batch);
+                                batch = new ArrayList<>(POINT_BATCH);
+                            }
+                        }
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                listener.onPoints(folderName, batch);
+            }
+        }
+        return devices;
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.santiway.movement_detector;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Потоковый детектор перемещений (порт android-anomaly-detector/MovementAnomalyDetector).
+ * По каждому устройству ведёт сессию: последняя значимая точка, суммарная дистанция,
+ * окно скоростей и суммарная дистанция.
+ * Тип движения с гистерезисом по медиане скорости хранится по устройству, а не по сессии:
+ * после простоя новая сессия продолжает с последним типом этого MAC.
+ * Alert выдаётся один раз на сессию, долгий простой начинает новую сессию.
+ * Карты сессий и типов движения ограничены по размеру, сессии чистятся по времени простоя.
+ */
+public class MovementAnomalyDetector {
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int SPEED_WINDOW = 5;
+    private static final double EARTH_RADIUS_METERS = 6371000.0;
+
+    private final double walkingSpeedThresholdLow;
+    private final double walkingSpeedThresholdHigh;
+    private final double walkingDistanceThreshold;
+    private final double drivingDistanceThreshold;
+    private final double minDistanceFilter;
+    private final float maxAccuracyMeters;
+    private final long idleResetMs;
+    private final double maxSpeedKmh;
+    private final int maxSessions;
+
+    private final LinkedHashMap<String, SessionState> sessions;
+    private final LinkedHashMap<String, MovementType> movementTypes;
+
+    public static class AnomalyResult {
+        public final String deviceKey;
+        public final MovementType movementType;
+        public final double distanceMeters;
+        public final double speedKmh;
+        public final long sessionDurationMs;
+
+        AnomalyResult(String deviceKey, MovementType movementType, double distanceMeters,
+                      double speedKmh, long sessionDurationMs) {
+            this.deviceKey = deviceKey;
+            this.movementType = movementType;
+            this.distanceMeters = distanceMeters;
+            this.speedKmh = speedKmh;
+            this.sessionDurationMs = sessionDurationMs;
+        }
+    }
+
+    static final class SessionState {
+        long startTimestamp;
+        double lastLatitude;
+        double lastLongitude;
+        long lastTimestamp;
+        double totalDistanceMeters;
+        final double[] speeds = new double[SPEED_WINDOW];
+        int speedCount;
+        int speedHead;
+        boolean alerted;
+
+        void addSpeed(double speedKmh) {
+            if (Double.isNaN(speedKmh) || Double.isInfinite(speedKmh) || speedKmh <= 0) return;
+            speeds[speedHead] = speedKmh;
+            speedHead = (speedHead + 1) % SPEED_WINDOW;
+            if (speedCount < SPEED_WINDOW) speedCount++;
+        }
+
+        double medianSpeed() {
+            if (speedCount == 0) return 0.0;
+            double[] sorted = Arrays.copyOf(speeds, speedCount);
+            Arrays.sort(sorted);
+            return sorted[sorted.length / 2];
+        }
+    }
+
+    public MovementAnomalyDetector(int maxSessions) {
+        this(18.0, 22.0, 1_000.0, 10_000.0, 10.0, 100f,
+                15 * 60 * 1000L, 300.0, maxSessions);
+    }
+
+    public MovementAnomalyDetector(double walkingSpeedThresholdLow,
+                                   double walkingSpeedThresholdHigh,
+                                   double walkingDistanceThreshold,
+                                   double drivingDistanceThreshold,
+                                   double minDistanceFilter,
+                                   float maxAccuracyMeters,
+                                   long idleResetMs,
+                                   double maxSpeedKmh,
+                                   int maxSessions) {
+        this.walkingSpeedThresholdLow = walkingSpeedThresholdLow;
+        this.walkingSpeedThresholdHigh = walkingSpeedThresholdHigh;
+        this.walkingDistanceThreshold = walkingDistanceThreshold;
+        this.drivingDistanceThreshold = drivingDistanceThreshold;
+        this.minDistanceFilter = minDistanceFilter;
+        this.maxAccuracyMeters = maxAccuracyMeters;
+        this.idleResetMs = idleResetMs;
+        this.maxSpeedKmh = maxSpeedKmh;
+        this.maxSessions = maxSessions;
+        this.sessions = new LinkedHashMap<String, SessionState>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SessionState> eldest) {
+                return size() > MovementAnomalyDetector.this.maxSessions;
+            }
+        };
+        this.movementTypes = new LinkedHashMap<String, MovementType>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MovementType> eldest) {
+                return size() > MovementAnomalyDetector.this.maxSessions;
+            }
+        };
+    }
+
+    /**
+     * Обрабатывает наблюдение устройства. Возвращает результат только в момент,
+     * когда сессия впервые превысила порог дистанции для своего типа движения.
+     */
+    public synchronized AnomalyResult processObservation(String deviceKey, double latitude, double longitude,
+                                                         float accuracyMeters, long timestamp) {
+        if (deviceKey == null || deviceKey.trim().isEmpty() || timestamp <= 0) return null;
+        if (!isValidCoordinate(latitude, longitude)) return null;
+        if (accuracyMeters > maxAccuracyMeters) return null;
+
+        SessionState session = sessions.get(deviceKey);
+        if (session == null || timestamp - session.lastTimestamp > idleResetMs) {
+            session = new SessionState();
+            session.startTimestamp = timestamp;
+            session.lastLatitude = latitude;
+            session.lastLongitude = longitude;
+            session.lastTimestamp = timestamp;
+            sessions.put(deviceKey, session);
+            return null;
+        }
+
+        double distance = distanceMeters(session.lastLatitude, session.lastLongitude, latitude, longitude);
+        long dt = Math.max(1L, timestamp - session.lastTimestamp);
+        double speed = (distance / 1000.0) / (dt / 3_600_000.0);
+
+        // Фильтры: «дрожание» GPS и нереалистичные скачки
+        if (distance < minDistanceFilter || speed > maxSpeedKmh) {
+            return null;
+        }
+
+        session.totalDistanceMeters += distance;
+        session.lastLatitude = latitude;
+        session.lastLongitude = longitude;
+        session.lastTimestamp = timestamp;
+        session.addSpeed(speed);
+
+        double smoothedSpeed = session.medianSpeed();
+        MovementType movementType = nextMovementType(getMovementType(deviceKey), smoothedSpeed);
+        movementTypes.put(deviceKey, movementType);
+
+        double threshold = movementType == MovementType.DRIVING
+                ? drivingDistanceThreshold
+                : walkingDistanceThreshold;
+        if (session.totalDistanceMeters > threshold && !session.alerted) {
+            session.alerted = true;
+            return new AnomalyResult(deviceKey, movementType, session.totalDistanceMeters,
+                    smoothedSpeed, timestamp - session.startTimestamp);
+        }
+        return null;
+    }
+
+    /**
+     * Последний тип движения устройства; переживает простой и смену сессии.
+     */
+    public synchronized MovementType getMovementType(String deviceKey) {
+        MovementType type = movementTypes.get(deviceKey);
+        return type != null ? type : MovementType.WALKING;
+    }
+
+    public synchronized int evictIdle(long now) {
+        int evicted = 0;
+        Iterator<SessionState> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().lastTimestamp > idleResetMs) {
+                iterator.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    public synchronized void endSession(String deviceKey) {
+        sessions.remove(deviceKey);
+    }
+
+    public synchronized void reset() {
+        sessions.clear();
+        movementTypes.clear();
+    }
+
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    public synchronized void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(sessions.size());
+        for (Map.Entry<String, SessionState> entry : sessions.entrySet()) {
+            SessionState session = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(session.startTimestamp);
+            out.writeDouble(session.lastLatitude);
+            out.writeDouble(session.lastLongitude);
+            out.writeLong(session.lastTimestamp);
+            out.writeDouble(session.totalDistanceMeters);
+            out.writeInt(session.speedCount);
+            out.writeInt(session.speedHead);
+            for (double speed : session.speeds) {
+                out.writeDouble(speed);
+            }
+            out.writeBoolean(session.alerted);
+        }
+        out.writeInt(movementTypes.size());
+        for (Map.Entry<String, MovementType> entry : movementTypes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().ordinal());
+        }
+    }
+
+    public synchronized void readSnapshot(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != 1 && version != SNAPSHOT_VERSION) return;
+
+        sessions.clear();
+        movementTypes.clear();
+        int count = in.readInt();
+        MovementType[] types = MovementType.values();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            SessionState session = new SessionState();
+            session.startTimestamp = in.readLong();
+            session.lastLatitude = in.readDouble();
+            session.lastLongitude = in.readDouble();
+            session.lastTimestamp = in.readLong();
+            session.totalDistanceMeters = in.readDouble();
+            session.speedCount = in.readInt();
+            session.speedHead = in.readInt();
+            for (int s = 0; s < SPEED_WINDOW; s++) {
+                session.speeds[s] = in.readDouble();
+            }
+            if (version == 1) {
+                // В первой версии тип движения лежал в сессии
+                putMovementType(key, in.readInt(), types);
+            }
+            session.alerted = in.readBoolean();
+            sessions.put(key, session);
+        }
+        if (version == 1) return;
+
+        int typeCount = in.readInt();
+        for (int i = 0; i < typeCount; i++) {
+            String key = in.readUTF();
+            putMovementType(key, in.readInt(), types);
+        }
+    }
+
+    private void putMovementType(String deviceKey, int typeIndex, MovementType[] types) {
+        if (typeIndex >= 0 && typeIndex < types.length) {
+            movementTypes.put(deviceKey, types[typeIndex]);
+        }
+    }
+
+    private MovementType nextMovementType(MovementType current, double smoothedSpeed) {
+        if (current == MovementType.WALKING) {
+            return smoothedSpeed > walkingSpeedThresholdHigh ? MovementType.DRIVING : MovementType.WALKING;
+        }
+        return smoothedSpeed < walkingSpeedThresholdLow ? MovementType.WALKING : MovementType.DRIVING;
+    }
+
+    private static boolean isValidCoordinate(double latitude, double longitude) {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude)
+                && latitude >= -90.0 && latitude <= 90.0
+                && longitude >= -180.0 && longitude <= 180.0
+                && !(latitude == 0.0 && longitude == 0.0);
+    }
+
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        if (lat1 == lat2 && lon1 == lon2) return 0.0;
+
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1;
+        double dLon = lon2 - lon1;
+        // Нормализуем разницу долгот к [-180,180]
+        dLon = ((dLon + 540.0) % 360.0) - 180.0;
+        double dLambda = Math.toRadians(dLon);
+
+        double sinDphi = Math.sin(dPhi / 2);
+        double sinDlam = Math.sin(dLambda / 2);
+        double a = sinDphi * sinDphi + Math.cos(phi1) * Math.cos(phi2) * sinDlam * sinDlam;
+        a = Math.max(0.0, Math.min(1.0, a));
+        return EARTH_RADIUS_METERS * 2 * Math.asin(Math.sqrt(a));
+    }
+}
@@ -0,0 +1,6 @@
+package com.example.santiway.movement_detector;
+
+public enum MovementType {
+    WALKING,
+    DRIVING
+}
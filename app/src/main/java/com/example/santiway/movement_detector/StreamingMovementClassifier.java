@@ -0,0 +1,100 @@
+package com.example.santiway.movement_detector;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Locale;
+
+/**
+ * In-memory классификатор TARGET на базе MovementAnomalyDetector.
+ * Сессии живут в памяти процесса и периодически сохраняются в файл,
+ * чтобы состояние переживало перезапуск сервисов сканирования.
+ */
+public class StreamingMovementClassifier {
+    private static final String TAG = "StreamingMovementClassifier";
+    private static final String SNAPSHOT_FILE = "movement_sessions.bin";
+    private static final int MAX_SESSIONS = 5000;
+    private static final long SNAPSHOT_INTERVAL_MS = 60_000L;
+    private static StreamingMovementClassifier instance;
+
+    private final File snapshotFile;
+    private final MovementAnomalyDetector detector = new MovementAnomalyDetector(MAX_SESSIONS);
+    private long lastSnapshotAt = 0L;
+
+    public static synchronized StreamingMovementClassifier getInstance(Context context) {
+        if (instance == null) {
+            instance = new StreamingMovementClassifier(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private StreamingMovementClassifier(Context context) {
+        this.snapshotFile = new File(context.getFilesDir(), SNAPSHOT_FILE);
+        restoreSnapshot();
+    }
+
+    /**
+     * Возвращает "TARGET", если наблюдение завершило аномальную сессию, иначе "GREY".
+     */
+    public String classify(String deviceKey, double latitude, double longitude,
+                           float accuracyMeters, long timestamp) {
+        MovementAnomalyDetector.AnomalyResult result =
+                detector.processObservation(deviceKey, latitude, longitude, accuracyMeters, timestamp);
+        saveSnapshotIfDue();
+
+        if (result == null) {
+            return "GREY";
+        }
+        Log.d(TAG, String.format(Locale.US,
+                "Anomaly for %s: %s %.2f km, median %.1f km/h",
+                result.deviceKey, result.movementType, result.distanceMeters / 1000.0, result.speedKmh));
+        return "TARGET";
+    }
+
+    public void endSession(String deviceKey) {
+        detector.endSession(deviceKey);
+    }
+
+    public synchronized void saveSnapshot() {
+        detector.evictIdle(System.currentTimeMillis());
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            detector.writeSnapshot(out);
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing movement snapshot: " + e.getMessage());
+            return;
+        }
+        if (!tmp.renameTo(snapshotFile)) {
+            Log.e(TAG, "Error replacing movement snapshot file");
+        }
+        lastSnapshotAt = System.currentTimeMillis();
+    }
+
+    private synchronized void saveSnapshotIfDue() {
+        if (System.currentTimeMillis() - lastSnapshotAt >= SNAPSHOT_INTERVAL_MS) {
+            saveSnapshot();
+        }
+    }
+
+    private void restoreSnapshot() {
+        if (!snapshotFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            detector.readSnapshot(in);
+            int evicted = detector.evictIdle(System.currentTimeMillis());
+            Log.d(TAG, "Restored movement sessions: " + detector.getSessionCount() + " (evicted idle: " + evicted + ")");
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading movement snapshot: " + e.getMessage());
+            detector.reset();
+        }
+        lastSnapshotAt = System.currentTimeMillis();
+    }
+}
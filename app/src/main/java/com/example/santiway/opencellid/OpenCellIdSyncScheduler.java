@@ -4,17 +4,27 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+
 import com.example.santiway.cell_scanner.CellTower;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
 public final class OpenCellIdSyncScheduler {
@@ -22,60 +32,96 @@ public final class OpenCellIdSyncScheduler {
 
     private static final String PREFS = "opencellid_prefs";
     private static final String KEY_LAST_SYNC = "last_sync_time";
+    private static final String KEY_LAST_FULL_SYNC = "last_full_sync_time";
     private static final String KEY_LAST_RESULT = "last_sync_result";
     private static final String KEY_IMPORTED_COUNT = "imported_count";
     private static final String KEY_SYNC_RUNNING = "sync_running";
     private static final String KEY_SOURCE_URL = "opencellid_source_url";
+    private static final String KEY_DIFF_URL = "opencellid_diff_url";
+    private static final String KEY_IMPORT_DURATION_MS = "import_duration_ms";
+    private static final String KEY_INDEX_SIZE = "index_size_bytes";
+    private static final String KEY_PARTIAL_URL = "partial_download_url";
+    private static final String KEY_PARTIAL_VALIDATOR = "partial_download_validator";
+    private static final String KEY_LAST_DIFF_DAY = "last_applied_diff_day";
+
+    private static final String DAILY_WORK_NAME = "opencellid_daily_sync";
+    private static final String ONE_TIME_WORK_NAME = "opencellid_sync_now";
+    private static final String PARTIAL_FILE_NAME = "opencellid_download.part";
 
     private static final long DAILY_INTERVAL_MS = 24L * 60L * 60L * 1000L;
+    private static final long FULL_REFRESH_INTERVAL_MS = 30L * DAILY_INTERVAL_MS;
+    /** Дальше этого отставания дешевле скачать полную базу, чем проигрывать diff-файлы по дням */
+    private static final int MAX_DIFF_REPLAY_DAYS = 7;
 
     public static final String DB_FILE_NAME = "opencellid_known_towers.csv";
+    public static final String INDEX_FILE_NAME = "opencellid_known_towers.idx";
+
+    private static volatile long lastLookupNanos = 0L;
 
     private OpenCellIdSyncScheduler() {
     }
 
+    /**
+     * Ежедневная синхронизация через WorkManager: только при наличии сети и на зарядке.
+     */
     public static void scheduleDaily(Context context) {
         if (context == null) return;
 
-        context.getApplicationContext()
-                .getSharedPreferences(PREFS, Context.MODE_PRIVATE)
-                .edit()
-                .putBoolean("daily_scheduled", true)
-                .apply();
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .setRequiresCharging(true)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                OpenCellIdSyncWorker.class, 24, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+
+        WorkManager.getInstance(context.getApplicationContext())
+                .enqueueUniquePeriodicWork(DAILY_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
     }
 
+    /**
+     * Внеочередной запуск нужен только если базы ещё нет — иначе хватает ежедневной задачи.
+     */
     public static void enqueueIfDue(Context context) {
         if (context == null) return;
 
         Context app = context.getApplicationContext();
-        SharedPreferences prefs = app.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
-
-        if (prefs.getBoolean(KEY_SYNC_RUNNING, false)) {
-            return;
-        }
-
-        long lastSync = prefs.getLong(KEY_LAST_SYNC, 0L);
-        long now = System.currentTimeMillis();
-
         File localDb = getLocalDbFile(app);
         boolean databaseMissing = !localDb.exists() || localDb.length() == 0;
 
-        if (!databaseMissing && now - lastSync < DAILY_INTERVAL_MS) {
+        if (!databaseMissing) {
             return;
         }
 
-        enqueueNow(app);
+        enqueueOneTime(app, ExistingWorkPolicy.KEEP);
     }
 
     public static void enqueueNow(Context context) {
         if (context == null) return;
 
-        Context app = context.getApplicationContext();
+        enqueueOneTime(context.getApplicationContext(), ExistingWorkPolicy.REPLACE);
+    }
+
+    private static void enqueueOneTime(Context context, ExistingWorkPolicy policy) {
+        // Ручной запуск и первая загрузка не ждут зарядки, но требуют сеть
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(OpenCellIdSyncWorker.class)
+                .setConstraints(constraints)
+                .build();
 
-        new Thread(() -> syncNow(app), "OpenCellIdSync").start();
+        WorkManager.getInstance(context).enqueueUniqueWork(ONE_TIME_WORK_NAME, policy, request);
     }
 
-    private static void syncNow(Context context) {
+    /**
+     * Выполняет синхронизацию в текущем потоке (вызывается из OpenCellIdSyncWorker).
+     * Возвращает false, если попытку стоит повторить.
+     */
+    static boolean runSync(Context context) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
 
         prefs.edit()
@@ -84,25 +130,53 @@ public final class OpenCellIdSyncScheduler {
                 .apply();
 
         int imported = 0;
+        long startedAt = System.currentTimeMillis();
 
         try {
             File output = getLocalDbFile(context);
+            migrateLegacyCsv(context, output);
+            boolean hasIndex = output.exists() && output.length() > 0;
 
             String url = prefs.getString(KEY_SOURCE_URL, "");
-            if (url != null && !url.trim().isEmpty()) {
-                imported = downloadAndNormalizeCsv(url.trim(), output);
+            String diffUrl = prefs.getString(KEY_DIFF_URL, "");
+            boolean hasFullUrl = url != null && !url.trim().isEmpty();
+            boolean fullDue = startedAt - prefs.getLong(KEY_LAST_FULL_SYNC, 0L) >= FULL_REFRESH_INTERVAL_MS;
+            long yesterday = Math.floorDiv(startedAt, DAILY_INTERVAL_MS) - 1;
+            long firstDiffDay = hasIndex && !fullDue
+                    ? firstMissingDiffDay(prefs, diffUrl, hasFullUrl, yesterday)
+                    : -1L;
+            boolean delta = false;
+            boolean fullDownload = false;
+
+            if (firstDiffDay >= 0) {
+                imported = applyDiffs(context, prefs, diffUrl.trim(), output, firstDiffDay, yesterday);
+                delta = true;
+            } else if (hasFullUrl) {
+                imported = downloadAndBuildIndex(context, expandDateTemplate(url.trim(), yesterday), output, false);
+                fullDownload = true;
             } else {
-                imported = importBundledAssetIfExists(context, output);
+                // Индекс, перенесённый из старого CSV, дополняется встроенной базой, а не заменяется
+                imported = importBundledAssetIfExists(context, output, hasIndex);
             }
 
-            prefs.edit()
+            SharedPreferences.Editor editor = prefs.edit()
                     .putLong(KEY_LAST_SYNC, System.currentTimeMillis())
                     .putInt(KEY_IMPORTED_COUNT, imported)
-                    .putString(KEY_LAST_RESULT, "Imported towers: " + imported)
-                    .putBoolean(KEY_SYNC_RUNNING, false)
-                    .apply();
+                    .putLong(KEY_IMPORT_DURATION_MS, System.currentTimeMillis() - startedAt)
+                    .putLong(KEY_INDEX_SIZE, output.length())
+                    .putString(KEY_LAST_RESULT, (delta ? "Delta merged, towers: " : "Imported towers: ") + imported)
+                    .putBoolean(KEY_SYNC_RUNNING, false);
+            if (!delta) {
+                editor.putLong(KEY_LAST_FULL_SYNC, System.currentTimeMillis());
+            }
+            if (fullDownload) {
+                // Полная база уже содержит изменения по вчерашний день включительно
+                editor.putLong(KEY_LAST_DIFF_DAY, yesterday);
+            }
+            editor.apply();
 
-            Log.d(TAG, "OpenCellID sync completed. Imported: " + imported);
+            Log.d(TAG, "OpenCellID sync completed. Imported: " + imported + ", delta=" + delta);
+            return true;
         } catch (Exception e) {
             Log.e(TAG, "OpenCellID sync failed", e);
 
@@ -111,75 +185,182 @@ public final class OpenCellIdSyncScheduler {
                     .putString(KEY_LAST_RESULT, "Sync failed: " + e.getMessage())
                     .putBoolean(KEY_SYNC_RUNNING, false)
                     .apply();
+            return false;
         }
     }
 
-    private static int downloadAndNormalizeCsv(String urlString, File output) throws Exception {
-        HttpURLConnection connection = null;
-        InputStream input = null;
+    /**
+     * Первый день, чей diff ещё не применён, или -1, если нужна полная загрузка.
+     * Результат больше yesterday означает, что все diff-файлы уже применены.
+     */
+    private static long firstMissingDiffDay(SharedPreferences prefs, String diffUrl,
+                                            boolean hasFullUrl, long yesterday) {
+        if (diffUrl == null || diffUrl.trim().isEmpty()) return -1L;
+        // Один diff-файл без даты в URL — качаем его каждый раз, как раньше
+        if (!diffUrl.contains("{date}")) return yesterday;
+
+        long lastApplied = prefs.getLong(KEY_LAST_DIFF_DAY, 0L);
+        if (lastApplied <= 0 || yesterday - lastApplied > MAX_DIFF_REPLAY_DAYS) {
+            if (hasFullUrl) return -1L;
+            // Без полной базы пропуск не закрыть — проигрываем сколько можно
+            return lastApplied <= 0 ? yesterday : yesterday - MAX_DIFF_REPLAY_DAYS + 1;
+        }
+        return lastApplied + 1;
+    }
 
-        try {
-            URL url = new URL(urlString);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setConnectTimeout(20000);
-            connection.setReadTimeout(60000);
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("User-Agent", "SantiWay-Android");
-
-            int code = connection.getResponseCode();
-            if (code < 200 || code >= 300) {
-                throw new IllegalStateException("HTTP " + code);
-            }
+    /**
+     * Сливает в индекс diff-файлы с fromDay по toDay по порядку. Каждый применённый день
+     * запоминается сразу: если сеть пропадёт на середине, следующий запуск продолжит со следующего дня.
+     */
+    private static int applyDiffs(Context context, SharedPreferences prefs, String diffUrl, File output,
+                                  long fromDay, long toDay) throws Exception {
+        if (!diffUrl.contains("{date}")) {
+            return downloadAndBuildIndex(context, diffUrl, output, true);
+        }
+        if (fromDay > toDay) {
+            Log.d(TAG, "OpenCellID diffs are up to date");
+            return prefs.getInt(KEY_IMPORTED_COUNT, 0);
+        }
+
+        int towers = 0;
+        for (long day = fromDay; day <= toDay; day++) {
+            towers = downloadAndBuildIndex(context, expandDateTemplate(diffUrl, day), output, true);
+            prefs.edit().putLong(KEY_LAST_DIFF_DAY, day).commit();
+            Log.d(TAG, "OpenCellID diff merged for " + formatDay(day) + ", towers: " + towers);
+        }
+        return towers;
+    }
+
+    /**
+     * Подставляет день (UTC, дни от эпохи) вместо {date} — так задаются URL diff-файлов.
+     */
+    private static String expandDateTemplate(String url, long day) {
+        if (!url.contains("{date}")) return url;
+        return url.replace("{date}", formatDay(day));
+    }
 
-            input = connection.getInputStream();
+    private static String formatDay(long day) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(day * DAILY_INTERVAL_MS));
+    }
+
+    /**
+     * Переносит вышки из текстовой базы прежних версий в индекс (с уже собранным индексом —
+     * слиянием) и только после успешной сборки удаляет CSV. Если сборка упала, CSV остаётся
+     * до следующей синхронизации, а исключение прерывает её как обычную ошибку.
+     */
+    private static void migrateLegacyCsv(Context context, File output) throws Exception {
+        File legacyCsv = new File(context.getFilesDir(), DB_FILE_NAME);
+        if (!legacyCsv.exists()) return;
+
+        if (legacyCsv.length() > 0) {
+            boolean merge = output.exists() && output.length() > 0;
+            // В старом файле нет заголовка, а строка вышки "CELL,..." похожа на него
+            int migrated = normalizeCsvToLocalDb(new FileInputStream(legacyCsv), output, merge, false);
+            Log.d(TAG, "Migrated legacy OpenCellID csv into index, towers: " + migrated);
+        }
+        if (!legacyCsv.delete()) {
+            Log.w(TAG, "Cannot delete legacy OpenCellID csv");
+        }
+    }
+
+    /**
+     * Качает файл и сразу распаковывает его в сборщик индекса, без промежуточного CSV.
+     * Сжатые байты параллельно дописываются в .part-файл: после обрыва уже скачанная часть
+     * повторно распаковывается с диска, а остаток запрашивается через HTTP Range.
+     */
+    private static int downloadAndBuildIndex(Context context, String urlString, File output,
+                                             boolean mergeWithExisting) throws Exception {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        File partial = new File(context.getFilesDir(), PARTIAL_FILE_NAME);
 
+        try (ResumableDownload download = new ResumableDownload(urlString, partial, new PrefsCheckpoint(prefs))) {
+            InputStream input = download.open();
             if (urlString.toLowerCase(Locale.US).endsWith(".gz")) {
-                input = new GZIPInputStream(input);
+                input = new GZIPInputStream(input, 64 * 1024);
             }
 
-            return normalizeCsvToLocalDb(input, output);
-        } finally {
-            if (input != null) {
-                try {
-                    input.close();
-                } catch (Exception ignored) {
-                }
+            int imported;
+            try {
+                imported = normalizeCsvToLocalDb(input, output, mergeWithExisting, true);
+            } catch (java.util.zip.ZipException e) {
+                // Повреждённый архив докачивать бессмысленно — следующая попытка начнёт заново
+                download.discard();
+                throw e;
             }
+            download.complete();
+            return imported;
+        }
+    }
 
-            if (connection != null) {
-                connection.disconnect();
-            }
+    /**
+     * Контрольная точка докачки в opencellid_prefs. Пишется синхронно: процесс могут убить
+     * посреди загрузки, а .part без валидатора пришлось бы качать заново.
+     */
+    private static final class PrefsCheckpoint implements ResumableDownload.Checkpoint {
+        private final SharedPreferences prefs;
+
+        PrefsCheckpoint(SharedPreferences prefs) {
+            this.prefs = prefs;
+        }
+
+        @Override
+        public String url() {
+            return prefs.getString(KEY_PARTIAL_URL, "");
+        }
+
+        @Override
+        public String validator() {
+            return prefs.getString(KEY_PARTIAL_VALIDATOR, "");
+        }
+
+        @Override
+        public void save(String url, String validator) {
+            prefs.edit()
+                    .putString(KEY_PARTIAL_URL, url)
+                    .putString(KEY_PARTIAL_VALIDATOR, validator)
+                    .commit();
+        }
+
+        @Override
+        public void clear() {
+            prefs.edit()
+                    .remove(KEY_PARTIAL_URL)
+                    .remove(KEY_PARTIAL_VALIDATOR)
+                    .apply();
         }
     }
 
-    private static int importBundledAssetIfExists(Context context, File output) throws Exception {
+    private static int importBundledAssetIfExists(Context context, File output,
+                                                  boolean mergeWithExisting) throws Exception {
         try {
             InputStream input = context.getAssets().open(DB_FILE_NAME);
-            return normalizeCsvToLocalDb(input, output);
+            return normalizeCsvToLocalDb(input, output, mergeWithExisting, true);
         } catch (Exception e) {
-            if (!output.exists()) {
-                output.getParentFile().mkdirs();
-                output.createNewFile();
-            }
             return 0;
         }
     }
 
-    private static int normalizeCsvToLocalDb(InputStream input, File output) throws Exception {
+    private static int normalizeCsvToLocalDb(InputStream input, File output, boolean mergeWithExisting,
+                                             boolean mayHaveHeader) throws Exception {
         if (input == null) return 0;
 
-        File temp = new File(output.getParentFile(), output.getName() + ".tmp");
-        if (temp.getParentFile() != null) {
-            temp.getParentFile().mkdirs();
+        if (output.getParentFile() != null) {
+            output.getParentFile().mkdirs();
         }
 
         int count = 0;
 
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(input));
-             FileOutputStream fos = new FileOutputStream(temp, false)) {
+             OpenCellIdTowerIndex.Writer writer = new OpenCellIdTowerIndex.Writer(output)) {
+
+            if (mergeWithExisting) {
+                writer.mergeExisting(output);
+            }
 
             String line;
-            boolean firstLine = true;
+            boolean firstLine = mayHaveHeader;
 
             while ((line = reader.readLine()) != null) {
                 line = line.trim();
@@ -193,24 +374,18 @@ public final class OpenCellIdSyncScheduler {
 
                 firstLine = false;
 
-                String normalized = normalizeLine(line);
-                if (normalized == null) continue;
+                Long key = parseTowerKey(line);
+                if (key == null) continue;
 
-                fos.write(normalized.getBytes());
-                fos.write('\n');
+                writer.add(key);
                 count++;
             }
-        }
 
-        if (output.exists() && !output.delete()) {
-            throw new IllegalStateException("Cannot replace old OpenCellID database");
+            long unique = writer.finish();
+            Log.d(TAG, "OpenCellID index built: rows=" + count + ", unique=" + unique +
+                    ", bytes=" + output.length());
+            return (int) Math.min(unique, Integer.MAX_VALUE);
         }
-
-        if (!temp.renameTo(output)) {
-            throw new IllegalStateException("Cannot save OpenCellID database");
-        }
-
-        return count;
     }
 
     private static boolean looksLikeHeader(String line) {
@@ -222,7 +397,7 @@ public final class OpenCellIdSyncScheduler {
                 || lower.contains("area");
     }
 
-    private static String normalizeLine(String line) {
+    private static Long parseTowerKey(String line) {
         String[] parts = line.split(",");
 
         if (parts.length < 5) return null;
@@ -241,33 +416,33 @@ public final class OpenCellIdSyncScheduler {
             return null;
         }
 
-        return radio + "," + mcc + "," + mnc + "," + area + "," + cell;
+        return OpenCellIdTowerIndex.packKey(radio, mcc, mnc, area, cell);
     }
 
     public static boolean isKnownTower(Context context, CellTower tower) {
         if (context == null || tower == null) return false;
 
-        File db = getLocalDbFile(context);
-        if (!db.exists() || db.length() == 0) return false;
+        File index = getLocalDbFile(context);
+        if (!index.exists() || index.length() == 0) return false;
 
-        String expected = buildTowerKey(tower);
-        if (expected == null) return false;
+        Long key = buildTowerIndexKey(tower);
+        if (key == null) return false;
 
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(db)))) {
+        long startedAt = System.nanoTime();
+        boolean known = OpenCellIdTowerIndex.contains(index, key);
+        lastLookupNanos = System.nanoTime() - startedAt;
+        return known;
+    }
 
-            String line;
+    private static Long buildTowerIndexKey(CellTower tower) {
+        int mcc = tower.getMcc();
+        int mnc = tower.getMnc();
+        long area = usesTac(tower) ? tower.getTac() : tower.getLac();
+        long cell = tower.getCellId();
 
-            while ((line = reader.readLine()) != null) {
-                if (expected.equalsIgnoreCase(line.trim())) {
-                    return true;
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error checking OpenCellID database", e);
-        }
+        if (mcc <= 0 || mnc < 0 || cell <= 0) return null;
 
-        return false;
+        return OpenCellIdTowerIndex.packKey(normalizeRadio(tower.getNetworkType()), mcc, mnc, area, cell);
     }
 
     public static String buildTowerKey(CellTower tower) {
@@ -280,18 +455,20 @@ public final class OpenCellIdSyncScheduler {
 
         if (mcc <= 0 || mnc < 0 || cell <= 0) return null;
 
-        String radio = tower.getNetworkType();
+        return normalizeRadio(tower.getNetworkType()) + "," + mcc + "," + mnc + "," + area + "," + cell;
+    }
+
+    private static String normalizeRadio(String radio) {
         if (radio == null || radio.trim().isEmpty()) {
-            radio = "CELL";
+            return "CELL";
         }
 
         radio = radio.trim().toUpperCase(Locale.US);
 
         if ("5G".equals(radio)) {
-            radio = "NR";
+            return "NR";
         }
-
-        return radio + "," + mcc + "," + mnc + "," + area + "," + cell;
+        return radio;
     }
 
     private static boolean usesTac(CellTower tower) {
@@ -304,7 +481,27 @@ public final class OpenCellIdSyncScheduler {
     }
 
     public static File getLocalDbFile(Context context) {
-        return new File(context.getApplicationContext().getFilesDir(), DB_FILE_NAME);
+        return new File(context.getApplicationContext().getFilesDir(), INDEX_FILE_NAME);
+    }
+
+    public static long getImportDurationMs(Context context) {
+        if (context == null) return 0L;
+
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .getLong(KEY_IMPORT_DURATION_MS, 0L);
+    }
+
+    public static long getIndexSizeBytes(Context context) {
+        if (context == null) return 0L;
+
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .getLong(KEY_INDEX_SIZE, 0L);
+    }
+
+    public static long getLastLookupMicros() {
+        return lastLookupNanos / 1000L;
     }
 
     public static int getImportedCount(Context context) {
@@ -341,6 +538,24 @@ public final class OpenCellIdSyncScheduler {
                 .apply();
     }
 
+    public static void setDiffUrl(Context context, String url) {
+        if (context == null) return;
+
+        context.getApplicationContext()
+                .getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_DIFF_URL, url == null ? "" : url.trim())
+                .apply();
+    }
+
+    public static String getDiffUrl(Context context) {
+        if (context == null) return "";
+
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .getString(KEY_DIFF_URL, "");
+    }
+
     public static String getSourceUrl(Context context) {
         if (context == null) return "";
 
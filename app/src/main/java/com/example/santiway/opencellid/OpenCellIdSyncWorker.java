@@ -0,0 +1,36 @@
+package com.example.santiway.opencellid;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/**
+ * WorkManager-задача синхронизации OpenCellID. Ограничения (сеть, зарядка) задаёт
+ * OpenCellIdSyncScheduler, сама задача только запускает синхронизацию и просит повтор
+ * при сетевой ошибке — недокачанный файл при этом сохраняется и докачивается.
+ */
+public class OpenCellIdSyncWorker extends Worker {
+    private static final String TAG = "OpenCellIdSyncWorker";
+    private static final int MAX_ATTEMPTS = 5;
+
+    public OpenCellIdSyncWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        boolean success = OpenCellIdSyncScheduler.runSync(getApplicationContext());
+        if (success) {
+            return Result.success();
+        }
+        if (getRunAttemptCount() + 1 >= MAX_ATTEMPTS) {
+            Log.w(TAG, "OpenCellID sync gave up after " + MAX_ATTEMPTS + " attempts");
+            return Result.failure();
+        }
+        return Result.retry();
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.santiway.opencellid;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Бинарный индекс известных вышек OpenCellID.
+ * Файл: заголовок, отсортированный массив 64-битных ключей без дублей и Bloom-фильтр.
+ * Поиск идёт по memory-mapped файлу: сначала Bloom (большинство промахов отсекается
+ * несколькими обращениями к памяти), затем бинарный поиск по ключам.
+ *
+ * Ключ: MCC (10 бит) | MNC (10 бит) | 44 бита перемешанного хэша radio/area/cell.
+ * Точная упаковка всех полей для NR (TAC 24 бита + NCI 36 бит) в 64 бита не помещается,
+ * поэтому коллизия возможна только внутри одного оператора и практически исключена.
+ */
+public final class OpenCellIdTowerIndex {
+    private static final String TAG = "OpenCellIdTowerIndex";
+
+    private static final int MAGIC = 0x4F434931; // "OCI1"
+    private static final int HEADER_BYTES = 32;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final long MAX_BLOOM_BYTES = 32L * 1024L * 1024L;
+    private static final int SORT_CHUNK_KEYS = 1 << 20;
+
+    private static final Object LOCK = new Object();
+    private static OpenCellIdTowerIndex current;
+
+    private final File file;
+    private final long keyCount;
+    private final LongBuffer keys;
+    private final LongBuffer bloom;
+    private final long bloomBits;
+
+    private OpenCellIdTowerIndex(File file, long keyCount,
+                                 LongBuffer keys, LongBuffer bloom, long bloomBits) {
+        this.file = file;
+        this.keyCount = keyCount;
+        this.keys = keys;
+        this.bloom = bloom;
+        this.bloomBits = bloomBits;
+    }
+
+    public static long packKey(String radio, int mcc, int mnc, long area, long cell) {
+        String normalizedRadio = radio == null ? "" : radio.trim().toUpperCase(Locale.US);
+
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : normalizedRadio.getBytes(StandardCharsets.US_ASCII)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash = mix(hash ^ mix(area + 0x9E3779B97F4A7C15L));
+        hash = mix(hash ^ mix(cell));
+
+        return ((long) (mcc & 0x3FF) << 54)
+                | ((long) (mnc & 0x3FF) << 44)
+                | (hash & 0xFFFFFFFFFFFL);
+    }
+
+    /**
+     * Проверка по индексу. Отображение файла кэшируется до следующей пересборки (Writer.finish).
+     */
+    public static boolean contains(File file, long key) {
+        OpenCellIdTowerIndex index = open(file);
+        return index != null && index.containsKey(key);
+    }
+
+    private static void invalidate() {
+        synchronized (LOCK) {
+            current = null;
+        }
+    }
+
+    private static OpenCellIdTowerIndex open(File file) {
+        if (file == null) return null;
+
+        synchronized (LOCK) {
+            if (current != null && current.file.equals(file)) {
+                return current;
+            }
+            if (!file.exists() || file.length() < HEADER_BYTES) return null;
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                 FileChannel channel = raf.getChannel()) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                map.order(ByteOrder.BIG_ENDIAN);
+
+                if (map.getInt(0) != MAGIC) {
+                    Log.w(TAG, "Unknown OpenCellID index format: " + file.getName());
+                    return null;
+                }
+                long count = map.getLong(8);
+                long bloomBits = map.getLong(16);
+
+                map.position(HEADER_BYTES);
+                LongBuffer keyView = map.slice().order(ByteOrder.BIG_ENDIAN).asLongBuffer();
+                keyView.limit((int) count);
+                LongBuffer keys = keyView.slice();
+
+                LongBuffer bloom = null;
+                if (bloomBits > 0) {
+                    map.position((int) (HEADER_BYTES + count * 8L));
+                    bloom = map.slice().order(ByteOrder.BIG_ENDIAN).asLongBuffer();
+                }
+
+                current = new OpenCellIdTowerIndex(file, count, keys, bloom, bloomBits);
+                return current;
+            } catch (Exception e) {
+                Log.e(TAG, "Error opening OpenCellID index", e);
+                return null;
+            }
+        }
+    }
+
+    private boolean containsKey(long key) {
+        if (bloom != null && !bloomMightContain(key)) {
+            return false;
+        }
+
+        long low = 0;
+        long high = keyCount - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long value = keys.get((int) mid);
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean bloomMightContain(long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1L;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bloomBits);
+            if ((bloom.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Потоковая сборка индекса: ключи копятся порциями, каждая порция сортируется
+     * и сбрасывается во временный файл, в конце порции сливаются с удалением дублей.
+     * Пиковая память — одна порция плюс Bloom-фильтр, независимо от размера дампа.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final File output;
+        private final File workDir;
+        private final List<File> runs = new ArrayList<>();
+        private File baseIndex;
+        private long baseCount = 0;
+        private long[] chunk = new long[SORT_CHUNK_KEYS];
+        private int chunkSize = 0;
+        private long added = 0;
+
+        public Writer(File output) {
+            this.output = output;
+            this.workDir = new File(output.getParentFile(), output.getName() + ".runs");
+        }
+
+        public void add(long key) throws IOException {
+            if (chunkSize == chunk.length) {
+                flushRun();
+            }
+            chunk[chunkSize++] = key;
+            added++;
+        }
+
+        /**
+         * Подключает ключи уже собранного индекса как готовый отсортированный прогон —
+         * так дельта-обновление сливается с базой без повторной сортировки всех вышек.
+         */
+        public void mergeExisting(File index) throws IOException {
+            if (index == null || !index.exists() || index.length() < HEADER_BYTES) return;
+
+            try (DataInputStream in = new DataInputStream(new FileInputStream(index))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Unknown OpenCellID index format");
+                }
+                in.readInt();
+                baseCount = in.readLong();
+            }
+            baseIndex = index;
+            added += baseCount;
+        }
+
+        /**
+         * Пишет индекс во временный файл и атомарно подменяет им output.
+         * Возвращает число уникальных ключей.
+         */
+        public long finish() throws IOException {
+            flushRun();
+            chunk = null;
+
+            long bloomBits = Math.max(64L, Math.min(added * BLOOM_BITS_PER_KEY, MAX_BLOOM_BYTES * 8L));
+            long[] bloomWords = new long[(int) ((bloomBits + 63) / 64)];
+            bloomBits = bloomWords.length * 64L;
+
+            File temp = new File(output.getParentFile(), output.getName() + ".tmp");
+            long count = 0;
+
+            PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> Long.compare(a.head, b.head));
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp, false), 64 * 1024))) {
+                out.write(new byte[HEADER_BYTES]);
+
+                if (baseIndex != null && baseCount > 0) {
+                    RunReader reader = new RunReader(baseIndex, HEADER_BYTES, baseCount);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+
+                for (File run : runs) {
+                    RunReader reader = new RunReader(run, 0L, Long.MAX_VALUE);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+
+                boolean hasPrevious = false;
+                long previous = 0L;
+                while (!queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    long key = reader.head;
+                    if (!hasPrevious || key != previous) {
+                        out.writeLong(key);
+                        setBloomBit(bloomWords, bloomBits, key);
+                        previous = key;
+                        hasPrevious = true;
+                        count++;
+                    }
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+
+                for (long word : bloomWords) {
+                    out.writeLong(word);
+                }
+            } finally {
+                for (RunReader reader : queue) {
+                    reader.close();
+                }
+                deleteRuns();
+            }
+
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+                raf.writeInt(MAGIC);
+                raf.writeInt(1);
+                raf.writeLong(count);
+                raf.writeLong(bloomBits);
+                raf.writeLong(System.currentTimeMillis());
+            }
+
+            if (output.exists() && !output.delete()) {
+                throw new IOException("Cannot replace old OpenCellID index");
+            }
+            if (!temp.renameTo(output)) {
+                throw new IOException("Cannot save OpenCellID index");
+            }
+            invalidate();
+            return count;
+        }
+
+        @Override
+        public void close() {
+            chunk = null;
+            deleteRuns();
+        }
+
+        private void flushRun() throws IOException {
+            if (chunkSize == 0) return;
+
+            Arrays.sort(chunk, 0, chunkSize);
+            if (!workDir.exists() && !workDir.mkdirs()) {
+                throw new IOException("Cannot create index work dir");
+            }
+            File run = new File(workDir, "run_" + runs.size() + ".bin");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(run, false), 64 * 1024))) {
+                for (int i = 0; i < chunkSize; i++) {
+                    out.writeLong(chunk[i]);
+                }
+            }
+            runs.add(run);
+            chunkSize = 0;
+        }
+
+        private void deleteRuns() {
+            for (File run : runs) {
+                run.delete();
+            }
+            runs.clear();
+            workDir.delete();
+        }
+
+        private static void setBloomBit(long[] words, long bloomBits, long key) {
+            long h1 = mix(key);
+            long h2 = mix(h1) | 1L;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bloomBits);
+                words[(int) (bit >>> 6)] |= 1L << (bit & 63);
+            }
+        }
+    }
+
+    private static final class RunReader {
+        private final DataInputStream in;
+        private long remaining;
+        long head;
+
+        RunReader(File run, long offset, long keyCount) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 64 * 1024));
+            this.remaining = keyCount;
+            if (offset > 0 && in.skipBytes((int) offset) != offset) {
+                in.close();
+                throw new IOException("Cannot seek in " + run.getName());
+            }
+        }
+
+        boolean advance() throws IOException {
+            if (remaining <= 0) return false;
+            remaining--;
+            try {
+                head = in.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
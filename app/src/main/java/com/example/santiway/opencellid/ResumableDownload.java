@@ -0,0 +1,226 @@
+package com.example.santiway.opencellid;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * HTTP-загрузка с докачкой. Байты ответа по мере чтения дописываются в .part-файл;
+ * после обрыва уже скачанная часть читается с диска, а остаток запрашивается через
+ * Range + If-Range с ETag/Last-Modified первой попытки. Если файл на сервере сменился,
+ * сервер отдаёт его целиком и загрузка начинается заново.
+ */
+final class ResumableDownload implements Closeable {
+    private static final String TAG = "ResumableDownload";
+
+    /**
+     * Где между попытками хранятся URL и валидатор недокачанного файла.
+     */
+    interface Checkpoint {
+        String url();
+
+        String validator();
+
+        void save(String url, String validator);
+
+        void clear();
+    }
+
+    private final String urlString;
+    private final File partial;
+    private final Checkpoint checkpoint;
+    private HttpURLConnection connection;
+    private InputStream stream;
+    private long resumedFrom;
+
+    ResumableDownload(String urlString, File partial, Checkpoint checkpoint) {
+        this.urlString = urlString;
+        this.partial = partial;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Открывает поток всего файла: сохранённая часть с диска, затем остаток из сети.
+     */
+    InputStream open() throws IOException {
+        String validator = checkpoint.validator();
+        long resumeFrom = 0L;
+        if (partial.exists() && urlString.equals(checkpoint.url()) && validator != null && !validator.isEmpty()) {
+            resumeFrom = partial.length();
+        } else if (partial.exists() && !partial.delete()) {
+            throw new IOException("Cannot reset partial download " + partial.getName());
+        }
+
+        connection = (HttpURLConnection) new URL(urlString).openConnection();
+        connection.setConnectTimeout(20000);
+        connection.setReadTimeout(60000);
+        connection.setRequestMethod("GET");
+        connection.setRequestProperty("User-Agent", "SantiWay-Android");
+        if (resumeFrom > 0) {
+            connection.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+            connection.setRequestProperty("If-Range", validator);
+        }
+
+        int code = connection.getResponseCode();
+        InputStream network;
+        boolean append;
+
+        if (code == HttpURLConnection.HTTP_PARTIAL && resumeFrom > 0) {
+            network = connection.getInputStream();
+            append = true;
+            Log.d(TAG, "Resuming download from byte " + resumeFrom);
+        } else if (code == 416 && resumeFrom > 0) {
+            // Файл уже докачан целиком, остаётся только прочитать его с диска
+            network = null;
+            append = true;
+        } else if (code >= 200 && code < 300) {
+            network = connection.getInputStream();
+            append = false;
+        } else {
+            throw new IOException("HTTP " + code);
+        }
+
+        if (!append) {
+            String newValidator = connection.getHeaderField("ETag");
+            if (newValidator == null || newValidator.isEmpty()) {
+                newValidator = connection.getHeaderField("Last-Modified");
+            }
+            checkpoint.save(urlString, newValidator == null ? "" : newValidator);
+        }
+        resumedFrom = append ? resumeFrom : 0L;
+
+        if (network == null) {
+            stream = new FileInputStream(partial);
+        } else if (append) {
+            stream = new SequenceInputStream(new FileInputStream(partial),
+                    new TeeInputStream(network, new FileOutputStream(partial, true),
+                            connection.getContentLengthLong()));
+        } else {
+            stream = new TeeInputStream(network, new FileOutputStream(partial, false),
+                    connection.getContentLengthLong());
+        }
+        return stream;
+    }
+
+    /**
+     * С какого байта продолжена загрузка; 0 — файл качается с начала.
+     */
+    long resumedFrom() {
+        return resumedFrom;
+    }
+
+    /**
+     * Файл прочитан и применён: .part и контрольная точка больше не нужны.
+     */
+    void complete() {
+        closeQuietly();
+        if (partial.exists() && !partial.delete()) {
+            Log.w(TAG, "Cannot delete " + partial.getName());
+        }
+        checkpoint.clear();
+    }
+
+    /**
+     * Скачанная часть негодна (например, битый архив): следующая попытка начнёт с нуля.
+     */
+    void discard() {
+        closeQuietly();
+        if (partial.exists() && !partial.delete()) {
+            Log.w(TAG, "Cannot delete " + partial.getName());
+        }
+    }
+
+    @Override
+    public void close() {
+        closeQuietly();
+        if (connection != null) {
+            connection.disconnect();
+            connection = null;
+        }
+    }
+
+    private void closeQuietly() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+            stream = null;
+        }
+    }
+
+    /**
+     * Поток, который копирует всё прочитанное в out — для сохранения .part-файла на лету.
+     * HttpURLConnection отдаёт оборванное тело как обычный конец потока, поэтому длина
+     * сверяется с Content-Length: иначе недокачанный файл ушёл бы в индекс как целый.
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream out;
+        private long remaining;
+
+        TeeInputStream(InputStream in, OutputStream out, long contentLength) {
+            super(in);
+            this.out = out;
+            this.remaining = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                out.write(b);
+                remaining--;
+            } else {
+                checkComplete();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                out.write(buffer, offset, read);
+                remaining -= read;
+            } else if (read == -1) {
+                checkComplete();
+            }
+            return read;
+        }
+
+        private void checkComplete() throws IOException {
+            // remaining < 0 — длина не была известна заранее
+            if (remaining > 0) {
+                throw new EOFException("Connection closed, " + remaining + " bytes missing");
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Пропуск сломал бы .part-файл, поэтому читаем и сохраняем байты
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.santiway.upload_data;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * Компактная двоичная кодировка пачки выгрузки (application/x-santiway-devices, версия 2).
+ * Те же поля, что у JSON-тела DeviceUploadBody, но:
+ * <ul>
+ *     <li>строки (device_id, имена, типы сети, папки, user_api, user_phone_mac) лежат один раз
+ *     в таблице строк, строка наблюдения ссылается на них индексом (0 — null);</li>
+ *     <li>detected_at — секунды эпохи, дельтой от предыдущей строки;</li>
+ *     <li>широта и долгота — целые в 1e-7 градуса (около 1 см), дельтой от предыдущей строки;</li>
+ *     <li>idempotency_key не пишется строкой: он собирается из id установки в заголовке,
+ *     папки, id строки (дельтой от предыдущей) и ревизии исправления;</li>
+ *     <li>все целые — varint, знаковые — zigzag, как в Protobuf.</li>
+ * </ul>
+ * <pre>
+ * "SWD" version
+ * stringCount {len utf8}*  userApiIdx phoneMacIdx installIdx
+ * rowCount
+ * row: flags deviceIdx nameIdx networkTypeIdx folderIdx systemFolderIdx
+ *      keyFolderIdx rowIdDelta revision
+ *      [signal] [detectedDelta | detectedRawIdx] [latDelta] [lonDelta]
+ * </pre>
+ * Эталонный разбор для серверной стороны — DeviceBatchDecoder в тестах: он возвращает тот же
+ * массив объектов, что пришёл бы в JSON, поэтому сервер может принимать обе кодировки
+ * одним обработчиком.
+ */
+final class DeviceBatchCodec {
+    static final String MEDIA_TYPE = "application/x-santiway-devices";
+
+    static final ByteString MAGIC = ByteString.encodeUtf8("SWD");
+    static final int VERSION = 2;
+    static final double COORDINATE_SCALE = 1e7;
+
+    static final int FLAG_SIGNAL = 1;
+    static final int FLAG_DETECTED_SECONDS = 1 << 1;
+    static final int FLAG_DETECTED_RAW = 1 << 2;
+    static final int FLAG_LATITUDE = 1 << 3;
+    static final int FLAG_LONGITUDE = 1 << 4;
+
+    private DeviceBatchCodec() {
+    }
+
+    static void encode(List<DeviceUploadManager.PendingUpload> items, String apiKey, String phoneMac,
+                       String installId, BufferedSink sink) throws IOException {
+        SimpleDateFormat isoFormat = isoFormat();
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        int apiIdx = intern(strings, apiKey);
+        int macIdx = intern(strings, phoneMac);
+        int installIdx = intern(strings, installId);
+        // Таблица строк пишется до строк наблюдений, поэтому время разбирается в первом проходе
+        Long[] detectedSeconds = new Long[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            ApiDevice device = items.get(i).device;
+            detectedSeconds[i] = parseSeconds(isoFormat, device.getDetected_at());
+            if (detectedSeconds[i] == null) intern(strings, device.getDetected_at());
+            intern(strings, device.getDevice_id());
+            intern(strings, device.getDevice_name());
+            intern(strings, device.getNetwork_type());
+            intern(strings, device.getFolder_name());
+            intern(strings, device.getSystem_folder_name());
+            intern(strings, keyFolder(items.get(i)));
+        }
+
+        sink.write(MAGIC);
+        sink.writeByte(VERSION);
+        writeVarint(sink, strings.size());
+        for (String value : strings.keySet()) {
+            ByteString bytes = ByteString.encodeUtf8(value);
+            writeVarint(sink, bytes.size());
+            sink.write(bytes);
+        }
+        writeVarint(sink, apiIdx);
+        writeVarint(sink, macIdx);
+        writeVarint(sink, installIdx);
+
+        writeVarint(sink, items.size());
+        long prevSeconds = 0;
+        long prevLat = 0;
+        long prevLon = 0;
+        long prevRowId = 0;
+        for (int i = 0; i < items.size(); i++) {
+            DeviceUploadManager.PendingUpload item = items.get(i);
+            ApiDevice device = item.device;
+            Long seconds = detectedSeconds[i];
+            String detectedRaw = device.getDetected_at() != null && seconds == null ? device.getDetected_at() : null;
+
+            int flags = 0;
+            if (device.getSignal_strength() != null) flags |= FLAG_SIGNAL;
+            if (seconds != null) flags |= FLAG_DETECTED_SECONDS;
+            if (detectedRaw != null) flags |= FLAG_DETECTED_RAW;
+            if (device.getLatitude() != null) flags |= FLAG_LATITUDE;
+            if (device.getLongitude() != null) flags |= FLAG_LONGITUDE;
+
+            writeVarint(sink, flags);
+            writeVarint(sink, intern(strings, device.getDevice_id()));
+            writeVarint(sink, intern(strings, device.getDevice_name()));
+            writeVarint(sink, intern(strings, device.getNetwork_type()));
+            writeVarint(sink, intern(strings, device.getFolder_name()));
+            writeVarint(sink, intern(strings, device.getSystem_folder_name()));
+            writeVarint(sink, intern(strings, keyFolder(item)));
+            // Исправленные строки идут перед диапазоном, поэтому дельта бывает отрицательной
+            writeSignedVarint(sink, item.rowId - prevRowId);
+            prevRowId = item.rowId;
+            writeVarint(sink, item.revision);
+
+            if (device.getSignal_strength() != null) {
+                writeSignedVarint(sink, device.getSignal_strength());
+            }
+            if (seconds != null) {
+                writeSignedVarint(sink, seconds - prevSeconds);
+                prevSeconds = seconds;
+            }
+            if (detectedRaw != null) {
+                writeVarint(sink, intern(strings, detectedRaw));
+            }
+            if (device.getLatitude() != null) {
+                long lat = Math.round(device.getLatitude() * COORDINATE_SCALE);
+                writeSignedVarint(sink, lat - prevLat);
+                prevLat = lat;
+            }
+            if (device.getLongitude() != null) {
+                long lon = Math.round(device.getLongitude() * COORDINATE_SCALE);
+                writeSignedVarint(sink, lon - prevLon);
+                prevLon = lon;
+            }
+        }
+    }
+
+    private static String keyFolder(DeviceUploadManager.PendingUpload item) {
+        return item.folderName != null ? item.folderName : item.tableName;
+    }
+
+    private static int intern(Map<String, Integer> strings, String value) {
+        if (value == null) return 0;
+        Integer index = strings.get(value);
+        if (index == null) {
+            index = strings.size() + 1;
+            strings.put(value, index);
+        }
+        return index;
+    }
+
+    static SimpleDateFormat isoFormat() {
+        // Тот же формат, что у detected_at в cursorToApiDevice
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        return format;
+    }
+
+    private static Long parseSeconds(SimpleDateFormat isoFormat, String value) {
+        if (value == null) return null;
+        try {
+            long millis = isoFormat.parse(value).getTime();
+            // Строка, которую формат не воспроизведёт байт в байт, уходит как есть
+            return millis % 1000 == 0 && value.equals(isoFormat.format(new Date(millis))) ? millis / 1000 : null;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static void writeVarint(BufferedSink sink, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            sink.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        sink.writeByte((int) value);
+    }
+
+    private static void writeSignedVarint(BufferedSink sink, long value) throws IOException {
+        writeVarint(sink, (value << 1) ^ (value >> 63));
+    }
+}
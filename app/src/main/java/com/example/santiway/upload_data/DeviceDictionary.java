@@ -0,0 +1,164 @@
+package com.example.santiway.upload_data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Общий словарь устройств: нормализованный ключ -> целый id и статические атрибуты
+ * (name, vendor, capabilities), записанные один раз.
+ *
+ * Сырая строка хранит device_id, а в этих колонках — NULL, если значение совпадает со словарём,
+ * или собственное значение, если оно другое (SSID сменился и т. п.). Читатели берут строки через
+ * source(): LEFT JOIN со словарём восстанавливает прежний вид строки. Старые строки без device_id
+ * читаются как есть. bssid, type и идентификаторы сот остаются в строке: по ним идут индексы
+ * дедупликации, истории и поиска серых устройств. Перенос bssid за device_id превратил бы
+ * проверку дубликата по индексу (UPPER(bssid), timestamp), историю устройства и начальную
+ * загрузку DeviceMovementTracker в JOIN со словарём на каждый запрос, а индекс пришлось бы
+ * строить по device_id, которого нет у старых строк.
+ */
+final class DeviceDictionary {
+    private static final String TAG = "DeviceDictionary";
+
+    static final String TABLE = "device_dictionary";
+    private static final String[] ATTRIBUTES = {"name", "vendor", "capabilities"};
+    private static final int CACHE_SIZE = 20000;
+
+    /** Колонки сырой таблицы в исходном виде; словарные восстанавливаются через COALESCE */
+    private static final String DECODED_COLUMNS = buildDecodedColumns();
+
+    private static final class Entry {
+        final long id;
+        final String[] attributes;
+
+        Entry(long id, String[] attributes) {
+            this.id = id;
+            this.attributes = attributes;
+        }
+    }
+
+    private final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    static void ensureTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "device_key TEXT NOT NULL UNIQUE," +
+                "name TEXT," +
+                "vendor TEXT," +
+                "capabilities TEXT)");
+    }
+
+    /**
+     * Копия values для вставки в сырую таблицу: с device_id и без повторов словарных атрибутов.
+     * Новую запись словаря добавляет в текущую транзакцию db; при её откате нужен invalidate().
+     */
+    synchronized ContentValues encode(SQLiteDatabase db, String deviceKey, ContentValues values) {
+        ContentValues encoded = new ContentValues(values);
+        if (deviceKey == null || deviceKey.isEmpty()) return encoded;
+
+        Entry entry = cache.get(deviceKey);
+        if (entry == null) {
+            entry = load(db, deviceKey);
+            if (entry == null) {
+                entry = insert(db, deviceKey, values);
+            }
+            cache.put(deviceKey, entry);
+        }
+
+        encoded.put("device_id", entry.id);
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            String column = ATTRIBUTES[i];
+            if (!values.containsKey(column)) continue;
+
+            String value = values.getAsString(column);
+            String stored = entry.attributes[i];
+            if (value == null ? stored == null : value.equals(stored)) {
+                encoded.putNull(column);
+            } else if (value == null) {
+                // NULL в строке означает «как в словаре», поэтому отсутствие значения пишем пустой строкой
+                encoded.put(column, "");
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Сбрасывает кэш после отката транзакции: в нём могут остаться id, которых нет в БД.
+     */
+    synchronized void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * FROM-источник сырой таблицы с раскрытыми словарными атрибутами; колонки те же, что у таблицы.
+     * SQLite разворачивает подзапрос, поэтому WHERE и ORDER BY внешнего запроса идут по индексам таблицы.
+     */
+    static String source(String rawTable) {
+        return "(" + decodedSelect(rawTable) + ")";
+    }
+
+    static String decodedSelect(String rawTable) {
+        return "SELECT " + DECODED_COLUMNS + " FROM \"" + rawTable + "\" r " +
+                "LEFT JOIN " + TABLE + " d ON d.id = r.device_id";
+    }
+
+    private static String buildDecodedColumns() {
+        StringBuilder columns = new StringBuilder();
+        for (String column : RawPartitions.COLUMNS.split(",")) {
+            column = column.trim();
+            if (columns.length() > 0) columns.append(", ");
+            if (isAttribute(column)) {
+                columns.append("COALESCE(r.").append(column).append(", d.").append(column)
+                        .append(") AS ").append(column);
+            } else {
+                columns.append("r.").append(column);
+            }
+        }
+        return columns.toString();
+    }
+
+    private static boolean isAttribute(String column) {
+        for (String attribute : ATTRIBUTES) {
+            if (attribute.equals(column)) return true;
+        }
+        return false;
+    }
+
+    private static Entry load(SQLiteDatabase db, String deviceKey) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT id, name, vendor, capabilities FROM " + TABLE + " WHERE device_key = ?",
+                    new String[]{deviceKey});
+            if (!cursor.moveToFirst()) return null;
+            String[] attributes = new String[ATTRIBUTES.length];
+            for (int i = 0; i < attributes.length; i++) {
+                attributes[i] = cursor.getString(i + 1);
+            }
+            return new Entry(cursor.getLong(0), attributes);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    private static Entry insert(SQLiteDatabase db, String deviceKey, ContentValues values) {
+        ContentValues row = new ContentValues();
+        row.put("device_key", deviceKey);
+        String[] attributes = new String[ATTRIBUTES.length];
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            attributes[i] = values.getAsString(ATTRIBUTES[i]);
+            row.put(ATTRIBUTES[i], attributes[i]);
+        }
+        long id = db.insertOrThrow(TABLE, null, row);
+        Log.d(TAG, "Dictionary entry " + id + " for " + deviceKey);
+        return new Entry(id, attributes);
+    }
+}
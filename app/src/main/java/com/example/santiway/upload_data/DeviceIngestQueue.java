@@ -0,0 +1,322 @@
+package com.example.santiway.upload_data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.santiway.bluetooth_scanner.BluetoothDevice;
+import com.example.santiway.cell_scanner.CellTower;
+import com.example.santiway.wifi_scanner.WifiDevice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Очередь записи наблюдений сканеров (write-behind).
+ * Сканеры только кладут наблюдения в ограниченную очередь, а один поток-писатель
+ * сбрасывает их в MainDatabaseHelper групповыми транзакциями по N записей или T мс.
+ */
+public class DeviceIngestQueue {
+    private static final String TAG = "DeviceIngestQueue";
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final int DEFAULT_BATCH_SIZE = 200;
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 500L;
+    private static final long BLOCK_TIMEOUT_MS = 50L;
+    /** write(): наблюдение не записано из-за ошибки (а не отброшено как дубликат) */
+    private static final long WRITE_FAILED = -2L;
+    private static DeviceIngestQueue instance;
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK
+    }
+
+    private enum Kind {
+        WIFI,
+        BLUETOOTH,
+        CELL,
+        TRIANGULATED_WIFI,
+        TRIANGULATED_BLUETOOTH
+    }
+
+    private static final class Observation {
+        final Kind kind;
+        final Object device;
+        final String tableName;
+        final long enqueuedAt;
+
+        Observation(Kind kind, Object device, String tableName) {
+            this.kind = kind;
+            this.device = device;
+            this.tableName = tableName;
+            this.enqueuedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public static class Metrics {
+        public final int depth;
+        public final int capacity;
+        public final OverflowPolicy policy;
+        public final long enqueued;
+        public final long written;
+        public final long dropped;
+        /** Наблюдения, которые поток-писатель не смог записать (исключение или откат пачки) */
+        public final long failed;
+        public final int lastBatchSize;
+        public final long lastFlushLatencyMs;
+        public final long maxFlushLatencyMs;
+        public final long lastQueueWaitMs;
+
+        Metrics(int depth, int capacity, OverflowPolicy policy, long enqueued, long written,
+                long dropped, long failed, int lastBatchSize, long lastFlushLatencyMs,
+                long maxFlushLatencyMs, long lastQueueWaitMs) {
+            this.depth = depth;
+            this.capacity = capacity;
+            this.policy = policy;
+            this.enqueued = enqueued;
+            this.written = written;
+            this.dropped = dropped;
+            this.failed = failed;
+            this.lastBatchSize = lastBatchSize;
+            this.lastFlushLatencyMs = lastFlushLatencyMs;
+            this.maxFlushLatencyMs = maxFlushLatencyMs;
+            this.lastQueueWaitMs = lastQueueWaitMs;
+        }
+    }
+
+    private final MainDatabaseHelper databaseHelper;
+    private final ArrayBlockingQueue<Observation> queue;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private volatile OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile int lastBatchSize = 0;
+    private volatile long lastFlushLatencyMs = 0L;
+    private volatile long maxFlushLatencyMs = 0L;
+    private volatile long lastQueueWaitMs = 0L;
+
+    public static synchronized DeviceIngestQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviceIngestQueue(context.getApplicationContext(),
+                    DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+        }
+        return instance;
+    }
+
+    private DeviceIngestQueue(Context context, int capacity, int batchSize, long flushIntervalMs) {
+        this.databaseHelper = MainDatabaseHelper.getInstance(context);
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        Thread writer = new Thread(this::writerLoop, "DeviceIngestWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean enqueueWifi(WifiDevice device, String tableName) {
+        return enqueue(new Observation(Kind.WIFI, device, tableName));
+    }
+
+    public boolean enqueueBluetooth(BluetoothDevice device, String tableName) {
+        return enqueue(new Observation(Kind.BLUETOOTH, device, tableName));
+    }
+
+    public boolean enqueueCell(CellTower tower, String tableName) {
+        return enqueue(new Observation(Kind.CELL, tower, tableName));
+    }
+
+    /**
+     * Позиции, триангулированные по ESP32, идут тем же писателем, что и наблюдения сканеров.
+     */
+    public boolean enqueueTriangulatedWifi(WifiDevice device, String tableName) {
+        return enqueue(new Observation(Kind.TRIANGULATED_WIFI, device, tableName));
+    }
+
+    public boolean enqueueTriangulatedBluetooth(BluetoothDevice device, String tableName) {
+        return enqueue(new Observation(Kind.TRIANGULATED_BLUETOOTH, device, tableName));
+    }
+
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        if (policy != null) {
+            this.policy = policy;
+        }
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(
+                queue.size(),
+                capacity,
+                policy,
+                enqueuedCount.get(),
+                writtenCount.get(),
+                droppedCount.get(),
+                failedCount.get(),
+                lastBatchSize,
+                lastFlushLatencyMs,
+                maxFlushLatencyMs,
+                lastQueueWaitMs
+        );
+    }
+
+    private boolean enqueue(Observation observation) {
+        if (observation.device == null || observation.tableName == null) {
+            return false;
+        }
+
+        boolean accepted = queue.offer(observation);
+        if (!accepted) {
+            switch (policy) {
+                case DROP_OLDEST:
+                    // Освобождаем место за счёт самого старого наблюдения
+                    while (!accepted) {
+                        if (queue.poll() != null) {
+                            onDropped();
+                        }
+                        accepted = queue.offer(observation);
+                    }
+                    break;
+                case BLOCK:
+                    try {
+                        accepted = queue.offer(observation, BLOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (!accepted) {
+                        onDropped();
+                    }
+                    break;
+                case DROP_NEWEST:
+                default:
+                    onDropped();
+                    break;
+            }
+        }
+
+        if (accepted) {
+            enqueuedCount.incrementAndGet();
+        }
+        return accepted;
+    }
+
+    private void onDropped() {
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped == 1 || dropped % 500 == 0) {
+            Log.w(TAG, "Ingest queue overflow (" + policy + "), dropped total: " + dropped);
+        }
+    }
+
+    private void writerLoop() {
+        List<Observation> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                Observation first = queue.take();
+                batch.add(first);
+
+                long deadline = SystemClock.elapsedRealtime() + flushIntervalMs;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - SystemClock.elapsedRealtime();
+                    if (batch.size() >= batchSize || remaining <= 0) break;
+                    Observation next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                flush(batch);
+                if (queue.isEmpty()) {
+                    // Пауза между пачками — время перенести WAL в основной файл
+                    databaseHelper.checkpointIfIdle(databaseHelper.getWritableDatabase());
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Ingest writer interrupted");
+                return;
+            } catch (Exception e) {
+                // Пачка откатилась целиком: ни одно её наблюдение не записано
+                failedCount.addAndGet(batch.size());
+                Log.e(TAG, "Ingest writer error: " + e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Observation> batch) {
+        if (batch.isEmpty()) return;
+
+        long startedAt = SystemClock.elapsedRealtime();
+        int written = 0;
+        int failed = 0;
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        db.beginTransaction();
+        boolean committed = false;
+        try {
+            for (Observation observation : batch) {
+                long result = write(observation);
+                if (result == WRITE_FAILED) {
+                    failed++;
+                } else if (result != -1) {
+                    written++;
+                }
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            // Первая запись в новую папку создаёт её таблицы внутри пачки
+            SchemaCatalog.onTransactionEnded(db);
+            if (!committed) {
+                // Откат пачки: реестр статусов и словарь устройств уже видели её изменения
+                MainDatabaseHelper.invalidateWriteCaches();
+            }
+        }
+
+        long finishedAt = SystemClock.elapsedRealtime();
+        long latency = finishedAt - startedAt;
+        writtenCount.addAndGet(written);
+        // Откат пачки считает writerLoop — сюда доходят только ошибки строк закоммиченной пачки
+        failedCount.addAndGet(failed);
+        lastBatchSize = batch.size();
+        lastFlushLatencyMs = latency;
+        lastQueueWaitMs = finishedAt - batch.get(0).enqueuedAt;
+        if (latency > maxFlushLatencyMs) {
+            maxFlushLatencyMs = latency;
+        }
+        Log.d(TAG, "Flushed " + written + "/" + batch.size() + " observations in " + latency +
+                " ms, depth=" + queue.size());
+    }
+
+    private long write(Observation observation) {
+        try {
+            switch (observation.kind) {
+                case WIFI:
+                    return databaseHelper.addWifiDevice((WifiDevice) observation.device, observation.tableName);
+                case BLUETOOTH:
+                    return databaseHelper.addBluetoothDevice((BluetoothDevice) observation.device, observation.tableName);
+                case CELL:
+                    return databaseHelper.addCellTower((CellTower) observation.device, observation.tableName);
+                case TRIANGULATED_WIFI:
+                    return databaseHelper.addTriangulatedWifiDevice((WifiDevice) observation.device, observation.tableName);
+                case TRIANGULATED_BLUETOOTH:
+                    return databaseHelper.addTriangulatedBluetoothDevice((BluetoothDevice) observation.device,
+                            observation.tableName);
+                default:
+                    return -1;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing " + observation.kind + " to " + observation.tableName + ": " + e.getMessage());
+            return WRITE_FAILED;
+        }
+    }
+}
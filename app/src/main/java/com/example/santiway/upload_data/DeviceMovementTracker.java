@@ -0,0 +1,373 @@
+package com.example.santiway.upload_data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Инкрементальное состояние движения устройства для evaluateTargetStatus.
+ * Вместо перечитывания всех точек за 24 часа на каждое наблюдение храним последнюю точку,
+ * число точек, последнюю скорость и кольцо 15-минутных корзин с пройденным путём.
+ * Состояние живёт в LRU-кэше и пишется насквозь в таблицу device_movement_state;
+ * для устройств без сохранённого состояния оно один раз восстанавливается из raw-таблицы.
+ */
+class DeviceMovementTracker {
+    private static final String TAG = "DeviceMovementTracker";
+    static final String STATE_TABLE = "device_movement_state";
+    static final long WINDOW_MS = 24L * 60L * 60L * 1000L;
+    static final double MIN_JUMP_METERS = 10.0;
+    private static final long BUCKET_MS = 15L * 60L * 1000L;
+    private static final int RING_BUCKETS = (int) (WINDOW_MS / BUCKET_MS);
+    private static final int MAX_CACHED_STATES = 4096;
+
+    private final Map<String, MovementState> cache =
+            new LinkedHashMap<String, MovementState>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, MovementState> eldest) {
+                    return size() > MAX_CACHED_STATES;
+                }
+            };
+
+    static final class MovementState {
+        double lastLatitude;
+        double lastLongitude;
+        long lastTimestamp;
+        long pointCount;
+        double lastSpeedKmh;
+        long headBucket;
+        final float[] ringMeters = new float[RING_BUCKETS];
+
+        boolean hasPoints() {
+            return pointCount > 0;
+        }
+
+        /**
+         * Путь в километрах по точкам за последние 24 часа относительно now.
+         */
+        double distanceLast24hKm(long now) {
+            long cutoffBucket = Math.floorDiv(now - WINDOW_MS, BUCKET_MS);
+            long firstBucket = Math.max(headBucket - RING_BUCKETS + 1, cutoffBucket);
+            double meters = 0;
+            for (long bucket = firstBucket; bucket <= headBucket; bucket++) {
+                meters += ringMeters[slot(bucket)];
+            }
+            return meters / 1000.0;
+        }
+
+        void addPoint(double latitude, double longitude, long timestamp, double jumpMeters) {
+            if (hasPoints() && timestamp < lastTimestamp) {
+                // Запоздавшая точка не меняет последнюю позицию
+                pointCount++;
+                return;
+            }
+            if (hasPoints()) {
+                double timeHours = (double) (timestamp - lastTimestamp) / 3600000.0;
+                lastSpeedKmh = timeHours > 0 ? (jumpMeters / 1000.0) / timeHours : 0;
+                if (jumpMeters >= MIN_JUMP_METERS) {
+                    addDistance(timestamp, jumpMeters);
+                }
+            }
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+            lastTimestamp = timestamp;
+            pointCount++;
+        }
+
+        private void addDistance(long timestamp, double meters) {
+            long bucket = Math.floorDiv(timestamp, BUCKET_MS);
+            if (bucket > headBucket) {
+                long steps = Math.min(bucket - headBucket, RING_BUCKETS);
+                for (long i = 1; i <= steps; i++) {
+                    ringMeters[slot(headBucket + i)] = 0f;
+                }
+                headBucket = bucket;
+            } else if (bucket <= headBucket - RING_BUCKETS) {
+                return;
+            }
+            ringMeters[slot(bucket)] += (float) meters;
+        }
+
+        /**
+         * Кольцо корзин в виде BLOB для колонки ring: RING_BUCKETS float подряд, big-endian.
+         */
+        byte[] ringBlob() {
+            ByteBuffer ring = ByteBuffer.allocate(RING_BUCKETS * 4);
+            ring.asFloatBuffer().put(ringMeters);
+            return ring.array();
+        }
+
+        /**
+         * Обратное к ringBlob(); BLOB другой длины оставляет кольцо пустым.
+         */
+        void readRingBlob(byte[] blob) {
+            if (blob != null && blob.length == RING_BUCKETS * 4) {
+                ByteBuffer.wrap(blob).asFloatBuffer().get(ringMeters);
+            }
+        }
+
+        MovementState copy() {
+            MovementState copy = new MovementState();
+            copy.lastLatitude = lastLatitude;
+            copy.lastLongitude = lastLongitude;
+            copy.lastTimestamp = lastTimestamp;
+            copy.pointCount = pointCount;
+            copy.lastSpeedKmh = lastSpeedKmh;
+            copy.headBucket = headBucket;
+            System.arraycopy(ringMeters, 0, copy.ringMeters, 0, RING_BUCKETS);
+            return copy;
+        }
+
+        private static int slot(long bucket) {
+            return (int) Math.floorMod(bucket, (long) RING_BUCKETS);
+        }
+    }
+
+    static void createStateTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + STATE_TABLE + " (" +
+                "folder_name TEXT NOT NULL," +
+                "device_key TEXT NOT NULL," +
+                "last_latitude REAL," +
+                "last_longitude REAL," +
+                "last_timestamp INTEGER," +
+                "point_count INTEGER," +
+                "last_speed_kmh REAL," +
+                "head_bucket INTEGER," +
+                "ring BLOB," +
+                "PRIMARY KEY (folder_name, device_key)" +
+                ");");
+    }
+
+    /**
+     * Снимок состояния устройства. Только MAC-ключи: для сотовых вышек прежний SQL-путь
+     * никогда не находил историю, поэтому они остаются GREY и здесь не отслеживаются.
+     */
+    synchronized MovementState getState(SQLiteDatabase db, String folderName, String deviceKey) {
+        MovementState state = loadState(db, folderName, deviceKey);
+        return state == null ? null : state.copy();
+    }
+
+    synchronized void onPointInserted(SQLiteDatabase db, String folderName, String deviceKey,
+                                      double latitude, double longitude, long timestamp) {
+        if (deviceKey == null || !deviceKey.contains(":")) return;
+
+        MovementState state = findExisting(db, folderName, deviceKey);
+        if (state == null) {
+            // Строка уже вставлена, поэтому восстановленное из таблицы состояние её учитывает
+            loadState(db, folderName, deviceKey);
+            return;
+        }
+
+        double jumpMeters = state.hasPoints()
+                ? distanceMeters(state.lastLatitude, state.lastLongitude, latitude, longitude)
+                : 0;
+        state.addPoint(latitude, longitude, timestamp, jumpMeters);
+        persist(db, folderName, deviceKey, state);
+    }
+
+    synchronized void invalidateDevice(SQLiteDatabase db, String folderName, String deviceKey) {
+        cache.remove(cacheKey(folderName, deviceKey));
+        try {
+            db.delete(STATE_TABLE, "folder_name = ? AND device_key = ?", new String[]{folderName, deviceKey});
+        } catch (Exception e) {
+            Log.e(TAG, "Error invalidating movement state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Сбрасывает только кэш: после отката состояние в STATE_TABLE откатилось вместе со строками,
+     * а в памяти могли остаться точки, которых нет в БД.
+     */
+    synchronized void dropCache() {
+        cache.clear();
+    }
+
+    synchronized void invalidateFolder(SQLiteDatabase db, String folderName) {
+        dropCachedFolder(folderName);
+        try {
+            db.delete(STATE_TABLE, "folder_name = ?", new String[]{folderName});
+        } catch (Exception e) {
+            Log.e(TAG, "Error clearing movement state for " + folderName + ": " + e.getMessage());
+        }
+    }
+
+    synchronized void renameFolder(SQLiteDatabase db, String oldName, String newName) {
+        dropCachedFolder(oldName);
+        try {
+            ContentValues values = new ContentValues();
+            values.put("folder_name", newName);
+            db.update(STATE_TABLE, values, "folder_name = ?", new String[]{oldName});
+        } catch (Exception e) {
+            Log.e(TAG, "Error renaming movement state folder: " + e.getMessage());
+        }
+    }
+
+    synchronized void deleteStaleStates(SQLiteDatabase db, long cutoffTime) {
+        cache.clear();
+        try {
+            int deleted = db.delete(STATE_TABLE, "last_timestamp < ?", new String[]{String.valueOf(cutoffTime)});
+            Log.d(TAG, "Deleted stale movement states: " + deleted);
+        } catch (Exception e) {
+            Log.e(TAG, "Error deleting stale movement states: " + e.getMessage());
+        }
+    }
+
+    private MovementState loadState(SQLiteDatabase db, String folderName, String deviceKey) {
+        if (deviceKey == null || !deviceKey.contains(":")) return null;
+
+        MovementState state = findExisting(db, folderName, deviceKey);
+        if (state == null) {
+            state = bootstrapFromRawTable(db, folderName, deviceKey);
+            persist(db, folderName, deviceKey, state);
+            cache.put(cacheKey(folderName, deviceKey), state);
+        }
+        return state;
+    }
+
+    private MovementState findExisting(SQLiteDatabase db, String folderName, String deviceKey) {
+        String key = cacheKey(folderName, deviceKey);
+        MovementState state = cache.get(key);
+        if (state == null) {
+            state = readPersisted(db, folderName, deviceKey);
+            if (state != null) {
+                cache.put(key, state);
+            }
+        }
+        return state;
+    }
+
+    private MovementState readPersisted(SQLiteDatabase db, String folderName, String deviceKey) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(
+                    "SELECT last_latitude, last_longitude, last_timestamp, point_count, " +
+                            "last_speed_kmh, head_bucket, ring FROM " + STATE_TABLE + " " +
+                            "WHERE folder_name = ? AND device_key = ?",
+                    new String[]{folderName, deviceKey}
+            );
+            if (cursor == null || !cursor.moveToFirst()) return null;
+
+            MovementState state = new MovementState();
+            state.lastLatitude = cursor.getDouble(0);
+            state.lastLongitude = cursor.getDouble(1);
+            state.lastTimestamp = cursor.getLong(2);
+            state.pointCount = cursor.getLong(3);
+            state.lastSpeedKmh = cursor.getDouble(4);
+            state.headBucket = cursor.getLong(5);
+            state.readRingBlob(cursor.isNull(6) ? null : cursor.getBlob(6));
+            return state;
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading movement state: " + e.getMessage());
+            return null;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /**
+     * Однократное восстановление состояния из истории устройства (данные до появления трекера).
+     * Точки окна читаются через RawPartitions.source, ограниченный окном: запечатанные партиции
+     * старше суток не открываются. История до окна нужна только ради последней позиции и
+     * pointCount, по которому evaluateTargetStatus узнаёт вторую точку, поэтому из неё читается
+     * не больше двух строк.
+     */
+    private MovementState bootstrapFromRawTable(SQLiteDatabase db, String folderName, String deviceKey) {
+        MovementState state = new MovementState();
+        Cursor cursor = null;
+        try {
+            long windowStart = System.currentTimeMillis() - WINDOW_MS;
+            List<String> args = new ArrayList<>();
+            String source = RawPartitions.source(db, folderName, windowStart + 1, null,
+                    "bssid = ?", new String[]{deviceKey}, args);
+            cursor = db.rawQuery(
+                    "SELECT latitude, longitude, timestamp FROM " + source + " ORDER BY timestamp ASC",
+                    args.toArray(new String[0])
+            );
+            while (cursor.moveToNext()) {
+                double latitude = cursor.getDouble(0);
+                double longitude = cursor.getDouble(1);
+                long timestamp = cursor.getLong(2);
+                double jumpMeters = state.hasPoints()
+                        ? distanceMeters(state.lastLatitude, state.lastLongitude, latitude, longitude)
+                        : 0;
+                state.addPoint(latitude, longitude, timestamp, jumpMeters);
+            }
+            cursor.close();
+            cursor = null;
+
+            // Точки до окна: таблицы идут от новых к старым, первая найденная — самая свежая
+            boolean inWindow = state.hasPoints();
+            long earlier = 0;
+            for (String table : RawPartitions.tables(db, folderName, null, windowStart)) {
+                cursor = db.rawQuery(
+                        "SELECT latitude, longitude, timestamp FROM " + DeviceDictionary.source(table) +
+                                " WHERE bssid = ? AND timestamp <= ? ORDER BY timestamp DESC LIMIT " + (2 - earlier),
+                        new String[]{deviceKey, String.valueOf(windowStart)}
+                );
+                while (cursor.moveToNext()) {
+                    if (!inWindow && earlier == 0) {
+                        // В окне 24 часов точек нет — берём только последнюю известную позицию
+                        state.lastLatitude = cursor.getDouble(0);
+                        state.lastLongitude = cursor.getDouble(1);
+                        state.lastTimestamp = cursor.getLong(2);
+                    }
+                    earlier++;
+                }
+                cursor.close();
+                cursor = null;
+                if (earlier >= 2) break;
+            }
+            state.pointCount += earlier;
+        } catch (Exception e) {
+            Log.e(TAG, "Error bootstrapping movement state for " + deviceKey + ": " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return state;
+    }
+
+    private void persist(SQLiteDatabase db, String folderName, String deviceKey, MovementState state) {
+        try {
+            ContentValues values = new ContentValues();
+            values.put("folder_name", folderName);
+            values.put("device_key", deviceKey);
+            values.put("last_latitude", state.lastLatitude);
+            values.put("last_longitude", state.lastLongitude);
+            values.put("last_timestamp", state.lastTimestamp);
+            values.put("point_count", state.pointCount);
+            values.put("last_speed_kmh", state.lastSpeedKmh);
+            values.put("head_bucket", state.headBucket);
+            values.put("ring", state.ringBlob());
+            db.insertWithOnConflict(STATE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (Exception e) {
+            Log.e(TAG, "Error persisting movement state: " + e.getMessage());
+        }
+    }
+
+    private void dropCachedFolder(String folderName) {
+        String prefix = folderName + "\u0000";
+        Iterator<String> iterator = cache.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String cacheKey(String folderName, String deviceKey) {
+        return folderName + "\u0000" + deviceKey;
+    }
+
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        float[] results = new float[1];
+        android.location.Location.distanceBetween(lat1, lon1, lat2, lon2, results);
+        return results[0];
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.santiway.upload_data;
+
+import com.example.santiway.DeviceListActivity;
+
+import java.util.List;
+
+/**
+ * Страница списка устройств для keyset-пагинации.
+ * nextPageToken хранит ключ сортировки последней строки (скор аномальности, время, id)
+ * и передаётся обратно в следующий запрос; null — данных больше нет.
+ * Для UI токен непрозрачен, формат разбирают только хелперы БД.
+ */
+public final class DevicePage {
+    private static final String SEPARATOR = ":";
+
+    public final List<DeviceListActivity.Device> devices;
+    public final String nextPageToken;
+
+    DevicePage(List<DeviceListActivity.Device> devices, String nextPageToken) {
+        this.devices = devices;
+        this.nextPageToken = nextPageToken;
+    }
+
+    static String encodeToken(double score, long time, long id) {
+        return (Double.isNaN(score) ? "" : Double.toString(score)) + SEPARATOR + time + SEPARATOR + id;
+    }
+
+    /**
+     * Разбирает токен в {score, time, id}. Пустой или испорченный токен — первая страница (null).
+     * Для сортировок без скора на месте score стоит NaN.
+     */
+    static Key decodeToken(String token) {
+        if (token == null || token.isEmpty()) return null;
+
+        String[] parts = token.split(SEPARATOR, -1);
+        if (parts.length != 3) return null;
+
+        try {
+            double score = parts[0].isEmpty() ? Double.NaN : Double.parseDouble(parts[0]);
+            return new Key(score, Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static final class Key {
+        final double score;
+        final long time;
+        final long id;
+
+        Key(double score, long time, long id) {
+            this.score = score;
+            this.time = time;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.santiway.upload_data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Полнотекстовый индекс по уникальным устройствам папки: "<папка>_unique_fts".
+ * Покрывает name, bssid, vendor, unique_identifier и идентификаторы соты
+ * (cell_id, mcc, mnc, lac, tac, network_type). Синхронизируется триггерами
+ * на таблице _unique, поэтому путь записи ничего о нём не знает.
+ *
+ * FTS5 в системном SQLite Android обычно не собран, тогда используется FTS4
+ * (без bm25: результаты поиска сортируются по last_seen, а не по релевантности).
+ */
+public final class DeviceSearchIndex {
+    private static final String TAG = "DeviceSearchIndex";
+
+    public static final String TABLE_SUFFIX = "_fts";
+
+    public static final int ENGINE_NONE = 0;
+    public static final int ENGINE_FTS4 = 4;
+    public static final int ENGINE_FTS5 = 5;
+
+    private static final String COLUMNS = "name, bssid, vendor, unique_identifier, cell";
+    // Веса bm25 в порядке COLUMNS: совпадение по имени и MAC важнее вендора
+    private static final String BM25_WEIGHTS = "4.0, 3.0, 1.0, 3.0, 2.0";
+
+    private static final Map<String, Integer> ENGINES = new HashMap<>();
+
+    private DeviceSearchIndex() {
+    }
+
+    public static String ftsTableName(String uniqueTableName) {
+        return uniqueTableName + TABLE_SUFFIX;
+    }
+
+    /**
+     * FTS-таблица или её теневая таблица — в списки папок не попадает.
+     */
+    public static boolean isIndexTable(String tableName) {
+        return tableName != null && tableName.contains("_unique" + TABLE_SUFFIX);
+    }
+
+    /**
+     * Создаёт индекс и триггеры, если их ещё нет, и заполняет индекс существующими строками.
+     * Возвращает движок (ENGINE_*); ENGINE_NONE — FTS недоступен, поиск остаётся на LIKE.
+     */
+    public static int ensure(SQLiteDatabase db, String uniqueTableName) {
+        synchronized (ENGINES) {
+            Integer cached = ENGINES.get(uniqueTableName);
+            if (cached != null) return cached;
+        }
+
+        int engine = ENGINE_NONE;
+        String fts = ftsTableName(uniqueTableName);
+        try {
+            String existingSql = findTableSql(db, fts);
+            if (existingSql != null) {
+                engine = existingSql.toLowerCase(Locale.US).contains("fts5") ? ENGINE_FTS5 : ENGINE_FTS4;
+            } else {
+                engine = createVirtualTable(db, fts);
+                // Виртуальная таблица создаёт теневые таблицы сама — каталог схемы перечитается
+                SchemaCatalog.of(db).invalidate(db);
+                if (engine != ENGINE_NONE) {
+                    db.execSQL("INSERT INTO \"" + fts + "\"(rowid, " + COLUMNS + ") " +
+                            "SELECT id, name, bssid, vendor, unique_identifier, " + cellExpression("") + " " +
+                            "FROM \"" + uniqueTableName + "\"");
+                }
+            }
+            if (engine != ENGINE_NONE) {
+                createTriggers(db, uniqueTableName, fts);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error creating search index for " + uniqueTableName + ": " + e.getMessage());
+            engine = ENGINE_NONE;
+        }
+
+        synchronized (ENGINES) {
+            ENGINES.put(uniqueTableName, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * true, если ensure уже выполнялся для таблицы (в том числе с результатом ENGINE_NONE).
+     */
+    public static boolean isKnown(String uniqueTableName) {
+        synchronized (ENGINES) {
+            return ENGINES.containsKey(uniqueTableName);
+        }
+    }
+
+    public static int getEngine(String uniqueTableName) {
+        synchronized (ENGINES) {
+            Integer engine = ENGINES.get(uniqueTableName);
+            return engine == null ? ENGINE_NONE : engine;
+        }
+    }
+
+    /**
+     * Удаляет индекс папки. Триггеры удаляются явно: при переименовании таблицы _unique
+     * они переехали бы вместе с ней и продолжили писать в FTS-таблицу со старым именем.
+     */
+    public static void drop(SQLiteDatabase db, String uniqueTableName) {
+        String fts = ftsTableName(uniqueTableName);
+        try {
+            db.execSQL("DROP TRIGGER IF EXISTS \"" + fts + "_ai\"");
+            db.execSQL("DROP TRIGGER IF EXISTS \"" + fts + "_ad\"");
+            db.execSQL("DROP TRIGGER IF EXISTS \"" + fts + "_au\"");
+            db.execSQL("DROP TABLE IF EXISTS \"" + fts + "\"");
+        } catch (Exception e) {
+            Log.e(TAG, "Error dropping search index " + fts + ": " + e.getMessage());
+        }
+        SchemaCatalog.of(db).invalidate(db);
+        synchronized (ENGINES) {
+            ENGINES.remove(uniqueTableName);
+        }
+    }
+
+    /**
+     * После отката транзакции с DDL движки индексов определяются заново.
+     */
+    static void invalidate() {
+        synchronized (ENGINES) {
+            ENGINES.clear();
+        }
+    }
+
+    /**
+     * Превращает ввод пользователя в MATCH-выражение: каждое слово — префиксный запрос,
+     * слова объединяются через AND. Слово с разделителями ("AA:BB:C", "250-01") становится
+     * фразой из его частей с префиксом на последней, поэтому MAC ищется с любого октета.
+     * Возвращает null, если в запросе нет ни одной буквы или цифры.
+     */
+    public static String buildMatchQuery(String query, int engine) {
+        if (query == null || engine == ENGINE_NONE) return null;
+
+        StringBuilder match = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            List<String> parts = splitTokens(word);
+            if (parts.isEmpty()) continue;
+
+            if (match.length() > 0) match.append(' ');
+            if (engine == ENGINE_FTS5) {
+                for (int i = 0; i < parts.size(); i++) {
+                    if (i > 0) match.append(" + ");
+                    match.append('"').append(parts.get(i)).append('"');
+                }
+                match.append('*');
+            } else {
+                match.append('"').append(String.join(" ", parts)).append("*\"");
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    /**
+     * Выражение ранга для ORDER BY (меньше — релевантнее) или null, если движок его не умеет.
+     */
+    public static String rankExpression(String uniqueTableName, int engine) {
+        if (engine != ENGINE_FTS5) return null;
+        return "bm25(\"" + ftsTableName(uniqueTableName) + "\", " + BM25_WEIGHTS + ")";
+    }
+
+    private static List<String> splitTokens(String word) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                current.append(c);
+            } else if (current.length() > 0) {
+                parts.add(current.toString());
+                current.setLength(0);
+            }
+        }
+        if (current.length() > 0) parts.add(current.toString());
+        return parts;
+    }
+
+    private static int createVirtualTable(SQLiteDatabase db, String fts) {
+        String[] modules = {
+                "fts5(" + COLUMNS + ", tokenize = 'unicode61')",
+                "fts4(" + COLUMNS + ", tokenize=unicode61)",
+                "fts4(" + COLUMNS + ")"
+        };
+        for (String module : modules) {
+            try {
+                db.execSQL("CREATE VIRTUAL TABLE \"" + fts + "\" USING " + module);
+                Log.d(TAG, "Search index " + fts + " created with " + module);
+                return module.startsWith("fts5") ? ENGINE_FTS5 : ENGINE_FTS4;
+            } catch (Exception e) {
+                Log.w(TAG, "FTS module unavailable: " + module + " (" + e.getMessage() + ")");
+            }
+        }
+        return ENGINE_NONE;
+    }
+
+    private static void createTriggers(SQLiteDatabase db, String uniqueTableName, String fts) {
+        String table = "\"" + uniqueTableName + "\"";
+        String insertNew = "INSERT INTO \"" + fts + "\"(rowid, " + COLUMNS + ") VALUES (" +
+                "new.id, new.name, new.bssid, new.vendor, new.unique_identifier, " + cellExpression("new.") + ");";
+        String deleteOld = "DELETE FROM \"" + fts + "\" WHERE rowid = old.id;";
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + fts + "_ai\" AFTER INSERT ON " + table +
+                " BEGIN " + insertNew + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + fts + "_ad\" AFTER DELETE ON " + table +
+                " BEGIN " + deleteOld + " END");
+        // Обновления при сканировании почти всегда меняют только сигнал и время —
+        // индекс переписывается лишь при изменении искомых полей
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + fts + "_au\" AFTER UPDATE ON " + table +
+                " WHEN old.name IS NOT new.name OR old.bssid IS NOT new.bssid" +
+                " OR old.vendor IS NOT new.vendor OR old.unique_identifier IS NOT new.unique_identifier" +
+                " OR old.cell_id IS NOT new.cell_id OR old.mcc IS NOT new.mcc OR old.mnc IS NOT new.mnc" +
+                " OR old.lac IS NOT new.lac OR old.tac IS NOT new.tac" +
+                " OR old.network_type IS NOT new.network_type" +
+                " BEGIN " + deleteOld + " " + insertNew + " END");
+    }
+
+    private static String cellExpression(String prefix) {
+        return "COALESCE(" + prefix + "cell_id, '') || ' ' || COALESCE(" + prefix + "mcc, '') || ' ' || " +
+                "COALESCE(" + prefix + "mnc, '') || ' ' || COALESCE(" + prefix + "lac, '') || ' ' || " +
+                "COALESCE(" + prefix + "tac, '') || ' ' || COALESCE(" + prefix + "network_type, '')";
+    }
+
+    private static String findTableSql(SQLiteDatabase db, String name) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type='table' AND name=?",
+                    new String[]{name});
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+}
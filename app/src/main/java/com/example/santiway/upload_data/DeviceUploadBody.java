@@ -0,0 +1,104 @@
+package com.example.santiway.upload_data;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Тело запроса выгрузки пачки наблюдений. JSON-массив пишется JsonWriter'ом прямо в буфер Okio
+ * (при включённом сжатии — через GzipSink), без промежуточных JsonArray и строки всей пачки.
+ * Вместо JSON может быть двоичная кодировка DeviceBatchCodec, если сервер её объявил.
+ * Готовые байты неизменяемы: одно тело отправляется во всех повторах без повторной сериализации.
+ */
+final class DeviceUploadBody extends RequestBody {
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final MediaType BINARY = MediaType.parse(DeviceBatchCodec.MEDIA_TYPE);
+
+    private final ByteString payload;
+    private final boolean gzip;
+    private final MediaType mediaType;
+
+    private DeviceUploadBody(ByteString payload, boolean gzip, MediaType mediaType) {
+        this.payload = payload;
+        this.gzip = gzip;
+        this.mediaType = mediaType;
+    }
+
+    static DeviceUploadBody create(List<DeviceUploadManager.PendingUpload> items, String apiKey,
+                                   String phoneMac, String installId, boolean gzip) throws IOException {
+        Buffer buffer = new Buffer();
+        BufferedSink target = gzip ? Okio.buffer(new GzipSink(buffer)) : buffer;
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(target.outputStream(), StandardCharsets.UTF_8))) {
+            writer.beginArray();
+            for (DeviceUploadManager.PendingUpload item : items) {
+                writeDevice(writer, item.device, apiKey, phoneMac, item.idempotencyKey(installId));
+            }
+            writer.endArray();
+        }
+        // Закрытие писателя закрыло GzipSink (дописан трейлер gzip); Buffer при закрытии не очищается
+        return new DeviceUploadBody(buffer.readByteString(), gzip, JSON);
+    }
+
+    static DeviceUploadBody createBinary(List<DeviceUploadManager.PendingUpload> items, String apiKey,
+                                         String phoneMac, String installId, boolean gzip) throws IOException {
+        Buffer buffer = new Buffer();
+        try (BufferedSink target = gzip ? Okio.buffer(new GzipSink(buffer)) : buffer) {
+            DeviceBatchCodec.encode(items, apiKey, phoneMac, installId, target);
+        }
+        return new DeviceUploadBody(buffer.readByteString(), gzip, BINARY);
+    }
+
+    private static void writeDevice(JsonWriter writer, ApiDevice device, String apiKey,
+                                    String phoneMac, String idempotencyKey) throws IOException {
+        writer.beginObject();
+        writer.name("device_id").value(device.getDevice_id());
+        writer.name("device_name").value(device.getDevice_name());
+        writer.name("network_type").value(device.getNetwork_type());
+        writer.name("signal_strength").value(device.getSignal_strength());
+        writer.name("latitude").value(device.getLatitude());
+        writer.name("longitude").value(device.getLongitude());
+        writer.name("detected_at").value(device.getDetected_at());
+        writer.name("folder_name").value(device.getFolder_name());
+        writer.name("system_folder_name").value(device.getSystem_folder_name());
+        writer.name("user_api").value(apiKey);
+        writer.name("user_phone_mac").value(phoneMac);
+        writer.name("is_alert").value(false);
+        writer.name("is_ignored").value(false);
+        writer.name("idempotency_key").value(idempotencyKey);
+        writer.endObject();
+    }
+
+    boolean isGzip() {
+        return gzip;
+    }
+
+    boolean isBinary() {
+        return mediaType == BINARY;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        return payload.size();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(payload);
+    }
+}
@@ -7,33 +7,54 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DeviceUploadManager {
     private static final String TAG = "DeviceUploadManager";
     private static final String PREFS_NAME = "DeviceUploadPrefs";
     private static final String KEY_DEVICE_ID = "device_id";
     private static final String KEY_LAST_UPLOAD_TIME = "last_upload_time";
+    /** Сервер объявил в Accept-Post, что принимает DeviceBatchCodec.MEDIA_TYPE */
+    private static final String KEY_SERVER_ACCEPTS_BINARY = "server_accepts_binary_uploads";
+    /** Порция id в одном UPDATE ... IN (...) при пометке is_uploaded; размер пачки выгрузки задаёт UploadBatchSizer */
     private static final int BATCH_SIZE = 100;
+    /** Порция id в одном SELECT ... IN (...) исправленных строк: предел параметров SQLite — 999 */
+    private static final int MAX_ID_ARGS = 500;
     private static final int MAX_RETRY_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    /** Предел пачек за один проход выгрузки: остаток заберёт следующий тик */
+    private static final int MAX_BATCHES_PER_DRAIN = 500;
+
+    /** Общий на процесс: повторы всех менеджеров только ставятся в очередь, отправляет OkHttp */
+    private static final ScheduledExecutorService RETRY_SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor();
+    private static final AtomicBoolean DRAIN_RUNNING = new AtomicBoolean(false);
+    /** Только колонки, из которых собирается ApiDevice */
+    private static final String UPLOAD_COLUMNS =
+            "id, type, bssid, cell_id, name, latitude, longitude, signal_strength, network_type, timestamp, folder_name";
+    private static final String UPLOAD_SELECT = buildUploadSelect();
 
     private Context context;
     private MainDatabaseHelper databaseHelper;
@@ -43,12 +64,15 @@ public class DeviceUploadManager {
     private String baseUrl;
     private String phoneMac;
     private OkHttpClient client;
+    private UploadSender sender;
+    private UploadBatchSizer batchSizer;
 
     public DeviceUploadManager(Context context) {
         this.context = context;
-        this.databaseHelper = new MainDatabaseHelper(context);
+        this.databaseHelper = MainDatabaseHelper.getInstance(context);
         this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         this.androidDeviceId = getOrCreateDeviceId();
+        this.batchSizer = UploadBatchSizer.getInstance(context);
 
         ApiConfig.initialize(context);
         this.apiKey = ApiConfig.getApiKey(context);
@@ -65,6 +89,28 @@ public class DeviceUploadManager {
                 .writeTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .build();
+        this.sender = new UploadSender(client, RETRY_SCHEDULER, MAX_RETRY_ATTEMPTS, INITIAL_BACKOFF_MS,
+                new UploadSender.Listener() {
+                    @Override
+                    public void onResponse(Response response) {
+                        rememberAcceptedFormats(response);
+                    }
+
+                    @Override
+                    public UploadSender.BatchRequest onBinaryRejected(UploadSender.BatchRequest rejected) {
+                        prefs.edit().putBoolean(KEY_SERVER_ACCEPTS_BINARY, false).apply();
+                        return buildUploadRequest(rejected.items, rejected.network);
+                    }
+
+                    @Override
+                    public void onAttempt(UploadSender.BatchRequest upload, boolean success, long latencyMs) {
+                        if (success) {
+                            batchSizer.recordSuccess(upload.network, upload.count, upload.bytes, latencyMs);
+                        } else {
+                            batchSizer.recordFailure(upload.network);
+                        }
+                    }
+                });
     }
 
     private String getOrCreateDeviceId() {
@@ -88,67 +134,100 @@ public class DeviceUploadManager {
     }
 
     /**
-     * ПОЛУЧАЕТ ДАННЫЕ ДЛЯ ОТПРАВКИ ИЗ Основная
-     * Важно: получаем записи с is_uploaded = 0
+     * Читает пачку. readFrom — позиции чтения папок (последний id, уже взятый в пачки в полёте);
+     * папки без позиции читаются от водяного знака. Позиции сдвигаются на прочитанное,
+     * так следующая пачка конвейера не пересекается с предыдущими. dirtyTaken — исправленные
+     * строки, уже взятые в пачки в полёте (null вне конвейера).
      */
-    public List<PendingUpload> getPendingUploadsBatch() {
-        List<PendingUpload> items = new ArrayList<>();
-        if (!ServerUploadConfig.isEnabled(context)) {
-            Log.d(TAG, "Server upload disabled - no pending batch");
-            return items;
-        }
-        SQLiteDatabase db = null;
+    private PendingBatch readBatch(Map<String, Long> readFrom, Set<String> dirtyTaken, int batchSize) {
+        PendingBatch batch = new PendingBatch();
+        List<PendingUpload> items = batch.items;
+        boolean legacyFlags = ServerUploadConfig.isLegacyUploadFlagsEnabled(context);
         Cursor cursor = null;
 
-        try {
-            db = databaseHelper.getReadableDatabase();
+        // Чтение из пула: выборка пачки не держит соединение, через которое пишут сканеры
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(context).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
 
             List<String> tables = databaseHelper.getAllTables(); // уже без *_unique
             if (tables == null || tables.isEmpty()) {
                 Log.d(TAG, "No regular tables found for upload");
-                return items;
+                return batch;
             }
+            Map<String, Long> watermarks = UploadOutbox.watermarks(db);
+            boolean batchFull = false;
 
             for (String tableName : tables) {
-                if (items.size() >= BATCH_SIZE) break;
+                if (batchFull || items.size() >= batchSize) break;
 
                 if (tableName == null || tableName.trim().isEmpty()) {
                     continue;
                 }
 
-                int remaining = BATCH_SIZE - items.size();
+                // Партиции папки от старых к новым: выгрузка идёт в порядке id (и времени).
+                // PendingUpload хранит физическую таблицу, чтобы пометка попала в нужную партицию
+                List<String> rawTables = RawPartitions.tables(db, tableName);
+                if (legacyFlags) {
+                    readDirtyRows(db, tableName, rawTables, Long.MAX_VALUE, dirtyTaken, batch, batchSize);
+                    readFlaggedRows(db, tableName, rawTables, items, batchSize);
+                    continue;
+                }
 
-                String query =
-                        "SELECT id, * FROM \"" + tableName + "\" " +
-                                "WHERE is_uploaded = 0 " +
-                                "ORDER BY timestamp ASC LIMIT " + remaining;
+                Long watermark = readFrom != null ? readFrom.get(tableName) : null;
+                if (watermark == null) watermark = watermarks.get(tableName);
+                if (watermark == null) watermark = initWatermark(tableName);
+                long lastRead = watermark;
 
-                try {
-                    cursor = db.rawQuery(query, null);
-
-                    if (cursor != null && cursor.moveToFirst()) {
-                        int idCol = cursor.getColumnIndexOrThrow("id");
-
-                        do {
-                            long rowId = cursor.getLong(idCol);
-                            ApiDevice device = cursorToApiDevice(cursor, tableName);
-
-                            if (device != null) {
-                                items.add(new PendingUpload(rowId, tableName, device));
-                                Log.d(TAG,
-                                        "Pending rowId=" + rowId +
-                                                ", table=" + tableName +
-                                                ", device=" + device.getDevice_id() +
-                                                ", detected_at=" + device.getDetected_at());
-                            }
-                        } while (cursor.moveToNext());
-                    }
-                } finally {
-                    if (cursor != null) {
-                        cursor.close();
-                        cursor = null;
+                readDirtyRows(db, tableName, rawTables, watermark, dirtyTaken, batch, batchSize);
+
+                for (int t = rawTables.size() - 1; t >= 0 && !batchFull && items.size() < batchSize; t--) {
+                    String rawTable = rawTables.get(t);
+                    int remaining = batchSize - items.size();
+
+                    String query = uploadSelect(rawTable) +
+                            "WHERE s.id > ? " +
+                            "ORDER BY s.id ASC LIMIT " + remaining;
+
+                    try {
+                        cursor = db.rawQuery(query, new String[]{tableName, String.valueOf(watermark)});
+
+                        // Строки, которые не удалось собрать, тоже занимают LIMIT: если выборка
+                        // заполнена, следующие таблицы не читаются, иначе знак перескочил бы остаток этой
+                        if (cursor != null && cursor.getCount() >= remaining) {
+                            batchFull = true;
+                        }
+                        if (cursor != null && cursor.moveToFirst()) {
+                            int idCol = cursor.getColumnIndexOrThrow("id");
+
+                            do {
+                                long rowId = cursor.getLong(idCol);
+                                lastRead = Math.max(lastRead, rowId);
+                                ApiDevice device = cursorToApiDevice(cursor, tableName);
+
+                                if (device != null) {
+                                    items.add(new PendingUpload(rowId, rawTable, tableName, device,
+                                            dirtyRevision(cursor)));
+                                    Log.d(TAG,
+                                            "Pending rowId=" + rowId +
+                                                    ", table=" + rawTable +
+                                                    ", device=" + device.getDevice_id() +
+                                                    ", detected_at=" + device.getDetected_at());
+                                }
+                            } while (cursor.moveToNext());
+                        }
+                    } finally {
+                        if (cursor != null) {
+                            cursor.close();
+                            cursor = null;
+                        }
                     }
                 }
+
+                // Диапазон включает и строки, которые не удалось собрать: их знак тоже перешагивает
+                if (lastRead > watermark) {
+                    batch.ranges.put(tableName, new UploadAckTracker.Range(watermark, lastRead));
+                    if (readFrom != null) readFrom.put(tableName, lastRead);
+                }
             }
 
             Log.d(TAG, "Found " + items.size() + " pending uploads from regular tables");
@@ -157,10 +236,128 @@ public class DeviceUploadManager {
             Log.e(TAG, "Error getting pending uploads: " + e.getMessage(), e);
         } finally {
             if (cursor != null) cursor.close();
-            if (db != null && db.isOpen()) db.close();
         }
 
-        return items;
+        return batch;
+    }
+
+    /**
+     * Режим совместимости: строки с is_uploaded = 0 без нижней границы по id. Исправленная
+     * строка снова получает is_uploaded = 0, где бы она ни лежала, поэтому граница по
+     * водяному знаку её бы пропустила. Строки из списка исправлений уже прочитал readDirtyRows.
+     */
+    private void readFlaggedRows(SQLiteDatabase db, String folderName, List<String> rawTables,
+                                 List<PendingUpload> items, int batchSize) {
+        for (int t = rawTables.size() - 1; t >= 0 && items.size() < batchSize; t--) {
+            String rawTable = rawTables.get(t);
+            int remaining = batchSize - items.size();
+            try (Cursor cursor = db.rawQuery(uploadSelect(rawTable) +
+                    "WHERE s.is_uploaded = 0 AND u.row_id IS NULL " +
+                    "ORDER BY s.timestamp ASC LIMIT " + remaining, new String[]{folderName})) {
+                int idCol = cursor.getColumnIndexOrThrow("id");
+                while (cursor.moveToNext()) {
+                    ApiDevice device = cursorToApiDevice(cursor, folderName);
+                    if (device != null) {
+                        items.add(new PendingUpload(cursor.getLong(idCol), rawTable, folderName, device));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Исправленные строки папки, которые чтение уже прошло (id не выше position). Строка,
+     * которой больше нет или которую не удалось собрать, тоже попадает в batch.dirty:
+     * подтверждение пачки снимет её с очереди.
+     */
+    private void readDirtyRows(SQLiteDatabase db, String folderName, List<String> rawTables, long position,
+                               Set<String> dirtyTaken, PendingBatch batch, int batchSize) {
+        int remaining = batchSize - batch.items.size();
+        if (remaining <= 0) return;
+
+        int skip = dirtyTaken != null ? dirtyTaken.size() : 0;
+        Map<Long, UploadOutbox.DirtyRow> wanted = new LinkedHashMap<>();
+        for (UploadOutbox.DirtyRow row : UploadOutbox.dirtyRows(db, folderName, position, remaining + skip)) {
+            if (wanted.size() >= remaining) break;
+            String key = folderName + ":" + row.rowId + ":" + row.revision;
+            if (dirtyTaken != null && !dirtyTaken.add(key)) continue;
+            wanted.put(row.rowId, row);
+        }
+        if (wanted.isEmpty()) return;
+        batch.dirty.addAll(wanted.values());
+
+        List<Long> ids = new ArrayList<>(wanted.keySet());
+        for (int t = rawTables.size() - 1; t >= 0; t--) {
+            String rawTable = rawTables.get(t);
+            for (int start = 0; start < ids.size(); start += MAX_ID_ARGS) {
+                List<Long> chunk = ids.subList(start, Math.min(start + MAX_ID_ARGS, ids.size()));
+                StringBuilder placeholders = new StringBuilder();
+                String[] args = new String[chunk.size() + 1];
+                args[0] = folderName;
+                for (int i = 0; i < chunk.size(); i++) {
+                    if (i > 0) placeholders.append(',');
+                    placeholders.append('?');
+                    args[i + 1] = String.valueOf(chunk.get(i));
+                }
+                try (Cursor cursor = db.rawQuery(uploadSelect(rawTable) +
+                        "WHERE s.id IN (" + placeholders + ") ORDER BY s.id", args)) {
+                    int idCol = cursor.getColumnIndexOrThrow("id");
+                    while (cursor.moveToNext()) {
+                        long rowId = cursor.getLong(idCol);
+                        ApiDevice device = cursorToApiDevice(cursor, folderName);
+                        if (device != null) {
+                            // Ревизия из того же запроса, что и данные: более позднее исправление
+                            // останется в очереди после подтверждения этой версии
+                            long revision = Math.max(dirtyRevision(cursor), wanted.get(rowId).revision);
+                            batch.items.add(new PendingUpload(rowId, rawTable, folderName, device, revision));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Выборка строк для выгрузки вместе с ревизией их исправления (UploadOutbox.DIRTY_TABLE).
+     * Данные и ревизия читаются одним запросом, то есть из одного снимка БД: подтверждение
+     * снимает с очереди ровно ту версию, что ушла на сервер. Первый параметр — папка.
+     */
+    static String uploadSelect(String rawTable) {
+        return "SELECT " + UPLOAD_SELECT + ", u.revision AS dirty_revision FROM " +
+                DeviceDictionary.source(rawTable) + " s LEFT JOIN " + UploadOutbox.DIRTY_TABLE + " u " +
+                "ON u.folder_name = ? AND u.row_id = s.id ";
+    }
+
+    private static String buildUploadSelect() {
+        StringBuilder select = new StringBuilder();
+        for (String column : UPLOAD_COLUMNS.split(",")) {
+            column = column.trim();
+            if (select.length() > 0) select.append(", ");
+            select.append("s.").append(column).append(" AS ").append(column);
+        }
+        return select.toString();
+    }
+
+    private static long dirtyRevision(Cursor cursor) {
+        int index = cursor.getColumnIndex("dirty_revision");
+        return index != -1 && !cursor.isNull(index) ? cursor.getLong(index) : 0L;
+    }
+
+    /**
+     * Первый водяной знак папки: по флагам is_uploaded, которые успели проставить до outbox
+     * (или которые пришли с импортом папки).
+     */
+    private long initWatermark(String folderName) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long watermark = UploadOutbox.catchUp(db, folderName);
+            db.setTransactionSuccessful();
+            Log.d(TAG, "Upload watermark for " + folderName + " initialized at " + watermark);
+            return watermark;
+        } finally {
+            db.endTransaction();
+        }
     }
 
     /**
@@ -258,6 +455,7 @@ public class DeviceUploadManager {
 
     /**
      * ОТПРАВКА БАТЧА ДАННЫХ НА СЕРВЕР
+     * Вызывающий поток ждёт результата, но повторы планируются без Thread.sleep.
      */
     public boolean uploadBatch(List<PendingUpload> items) {
         if (!ServerUploadConfig.isEnabled(context)) {
@@ -269,104 +467,323 @@ public class DeviceUploadManager {
         Log.d(TAG, "=== UPLOAD BATCH START ===");
         Log.d(TAG, "Items count: " + items.size());
 
+        UploadSender.BatchRequest upload = buildUploadRequest(items, batchSizer.currentNetwork());
+        if (upload == null) return false;
+
+        final boolean[] result = new boolean[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        sender.send(upload, success -> {
+            if (success) {
+                acknowledgeUploaded(items);
+                onBatchUploaded(items.size());
+            }
+            result[0] = success;
+            done.countDown();
+        });
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return result[0];
+    }
+
+    /**
+     * Выгружает весь накопленный хвост конвейером: в полёте одновременно до
+     * ServerUploadConfig.getUploadWindow пачек. Пачки читаются подряд по id от позиций
+     * чтения, ответы приходят в любом порядке, а водяные знаки сдвигает UploadAckTracker —
+     * только по непрерывно подтверждённому началу. После окончательной ошибки новые пачки
+     * не берутся; уже отправленные доходят до конца.
+     *
+     * Возвращает число выгруженных наблюдений или -1, если какая-то пачка не ушла.
+     */
+    public int drainPendingUploads() {
+        if (!ServerUploadConfig.isEnabled(context)) {
+            Log.d(TAG, "Server upload disabled - skip drain");
+            return 0;
+        }
+        // Тик сервиса и WorkManager не должны читать одни и те же диапазоны параллельно
+        if (!DRAIN_RUNNING.compareAndSet(false, true)) {
+            Log.d(TAG, "Upload drain already running - skip");
+            return 0;
+        }
+        try {
+            if (ServerUploadConfig.isLegacyUploadFlagsEnabled(context)) {
+                return drainStopAndWait();
+            }
+            return drainPipelined(ServerUploadConfig.getUploadWindow(context));
+        } finally {
+            DRAIN_RUNNING.set(false);
+        }
+    }
+
+    /**
+     * Режим совместимости: выборка по is_uploaded не даёт читать вперёд неподтверждённых
+     * строк, поэтому пачки идут по одной.
+     */
+    private int drainStopAndWait() {
+        syncUploadFlags();
+        int uploaded = 0;
+        for (int batches = 0; batches < MAX_BATCHES_PER_DRAIN; batches++) {
+            PendingBatch batch = readBatch(null, null, batchSizer.batchSize(batchSizer.currentNetwork()));
+            List<PendingUpload> items = batch.items;
+            if (items.isEmpty() && batch.dirty.isEmpty()) break;
+            if (!items.isEmpty() && !uploadBatch(items)) return -1;
+            // Исправления удалённых строк собрать не удалось — снимаем их вместе с пачкой
+            commitAcknowledgement(new HashMap<>(), new ArrayList<>(), batch.dirty);
+            uploaded += items.size();
+        }
+        return uploaded;
+    }
+
+    private int drainPipelined(int window) {
+        // Диспетчер OkHttp по умолчанию пускает к одному хосту 5 запросов
+        if (client.dispatcher().getMaxRequestsPerHost() < window) {
+            client.dispatcher().setMaxRequestsPerHost(window);
+        }
+
+        final Map<String, Long> readFrom = new HashMap<>();
+        final Set<String> dirtyTaken = new HashSet<>();
+        final UploadAckTracker tracker = new UploadAckTracker();
+        final Semaphore slots = new Semaphore(window);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicInteger uploaded = new AtomicInteger();
+        // Сеть определяется один раз за проход: замеры всех пачек прохода идут в один профиль
+        final UploadBatchSizer.NetworkProfile network = batchSizer.currentNetwork();
+
+        Log.d(TAG, "=== UPLOAD DRAIN START (window " + window + ", " + network.label + ") ===");
+        try {
+            for (int batches = 0; batches < MAX_BATCHES_PER_DRAIN && !failed.get(); batches++) {
+                slots.acquire();
+                if (failed.get()) {
+                    slots.release();
+                    break;
+                }
+
+                // Размер берётся заново для каждой пачки: ответы предыдущих уже подстроили его
+                final PendingBatch batch = readBatch(readFrom, dirtyTaken, batchSizer.batchSize(network));
+                if (batch.ranges.isEmpty() && batch.dirty.isEmpty()) {
+                    slots.release();
+                    break;
+                }
+                tracker.register(batch.ranges);
+
+                // В пачке только строки, которые не удалось собрать: отправлять нечего
+                if (batch.items.isEmpty()) {
+                    acknowledgeBatch(tracker, batch);
+                    slots.release();
+                    continue;
+                }
+
+                UploadSender.BatchRequest upload = buildUploadRequest(batch.items, network);
+                if (upload == null) {
+                    failed.set(true);
+                    slots.release();
+                    break;
+                }
+
+                Log.d(TAG, "Batch " + batch.ranges + " in flight");
+                sender.send(upload, success -> {
+                    try {
+                        if (success) {
+                            acknowledgeBatch(tracker, batch);
+                            uploaded.addAndGet(batch.items.size());
+                            onBatchUploaded(batch.items.size());
+                        } else {
+                            failed.set(true);
+                        }
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+
+            // Все разрешения окна разом — значит, ни одной пачки в полёте не осталось
+            slots.acquire(window);
+            slots.release(window);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        }
+
+        Log.d(TAG, "=== UPLOAD DRAIN END: " + uploaded.get() + " devices" +
+                (failed.get() ? ", stopped on failure" : "") + " ===");
+        return failed.get() ? -1 : uploaded.get();
+    }
+
+    private String uploadEndpoint() {
         String endpoint;
         if (baseUrl.contains("/api/")) {
             endpoint = baseUrl + "devices/";
         } else {
             endpoint = baseUrl + "api/devices/";
         }
-        endpoint = endpoint.replaceAll("(?<!(http:|https:))//", "/");
+        return endpoint.replaceAll("(?<!(http:|https:))//", "/");
+    }
 
+    /**
+     * Запрос пачки. Тело собирается один раз и отправляется во всех попытках.
+     * Ключ идемпотентности у каждой строки свой (PendingUpload.idempotencyKey) и не зависит
+     * от границ пачки: строка, повторённая в другой пачке после обрыва или смены размера,
+     * приходит с тем же ключом — и в JSON, и в двоичной кодировке.
+     */
+    private UploadSender.BatchRequest buildUploadRequest(List<PendingUpload> items, UploadBatchSizer.NetworkProfile network) {
+        String endpoint = uploadEndpoint();
         Log.d(TAG, "Final endpoint URL: " + endpoint);
 
-        int attempt = 0;
-        long backoff = 1000;
-
-        while (attempt < MAX_RETRY_ATTEMPTS) {
-            attempt++;
-            Log.d(TAG, "Upload attempt " + attempt);
-
-            try {
-                JsonArray jsonArray = new JsonArray();
-
-                for (PendingUpload item : items) {
-                    ApiDevice device = item.device;
-
-                    JsonObject json = new JsonObject();
-                    json.addProperty("device_id", device.getDevice_id());
-                    json.addProperty("device_name", device.getDevice_name());
-                    json.addProperty("network_type", device.getNetwork_type());
-                    json.addProperty("signal_strength", device.getSignal_strength());
-                    json.addProperty("latitude", device.getLatitude());
-                    json.addProperty("longitude", device.getLongitude());
-                    json.addProperty("detected_at", device.getDetected_at());
-                    json.addProperty("folder_name", device.getFolder_name());
-                    json.addProperty("system_folder_name", device.getSystem_folder_name());
-                    json.addProperty("user_api", apiKey);
-                    json.addProperty("user_phone_mac", phoneMac);
-                    json.addProperty("is_alert", false);
-                    json.addProperty("is_ignored", false);
-                    jsonArray.add(json);
-                }
+        boolean gzip = ServerUploadConfig.isGzipUploadsEnabled(context);
+        DeviceUploadBody body;
+        try {
+            body = isBinaryUploadNegotiated()
+                    ? DeviceUploadBody.createBinary(items, apiKey, phoneMac, androidDeviceId, gzip)
+                    : DeviceUploadBody.create(items, apiKey, phoneMac, androidDeviceId, gzip);
+        } catch (Exception e) {
+            Log.e(TAG, "Error serializing upload batch: " + e.getMessage(), e);
+            return null;
+        }
+        Log.d(TAG, "Upload payload: " + items.size() + " devices, " + body.contentLength() + " bytes" +
+                (body.isBinary() ? " (binary)" : "") + (body.isGzip() ? " (gzip)" : ""));
+
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(endpoint)
+                .post(body)
+                .addHeader("Authorization", "Api-Key " + apiKey)
+                .addHeader("Content-Type", String.valueOf(body.contentType()))
+                .addHeader("X-Device-MAC", phoneMac);
+        if (body.isGzip()) {
+            requestBuilder.addHeader("Content-Encoding", "gzip");
+        }
+        return new UploadSender.BatchRequest(requestBuilder.build(), items, body.contentLength(), body.isBinary(), network);
+    }
 
-                Log.d(TAG, "UPLOAD JSON: " + jsonArray.toString());
+    /**
+     * Двоичная кодировка используется, только если её не запретили в настройках и сервер
+     * объявил её заголовком Accept-Post. Иначе — JSON, как раньше.
+     */
+    private boolean isBinaryUploadNegotiated() {
+        return ServerUploadConfig.isBinaryUploadsEnabled(context)
+                && prefs.getBoolean(KEY_SERVER_ACCEPTS_BINARY, false);
+    }
 
-                Request request = new Request.Builder()
-                        .url(endpoint)
-                        .post(RequestBody.create(
-                                MediaType.parse("application/json"),
-                                jsonArray.toString()
-                        ))
-                        .addHeader("Authorization", "Api-Key " + apiKey)
-                        .addHeader("Content-Type", "application/json")
-                        .addHeader("X-Device-MAC", phoneMac)
-                        .build();
+    /**
+     * Accept-Post в любом ответе на выгрузку обновляет знание о поддержке двоичной кодировки;
+     * ответ без заголовка ничего не меняет.
+     */
+    private void rememberAcceptedFormats(Response response) {
+        String acceptPost = response.header("Accept-Post");
+        if (acceptPost == null) return;
+
+        boolean binary = acceptPost.contains(DeviceBatchCodec.MEDIA_TYPE);
+        if (binary != prefs.getBoolean(KEY_SERVER_ACCEPTS_BINARY, false)) {
+            prefs.edit().putBoolean(KEY_SERVER_ACCEPTS_BINARY, binary).apply();
+            Log.i(TAG, "Server binary upload support: " + binary);
+        }
+    }
 
-                Response response = client.newCall(request).execute();
-                Log.d(TAG, "Response code: " + response.code());
+    private void onBatchUploaded(int count) {
+        saveLastUploadTime();
 
-                if (response.isSuccessful()) {
-                    Log.i(TAG, "✅ SUCCESS: Uploaded " + items.size() + " devices");
+        android.content.Intent intent =
+                new android.content.Intent("com.example.santiway.UPLOAD_COMPLETED");
+        intent.putExtra("device_count", count);
+        intent.putExtra("timestamp", System.currentTimeMillis());
+        androidx.localbroadcastmanager.content.LocalBroadcastManager
+                .getInstance(context).sendBroadcast(intent);
+    }
 
-                    markRowsAsUploaded(items);
+    /**
+     * Подтверждение сервера: водяной знак каждой папки сдвигается на последний отправленный id.
+     * Пачка берётся подряд по id от знака, поэтому все строки до него уже отправлены.
+     * В режиме совместимости строки помечаются is_uploaded, а знак подтягивается следом.
+     */
+    private void acknowledgeUploaded(List<PendingUpload> items) {
+        if (items == null || items.isEmpty()) return;
 
-                    saveLastUploadTime();
+        if (ServerUploadConfig.isLegacyUploadFlagsEnabled(context)) {
+            markRowsAsUploaded(items);
+            return;
+        }
 
-                    android.content.Intent intent =
-                            new android.content.Intent("com.example.santiway.UPLOAD_COMPLETED");
-                    intent.putExtra("device_count", items.size());
-                    intent.putExtra("timestamp", System.currentTimeMillis());
-                    androidx.localbroadcastmanager.content.LocalBroadcastManager
-                            .getInstance(context).sendBroadcast(intent);
+        Map<String, Long> lastIdByFolder = new HashMap<>();
+        for (PendingUpload item : items) {
+            if (item == null || item.folderName == null) continue;
+            Long last = lastIdByFolder.get(item.folderName);
+            if (last == null || item.rowId > last) {
+                lastIdByFolder.put(item.folderName, item.rowId);
+            }
+        }
 
-                    return true;
-                } else {
-                    String responseBody = response.body() != null ? response.body().string() : "null";
-                    Log.e(TAG, "❌ Upload failed with code: " + response.code() + ", body: " + responseBody);
+        commitAcknowledgement(lastIdByFolder, items, new ArrayList<>());
+    }
 
-                    if (attempt < MAX_RETRY_ATTEMPTS) {
-                        Thread.sleep(backoff);
-                        backoff *= 2;
-                    }
-                }
+    /**
+     * Подтверждение пачки конвейера: знаки сдвигает UploadAckTracker, исправленные строки
+     * пачки снимаются с очереди повторной выгрузки.
+     */
+    private void acknowledgeBatch(UploadAckTracker tracker, PendingBatch batch) {
+        commitAcknowledgement(tracker.acknowledge(batch.ranges), batch.items, batch.dirty);
+    }
 
-            } catch (Exception e) {
-                Log.e(TAG, "Upload error (attempt " + attempt + "): " + e.getMessage());
+    private void commitAcknowledgement(Map<String, Long> watermarkByFolder, List<PendingUpload> items,
+                                       List<UploadOutbox.DirtyRow> dirty) {
+        List<UploadOutbox.DirtyRow> cleared = new ArrayList<>(dirty);
+        for (PendingUpload item : items) {
+            if (item != null && item.folderName != null && item.revision > 0) {
+                cleared.add(new UploadOutbox.DirtyRow(item.folderName, item.rowId, item.revision));
+            }
+        }
+        if (watermarkByFolder.isEmpty() && cleared.isEmpty()) return;
 
-                if (attempt < MAX_RETRY_ATTEMPTS) {
-                    try {
-                        Thread.sleep(backoff);
-                        backoff *= 2;
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
+        SQLiteDatabase db = null;
+        try {
+            db = databaseHelper.getWritableDatabase();
+            db.beginTransaction();
+            for (Map.Entry<String, Long> entry : watermarkByFolder.entrySet()) {
+                UploadOutbox.advance(db, entry.getKey(), entry.getValue());
+                Log.d(TAG, "Upload watermark of " + entry.getKey() + " advanced to " + entry.getValue());
+            }
+            for (UploadOutbox.DirtyRow row : cleared) {
+                UploadOutbox.clearDirty(db, row);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error advancing upload watermarks: " + e.getMessage(), e);
+        } finally {
+            if (db != null && db.isOpen()) {
+                try {
+                    if (db.inTransaction()) db.endTransaction();
+                } catch (Exception ignored) {}
             }
         }
+    }
+
+    /**
+     * Перед выгрузкой по флагам: строки, подтверждённые только водяным знаком, получают
+     * is_uploaded = 1, чтобы режим совместимости не отправил их заново.
+     */
+    private void syncUploadFlags() {
+        List<String> folders = databaseHelper.getAllTables();
+        if (folders == null || folders.isEmpty()) return;
 
-        Log.e(TAG, "❌ Failed to upload after " + MAX_RETRY_ATTEMPTS + " attempts");
-        return false;
+        SQLiteDatabase db = null;
+        try {
+            db = databaseHelper.getWritableDatabase();
+            db.beginTransaction();
+            for (String folder : folders) {
+                UploadOutbox.syncUploadFlags(db, folder);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error syncing upload flags: " + e.getMessage(), e);
+        } finally {
+            if (db != null && db.isOpen()) {
+                try {
+                    if (db.inTransaction()) db.endTransaction();
+                } catch (Exception ignored) {}
+            }
+        }
     }
 
     /**
@@ -430,120 +847,75 @@ public class DeviceUploadManager {
                 }
             }
 
+            // Знак подтягивается за помеченными строками: при возврате из режима совместимости
+            // выгрузка по водяным знакам не повторит уже отправленное. Исправленные строки ниже
+            // знака остаются в списке исправлений, пока не уйдёт их последняя версия
+            Set<String> folders = new HashSet<>();
+            for (PendingUpload item : items) {
+                if (item == null || item.folderName == null) continue;
+                folders.add(item.folderName);
+                if (item.revision > 0) {
+                    UploadOutbox.clearDirty(db, new UploadOutbox.DirtyRow(item.folderName, item.rowId, item.revision));
+                }
+            }
+            for (String folder : folders) {
+                UploadOutbox.catchUp(db, folder);
+            }
+
             db.setTransactionSuccessful();
 
         } catch (Exception e) {
             Log.e(TAG, "Error marking rows as uploaded: " + e.getMessage(), e);
         } finally {
+            // Соединение общее для helper'а, закрывать его нельзя — только завершить транзакцию
             if (db != null && db.isOpen()) {
                 try {
                     if (db.inTransaction()) db.endTransaction();
                 } catch (Exception ignored) {}
-                db.close();
             }
         }
     }
 
-    // Вспомогательный метод для отладки
-    private void checkIfRecordExists(SQLiteDatabase db, String deviceId, long timestamp) {
-        try {
-            Cursor cursor = null;
-            if (deviceId.contains(":")) {
-                cursor = db.rawQuery(
-                        "SELECT timestamp, is_uploaded FROM \"Основная\" WHERE bssid = ? ORDER BY timestamp DESC LIMIT 5",
-                        new String[]{deviceId}
-                );
-            } else {
-                cursor = db.rawQuery(
-                        "SELECT timestamp, is_uploaded FROM \"Основная\" WHERE cell_id = ? ORDER BY timestamp DESC LIMIT 5",
-                        new String[]{deviceId}
-                );
-            }
-
-            if (cursor != null) {
-                Log.d(TAG, "Recent records for " + deviceId + ":");
-                while (cursor.moveToNext()) {
-                    long dbTime = cursor.getLong(0);
-                    int uploaded = cursor.getInt(1);
-                    Log.d(TAG, "  - timestamp: " + dbTime + " (" + new Date(dbTime) +
-                            "), is_uploaded: " + uploaded + ", diff: " + (dbTime - timestamp) + "ms");
-                }
-                cursor.close();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error checking records: " + e.getMessage());
-        }
-    }
-
-    private long isoToTimestamp(String isoDate) {
-        try {
-            // Пробуем разные форматы
-            String[] formats = {
-                    "yyyy-MM-dd'T'HH:mm:ss'Z'",     // UTC
-                    "yyyy-MM-dd'T'HH:mm:ss",        // без Z
-                    "yyyy-MM-dd HH:mm:ss"            // простой формат
-            };
-
-            for (String format : formats) {
-                try {
-                    SimpleDateFormat sdf = new SimpleDateFormat(format, Locale.US);
-                    sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-                    Date date = sdf.parse(isoDate);
-                    if (date != null) {
-                        long timestamp = date.getTime();
-                        Log.d(TAG, "Parsed " + isoDate + " to " + timestamp + " using format: " + format);
-                        return timestamp;
-                    }
-                } catch (Exception e) {
-                    // пробуем следующий формат
-                }
-            }
-
-            // Если ничего не помогло, пробуем как число
-            try {
-                return Long.parseLong(isoDate);
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "Could not parse date: " + isoDate);
-                return System.currentTimeMillis();
-            }
-
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing date: " + isoDate + " - " + e.getMessage());
-            return System.currentTimeMillis();
-        }
-    }
-
     public int getPendingDevicesCount() {
-        SQLiteDatabase db = null;
         Cursor cursor = null;
         int totalCount = 0;
 
-        try {
-            db = databaseHelper.getReadableDatabase();
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(context).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
             List<String> tables = databaseHelper.getAllTables();
 
             if (tables == null || tables.isEmpty()) {
                 return 0;
             }
+            boolean legacyFlags = ServerUploadConfig.isLegacyUploadFlagsEnabled(context);
+            Map<String, Long> watermarks = UploadOutbox.watermarks(db);
 
             for (String tableName : tables) {
                 if (tableName == null || tableName.trim().isEmpty()) {
                     continue;
                 }
 
-                try {
-                    cursor = db.rawQuery(
-                            "SELECT COUNT(*) FROM \"" + tableName + "\" WHERE is_uploaded = 0",
-                            null
-                    );
-
-                    if (cursor != null && cursor.moveToFirst()) {
-                        totalCount += cursor.getInt(0);
-                    }
-                } finally {
-                    if (cursor != null) {
-                        cursor.close();
-                        cursor = null;
+                Long watermark = watermarks.get(tableName);
+                if (!legacyFlags && watermark != null) {
+                    totalCount += UploadOutbox.dirtyCount(db, tableName, watermark);
+                }
+                for (String rawTable : RawPartitions.tables(db, tableName)) {
+                    try {
+                        // Папка без водяного знака ещё не выгружалась по outbox — считаем по флагам
+                        cursor = legacyFlags || watermark == null
+                                ? db.rawQuery("SELECT COUNT(*) FROM \"" + rawTable + "\" WHERE is_uploaded = 0",
+                                null)
+                                : db.rawQuery("SELECT COUNT(*) FROM \"" + rawTable + "\" WHERE id > ?",
+                                new String[]{String.valueOf(watermark)});
+
+                        if (cursor != null && cursor.moveToFirst()) {
+                            totalCount += cursor.getInt(0);
+                        }
+                    } finally {
+                        if (cursor != null) {
+                            cursor.close();
+                            cursor = null;
+                        }
                     }
                 }
             }
@@ -552,7 +924,6 @@ public class DeviceUploadManager {
             Log.e(TAG, "Error getting pending count: " + e.getMessage(), e);
         } finally {
             if (cursor != null) cursor.close();
-            if (db != null && db.isOpen()) db.close();
         }
 
         return totalCount;
@@ -562,15 +933,53 @@ public class DeviceUploadManager {
         // Ничего не делаем
     }
 
+    /**
+     * Пачка конвейера: наблюдения и прочитанные диапазоны id по папкам.
+     */
+    private static final class PendingBatch {
+        final List<PendingUpload> items = new ArrayList<>();
+        final Map<String, UploadAckTracker.Range> ranges = new LinkedHashMap<>();
+        /** Исправленные строки, взятые из очереди, включая те, что собрать не удалось */
+        final List<UploadOutbox.DirtyRow> dirty = new ArrayList<>();
+    }
+
     public static class PendingUpload {
         public final long rowId;
         public final String tableName;
+        /** Папка строки: водяной знак выгрузки ведётся по папке, а не по партиции */
+        public final String folderName;
         public final ApiDevice device;
+        /** Ревизия исправления строки (UploadOutbox.markDirty); 0 — строка не исправлялась */
+        public final long revision;
 
         public PendingUpload(long rowId, String tableName, ApiDevice device) {
+            this(rowId, tableName, null, device);
+        }
+
+        public PendingUpload(long rowId, String tableName, String folderName, ApiDevice device) {
+            this(rowId, tableName, folderName, device, 0L);
+        }
+
+        public PendingUpload(long rowId, String tableName, String folderName, ApiDevice device, long revision) {
             this.rowId = rowId;
             this.tableName = tableName;
+            this.folderName = folderName;
             this.device = device;
+            this.revision = revision;
+        }
+
+        /**
+         * Ключ идемпотентности строки: установка приложения, id, ревизия исправления и папка.
+         * Папка стоит последней — в её имени может быть любой символ, а id установки и числа
+         * двоеточий не содержат, поэтому разные строки не дают одинаковый ключ.
+         * Исправление получает новый ключ, иначе сервер отбросил бы его как повтор.
+         */
+        String idempotencyKey(String installId) {
+            return idempotencyKey(installId, folderName != null ? folderName : tableName, rowId, revision);
+        }
+
+        static String idempotencyKey(String installId, String folder, long rowId, long revision) {
+            return installId + ":" + rowId + ":" + revision + ":" + folder;
         }
     }
 }
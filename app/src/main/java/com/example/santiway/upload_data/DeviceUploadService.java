@@ -22,7 +22,6 @@ import com.example.santiway.R;
 import com.example.santiway.LocaleHelper;
 
 import com.example.santiway.MainActivity;
-import java.util.List;
 
 public class DeviceUploadService extends Service {
     private static final String TAG = "DeviceUploadService";
@@ -95,12 +94,8 @@ public class DeviceUploadService extends Service {
                 Log.d(TAG, "Pending devices: " + pendingCount);
                 if (pendingCount == 0) return;
 
-                List<DeviceUploadManager.PendingUpload> items = uploadManager.getPendingUploadsBatch();
-                Log.d(TAG, "Found " + items.size() + " devices to upload");
-                if (items.isEmpty()) return;
-
-                boolean success = uploadManager.uploadBatch(items);
-                Log.d(TAG, "Upload result: " + success);
+                int uploaded = uploadManager.drainPendingUploads();
+                Log.d(TAG, "Upload result: " + (uploaded >= 0 ? uploaded + " devices" : "failed"));
 
             } catch (Exception e) {
                 Log.e(TAG, "Error in upload: " + e.getMessage(), e);
@@ -7,8 +7,6 @@ import androidx.annotation.NonNull;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
-import java.util.List;
-
 public class DeviceUploadWorker extends Worker {
     private static final String TAG = "DeviceUploadWorker";
 
@@ -27,20 +25,14 @@ public class DeviceUploadWorker extends Worker {
 
         try {
             DeviceUploadManager uploadManager = new DeviceUploadManager(getApplicationContext());
+            UploadBatchSizer sizer = UploadBatchSizer.getInstance(getApplicationContext());
+            Log.d(TAG, "Upload batch size: " + sizer.batchSize(sizer.currentNetwork()));
 
-            // Получаем данные для отправки
-            List<DeviceUploadManager.PendingUpload> items = uploadManager.getPendingUploadsBatch();
-
-            if (items.isEmpty()) {
-                Log.d(TAG, "No devices to upload");
-                return Result.success();
-            }
-
-            // Отправляем на сервер
-            boolean success = uploadManager.uploadBatch(items);
+            // Весь накопленный хвост, несколькими пачками в полёте
+            int uploaded = uploadManager.drainPendingUploads();
 
-            if (success) {
-                Log.i(TAG, "Successfully uploaded " + items.size() + " devices");
+            if (uploaded >= 0) {
+                Log.i(TAG, "Successfully uploaded " + uploaded + " devices");
                 return Result.success();
             } else {
                 Log.e(TAG, "Failed to upload devices");
@@ -0,0 +1,129 @@
+package com.example.santiway.upload_data;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory окно дедупликации для addOrUpdateUnifiedDevice.
+ * Для каждой папки хранит корзины шириной в окно дубликатов: в корзине для каждого
+ * нормализованного ID устройства лежат min/max времени наблюдений. Проверка
+ * "есть ли запись в пределах ±окна" смотрит только три соседние корзины.
+ * Пока папка "холодная" (окно уходит в прошлое дальше момента старта индекса или
+ * за пределы хранимых корзин), ответить без БД нельзя и вызывающий код должен
+ * сделать запрос в SQLite.
+ */
+class DuplicateWindowIndex {
+    private static final int RETAINED_BUCKETS = 4;
+
+    private final long windowMs;
+    private final Map<String, FolderWindow> folders = new HashMap<>();
+
+    private static final class FolderWindow {
+        final long warmSince;
+        final TreeMap<Long, Map<String, long[]>> buckets = new TreeMap<>();
+        /** Корзины ниже этой выброшены: о записях в них индекс уже ничего не знает */
+        long prunedBelow = Long.MIN_VALUE;
+
+        FolderWindow(long warmSince) {
+            this.warmSince = warmSince;
+        }
+    }
+
+    DuplicateWindowIndex(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * true, если индекс видел все записи папки в окне вокруг timestamp и может ответить сам.
+     * Холодными остаются и времена, для которых соседняя корзина уже выброшена (запоздавшее
+     * наблюдение), и времена дальше окна за самой новой корзиной: там индекс не отличит
+     * "записей не было" от "записи шли мимо индекса" (импорт, переход часов).
+     */
+    synchronized boolean isWarm(String folderName, long timestamp) {
+        FolderWindow window = folderWindow(folderName);
+        if (timestamp - windowMs < window.warmSince) return false;
+        long bucket = bucketOf(timestamp);
+        if (bucket - 1 < window.prunedBelow) return false;
+        return window.buckets.isEmpty() || bucket <= window.buckets.lastKey() + 1;
+    }
+
+    synchronized boolean containsWithinWindow(String folderName, String key, long timestamp) {
+        FolderWindow window = folders.get(folderName);
+        if (window == null || key == null) return false;
+
+        long bucket = bucketOf(timestamp);
+
+        long[] previous = lookup(window, bucket - 1, key);
+        if (previous != null && previous[1] >= timestamp - windowMs) return true;
+
+        if (lookup(window, bucket, key) != null) return true;
+
+        long[] next = lookup(window, bucket + 1, key);
+        return next != null && next[0] <= timestamp + windowMs;
+    }
+
+    synchronized void record(String folderName, String key, long timestamp) {
+        if (key == null) return;
+        FolderWindow window = folderWindow(folderName);
+        long bucket = bucketOf(timestamp);
+
+        Map<String, long[]> entries = window.buckets.get(bucket);
+        if (entries == null) {
+            entries = new HashMap<>();
+            window.buckets.put(bucket, entries);
+        }
+        long[] range = entries.get(key);
+        if (range == null) {
+            entries.put(key, new long[]{timestamp, timestamp});
+        } else {
+            range[0] = Math.min(range[0], timestamp);
+            range[1] = Math.max(range[1], timestamp);
+        }
+
+        // Старые корзины больше не участвуют в проверках — выбрасываем их
+        long oldestUseful = window.buckets.lastKey() - RETAINED_BUCKETS;
+        window.prunedBelow = Math.max(window.prunedBelow, oldestUseful);
+        Iterator<Long> iterator = window.buckets.keySet().iterator();
+        while (iterator.hasNext() && iterator.next() < oldestUseful) {
+            iterator.remove();
+        }
+    }
+
+    synchronized void invalidate(String folderName) {
+        folders.remove(folderName);
+    }
+
+    /**
+     * После отката транзакции окна могут помнить строки, которых нет в БД: все папки снова холодные.
+     */
+    synchronized void invalidateAll() {
+        folders.clear();
+    }
+
+    synchronized void rename(String oldName, String newName) {
+        FolderWindow window = folders.remove(oldName);
+        if (window != null) {
+            folders.put(newName, window);
+        }
+    }
+
+    private FolderWindow folderWindow(String folderName) {
+        FolderWindow window = folders.get(folderName);
+        if (window == null) {
+            window = new FolderWindow(System.currentTimeMillis());
+            folders.put(folderName, window);
+        }
+        return window;
+    }
+
+    private long[] lookup(FolderWindow window, long bucket, String key) {
+        Map<String, long[]> entries = window.buckets.get(bucket);
+        return entries == null ? null : entries.get(key);
+    }
+
+    private long bucketOf(long timestamp) {
+        return Math.floorDiv(timestamp, windowMs);
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.santiway.upload_data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Архив папки для переноса между телефонами: gzip-сжатый JSON, который пишется и читается потоково.
+ * <pre>
+ * {"format": "santiway-folder", "version": 1, "folder": "...", "exported_at": ...,
+ *  "columns": ["type", "name", ...],
+ *  "rows": [["Wi-Fi", "office", ...], ...]}
+ * </pre>
+ * Строка — массив значений в порядке "columns", поэтому имена колонок не повторяются на каждом
+ * наблюдении. "rows" всегда последнее поле: читатель разбирает заголовок и дальше отдаёт строки
+ * по одной, ни экспорт, ни импорт не держат папку в памяти. Несжатый JSON тоже читается.
+ */
+public final class FolderArchive {
+    public static final String MIME_TYPE = "application/gzip";
+    public static final String FILE_EXTENSION = ".santiway.json.gz";
+
+    private static final String FORMAT = "santiway-folder";
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_STEP = 1000;
+
+    /**
+     * Колонки сырой таблицы в архиве: id назначается заново, folder_name — папка импорта.
+     * Словарные атрибуты выгружаются раскрытыми, словарь принимающей БД строится при импорте.
+     */
+    static final List<String> COLUMNS = archiveColumns();
+    private static final String SELECT_COLUMNS = joinColumns();
+
+    public interface ProgressListener {
+        void onArchiveProgress(long rows);
+    }
+
+    private FolderArchive() {
+    }
+
+    /**
+     * Пишет все физические таблицы папки (горячую и партиции, от старых к новым) в out.
+     * Поток закрывается. Возвращает число выгруженных строк.
+     */
+    static long write(SQLiteDatabase db, String folderName, OutputStream out,
+                      ProgressListener listener) throws IOException {
+        List<String> tables = RawPartitions.tables(db, folderName);
+        Collections.reverse(tables);
+
+        long rows = 0;
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new BufferedOutputStream(out, BUFFER_SIZE), BUFFER_SIZE),
+                StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            writer.name("format").value(FORMAT);
+            writer.name("version").value(VERSION);
+            writer.name("folder").value(folderName);
+            writer.name("exported_at").value(System.currentTimeMillis());
+            writer.name("columns").beginArray();
+            for (String column : COLUMNS) {
+                writer.value(column);
+            }
+            writer.endArray();
+
+            writer.name("rows").beginArray();
+            for (String table : tables) {
+                Cursor cursor = null;
+                try {
+                    cursor = db.rawQuery("SELECT " + SELECT_COLUMNS +
+                            " FROM (" + DeviceDictionary.decodedSelect(table) + ")", null);
+                    while (cursor.moveToNext()) {
+                        writeRow(writer, cursor);
+                        rows++;
+                        if (listener != null && rows % PROGRESS_STEP == 0) {
+                            listener.onArchiveProgress(rows);
+                        }
+                    }
+                } finally {
+                    if (cursor != null) cursor.close();
+                }
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        if (listener != null) listener.onArchiveProgress(rows);
+        return rows;
+    }
+
+    private static void writeRow(JsonWriter writer, Cursor cursor) throws IOException {
+        writer.beginArray();
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    writer.nullValue();
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    writer.value(cursor.getLong(i));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    writer.value(cursor.getDouble(i));
+                    break;
+                default:
+                    writer.value(cursor.getString(i));
+                    break;
+            }
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Потоковый читатель архива. Конструктор разбирает заголовок до начала "rows",
+     * next() возвращает строки по одной.
+     */
+    static final class Reader implements Closeable {
+        private final JsonReader reader;
+        private final List<String> columns = new ArrayList<>();
+        private String folderName;
+        private boolean finished;
+
+        Reader(InputStream in) throws IOException {
+            reader = new JsonReader(new InputStreamReader(unwrap(in), StandardCharsets.UTF_8));
+            readHeader();
+        }
+
+        String folderName() {
+            return folderName;
+        }
+
+        /**
+         * Следующая строка с колонками из COLUMNS или null в конце архива.
+         * Колонки, которых этот формат не знает, пропускаются.
+         */
+        ContentValues next() throws IOException {
+            if (finished) return null;
+            if (!reader.hasNext()) {
+                reader.endArray();
+                while (reader.hasNext()) {
+                    reader.nextName();
+                    reader.skipValue();
+                }
+                reader.endObject();
+                finished = true;
+                return null;
+            }
+
+            ContentValues values = new ContentValues();
+            reader.beginArray();
+            int index = 0;
+            while (reader.hasNext()) {
+                String column = index < columns.size() ? columns.get(index) : null;
+                index++;
+                if (column == null || !COLUMNS.contains(column)) {
+                    reader.skipValue();
+                    continue;
+                }
+                JsonToken token = reader.peek();
+                if (token == JsonToken.NULL) {
+                    reader.nextNull();
+                    values.putNull(column);
+                } else if (token == JsonToken.NUMBER) {
+                    String number = reader.nextString();
+                    if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+                        values.put(column, Double.parseDouble(number));
+                    } else {
+                        values.put(column, Long.parseLong(number));
+                    }
+                } else if (token == JsonToken.BOOLEAN) {
+                    values.put(column, reader.nextBoolean() ? 1 : 0);
+                } else {
+                    values.put(column, reader.nextString());
+                }
+            }
+            reader.endArray();
+            return values;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        private void readHeader() throws IOException {
+            boolean formatSeen = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "format":
+                        formatSeen = FORMAT.equals(reader.nextString());
+                        break;
+                    case "version":
+                        int version = reader.nextInt();
+                        if (version > VERSION) {
+                            throw new IOException("Unsupported folder archive version " + version);
+                        }
+                        break;
+                    case "folder":
+                        folderName = reader.nextString();
+                        break;
+                    case "columns":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            columns.add(reader.nextString());
+                        }
+                        reader.endArray();
+                        break;
+                    case "rows":
+                        if (!formatSeen || columns.isEmpty()) {
+                            throw new IOException("Not a folder archive");
+                        }
+                        reader.beginArray();
+                        return;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            throw new IOException("Folder archive has no rows");
+        }
+
+        /**
+         * gzip распознаётся по сигнатуре, а не по имени файла: SAF не всегда отдаёт расширение.
+         */
+        private static InputStream unwrap(InputStream in) throws IOException {
+            BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+            buffered.mark(2);
+            int first = buffered.read();
+            int second = buffered.read();
+            buffered.reset();
+            if (first == 0x1f && second == 0x8b) {
+                return new GZIPInputStream(buffered, BUFFER_SIZE);
+            }
+            return buffered;
+        }
+    }
+
+    private static List<String> archiveColumns() {
+        List<String> columns = new ArrayList<>();
+        for (String column : RawPartitions.COLUMNS.split(",")) {
+            column = column.trim();
+            if (!"id".equals(column) && !"folder_name".equals(column)) {
+                columns.add(column);
+            }
+        }
+        return Collections.unmodifiableList(columns);
+    }
+
+    private static String joinColumns() {
+        StringBuilder joined = new StringBuilder();
+        for (String column : COLUMNS) {
+            if (joined.length() > 0) joined.append(", ");
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+}
@@ -8,6 +8,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.Color;
@@ -26,6 +27,7 @@ import com.example.santiway.R;
 import com.example.santiway.AlarmModeConfig;
 import com.example.santiway.LocaleHelper;
 import com.example.santiway.cell_scanner.CellTower;
+import com.example.santiway.movement_detector.StreamingMovementClassifier;
 import com.example.santiway.opencellid.OpenCellIdUnknownTowerNotifier;
 import com.example.santiway.wifi_scanner.WifiDevice;
 import java.util.ArrayList;
@@ -56,21 +58,120 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     private static final double GPS_SPOOF_DISTANCE_METERS = 10000.0;
     private static final double GPS_SPOOF_SPEED_KMH = 400.0;
     private static volatile long lastRetentionCleanupAt = 0L;
+    // Автоматический checkpoint раз в ~16 МБ WAL: пачка сканера не прерывается копированием страниц,
+    // основную работу делает пассивный checkpoint в паузах между пачками
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+    private static final long WAL_JOURNAL_SIZE_LIMIT_BYTES = 8L * 1024L * 1024L;
+    private static final long WAL_IDLE_CHECKPOINT_INTERVAL_MS = 30000L;
+    private static volatile long lastIdleCheckpointAt = 0L;
     private static final Map<String, Long> LAST_DEVICES_CHANGED_BROADCAST = new HashMap<>();
     private static final Map<String, Boolean> INDEX_READY = new HashMap<>();
     private static final Set<String> RAW_TABLE_READY = Collections.synchronizedSet(new HashSet<>());
     private static final Set<String> UNIQUE_TABLE_READY = Collections.synchronizedSet(new HashSet<>());
+    private static final DuplicateWindowIndex DUPLICATE_INDEX = new DuplicateWindowIndex(DUPLICATE_WINDOW_MS);
+    private static final DeviceMovementTracker MOVEMENT_TRACKER = new DeviceMovementTracker();
+    private static final StatusRegistry STATUS_REGISTRY = new StatusRegistry();
+    private static final DeviceDictionary DEVICE_DICTIONARY = new DeviceDictionary();
+    /** Точка сохранения одного наблюдения внутри пачки очереди */
+    private static final String ROW_SAVEPOINT = "unified_row";
+    /** Порядок параметров скомпилированной вставки в сырую таблицу */
+    private static final String[] RAW_INSERT_COLUMNS = {
+            "type", "name", "bssid", "signal_strength", "frequency", "capabilities", "vendor",
+            "cell_id", "lac", "mcc", "mnc", "psc", "pci", "tac", "earfcn", "arfcn", "signal_quality",
+            "network_type", "is_registered", "is_neighbor", "latitude", "longitude", "altitude",
+            "location_accuracy", "timestamp", "status", "is_uploaded", "folder_name", "device_id"
+    };
+    private static final Map<String, String> RAW_INSERT_SQL = new HashMap<>();
+    /** Служебные таблицы статусов и статус, который каждая хранит */
+    private static final String[] STATUS_TABLES = {"target_devices", "safe_devices", "blacklist_devices"};
+    private static final String[] STATUS_TABLE_STATUSES = {"TARGET", "SAFE", "BLACKLIST"};
+    /** Ключ устройства строки _unique, как при построчной синхронизации: unique_identifier, bssid, cell_id */
+    private static final String STATUS_KEY_EXPRESSION =
+            "UPPER(TRIM(CASE WHEN TRIM(COALESCE(unique_identifier, '')) != '' THEN unique_identifier " +
+                    "WHEN TRIM(COALESCE(bssid, '')) != '' THEN bssid " +
+                    "WHEN cell_id > 0 THEN CAST(cell_id AS INTEGER) END))";
     public static final String ACTION_DEVICES_CHANGED = "com.example.santiway.ACTION_DEVICES_CHANGED";
     public static final String EXTRA_TABLE_NAME = "table_name";
 
     private static final String TAG = "MainDatabaseHelper";
-    private static final String DATABASE_NAME = "UnifiedScanner.db";
-    private static final int DATABASE_VERSION = 9;
+    public static final String DATABASE_NAME = "UnifiedScanner.db";
+    private static final int DATABASE_VERSION = 15;
+    private static final int IMPORT_BATCH_SIZE = 500;
     private final Context mContext;
+    private final StatementCache statementCache = new StatementCache();
+
+    private static MainDatabaseHelper instance;
+
+    /**
+     * Общий помощник процесса. Его пишущее соединение делят очередь записи, выгрузка и фоновые
+     * задачи: закрывать его нельзя, а отдельный экземпляр открыл бы второе пишущее соединение.
+     */
+    public static synchronized MainDatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new MainDatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
 
     public MainDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
         this.mContext = context;
+        SchemaCatalog.enableVerificationIfDebuggable(context);
+        // WAL: чтение (список устройств, поиск по папкам) не ждёт записи сканеров
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        runPragma(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+        runPragma(db, "PRAGMA journal_size_limit=" + WAL_JOURNAL_SIZE_LIMIT_BYTES);
+        // Команды вне StatementCache (словарь, дубликаты, выборки) тоже не должны вытесняться
+        // из кэша соединения: 25 по умолчанию мало для нескольких папок
+        db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+    }
+
+    /**
+     * Пассивный checkpoint, когда очередь сканера опустела. Не ждёт читателей пула
+     * и не блокирует следующую пачку; не чаще раза в WAL_IDLE_CHECKPOINT_INTERVAL_MS.
+     */
+    void checkpointIfIdle(SQLiteDatabase db) {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheckpointAt < WAL_IDLE_CHECKPOINT_INTERVAL_MS) return;
+        lastIdleCheckpointAt = now;
+
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+            if (cursor.moveToFirst()) {
+                Log.d(TAG, "WAL checkpoint: busy=" + cursor.getInt(0) +
+                        ", log=" + cursor.getInt(1) + ", checkpointed=" + cursor.getInt(2));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "WAL checkpoint failed: " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        // PRAGMA с результатом выполняется только при чтении курсора
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(pragma, null);
+            cursor.moveToFirst();
+        } catch (Exception e) {
+            Log.e(TAG, "Error applying " + pragma + ": " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // onCreate/onUpgrade шли в транзакции помощника, она уже закоммичена
+        SchemaCatalog.onTransactionEnded(db);
     }
 
     @Override
@@ -131,6 +232,12 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     private void createCoreIndexes(SQLiteDatabase db) {
         try {
             createPersistentStatusTables(db);
+            DeviceMovementTracker.createStateTable(db);
+            RawPartitions.ensureCatalog(db);
+            DeviceDictionary.ensureTable(db);
+            UploadOutbox.ensureTable(db);
+            // Служебные таблицы созданы через IF NOT EXISTS — каталог схемы перечитается целиком
+            SchemaCatalog.of(db).invalidate(db);
             db.execSQL("CREATE INDEX IF NOT EXISTS idx_target_devices_key ON target_devices(device_key)");
             db.execSQL("CREATE INDEX IF NOT EXISTS idx_safe_devices_key ON safe_devices(device_key)");
             db.execSQL("CREATE INDEX IF NOT EXISTS idx_blacklist_devices_key ON blacklist_devices(device_key)");
@@ -167,23 +274,8 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     }
 
     private void createIndexesForExistingScannerTables(SQLiteDatabase db) {
-        Cursor cursor = null;
         try {
-            cursor = db.rawQuery(
-                    "SELECT name FROM sqlite_master WHERE type='table' " +
-                            "AND name NOT LIKE 'sqlite_%' AND name NOT LIKE 'android_%'",
-                    null
-            );
-            while (cursor != null && cursor.moveToNext()) {
-                String table = cursor.getString(0);
-                if (table == null
-                        || "target_devices".equals(table)
-                        || "safe_devices".equals(table)
-                        || "blacklist_devices".equals(table)
-                        || "gps_spoofed_devices".equals(table)
-                        || "unique_devices".equals(table)) {
-                    continue;
-                }
+            for (String table : getScannerTables(db)) {
                 if (table.endsWith("_unique")) {
                     createUniqueTableIndexes(db, table);
                 } else {
@@ -192,8 +284,6 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             }
         } catch (Exception e) {
             Log.e(TAG, "Error creating scanner indexes: " + e.getMessage());
-        } finally {
-            if (cursor != null) cursor.close();
         }
     }
 
@@ -202,13 +292,20 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             return;
         }
         String safeName = "\"" + tableName + "\"";
-        createIndex(db, safeIndexName(tableName, "timestamp"), safeName + "(timestamp)");
-        createIndex(db, safeIndexName(tableName, "bssid_timestamp"), safeName + "(bssid,timestamp)");
-        createIndex(db, safeIndexName(tableName, "type_timestamp"), safeName + "(type,timestamp)");
-        createIndex(db, safeIndexName(tableName, "cell_timestamp"),
+        // Индексы запечатанной партиции сохраняют прежние имена, поэтому у каждой
+        // новой горячей таблицы имена свои — по дню последнего запечатывания
+        String sealDay = RawPartitions.lastSealDay(db, tableName);
+        String indexBase = sealDay == null ? tableName : tableName + "#" + sealDay;
+        createIndex(db, safeIndexName(indexBase, "timestamp"), safeName + "(timestamp)");
+        createIndex(db, safeIndexName(indexBase, "bssid_timestamp"), safeName + "(bssid,timestamp)");
+        // Нормализованный MAC: запросы по UPPER(bssid) идут по индексу без изменения схемы
+        createIndex(db, safeIndexName(indexBase, "mac_norm_timestamp"), safeName + "(UPPER(bssid),timestamp)");
+        createIndex(db, safeIndexName(indexBase, "type_timestamp"), safeName + "(type,timestamp)");
+        createIndex(db, safeIndexName(indexBase, "cell_timestamp"),
                 safeName + "(cell_id,mcc,mnc,timestamp)");
-        createIndex(db, safeIndexName(tableName, "uploaded_timestamp"),
+        createIndex(db, safeIndexName(indexBase, "uploaded_timestamp"),
                 safeName + "(is_uploaded,timestamp)");
+        ObservationSpatialIndex.ensure(db, tableName);
     }
 
     private void createUniqueTableIndexes(SQLiteDatabase db, String tableName) {
@@ -219,6 +316,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         createIndex(db, safeIndexName(tableName, "uid"), safeName + "(unique_identifier)");
         createIndex(db, safeIndexName(tableName, "last_seen"), safeName + "(last_seen)");
         createIndex(db, safeIndexName(tableName, "status_last_seen"), safeName + "(status,last_seen)");
+        DeviceSearchIndex.ensure(db, tableName);
     }
 
     private boolean markIndexSetupNeeded(String key) {
@@ -255,30 +353,13 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     }
 
     private void deleteOldRecordsFromAllTables(SQLiteDatabase db, long maxAgeMillis) {
-        Cursor cursor = null;
+        long now = System.currentTimeMillis();
+        sealRawPartitions(db, now);
 
         try {
-            cursor = db.rawQuery(
-                    "SELECT name FROM sqlite_master " +
-                            "WHERE type='table' " +
-                            "AND name NOT LIKE 'sqlite_%' " +
-                            "AND name NOT LIKE 'android_%'",
-                    null
-            );
-
-            long cutoffTime = System.currentTimeMillis() - maxAgeMillis;
-
-            while (cursor != null && cursor.moveToNext()) {
-                String table = cursor.getString(0);
-
-                if ("target_devices".equals(table)
-                        || "safe_devices".equals(table)
-                        || "blacklist_devices".equals(table)
-                        || "gps_spoofed_devices".equals(table)
-                        || "unique_devices".equals(table)) {
-                    continue;
-                }
+            long cutoffTime = now - maxAgeMillis;
 
+            for (String table : getScannerTables(db)) {
                 try {
                     if (table.endsWith("_unique")) {
                         if (hasColumn(db, table, "last_seen")) {
@@ -303,10 +384,44 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                     Log.e(TAG, "Error deleting old records from table " + table + ": " + e.getMessage());
                 }
             }
+            // Старые сутки лежат в партициях: они удаляются целиком, без построчного DELETE
+            int droppedPartitions = RawPartitions.dropExpired(db, cutoffTime);
+            if (droppedPartitions > 0) {
+                Log.d(TAG, "Dropped expired raw partitions: " + droppedPartitions);
+            }
+            MOVEMENT_TRACKER.deleteStaleStates(db, cutoffTime);
+            UploadOutbox.pruneDirty(db, cutoffTime);
         } catch (Exception e) {
             Log.e(TAG, "Error deleting old records: " + e.getMessage());
-        } finally {
-            if (cursor != null) cursor.close();
+        }
+    }
+
+    /**
+     * Запечатывает вчерашние данные каждой папки в дневную партицию и создаёт новую горячую таблицу.
+     */
+    private void sealRawPartitions(SQLiteDatabase db, long now) {
+        for (String folder : getAllUserTables(db)) {
+            db.beginTransaction();
+            try {
+                String partition = RawPartitions.sealIfDue(db, folder, now);
+                if (partition != null) {
+                    RAW_TABLE_READY.remove(folder);
+                    synchronized (INDEX_READY) {
+                        INDEX_READY.remove("raw:" + folder);
+                    }
+                    createFolderRawTableIfNotExists(db, folder);
+                    RawPartitions.continueSequence(db, partition, folder);
+                    invalidateFolderStatements(folder);
+                }
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                Log.e(TAG, "Error sealing raw partition of " + folder + ": " + e.getMessage());
+                // Откат вернул прежнее имя горячей таблицы
+                SchemaCatalog.of(db).invalidate(db);
+            } finally {
+                db.endTransaction();
+                SchemaCatalog.onTransactionEnded(db);
+            }
         }
     }
 
@@ -328,8 +443,8 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         long maxAge = retentionDays * 24L * 60L * 60L * 1000L;
 
         new Thread(() -> {
-            try (MainDatabaseHelper helper = new MainDatabaseHelper(appContext)) {
-                helper.deleteOldRecordsFromAllTables(maxAge);
+            try {
+                MainDatabaseHelper.getInstance(appContext).deleteOldRecordsFromAllTables(maxAge);
                 try (NotificationDatabaseHelper notificationHelper = new NotificationDatabaseHelper(appContext)) {
                     notificationHelper.deleteOldNotifications(maxAge);
                 }
@@ -340,24 +455,12 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     }
 
     private boolean hasColumn(SQLiteDatabase db, String tableName, String columnName) {
-        Cursor cursor = null;
-
         try {
-            cursor = db.rawQuery("PRAGMA table_info(\"" + tableName + "\")", null);
-            int nameIndex = cursor.getColumnIndex("name");
-
-            while (cursor.moveToNext()) {
-                if (nameIndex >= 0 && columnName.equals(cursor.getString(nameIndex))) {
-                    return true;
-                }
-            }
+            return SchemaCatalog.of(db).hasColumn(db, tableName, columnName);
         } catch (Exception e) {
             Log.e(TAG, "hasColumn error for " + tableName + ": " + e.getMessage());
-        } finally {
-            if (cursor != null) cursor.close();
+            return false;
         }
-
-        return false;
     }
 
     private boolean isGpsSpoofIgnored(SQLiteDatabase db, String uniqueId) {
@@ -402,6 +505,31 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         createGpsSpoofedDevicesTable(db);
         createCoreIndexes(db);
+        if (oldVersion < 12) {
+            // Читатели раскрывают device_id через словарь — колонка нужна во всех сырых таблицах и партициях
+            for (String folder : getAllUserTables(db)) {
+                for (String rawTable : RawPartitions.tables(db, folder)) {
+                    addMissingColumns(db, rawTable);
+                }
+            }
+        }
+        if (oldVersion < 13) {
+            // Ключи _unique приводятся к одному виду: обновление ищет строку точным сравнением
+            for (String folder : getAllUserTables(db)) {
+                String uniqueTable = getUniqueTableName(folder);
+                if (tableExists(db, uniqueTable)) {
+                    UniqueDevicesHelper.normalizeIdentifiers(db, uniqueTable);
+                }
+            }
+        }
+        if (oldVersion < 14) {
+            // Горячие таблицы получают R*Tree через createCoreIndexes, партициям он строится здесь
+            for (String folder : getAllUserTables(db)) {
+                for (String rawTable : RawPartitions.tables(db, folder)) {
+                    ObservationSpatialIndex.ensure(db, rawTable);
+                }
+            }
+        }
 //        if (oldVersion < 8) {
 //            try {
 //                Cursor cursor = db.rawQuery(
@@ -559,6 +687,8 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         if (mac == null || mac.trim().isEmpty()) return -1;
         SQLiteDatabase db = this.getWritableDatabase();
         Cursor cursor = null;
+        boolean ownsTransaction = !db.inTransaction();
+        boolean inSavepoint = false;
         try {
             scheduleRetentionCleanupIfDue();
             createFolderRawTableIfNotExists(db, tableName);
@@ -568,7 +698,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             long duplicateEnd = timestamp + DUPLICATE_WINDOW_MS;
             cursor = db.rawQuery(
                     "SELECT id,status FROM \"" + tableName + "\" " +
-                            "WHERE UPPER(COALESCE(bssid,''))=? AND timestamp BETWEEN ? AND ? " +
+                            "WHERE UPPER(bssid)=? AND bssid IS NOT NULL AND timestamp BETWEEN ? AND ? " +
                             "ORDER BY ABS(timestamp - ?) ASC LIMIT 1",
                     new String[]{
                             mac.toUpperCase(Locale.US),
@@ -586,22 +716,53 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             values.put("status", status == null || status.trim().isEmpty() ? "GREY" : status);
             values.put("is_uploaded", 0);
 
-            db.beginTransaction();
-            int updated = db.update("\"" + tableName + "\"", values, "id=?",
+            // Как и в addOrUpdateUnifiedDevice: внутри пачки очереди — точка сохранения
+            if (ownsTransaction) {
+                db.beginTransaction();
+            } else {
+                db.execSQL("SAVEPOINT " + ROW_SAVEPOINT);
+                inSavepoint = true;
+            }
+            String deviceKey = mac.toUpperCase(Locale.US);
+            int updated = db.update("\"" + tableName + "\"",
+                    DEVICE_DICTIONARY.encode(db, deviceKey, values), "id=?",
                     new String[]{String.valueOf(id)});
             if (updated > 0) {
-                addToFolderUniqueDevices(db, tableName, values);
+                // Строка могла уже уйти на сервер: водяной знак её перешагнул, нужна повторная выгрузка
+                UploadOutbox.markDirty(db, tableName, id);
+                MOVEMENT_TRACKER.invalidateDevice(db, tableName, deviceKey);
+                new UniqueDevicesHelper(mContext, getUniqueTableName(tableName), statementCache).addOrUpdateDevice(db, values);
                 syncStatusTables(db, mac, values.getAsString("status"));
+            }
+            if (ownsTransaction) {
+                db.setTransactionSuccessful();
+                db.endTransaction();
+            } else {
+                db.execSQL("RELEASE " + ROW_SAVEPOINT);
+                inSavepoint = false;
+            }
+            if (updated > 0) {
+                DUPLICATE_INDEX.record(tableName, deviceKey, timestamp);
                 notifyDevicesChangedThrottled(tableName);
             }
-            db.setTransactionSuccessful();
             return updated > 0 ? id : -1;
         } catch (Exception e) {
             Log.e(TAG, "Error updating triangulated duplicate: " + e.getMessage(), e);
+            if (inSavepoint) {
+                try {
+                    db.execSQL("ROLLBACK TO " + ROW_SAVEPOINT);
+                    db.execSQL("RELEASE " + ROW_SAVEPOINT);
+                } catch (Exception rollbackError) {
+                    Log.e(TAG, "Error rolling back triangulated update: " + rollbackError.getMessage());
+                }
+            }
+            STATUS_REGISTRY.invalidate();
+            DEVICE_DICTIONARY.invalidate();
+            MOVEMENT_TRACKER.dropCache();
             return -1;
         } finally {
             if (cursor != null) cursor.close();
-            if (db.inTransaction()) db.endTransaction();
+            if (ownsTransaction && db.inTransaction()) db.endTransaction();
         }
     }
 
@@ -656,9 +817,9 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
     private long addOrUpdateUnifiedDevice(String tableName, ContentValues values, String selection, String[] selectionArgs, long newTimestamp) {
         SQLiteDatabase db = null;
-        Cursor cursor = null;
         long result = -1;
         boolean ownsTransaction = false;
+        boolean inSavepoint = false;
 
         try {
             scheduleRetentionCleanupIfDue();
@@ -668,101 +829,23 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             createFolderUniqueTableIfNotExists(db, getUniqueTableName(tableName));
 
             // Определяем уникальный ID устройства
-            String uniqueId = null;
             String bssid = values.getAsString("bssid");
-
-            if (bssid != null && !bssid.isEmpty()) {
-                uniqueId = bssid.toUpperCase(Locale.US);
-            } else {
-                // Для сотовых вышек используем составной ключ
-                Long cellId = values.getAsLong("cell_id");
-                Integer mcc = values.getAsInteger("mcc");
-                Integer mnc = values.getAsInteger("mnc");
-                Long tac = values.getAsLong("tac");
-                Integer lac = values.getAsInteger("lac");
-                String networkType = values.getAsString("network_type");
-
-                if (cellId != null && cellId > 0 && cellId != 2147483647) {
-                    if ("LTE".equals(networkType) || "5G".equals(networkType)) {
-                        // Для LTE/5G: MCC_MNC_TAC_CI
-                        uniqueId = String.format(Locale.US, "%s_%d_%d_%d_%d",
-                                networkType,
-                                mcc != null ? mcc : 0,
-                                mnc != null ? mnc : 0,
-                                tac != null ? tac : 0,
-                                cellId);
-                    } else {
-                        // Для GSM/UMTS: MCC_MNC_LAC_CI
-                        uniqueId = String.format(Locale.US, "%s_%d_%d_%d_%d",
-                                networkType != null ? networkType : "CELL",
-                                mcc != null ? mcc : 0,
-                                mnc != null ? mnc : 0,
-                                lac != null ? lac : 0,
-                                cellId);
-                    }
-                }
-            }
+            String uniqueId = resolveDeviceKey(values);
 
             if (uniqueId == null || uniqueId.isEmpty()) {
                 Log.d(TAG, "Skipping device without unique identifier");
                 return -1;
             }
 
-            // 2. ЖЕСТКАЯ ДЕДУПЛИКАЦИЯ: проверяем точное совпадение за последние 2 секунды
-            String checkQuery;
-            String[] checkArgs;
-            long duplicateStart = newTimestamp - DUPLICATE_WINDOW_MS;
-            long duplicateEnd = newTimestamp + DUPLICATE_WINDOW_MS;
-
-            if (bssid != null) {
-                checkQuery = "SELECT COUNT(*) FROM \"" + tableName + "\" " +
-                        "WHERE UPPER(COALESCE(bssid, '')) = ? AND timestamp BETWEEN ? AND ?";
-                checkArgs = new String[]{
-                        uniqueId,
-                        String.valueOf(duplicateStart),
-                        String.valueOf(duplicateEnd)
-                };
-            } else {
-                // Для сотовых вышек ищем по составному ключу
-                Long cellId = values.getAsLong("cell_id");
-                Integer mcc = values.getAsInteger("mcc");
-                Integer mnc = values.getAsInteger("mnc");
-                Long tac = values.getAsLong("tac");
-                Integer lac = values.getAsInteger("lac");
-                String networkType = values.getAsString("network_type");
-                boolean lteLike = "LTE".equalsIgnoreCase(networkType) || "5G".equalsIgnoreCase(networkType);
-
-                checkQuery = "SELECT COUNT(*) FROM \"" + tableName + "\" " +
-                        "WHERE type = 'Cell' AND " +
-                        "cell_id = ? AND mcc = ? AND mnc = ? AND network_type = ? AND " +
-                        (lteLike ? "tac" : "lac") + " = ? AND " +
-                        "timestamp BETWEEN ? AND ?";
-
-                checkArgs = new String[]{
-                        String.valueOf(cellId),
-                        String.valueOf(mcc),
-                        String.valueOf(mnc),
-                        String.valueOf(networkType),
-                        String.valueOf(lteLike ? tac : lac),
-                        String.valueOf(duplicateStart),
-                        String.valueOf(duplicateEnd)
-                };
-            }
-
-            cursor = db.rawQuery(checkQuery, checkArgs);
-            if (cursor != null && cursor.moveToFirst()) {
-                int count = cursor.getInt(0);
-                if (count > 0) {
-                    String timeStr = new SimpleDateFormat("HH:mm:ss", Locale.getDefault())
-                            .format(new Date(newTimestamp));
-                    Log.d(TAG, "⚠️ DUPLICATE BLOCKED: " + uniqueId + " at " + timeStr);
+            // 2. ЖЕСТКАЯ ДЕДУПЛИКАЦИЯ: сначала in-memory окно, в SQLite идём только после холодного старта
+            if (DUPLICATE_INDEX.isWarm(tableName, newTimestamp)) {
+                if (DUPLICATE_INDEX.containsWithinWindow(tableName, uniqueId, newTimestamp)) {
+                    logDuplicateBlocked(uniqueId, newTimestamp);
                     return -1;
                 }
-            }
-
-            if (cursor != null) {
-                cursor.close();
-                cursor = null;
+            } else if (hasDuplicateInDatabase(db, tableName, uniqueId, bssid, values, newTimestamp)) {
+                logDuplicateBlocked(uniqueId, newTimestamp);
+                return -1;
             }
 
             // 4. Получаем координаты
@@ -771,6 +854,13 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             Double curAlt = values.getAsDouble("altitude");
             Float curAcc = values.getAsFloat("location_accuracy");
 
+            // Потоковый детектор видит каждое наблюдение, иначе его сессии рвутся, пока тревога
+            // выключена или устройство не GREY; вердикт ниже берётся только там, где он нужен
+            String streamingStatus = null;
+            if (curLat != null && curLon != null && AlarmModeConfig.isStreamingMovementDetectorEnabled(mContext)) {
+                streamingStatus = classifyStreamingMovement(uniqueId, curLat, curLon, curAcc, newTimestamp);
+            }
+
             // 5. Проверяем Target только для GREY-устройств
             String lastStatus = "GREY";
             String dbStatus = getLatestDeviceStatus(db, uniqueId, tableName, values);
@@ -782,9 +872,10 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             boolean quietIncludesCells = AlarmModeConfig.isQuietModeIncludeCellTowers(mContext);
             boolean isCellRecord = "Cell".equalsIgnoreCase(values.getAsString("type"));
             boolean notifyTarget = false;
-            boolean persistentAlert = "TARGET".equalsIgnoreCase(getStatusFromServiceTables(uniqueId));
+            String persistentStatus = getStatusFromServiceTables(uniqueId);
+            boolean persistentAlert = "TARGET".equalsIgnoreCase(persistentStatus);
 
-            if ("SAFE".equalsIgnoreCase(getStatusFromServiceTables(uniqueId)) || "SAFE".equalsIgnoreCase(lastStatus)) {
+            if ("SAFE".equalsIgnoreCase(persistentStatus) || "SAFE".equalsIgnoreCase(lastStatus)) {
                 values.put("status", "SAFE");
             } else if (persistentAlert) {
                 values.put("status", "TARGET");
@@ -797,7 +888,9 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                 notifyTarget = markedTargetAlarmEnabled;
             } else if (trackingAlarmEnabled && curLat != null && curLon != null && "GREY".equals(lastStatus)) {
                 try {
-                    String calculatedStatus = evaluateTargetStatus(db, uniqueId, curLat, curLon, newTimestamp, tableName);
+                    String calculatedStatus = streamingStatus != null
+                            ? evaluateStreamingTargetStatus(db, uniqueId, streamingStatus)
+                            : evaluateTargetStatus(db, uniqueId, curLat, curLon, newTimestamp, tableName);
                     values.put("status", calculatedStatus);
                     Log.d(TAG, "Status for " + uniqueId + ": " + calculatedStatus);
                     notifyTarget = "TARGET".equals(calculatedStatus);
@@ -813,22 +906,56 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                 createTargetNotification(values, uniqueId, curLat, curLon, persistentAlert);
             }
 
-            // 7. Добавляем запись в основную таблицу
-            if (ownsTransaction) db.beginTransaction();
-            result = db.insert("\"" + tableName + "\"", null, values);
+            // 7. Добавляем запись в основную таблицу. Сырая строка, _unique и служебные таблицы
+            // пишутся вместе: в чужой транзакции (пачка очереди) строку отделяет точка сохранения,
+            // иначе ошибка на _unique оставила бы сырую строку без пары
+            if (ownsTransaction) {
+                db.beginTransaction();
+            } else {
+                db.execSQL("SAVEPOINT " + ROW_SAVEPOINT);
+                inSavepoint = true;
+            }
+            // В сырую таблицу идёт закодированная копия: values с полными атрибутами нужны дальше для _unique
+            result = insertRawRow(db, tableName, DEVICE_DICTIONARY.encode(db, uniqueId, values));
 
             if (result != -1) {
-                addToFolderUniqueDevices(db, tableName, values);
+                if (curLat != null && curLon != null) {
+                    MOVEMENT_TRACKER.onPointInserted(db, tableName, uniqueId, curLat, curLon, newTimestamp);
+                }
+                new UniqueDevicesHelper(mContext, getUniqueTableName(tableName), statementCache).addOrUpdateDevice(db, values);
                 syncStatusTables(db, uniqueId, values.getAsString("status"));
-                notifyDevicesChangedThrottled(tableName);
             }
 
-            if (ownsTransaction) db.setTransactionSuccessful();
+            if (ownsTransaction) {
+                db.setTransactionSuccessful();
+                db.endTransaction();
+            } else {
+                db.execSQL("RELEASE " + ROW_SAVEPOINT);
+                inSavepoint = false;
+            }
+
+            // Память меняем только после того, как строка легла в БД целиком
+            if (result != -1) {
+                DUPLICATE_INDEX.record(tableName, uniqueId, newTimestamp);
+                notifyDevicesChangedThrottled(tableName);
+            }
 
         } catch (Exception e) {
             Log.e(TAG, "Error: " + e.getMessage());
+            result = -1;
+            if (inSavepoint) {
+                try {
+                    db.execSQL("ROLLBACK TO " + ROW_SAVEPOINT);
+                    db.execSQL("RELEASE " + ROW_SAVEPOINT);
+                } catch (Exception rollbackError) {
+                    Log.e(TAG, "Error rolling back observation: " + rollbackError.getMessage());
+                }
+            }
+            // Реестр, словарь и трекер могли запомнить то, что сейчас откатилось
+            STATUS_REGISTRY.invalidate();
+            DEVICE_DICTIONARY.invalidate();
+            MOVEMENT_TRACKER.dropCache();
         } finally {
-            if (cursor != null) cursor.close();
             if (db != null && db.isOpen()) {
                 try {
                     if (ownsTransaction && db.inTransaction()) {
@@ -842,6 +969,156 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         return result;
     }
 
+    /**
+     * Ключ устройства наблюдения: BSSID или составной ключ соты (MCC_MNC_TAC/LAC_CI).
+     * null, если идентифицировать устройство нечем.
+     */
+    private static String resolveDeviceKey(ContentValues values) {
+        String bssid = values.getAsString("bssid");
+        if (bssid != null && !bssid.isEmpty()) {
+            return bssid.toUpperCase(Locale.US);
+        }
+
+        // Для сотовых вышек используем составной ключ
+        Long cellId = values.getAsLong("cell_id");
+        Integer mcc = values.getAsInteger("mcc");
+        Integer mnc = values.getAsInteger("mnc");
+        Long tac = values.getAsLong("tac");
+        Integer lac = values.getAsInteger("lac");
+        String networkType = values.getAsString("network_type");
+
+        if (cellId == null || cellId <= 0 || cellId == 2147483647) return null;
+        if ("LTE".equals(networkType) || "5G".equals(networkType)) {
+            // Для LTE/5G: MCC_MNC_TAC_CI
+            return String.format(Locale.US, "%s_%d_%d_%d_%d",
+                    networkType,
+                    mcc != null ? mcc : 0,
+                    mnc != null ? mnc : 0,
+                    tac != null ? tac : 0,
+                    cellId);
+        }
+        // Для GSM/UMTS: MCC_MNC_LAC_CI
+        return String.format(Locale.US, "%s_%d_%d_%d_%d",
+                networkType != null ? networkType : "CELL",
+                mcc != null ? mcc : 0,
+                mnc != null ? mnc : 0,
+                lac != null ? lac : 0,
+                cellId);
+    }
+
+    /**
+     * Вставка в сырую таблицу через скомпилированную команду папки: SQL не разбирается заново
+     * на каждое наблюдение. Как и db.insert, при нарушении ограничения возвращает -1.
+     */
+    private long insertRawRow(SQLiteDatabase db, String tableName, ContentValues values) {
+        Object[] args = new Object[RAW_INSERT_COLUMNS.length];
+        for (int i = 0; i < RAW_INSERT_COLUMNS.length; i++) {
+            args[i] = values.get(RAW_INSERT_COLUMNS[i]);
+        }
+        try {
+            return statementCache.bind(db, tableName, rawInsertSql(tableName), args).executeInsert();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error inserting into " + tableName + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static String rawInsertSql(String tableName) {
+        synchronized (RAW_INSERT_SQL) {
+            String cached = RAW_INSERT_SQL.get(tableName);
+            if (cached != null) return cached;
+        }
+        StringBuilder columns = new StringBuilder();
+        StringBuilder params = new StringBuilder();
+        for (String column : RAW_INSERT_COLUMNS) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+                params.append(", ");
+            }
+            columns.append(column);
+            // Отсутствующие значения получают те же умолчания, что и в схеме таблицы
+            if ("status".equals(column)) {
+                params.append("COALESCE(?, 'GREY')");
+            } else if ("is_uploaded".equals(column)) {
+                params.append("COALESCE(?, 0)");
+            } else if ("folder_name".equals(column)) {
+                params.append("COALESCE(?, '')");
+            } else {
+                params.append('?');
+            }
+        }
+        String sql = "INSERT INTO \"" + tableName + "\" (" + columns + ") VALUES (" + params + ")";
+        synchronized (RAW_INSERT_SQL) {
+            RAW_INSERT_SQL.put(tableName, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Команды папки перекомпилируются после DDL над её таблицами.
+     */
+    private static void invalidateFolderStatements(String folderName) {
+        StatementCache.invalidateTable(folderName);
+        StatementCache.invalidateTable(folderName + "_unique");
+    }
+
+    private boolean hasDuplicateInDatabase(SQLiteDatabase db, String tableName, String uniqueId,
+                                           String bssid, ContentValues values, long newTimestamp) {
+        String checkQuery;
+        String[] checkArgs;
+        long duplicateStart = newTimestamp - DUPLICATE_WINDOW_MS;
+        long duplicateEnd = newTimestamp + DUPLICATE_WINDOW_MS;
+
+        if (bssid != null) {
+            checkQuery = "SELECT COUNT(*) FROM \"" + tableName + "\" " +
+                    "WHERE UPPER(bssid) = ? AND bssid IS NOT NULL AND timestamp BETWEEN ? AND ?";
+            checkArgs = new String[]{
+                    uniqueId,
+                    String.valueOf(duplicateStart),
+                    String.valueOf(duplicateEnd)
+            };
+        } else {
+            // Для сотовых вышек ищем по составному ключу
+            Long cellId = values.getAsLong("cell_id");
+            Integer mcc = values.getAsInteger("mcc");
+            Integer mnc = values.getAsInteger("mnc");
+            Long tac = values.getAsLong("tac");
+            Integer lac = values.getAsInteger("lac");
+            String networkType = values.getAsString("network_type");
+            boolean lteLike = "LTE".equalsIgnoreCase(networkType) || "5G".equalsIgnoreCase(networkType);
+
+            checkQuery = "SELECT COUNT(*) FROM \"" + tableName + "\" " +
+                    "WHERE type = 'Cell' AND " +
+                    "cell_id = ? AND mcc = ? AND mnc = ? AND network_type = ? AND " +
+                    (lteLike ? "tac" : "lac") + " = ? AND " +
+                    "timestamp BETWEEN ? AND ?";
+
+            checkArgs = new String[]{
+                    String.valueOf(cellId),
+                    String.valueOf(mcc),
+                    String.valueOf(mnc),
+                    String.valueOf(networkType),
+                    String.valueOf(lteLike ? tac : lac),
+                    String.valueOf(duplicateStart),
+                    String.valueOf(duplicateEnd)
+            };
+        }
+
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(checkQuery, checkArgs);
+            return cursor != null && cursor.moveToFirst() && cursor.getInt(0) > 0;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    private void logDuplicateBlocked(String uniqueId, long timestamp) {
+        String timeStr = new SimpleDateFormat("HH:mm:ss", Locale.getDefault())
+                .format(new Date(timestamp));
+        Log.d(TAG, "⚠️ DUPLICATE BLOCKED: " + uniqueId + " at " + timeStr);
+    }
+
     /**
      * Создает уведомление для Target устройств
      */
@@ -964,31 +1241,68 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         try {
             db.beginTransaction();
 
+            // Без триггеров пространственного индекса очистка остаётся одним DELETE без построчной работы
+            ObservationSpatialIndex.drop(db, folderName);
             db.delete("\"" + folderName + "\"", null, null);
+            ObservationSpatialIndex.ensure(db, folderName);
             db.delete("\"" + folderName + "_unique\"", null, null);
+            RawPartitions.dropFolder(db, folderName);
+            UploadOutbox.dropDirty(db, folderName);
 
             // После очистки текущей папки служебные таблицы тоже должны очиститься
             db.delete("gps_spoofed_devices", null, null);
+            MOVEMENT_TRACKER.invalidateFolder(db, folderName);
 
             db.setTransactionSuccessful();
+            DUPLICATE_INDEX.invalidate(folderName);
+            invalidateFolderStatements(folderName);
             notifyDevicesChanged(folderName);
         } catch (Exception e) {
             Log.e(TAG, "Error clearing folder tables: " + e.getMessage());
         } finally {
             if (db.inTransaction()) db.endTransaction();
+            SchemaCatalog.onTransactionEnded(db);
         }
     }
     public void renameTable(String oldName, String newName) {
         SQLiteDatabase db = this.getWritableDatabase();
+        // Все шаги — одна транзакция: при ошибке на середине папка не останется наполовину переименованной
+        db.beginTransaction();
+        boolean committed = false;
         try {
+            // Поисковый индекс пересобирается под новым именем, а не переименовывается
+            DeviceSearchIndex.drop(db, oldName + "_unique");
             db.execSQL("ALTER TABLE \"" + oldName + "\" RENAME TO \"" + newName + "\"");
+            SchemaCatalog.of(db).onTableRenamed(db, oldName, newName);
+            ObservationSpatialIndex.rename(db, oldName, newName);
             db.execSQL("ALTER TABLE \"" + oldName + "_unique\" RENAME TO \"" + newName + "_unique\"");
-            RAW_TABLE_READY.remove(oldName);
-            UNIQUE_TABLE_READY.remove(oldName + "_unique");
-            RAW_TABLE_READY.add(newName);
-            UNIQUE_TABLE_READY.add(newName + "_unique");
+            SchemaCatalog.of(db).onTableRenamed(db, oldName + "_unique", newName + "_unique");
+            RawPartitions.renameFolder(db, oldName, newName);
+            UploadOutbox.rename(db, oldName, newName);
+            DeviceSearchIndex.ensure(db, newName + "_unique");
+            MOVEMENT_TRACKER.renameFolder(db, oldName, newName);
+            db.setTransactionSuccessful();
+            committed = true;
         } catch (Exception e) {
             Log.e("DB_RENAME", "Error: " + e.getMessage());
+        } finally {
+            db.endTransaction();
+            SchemaCatalog.onTransactionEnded(db);
+        }
+
+        RAW_TABLE_READY.remove(oldName);
+        UNIQUE_TABLE_READY.remove(oldName + "_unique");
+        invalidateFolderStatements(oldName);
+        invalidateFolderStatements(newName);
+        if (committed) {
+            RAW_TABLE_READY.add(newName);
+            UNIQUE_TABLE_READY.add(newName + "_unique");
+            DUPLICATE_INDEX.rename(oldName, newName);
+        } else {
+            // Откат вернул прежние имена таблиц, индексов и триггеров
+            SchemaCatalog.invalidateAll();
+            ObservationSpatialIndex.invalidate();
+            DeviceSearchIndex.invalidate();
         }
     }
 
@@ -1000,7 +1314,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         try {
             cursor = db.rawQuery(
                     "SELECT type, name, latitude, longitude, timestamp " +
-                            "FROM \"" + tableName + "\" " +
+                            "FROM " + DeviceDictionary.source(tableName) + " " +
                             "ORDER BY timestamp DESC", // НОВЫЕ записи будут первыми
                     null
             );
@@ -1027,83 +1341,62 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         return deviceList;
     }
 
-    public List<DeviceListActivity.Device> getAllDataFromTableWithPagination(String tableName, int offset, int limit) {
-        List<DeviceListActivity.Device> deviceList = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = null;
-        try {
-            // УБИРАЕМ фильтр по типу или добавляем Cell
-            String sql = "SELECT type, name, bssid, cell_id, latitude, longitude, timestamp, status " +
-                    "FROM \"" + tableName + "\" " +
-                    "ORDER BY timestamp DESC " +  // Убрали WHERE type IN (...)
-                    "LIMIT ? OFFSET ?";
-
-            cursor = db.rawQuery(sql, new String[]{String.valueOf(limit), String.valueOf(offset)});
-
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    String type = cursor.getString(cursor.getColumnIndexOrThrow("type"));
-                    String name = cursor.getString(cursor.getColumnIndexOrThrow("name"));
-                    String mac = cursor.getString(cursor.getColumnIndexOrThrow("bssid"));
-                    int cellId = cursor.getInt(cursor.getColumnIndexOrThrow("cell_id"));
-                    double lat = cursor.getDouble(cursor.getColumnIndexOrThrow("latitude"));
-                    double lon = cursor.getDouble(cursor.getColumnIndexOrThrow("longitude"));
-                    long ts = cursor.getLong(cursor.getColumnIndexOrThrow("timestamp"));
-
-                    int statusIdx = cursor.getColumnIndex("status");
-                    String currentStatus = "GREY";
-                    if (statusIdx != -1) {
-                        String dbStatus = cursor.getString(statusIdx);
-                        if (dbStatus != null && !dbStatus.isEmpty()) {
-                            currentStatus = dbStatus;
-                        }
-                    }
-
-                    String loc = String.format("Lat: %.4f, Lon: %.4f", lat, lon);
-                    String time = new java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault()).format(new java.util.Date(ts));
-
-                    // Для Cell устройств используем cell_id как идентификатор
-                    String deviceId = ("Cell".equals(type)) ? String.valueOf(cellId) : mac;
-
-                    deviceList.add(new DeviceListActivity.Device(name, type, loc, time, deviceId, currentStatus));
-                } while (cursor.moveToNext());
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Pagination error: " + e.getMessage());
-        } finally {
-            if (cursor != null) cursor.close();
-        }
-        return deviceList;
+    public DevicePage getAllDataFromTableWithPagination(String tableName, String pageToken, int limit) {
+        return getRawTablePage(tableName, null, pageToken, limit);
     }
 
-    public List<DeviceListActivity.Device> getAllDataFromTableWithPaginationAndSearch(
+    public DevicePage getAllDataFromTableWithPaginationAndSearch(
             String tableName,
             String searchQuery,
-            int offset,
+            String pageToken,
             int limit
     ) {
+        return getRawTablePage(tableName, searchQuery, pageToken, limit);
+    }
+
+    /**
+     * Keyset-страница сырой таблицы по (timestamp, id): следующая страница продолжает
+     * индекс по timestamp с места последней строки, без перебора пропущенных OFFSET-строк.
+     */
+    private DevicePage getRawTablePage(String tableName, String searchQuery, String pageToken, int limit) {
         List<DeviceListActivity.Device> deviceList = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
+        String nextToken = null;
         Cursor cursor = null;
+        DevicePage.Key after = DevicePage.decodeToken(pageToken);
 
-        try {
-            String likeQuery = "%" + searchQuery + "%";
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(mContext).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
+            List<String> args = new ArrayList<>();
+            List<String> conditions = new ArrayList<>();
 
-            String sql = "SELECT type, name, bssid, cell_id, latitude, longitude, timestamp, status " +
-                    "FROM \"" + tableName + "\" " +
-                    "WHERE UPPER(COALESCE(name, '')) LIKE UPPER(?) " +
-                    "   OR UPPER(COALESCE(bssid, '')) LIKE UPPER(?) " +
-                    "ORDER BY timestamp DESC " +
-                    "LIMIT ? OFFSET ?";
+            if (searchQuery != null && !searchQuery.isEmpty()) {
+                String likeQuery = "%" + searchQuery + "%";
+                conditions.add("(UPPER(COALESCE(name, '')) LIKE UPPER(?) " +
+                        "   OR UPPER(COALESCE(bssid, '')) LIKE UPPER(?))");
+                args.add(likeQuery);
+                args.add(likeQuery);
+            }
+            if (after != null) {
+                // timestamp <= ? — граница для поиска по индексу, без неё OR проверяется с первой строки
+                conditions.add("timestamp <= ? AND (timestamp < ? OR (timestamp = ? AND id < ?))");
+                args.add(String.valueOf(after.time));
+                args.add(String.valueOf(after.time));
+                args.add(String.valueOf(after.time));
+                args.add(String.valueOf(after.id));
+            }
 
-            cursor = db.rawQuery(sql, new String[]{
-                    likeQuery,
-                    likeQuery,
-                    String.valueOf(limit),
-                    String.valueOf(offset)
-            });
+            String sql = "SELECT id, type, name, bssid, cell_id, latitude, longitude, timestamp, status " +
+                    "FROM " + DeviceDictionary.source(tableName) + " " +
+                    (conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + " ") +
+                    "ORDER BY timestamp DESC, id DESC " +
+                    "LIMIT ?";
+            args.add(String.valueOf(limit));
+
+            cursor = db.rawQuery(sql, args.toArray(new String[0]));
 
             if (cursor != null && cursor.moveToFirst()) {
+                long lastId = 0L;
+                long lastTs = 0L;
                 do {
                     String type = cursor.getString(cursor.getColumnIndexOrThrow("type"));
                     String name = cursor.getString(cursor.getColumnIndexOrThrow("name"));
@@ -1112,6 +1405,8 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                     double lat = cursor.getDouble(cursor.getColumnIndexOrThrow("latitude"));
                     double lon = cursor.getDouble(cursor.getColumnIndexOrThrow("longitude"));
                     long ts = cursor.getLong(cursor.getColumnIndexOrThrow("timestamp"));
+                    lastId = cursor.getLong(cursor.getColumnIndexOrThrow("id"));
+                    lastTs = ts;
 
                     int statusIdx = cursor.getColumnIndex("status");
                     String currentStatus = "GREY";
@@ -1126,6 +1421,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                     String time = new java.text.SimpleDateFormat("HH:mm:ss", Locale.getDefault())
                             .format(new java.util.Date(ts));
 
+                    // Для Cell устройств используем cell_id как идентификатор
                     String deviceId = ("Cell".equals(type)) ? String.valueOf(cellId) : mac;
 
                     deviceList.add(new DeviceListActivity.Device(
@@ -1137,14 +1433,30 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                             currentStatus
                     ));
                 } while (cursor.moveToNext());
+
+                if (deviceList.size() >= limit) {
+                    nextToken = DevicePage.encodeToken(Double.NaN, lastTs, lastId);
+                }
             }
         } catch (Exception e) {
-            Log.e(TAG, "Search pagination error: " + e.getMessage());
+            Log.e(TAG, "Pagination error: " + e.getMessage());
         } finally {
             if (cursor != null) cursor.close();
         }
 
-        return deviceList;
+        return new DevicePage(deviceList, nextToken);
+    }
+
+    /**
+     * UPDATE по всем физическим таблицам папки: горячей и запечатанным партициям.
+     */
+    private int updateRawTables(SQLiteDatabase db, String folderName, ContentValues values,
+                                String whereClause, String[] whereArgs) {
+        int updated = 0;
+        for (String rawTable : RawPartitions.tables(db, folderName)) {
+            updated += db.update("\"" + rawTable + "\"", values, whereClause, whereArgs);
+        }
+        return updated;
     }
 
     public int updateDeviceStatus(String tableName, String deviceKey, String newStatus) {
@@ -1165,12 +1477,8 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             // 1. Обновляем raw-таблицу
             if (deviceKey.contains(":")) {
                 // Wi-Fi / Bluetooth -> MAC
-                rowsAffected = db.update(
-                        "\"" + tableName + "\"",
-                        values,
-                        "UPPER(COALESCE(bssid, '')) = ?",
-                        new String[]{deviceKey}
-                );
+                rowsAffected = updateRawTables(db, tableName, values,
+                        "UPPER(bssid) = ? AND bssid IS NOT NULL", new String[]{deviceKey});
             } else if (deviceKey.contains("_")) {
                 // Cell -> обновляем по данным из unique-таблицы
                 Cursor cellCursor = null;
@@ -1178,7 +1486,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                     cellCursor = db.rawQuery(
                             "SELECT cell_id, mcc, mnc, lac, tac, network_type " +
                                     "FROM \"" + tableName + "_unique\" " +
-                                    "WHERE UPPER(unique_identifier) = ? LIMIT 1",
+                                    "WHERE unique_identifier = ? LIMIT 1",
                             new String[]{deviceKey}
                     );
 
@@ -1203,24 +1511,16 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                             whereArgs = new String[]{cellId, mcc, mnc, lac};
                         }
 
-                        rowsAffected = db.update(
-                                "\"" + tableName + "\"",
-                                values,
-                                whereClause,
-                                whereArgs
-                        );
+                        rowsAffected = updateRawTables(db, tableName, values,
+                                whereClause, whereArgs);
                     }
                 } finally {
                     if (cellCursor != null) cellCursor.close();
                 }
             } else {
                 // fallback: старый вариант для Cell по одному cell_id
-                rowsAffected = db.update(
-                        "\"" + tableName + "\"",
-                        values,
-                        "CAST(cell_id AS TEXT) = ?",
-                        new String[]{deviceKey}
-                );
+                rowsAffected = updateRawTables(db, tableName, values,
+                        "CAST(cell_id AS TEXT) = ?", new String[]{deviceKey});
             }
 
             // 2. Обновляем unique-таблицу
@@ -1252,6 +1552,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
         } catch (Exception e) {
             Log.e(TAG, "Error updating device status: " + e.getMessage());
+            STATUS_REGISTRY.invalidate();
         } finally {
             if (db.inTransaction()) db.endTransaction();
         }
@@ -1259,77 +1560,90 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         return rowsAffected;
     }
 
+    /**
+     * Для владельцев внешних транзакций: после отката реестр статусов, кэш словаря устройств,
+     * окно дубликатов и трекер перемещений перечитываются из БД.
+     */
+    static void invalidateWriteCaches() {
+        STATUS_REGISTRY.invalidate();
+        DEVICE_DICTIONARY.invalidate();
+        // Откатиться мог и CREATE TABLE новой папки
+        SchemaCatalog.invalidateAll();
+        ObservationSpatialIndex.invalidate();
+        // Окно дубликатов и трекер перемещений помнят строки откатившейся пачки
+        DUPLICATE_INDEX.invalidateAll();
+        MOVEMENT_TRACKER.dropCache();
+    }
+
     private String normalizeDeviceKey(String deviceKey) {
         return deviceKey == null ? null : deviceKey.trim().toUpperCase(Locale.US);
     }
 
+    private void insertStatusKey(SQLiteDatabase db, String table, String deviceKey) {
+        statementCache.bind(db, table, "INSERT OR IGNORE INTO " + table + "(device_key) VALUES (?)",
+                new Object[]{deviceKey}).executeInsert();
+    }
+
+    private void deleteStatusKey(SQLiteDatabase db, String table, String deviceKey) {
+        statementCache.bind(db, table, "DELETE FROM " + table + " WHERE device_key = ?",
+                new Object[]{deviceKey}).executeUpdateDelete();
+    }
+
     private void addDeviceToTarget(SQLiteDatabase db, String deviceKey) {
         deviceKey = normalizeDeviceKey(deviceKey);
         if (deviceKey == null || deviceKey.isEmpty()) return;
 
-        ContentValues values = new ContentValues();
-        values.put("device_key", deviceKey);
-
-        db.insertWithOnConflict(
-                "target_devices",
-                null,
-                values,
-                SQLiteDatabase.CONFLICT_IGNORE
-        );
+        insertStatusKey(db, "target_devices", deviceKey);
+        STATUS_REGISTRY.add(deviceKey, StatusRegistry.TARGET);
     }
 
     private void addDeviceToSafe(SQLiteDatabase db, String deviceKey) {
         deviceKey = normalizeDeviceKey(deviceKey);
         if (deviceKey == null || deviceKey.isEmpty()) return;
 
-        ContentValues values = new ContentValues();
-        values.put("device_key", deviceKey);
-
-        db.insertWithOnConflict(
-                "safe_devices",
-                null,
-                values,
-                SQLiteDatabase.CONFLICT_IGNORE
-        );
+        insertStatusKey(db, "safe_devices", deviceKey);
+        STATUS_REGISTRY.add(deviceKey, StatusRegistry.SAFE);
     }
 
     private void removeDeviceFromTarget(SQLiteDatabase db, String deviceKey) {
         deviceKey = normalizeDeviceKey(deviceKey);
         if (deviceKey == null || deviceKey.isEmpty()) return;
 
-        db.delete("target_devices", "device_key = ?", new String[]{deviceKey});
+        deleteStatusKey(db, "target_devices", deviceKey);
+        STATUS_REGISTRY.remove(deviceKey, StatusRegistry.TARGET);
     }
 
     private void removeDeviceFromSafe(SQLiteDatabase db, String deviceKey) {
         deviceKey = normalizeDeviceKey(deviceKey);
         if (deviceKey == null || deviceKey.isEmpty()) return;
 
-        db.delete("safe_devices", "device_key = ?", new String[]{deviceKey});
+        deleteStatusKey(db, "safe_devices", deviceKey);
+        STATUS_REGISTRY.remove(deviceKey, StatusRegistry.SAFE);
     }
 
     private void addDeviceToBlacklist(SQLiteDatabase db, String deviceKey) {
         deviceKey = normalizeDeviceKey(deviceKey);
         if (deviceKey == null || deviceKey.isEmpty()) return;
 
-        ContentValues values = new ContentValues();
-        values.put("device_key", deviceKey);
-
-        db.insertWithOnConflict(
-                "blacklist_devices",
-                null,
-                values,
-                SQLiteDatabase.CONFLICT_IGNORE
-        );
+        insertStatusKey(db, "blacklist_devices", deviceKey);
+        STATUS_REGISTRY.add(deviceKey, StatusRegistry.BLACKLIST);
     }
 
     private void removeDeviceFromBlacklist(SQLiteDatabase db, String deviceKey) {
         deviceKey = normalizeDeviceKey(deviceKey);
         if (deviceKey == null || deviceKey.isEmpty()) return;
 
-        db.delete("blacklist_devices", "device_key = ?", new String[]{deviceKey});
+        deleteStatusKey(db, "blacklist_devices", deviceKey);
+        STATUS_REGISTRY.remove(deviceKey, StatusRegistry.BLACKLIST);
     }
 
     private void removeDeviceFromAllPersistentStatuses(SQLiteDatabase db, String deviceKey) {
+        deviceKey = normalizeDeviceKey(deviceKey);
+        if (deviceKey == null || deviceKey.isEmpty()) return;
+
+        STATUS_REGISTRY.ensureLoaded(db);
+        if (STATUS_REGISTRY.maskOf(deviceKey) == 0) return;
+
         removeDeviceFromTarget(db, deviceKey);
         removeDeviceFromSafe(db, deviceKey);
         removeDeviceFromBlacklist(db, deviceKey);
@@ -1341,6 +1655,22 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
         String normalizedStatus = status == null ? "GREY" : status.trim().toUpperCase(Locale.US);
 
+        // Почти каждое наблюдение приходит с тем же статусом, что уже записан:
+        // сверяемся с реестром и не трогаем служебные таблицы
+        int expectedMask;
+        switch (normalizedStatus) {
+            case "TARGET":
+            case "SAFE":
+            case "BLACKLIST":
+            case "GREY":
+                expectedMask = StatusRegistry.maskForStatus(normalizedStatus);
+                break;
+            default:
+                return;
+        }
+        STATUS_REGISTRY.ensureLoaded(db);
+        if (STATUS_REGISTRY.maskOf(deviceKey) == expectedMask) return;
+
         switch (normalizedStatus) {
             case "TARGET":
                 addDeviceToTarget(db, deviceKey);
@@ -1373,145 +1703,115 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
     public void rebuildStatusTables(String folderName) {
         rebuildAllStatusTables();
-        if (folderName != null || folderName == null) return;
+    }
+
+    // Добавлен метод из dev для массового обновления статуса
+    private void rebuildAllStatusTables() {
         SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = null;
         boolean ownsTransaction = false;
 
         try {
             ownsTransaction = !db.inTransaction();
             if (ownsTransaction) db.beginTransaction();
 
-            // Полностью очищаем служебные таблицы
-            db.delete("target_devices", null, null);
-            db.delete("safe_devices", null, null);
-
-            // Берем все устройства из unique-таблицы
-            cursor = db.rawQuery(
-                    "SELECT unique_identifier, bssid, cell_id, status " +
-                            "FROM \"" + folderName + "_unique\"",
-                    null
-            );
-
-            while (cursor != null && cursor.moveToNext()) {
-                String uniqueIdentifier = cursor.getString(0);
-                String bssid = cursor.getString(1);
-                int cellId = cursor.getInt(2);
-                String status = cursor.getString(3);
-
-                String deviceKey = null;
-
-                if (uniqueIdentifier != null && !uniqueIdentifier.trim().isEmpty()) {
-                    deviceKey = uniqueIdentifier;
-                } else if (bssid != null && !bssid.trim().isEmpty()) {
-                    deviceKey = bssid;
-                } else if (cellId > 0) {
-                    deviceKey = String.valueOf(cellId);
-                }
-
-                syncStatusTables(db, deviceKey, status);
-            }
+            rebuildStatusTables(db, getFoldersWithUniqueTables(db), null);
 
             if (ownsTransaction) db.setTransactionSuccessful();
         } catch (Exception e) {
-            Log.e(TAG, "Error rebuilding status tables: " + e.getMessage());
+            Log.e(TAG, "Error rebuilding all status tables: " + e.getMessage());
         } finally {
-            if (cursor != null) cursor.close();
             if (ownsTransaction && db.inTransaction()) db.endTransaction();
+            STATUS_REGISTRY.invalidate();
         }
     }
 
-    // Добавлен метод из dev для массового обновления статуса
-    private void rebuildAllStatusTables() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = null;
-        boolean ownsTransaction = false;
-
-        try {
-            ownsTransaction = !db.inTransaction();
-            if (ownsTransaction) db.beginTransaction();
-
-            createPersistentStatusTables(db);
-
-            for (String folder : getAllUserTables(db)) {
-                if (!tableExists(db, folder + "_unique")) continue;
-
-                if (cursor != null) {
-                    cursor.close();
-                    cursor = null;
-                }
+    private List<String> getFoldersWithUniqueTables(SQLiteDatabase db) {
+        List<String> folders = new ArrayList<>();
+        for (String folder : getAllUserTables(db)) {
+            if (tableExists(db, getUniqueTableName(folder))) {
+                folders.add(folder);
+            }
+        }
+        return folders;
+    }
 
-                cursor = db.rawQuery(
-                        "SELECT unique_identifier, bssid, cell_id, status " +
-                                "FROM \"" + folder + "_unique\"",
-                        null
-                );
+    /**
+     * Пересобирает target/safe/blacklist по статусам _unique папок: на папку — одна выборка
+     * ключей во временную таблицу и по DELETE ... IN + INSERT ... SELECT на служебную таблицу.
+     * Папки идут в том же порядке, что и при прежнем построчном обходе, поэтому при разных
+     * статусах одного устройства побеждает последняя папка. Статусы вне TARGET/SAFE/BLACKLIST/GREY
+     * служебные таблицы не трогают. Реестр статусов вызывающий код сбрасывает сам.
+     */
+    private void rebuildStatusTables(SQLiteDatabase db, List<String> folders, BulkProgress progress) {
+        createPersistentStatusTables(db);
 
-                while (cursor != null && cursor.moveToNext()) {
-                    String uniqueIdentifier = cursor.getString(0);
-                    String bssid = cursor.getString(1);
-                    int cellId = cursor.getInt(2);
-                    String status = cursor.getString(3);
-
-                    String deviceKey = null;
-                    if (uniqueIdentifier != null && !uniqueIdentifier.trim().isEmpty()) {
-                        deviceKey = uniqueIdentifier;
-                    } else if (bssid != null && !bssid.trim().isEmpty()) {
-                        deviceKey = bssid;
-                    } else if (cellId > 0) {
-                        deviceKey = String.valueOf(cellId);
-                    }
+        for (String folder : folders) {
+            db.execSQL("DROP TABLE IF EXISTS temp.bulk_status");
+            db.execSQL("CREATE TEMP TABLE bulk_status AS " +
+                    "SELECT " + STATUS_KEY_EXPRESSION + " AS device_key, " +
+                    "UPPER(TRIM(COALESCE(status, 'GREY'))) AS status " +
+                    "FROM \"" + getUniqueTableName(folder) + "\"");
+            db.execSQL("DELETE FROM temp.bulk_status WHERE device_key IS NULL OR device_key = '' " +
+                    "OR status NOT IN ('TARGET', 'SAFE', 'BLACKLIST', 'GREY')");
 
-                    syncStatusTables(db, deviceKey, status);
-                }
+            for (int i = 0; i < STATUS_TABLES.length; i++) {
+                String table = STATUS_TABLES[i];
+                String status = STATUS_TABLE_STATUSES[i];
+                db.execSQL("DELETE FROM " + table + " WHERE device_key IN " +
+                        "(SELECT device_key FROM temp.bulk_status WHERE status != '" + status + "')");
+                db.execSQL("INSERT OR IGNORE INTO " + table + "(device_key) " +
+                        "SELECT device_key FROM temp.bulk_status WHERE status = '" + status + "'");
             }
+            db.execSQL("DROP TABLE temp.bulk_status");
 
-            if (ownsTransaction) db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.e(TAG, "Error rebuilding all status tables: " + e.getMessage());
-        } finally {
-            if (cursor != null) cursor.close();
-            if (ownsTransaction && db.inTransaction()) db.endTransaction();
+            if (progress != null) progress.step();
         }
     }
 
     private List<String> getAllUserTables(SQLiteDatabase db) {
         List<String> tables = new ArrayList<>();
-        Cursor cursor = null;
-        try {
-            cursor = db.rawQuery(
-                    "SELECT name FROM sqlite_master " +
-                            "WHERE type='table' " +
-                            "AND name NOT LIKE 'sqlite_%' " +
-                            "AND name NOT LIKE 'android_%' " +
-                            "AND name != 'unique_devices' " +
-                            "AND name != 'target_devices' " +
-                            "AND name != 'safe_devices' " +
-                            "AND name != 'blacklist_devices' " +
-                            "AND name != 'gps_spoofed_devices' " +
-                            "AND name NOT LIKE '%_unique'",
-                    null
-            );
-            while (cursor != null && cursor.moveToNext()) {
-                tables.add(cursor.getString(0));
+        for (String table : getScannerTables(db)) {
+            if (!table.toLowerCase(Locale.US).endsWith("_unique")) {
+                tables.add(table);
             }
-        } finally {
-            if (cursor != null) cursor.close();
         }
         return tables;
     }
 
-    private boolean tableExists(SQLiteDatabase db, String tableName) {
-        Cursor cursor = null;
-        try {
-            cursor = db.rawQuery(
-                    "SELECT 1 FROM sqlite_master WHERE type='table' AND name=? LIMIT 1",
-                    new String[]{tableName}
-            );
-            return cursor != null && cursor.moveToFirst();
-        } finally {
-            if (cursor != null) cursor.close();
+    /**
+     * Таблицы папок (сырые и _unique) по каталогу схемы, без служебных таблиц, партиций, FTS и R*Tree.
+     */
+    private static List<String> getScannerTables(SQLiteDatabase db) {
+        List<String> tables = new ArrayList<>();
+        Set<String> derived = RawPartitions.partitionNames(db);
+        derived.addAll(ObservationSpatialIndex.indexTables(db));
+        for (String table : SchemaCatalog.of(db).tables(db)) {
+            if (!isServiceTable(table) && !derived.contains(table)) {
+                tables.add(table);
+            }
         }
+        return tables;
+    }
+
+    private static boolean isServiceTable(String table) {
+        String lower = table.toLowerCase(Locale.US);
+        return lower.startsWith("sqlite_")
+                || lower.startsWith("android_")
+                || "unique_devices".equals(table)
+                || "target_devices".equals(table)
+                || "safe_devices".equals(table)
+                || "blacklist_devices".equals(table)
+                || "gps_spoofed_devices".equals(table)
+                || DeviceMovementTracker.STATE_TABLE.equals(table)
+                || RawPartitions.CATALOG_TABLE.equals(table)
+                || DeviceDictionary.TABLE.equals(table)
+                || UploadOutbox.TABLE.equals(table)
+                || UploadOutbox.DIRTY_TABLE.equals(table)
+                || DeviceSearchIndex.isIndexTable(table);
+    }
+
+    private boolean tableExists(SQLiteDatabase db, String tableName) {
+        return SchemaCatalog.of(db).tableExists(db, tableName);
     }
 
     public int updateAllDeviceStatusForTable(String folderName, String newStatus) {
@@ -1521,31 +1821,50 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     public int updateAllDeviceStatusForTable(String folderName, String newStatus,
                                              boolean includeCellTowers,
                                              boolean includeSafeDevices) {
+        return updateAllDeviceStatusForTable(folderName, newStatus, includeCellTowers, includeSafeDevices, null);
+    }
+
+    /**
+     * Массовая смена статуса папки в одной транзакции. Сырые таблицы и _unique обновляются
+     * одним UPDATE на таблицу, служебные таблицы статусов пересобираются наборными запросами.
+     * progressListener (может быть null) получает ход выполнения на потоке вызывающего кода.
+     */
+    public int updateAllDeviceStatusForTable(String folderName, String newStatus,
+                                             boolean includeCellTowers,
+                                             boolean includeSafeDevices,
+                                             BulkStatusProgressListener progressListener) {
         SQLiteDatabase db = this.getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put("status", newStatus);
+        String targetWhere = "TARGET".equalsIgnoreCase(newStatus)
+                ? buildBulkTargetWhere(includeCellTowers, includeSafeDevices)
+                : null;
 
         int rowsAffected = 0;
 
         try {
             db.beginTransaction();
 
-            if ("TARGET".equalsIgnoreCase(newStatus)) {
-                String targetWhere = buildBulkTargetWhere(includeCellTowers, includeSafeDevices);
-                rowsAffected = db.update("\"" + folderName + "\"", values, targetWhere, null);
-                db.update("\"" + folderName + "_unique\"", values, targetWhere, null);
-            } else {
-                rowsAffected = db.update("\"" + folderName + "\"", values, null, null);
-                db.update("\"" + folderName + "_unique\"", values, null, null);
+            List<String> rawTables = RawPartitions.tables(db, folderName);
+            List<String> statusFolders = getFoldersWithUniqueTables(db);
+            BulkProgress progress = new BulkProgress(progressListener,
+                    rawTables.size() + 1 + statusFolders.size());
+
+            for (String rawTable : rawTables) {
+                rowsAffected += db.update("\"" + rawTable + "\"", values, targetWhere, null);
+                progress.step();
             }
+            db.update("\"" + folderName + "_unique\"", values, targetWhere, null);
+            progress.step();
+
+            // Полная пересборка target/safe/blacklist по актуальному status из _unique
+            rebuildStatusTables(db, statusFolders, progress);
+            STATUS_REGISTRY.invalidate();
 
-            // Полная пересборка target/safe по актуальному status из _unique
-            rebuildStatusTables(folderName);
             if ("TARGET".equalsIgnoreCase(newStatus)
                     && AlarmModeConfig.isMarkedTargetAlarmEnabled(mContext)) {
                 Cursor c = null;
                 try {
-                    String targetWhere = buildBulkTargetWhere(includeCellTowers, includeSafeDevices);
                     String whereClause = targetWhere == null ? "" : " WHERE " + targetWhere;
                     c = db.rawQuery(
                             "SELECT unique_identifier, bssid, cell_id FROM \"" + folderName + "_unique\"" + whereClause,
@@ -1582,11 +1901,41 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             Log.e(TAG, "Error updating folder statuses: " + e.getMessage());
         } finally {
             if (db.inTransaction()) db.endTransaction();
+            // Служебные таблицы менялись мимо реестра — он перечитается уже после коммита или отката
+            STATUS_REGISTRY.invalidate();
         }
 
         return rowsAffected;
     }
 
+    /**
+     * Ход массовой смены статуса: completedSteps из totalSteps (таблицы папки и пересборка статусов).
+     */
+    public interface BulkStatusProgressListener {
+        void onBulkStatusProgress(int completedSteps, int totalSteps);
+    }
+
+    private static final class BulkProgress {
+        private final BulkStatusProgressListener listener;
+        private final int total;
+        private int completed;
+
+        BulkProgress(BulkStatusProgressListener listener, int total) {
+            this.listener = listener;
+            this.total = total;
+            report();
+        }
+
+        void step() {
+            completed++;
+            report();
+        }
+
+        private void report() {
+            if (listener != null) listener.onBulkStatusProgress(Math.min(completed, total), total);
+        }
+    }
+
     private String buildBulkTargetWhere(boolean includeCellTowers, boolean includeSafeDevices) {
         List<String> clauses = new ArrayList<>();
         if (!includeSafeDevices) {
@@ -1611,10 +1960,19 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     public boolean deleteTable(String folderName) {
         SQLiteDatabase db = this.getWritableDatabase();
         try {
+            RawPartitions.dropFolder(db, folderName);
+            UploadOutbox.drop(db, folderName);
             db.execSQL("DROP TABLE IF EXISTS \"" + folderName + "\"");
             db.execSQL("DROP TABLE IF EXISTS \"" + folderName + "_unique\"");
+            SchemaCatalog.of(db).onTableDropped(db, folderName);
+            SchemaCatalog.of(db).onTableDropped(db, folderName + "_unique");
+            ObservationSpatialIndex.drop(db, folderName);
+            DeviceSearchIndex.drop(db, folderName + "_unique");
             RAW_TABLE_READY.remove(folderName);
             UNIQUE_TABLE_READY.remove(folderName + "_unique");
+            DUPLICATE_INDEX.invalidate(folderName);
+            MOVEMENT_TRACKER.invalidateFolder(db, folderName);
+            invalidateFolderStatements(folderName);
             return true;
         } catch (Exception e) {
             Log.e(TAG, "Error deleting folder tables: " + e.getMessage());
@@ -1623,199 +1981,11 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     }
 
     public List<String> getAllTables() {
-        List<String> tables = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = null;
-        try {
-            cursor = db.rawQuery(
-                    "SELECT name FROM sqlite_master " +
-                            "WHERE type='table' " +
-                            "AND name NOT LIKE 'sqlite_%' " +
-                            "AND name NOT LIKE 'android_%' " +
-                            "AND name != 'unique_devices' " +
-                            "AND name != 'target_devices' " +
-                            "AND name != 'safe_devices' " +
-                            "AND name != 'blacklist_devices' " +
-                            "AND name != 'gps_spoofed_devices' " +
-                            "AND name NOT LIKE '%_unique'",
-                    null
-            );
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    tables.add(cursor.getString(0));
-                } while (cursor.moveToNext());
-            }
-        } finally {
-            if (cursor != null) cursor.close();
-        }
-        return tables;
-    }
-
-    public GreySearchData searchGreyDevicesAcrossFolders(
-            String sourceFolder,
-            Long firstPeriodStart,
-            Long firstPeriodEnd,
-            Long secondPeriodStart,
-            Long secondPeriodEnd,
-            List<String> searchFolders
-    ) {
-        GreySearchData data = new GreySearchData();
-        if (sourceFolder == null || sourceFolder.trim().isEmpty()) {
-            return data;
-        }
-
-        Set<String> initialMacs = getGreyMacsFromFolder(sourceFolder, firstPeriodStart, firstPeriodEnd);
-        if (initialMacs.isEmpty()) {
-            return data;
-        }
-
-        List<String> folders = new ArrayList<>();
-        if (searchFolders == null || searchFolders.isEmpty()) {
-            folders.addAll(getAllTables());
-        } else {
-            folders.addAll(searchFolders);
-        }
-
-        Map<String, GreySearchDevice> devices = new LinkedHashMap<>();
-        for (String folder : folders) {
-            if (folder == null || folder.trim().isEmpty()) continue;
-            loadGreySearchPointsForFolder(folder, initialMacs, secondPeriodStart, secondPeriodEnd, devices, data.points);
-        }
-
-        data.devices.addAll(devices.values());
-        Collections.sort(data.devices, (left, right) -> {
-            int byCount = Integer.compare(right.detectionCount, left.detectionCount);
-            if (byCount != 0) return byCount;
-            return Long.compare(right.lastSeen, left.lastSeen);
-        });
-        Collections.sort(data.points, (left, right) -> Long.compare(right.timestamp, left.timestamp));
-        return data;
-    }
-
-    private Set<String> getGreyMacsFromFolder(String folderName, Long start, Long end) {
-        Set<String> macs = new LinkedHashSet<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = null;
-        try {
-            StringBuilder sql = new StringBuilder(
-                    "SELECT DISTINCT UPPER(bssid) AS mac FROM \"" + folderName + "\" " +
-                            "WHERE bssid IS NOT NULL AND TRIM(bssid) != '' " +
-                            "AND UPPER(COALESCE(status, 'GREY')) = 'GREY' " +
-                            "AND UPPER(COALESCE(type, '')) != 'CELL'"
-            );
-            List<String> args = new ArrayList<>();
-            appendTimestampWhere(sql, args, start, end);
-            cursor = db.rawQuery(sql.toString(), args.toArray(new String[0]));
-            while (cursor != null && cursor.moveToNext()) {
-                String mac = normalizeDeviceKey(cursor.getString(0));
-                if (mac != null && !mac.isEmpty()) {
-                    macs.add(mac);
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading grey MACs from " + folderName + ": " + e.getMessage(), e);
-        } finally {
-            if (cursor != null) cursor.close();
-        }
-        return macs;
-    }
-
-    private void loadGreySearchPointsForFolder(
-            String folderName,
-            Set<String> targetMacs,
-            Long start,
-            Long end,
-            Map<String, GreySearchDevice> devices,
-            List<GreySearchPoint> points
-    ) {
-        if (targetMacs == null || targetMacs.isEmpty()) return;
-        List<String> macList = new ArrayList<>(targetMacs);
-        for (int offset = 0; offset < macList.size(); offset += 400) {
-            int endIndex = Math.min(offset + 400, macList.size());
-            loadGreySearchPointsChunk(folderName, macList.subList(offset, endIndex), start, end, devices, points);
-        }
-    }
-
-    private void loadGreySearchPointsChunk(
-            String folderName,
-            List<String> macChunk,
-            Long start,
-            Long end,
-            Map<String, GreySearchDevice> devices,
-            List<GreySearchPoint> points
-    ) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = null;
-        try {
-            StringBuilder placeholders = new StringBuilder();
-            List<String> args = new ArrayList<>();
-            for (int i = 0; i < macChunk.size(); i++) {
-                if (i > 0) placeholders.append(',');
-                placeholders.append('?');
-                args.add(macChunk.get(i));
-            }
-
-            StringBuilder sql = new StringBuilder(
-                    "SELECT type,name,UPPER(bssid) AS mac,latitude,longitude,timestamp,status " +
-                            "FROM \"" + folderName + "\" " +
-                            "WHERE UPPER(COALESCE(bssid, '')) IN (" + placeholders + ")"
-            );
-            appendTimestampWhere(sql, args, start, end);
-            sql.append(" ORDER BY timestamp DESC");
-
-            cursor = db.rawQuery(sql.toString(), args.toArray(new String[0]));
-            while (cursor != null && cursor.moveToNext()) {
-                String mac = normalizeDeviceKey(cursor.getString(cursor.getColumnIndexOrThrow("mac")));
-                if (mac == null || mac.isEmpty()) continue;
-
-                String type = cursor.getString(cursor.getColumnIndexOrThrow("type"));
-                String name = cursor.getString(cursor.getColumnIndexOrThrow("name"));
-                double latitude = cursor.getDouble(cursor.getColumnIndexOrThrow("latitude"));
-                double longitude = cursor.getDouble(cursor.getColumnIndexOrThrow("longitude"));
-                long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow("timestamp"));
-                String status = cursor.getString(cursor.getColumnIndexOrThrow("status"));
-
-                GreySearchDevice device = devices.get(mac);
-                if (device == null) {
-                    device = new GreySearchDevice(mac, name, type);
-                    devices.put(mac, device);
-                }
-                device.detectionCount++;
-                device.lastSeen = Math.max(device.lastSeen, timestamp);
-                if ((device.name == null || device.name.trim().isEmpty()) && name != null && !name.trim().isEmpty()) {
-                    device.name = name;
-                }
-                if ((device.type == null || device.type.trim().isEmpty()) && type != null && !type.trim().isEmpty()) {
-                    device.type = type;
-                }
-
-                if (latitude != 0.0 && longitude != 0.0) {
-                    points.add(new GreySearchPoint(mac, name, type, folderName, latitude, longitude, timestamp, status));
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading grey search points from " + folderName + ": " + e.getMessage(), e);
-        } finally {
-            if (cursor != null) cursor.close();
-        }
-    }
-
-    private void appendTimestampWhere(StringBuilder sql, List<String> args, Long start, Long end) {
-        if (start != null) {
-            sql.append(" AND timestamp >= ?");
-            args.add(String.valueOf(start));
-        }
-        if (end != null) {
-            sql.append(" AND timestamp <= ?");
-            args.add(String.valueOf(end));
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(mContext).acquire()) {
+            return getAllUserTables(lease.getDatabase());
         }
     }
 
-    public static class GreySearchData {
-        public final List<GreySearchDevice> devices = new ArrayList<>();
-        public final List<GreySearchPoint> points = new ArrayList<>();
-    }
-
     public static class GreySearchDevice {
         public final String mac;
         public String name;
@@ -1853,13 +2023,104 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Наблюдение для карты: одна строка сырой таблицы с координатами.
+     */
+    public static class ObservationPoint {
+        public final String mac;
+        public final String name;
+        public final String type;
+        public final double latitude;
+        public final double longitude;
+        public final long timestamp;
+        public final String status;
+
+        public ObservationPoint(String mac, String name, String type,
+                                double latitude, double longitude, long timestamp, String status) {
+            this.mac = mac;
+            this.name = name;
+            this.type = type;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.timestamp = timestamp;
+            this.status = status;
+        }
+    }
+
+    /**
+     * Наблюдения папки внутри прямоугольника карты (south..north, west..east; west > east —
+     * через антимеридиан) за [from, to] (null — без границы), от новых к старым, не больше limit.
+     * deviceKey/deviceType — как у истории устройства; deviceKey == null — все устройства
+     * («кто был рядом»). Партиции вне интервала не читаются, внутри таблицы отбор идёт по R*Tree.
+     */
+    public List<ObservationPoint> getObservationsInBounds(String folderName, String deviceKey, String deviceType,
+                                                         double south, double west, double north, double east,
+                                                         Long from, Long to, int limit) {
+        List<ObservationPoint> points = new ArrayList<>();
+        if (folderName == null || folderName.trim().isEmpty() || limit <= 0) return points;
+
+        DeviceHistoryQuery device = deviceKey == null ? null : buildDeviceHistoryQuery(deviceKey, deviceType);
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(mContext).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
+            List<String> args = new ArrayList<>();
+            StringBuilder union = new StringBuilder();
+
+            for (String rawTable : RawPartitions.tables(db, folderName, from, to)) {
+                List<String> conditions = new ArrayList<>();
+                String candidates = ObservationSpatialIndex.candidateFilter(
+                        db, rawTable, args, south, west, north, east, from, to);
+                if (candidates != null) conditions.add(candidates);
+
+                conditions.add("latitude >= ? AND latitude <= ?");
+                args.add(String.valueOf(south));
+                args.add(String.valueOf(north));
+                conditions.add(west <= east ? "longitude >= ? AND longitude <= ?" : "(longitude >= ? OR longitude <= ?)");
+                args.add(String.valueOf(west));
+                args.add(String.valueOf(east));
+                if (from != null) {
+                    conditions.add("timestamp >= ?");
+                    args.add(String.valueOf(from));
+                }
+                if (to != null) {
+                    conditions.add("timestamp <= ?");
+                    args.add(String.valueOf(to));
+                }
+                if (device != null) {
+                    conditions.add(device.whereClause);
+                    Collections.addAll(args, device.args);
+                }
+
+                if (union.length() > 0) union.append(" UNION ALL ");
+                union.append("SELECT bssid, cell_id, name, type, latitude, longitude, timestamp, status FROM ")
+                        .append(DeviceDictionary.source(rawTable))
+                        .append(" WHERE ").append(String.join(" AND ", conditions));
+            }
+
+            String sql = "SELECT * FROM (" + union + ") ORDER BY timestamp DESC LIMIT ?";
+            args.add(String.valueOf(limit));
+
+            try (Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]))) {
+                while (cursor.moveToNext()) {
+                    String type = cursor.getString(3);
+                    String mac = "Cell".equals(type) ? cursor.getString(1) : cursor.getString(0);
+                    points.add(new ObservationPoint(mac, cursor.getString(2), type,
+                            cursor.getDouble(4), cursor.getDouble(5), cursor.getLong(6), cursor.getString(7)));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading observations in bounds for " + folderName + ": " + e.getMessage());
+        }
+        return points;
+    }
+
     public void createTableIfNotExists(String tableName) {
         SQLiteDatabase db = this.getWritableDatabase();
         try {
             if ("target_devices".equals(tableName)
                     || "safe_devices".equals(tableName)
                     || "blacklist_devices".equals(tableName)
-                    || "gps_spoofed_devices".equals(tableName)) {
+                    || "gps_spoofed_devices".equals(tableName)
+                    || DeviceMovementTracker.STATE_TABLE.equals(tableName)) {
                 return;
             }
             createFolderRawTableIfNotExists(db, tableName);
@@ -1876,14 +2137,8 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     private void createFolderRawTableIfNotExists(SQLiteDatabase db, String tableName) {
         if (RAW_TABLE_READY.contains(tableName)) return;
         String safeName = "\"" + tableName + "\"";
-        Cursor cursor = db.rawQuery(
-                "SELECT name FROM sqlite_master WHERE type='table' AND name=?",
-                new String[]{tableName}
-        );
-        boolean tableExists = cursor != null && cursor.getCount() > 0;
-        if (cursor != null) cursor.close();
 
-        if (!tableExists) {
+        if (!tableExists(db, tableName)) {
             String createTableQuery = "CREATE TABLE " + safeName + " (" +
                     "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                     "type TEXT NOT NULL," +
@@ -1913,8 +2168,10 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                     "timestamp INTEGER," +
                     "status TEXT DEFAULT 'GREY'," +
                     "is_uploaded INTEGER DEFAULT 0," +
-                    "folder_name TEXT DEFAULT '')";
+                    "folder_name TEXT DEFAULT ''," +
+                    "device_id INTEGER)";
             db.execSQL(createTableQuery);
+            SchemaCatalog.of(db).onTableCreated(db, tableName);
         } else {
             addMissingColumns(db, tableName);
         }
@@ -1960,36 +2217,34 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                 "folder_name TEXT DEFAULT ''," +
                 "total_scans INTEGER DEFAULT 1," +
                 "avg_signal_strength REAL DEFAULT 0," +
-                "last_location_change LONG DEFAULT 0" +
+                "last_location_change LONG DEFAULT 0," +
+                "anomaly_score REAL," +
+                "anomaly_label INTEGER," +
+                "anomaly_scored_at LONG DEFAULT 0" +
                 ");";
 
         db.execSQL(createTableQuery);
+        SchemaCatalog.of(db).onTableCreated(db, uniqueTableName);
         createUniqueTableIndexes(db, uniqueTableName);
         UNIQUE_TABLE_READY.add(uniqueTableName);
     }
 
     private void addMissingColumns(SQLiteDatabase db, String tableName) {
         try {
-            // Проверяем наличие колонки folder_name
-            Cursor cursor = db.rawQuery("PRAGMA table_info(\"" + tableName + "\")", null);
-            boolean hasFolderColumn = false;
+            // Проверяем наличие колонок folder_name и device_id
+            SchemaCatalog catalog = SchemaCatalog.of(db);
 
-            if (cursor != null) {
-                int nameIndex = cursor.getColumnIndex("name");
-                while (cursor.moveToNext()) {
-                    if (nameIndex >= 0 && "folder_name".equals(cursor.getString(nameIndex))) {
-                        hasFolderColumn = true;
-                        break;
-                    }
-                }
-                cursor.close();
-            }
-
-            // Добавляем колонку если её нет
-            if (!hasFolderColumn) {
+            // Добавляем колонки если их нет
+            if (!catalog.hasColumn(db, tableName, "folder_name")) {
                 db.execSQL("ALTER TABLE \"" + tableName + "\" ADD COLUMN folder_name TEXT DEFAULT ''");
+                catalog.onColumnAdded(db, tableName, "folder_name");
                 Log.d(TAG, "Added folder_name column to table: " + tableName);
             }
+            if (!catalog.hasColumn(db, tableName, "device_id")) {
+                db.execSQL("ALTER TABLE \"" + tableName + "\" ADD COLUMN device_id INTEGER");
+                catalog.onColumnAdded(db, tableName, "device_id");
+                Log.d(TAG, "Added device_id column to table: " + tableName);
+            }
         } catch (Exception e) {
             Log.e(TAG, "Error adding missing columns to table " + tableName + ": " + e.getMessage());
         }
@@ -2049,13 +2304,6 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         );
     }
 
-    private String[] appendArg(String[] args, String extra) {
-        String[] result = new String[args.length + 1];
-        System.arraycopy(args, 0, result, 0, args.length);
-        result[args.length] = extra;
-        return result;
-    }
-
     public DeviceHistorySummary getDeviceHistorySummaryByKey(String tableName,
                                                              String deviceKey,
                                                              String deviceType,
@@ -2069,9 +2317,11 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
         try {
             DeviceHistoryQuery spec = buildDeviceHistoryQuery(deviceKey, deviceType);
+            List<String> args = new ArrayList<>();
+            String source = RawPartitions.source(db, tableName, spec.whereClause, spec.args, args);
             cursor = db.rawQuery(
-                    "SELECT COUNT(*), MIN(timestamp), MAX(timestamp) FROM \"" + tableName + "\" WHERE " + spec.whereClause,
-                    spec.args
+                    "SELECT COUNT(*), MIN(timestamp), MAX(timestamp) FROM " + source,
+                    args.toArray(new String[0])
             );
             if (cursor != null && cursor.moveToFirst()) {
                 count = cursor.getInt(0);
@@ -2091,10 +2341,11 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
             int safeLimit = Math.max(1, Math.min(pointLimit, 5000));
             String pointQuery = "SELECT name, latitude, longitude, timestamp FROM (" +
-                    "SELECT name, latitude, longitude, timestamp FROM \"" + tableName + "\" " +
-                    "WHERE " + spec.whereClause + " ORDER BY timestamp DESC LIMIT ?" +
+                    "SELECT name, latitude, longitude, timestamp FROM " + source + " " +
+                    "ORDER BY timestamp DESC LIMIT ?" +
                     ") ORDER BY timestamp ASC";
-            cursor = db.rawQuery(pointQuery, appendArg(spec.args, String.valueOf(safeLimit)));
+            args.add(String.valueOf(safeLimit));
+            cursor = db.rawQuery(pointQuery, args.toArray(new String[0]));
 
             while (cursor != null && cursor.moveToNext()) {
                 String name = cursor.getString(cursor.getColumnIndexOrThrow("name"));
@@ -2120,36 +2371,30 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         try {
             boolean isCell = deviceType != null && deviceType.equalsIgnoreCase("Cell");
 
-            String query;
-            String[] args;
+            String columns;
+            String where;
 
             if (isCell) {
+                columns = "name, latitude, longitude, timestamp, cell_id";
                 if (deviceKey.contains("_")) {
-                    query = "SELECT name, latitude, longitude, timestamp, cell_id " +
-                            "FROM \"" + tableName + "\" " +
-                            "WHERE type = 'Cell' AND " +
+                    where = "type = 'Cell' AND " +
                             "CAST(mcc AS TEXT) || '_' || CAST(mnc AS TEXT) || '_' || " +
                             "CASE WHEN network_type IN ('LTE', '5G') " +
                             "THEN CAST(tac AS TEXT) ELSE CAST(lac AS TEXT) END || '_' || " +
-                            "CAST(cell_id AS TEXT) = ? " +
-                            "ORDER BY timestamp ASC";
-                    args = new String[]{deviceKey};
+                            "CAST(cell_id AS TEXT) = ?";
                 } else {
-                    query = "SELECT name, latitude, longitude, timestamp, cell_id " +
-                            "FROM \"" + tableName + "\" " +
-                            "WHERE type = 'Cell' AND CAST(cell_id AS TEXT) = ? " +
-                            "ORDER BY timestamp ASC";
-                    args = new String[]{deviceKey};
+                    where = "type = 'Cell' AND CAST(cell_id AS TEXT) = ?";
                 }
             } else {
-                query = "SELECT name, latitude, longitude, timestamp, bssid " +
-                        "FROM \"" + tableName + "\" " +
-                        "WHERE bssid = ? AND type IN ('Wi-Fi', 'Bluetooth') " +
-                        "ORDER BY timestamp ASC";
-                args = new String[]{deviceKey};
+                columns = "name, latitude, longitude, timestamp, bssid";
+                where = "bssid = ? AND type IN ('Wi-Fi', 'Bluetooth')";
             }
 
-            cursor = db.rawQuery(query, args);
+            List<String> args = new ArrayList<>();
+            String query = "SELECT " + columns + " FROM " +
+                    RawPartitions.source(db, tableName, where, new String[]{deviceKey}, args) + " " +
+                    "ORDER BY timestamp ASC";
+            cursor = db.rawQuery(query, args.toArray(new String[0]));
 
             while (cursor != null && cursor.moveToNext()) {
                 String name = cursor.getString(cursor.getColumnIndexOrThrow("name"));
@@ -2177,7 +2422,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         try {
             // Получаем запись по позиции
             String query = "SELECT type, name, bssid, latitude, longitude, timestamp " +
-                    "FROM \"" + tableName + "\" " +
+                    "FROM " + DeviceDictionary.source(tableName) + " " +
                     "WHERE type IN ('Wi-Fi', 'Bluetooth') " +
                     "ORDER BY timestamp DESC " +
                     "LIMIT 1 OFFSET ?";
@@ -2201,92 +2446,150 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             Log.e(TAG, "Error getting device with MAC: " + e.getMessage());
         } finally {
             if (cursor != null) cursor.close();
-            db.close();
         }
         return null;
     }
-    // 1. Расчет расстояния (в метрах)
-    private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        float[] results = new float[1];
-        android.location.Location.distanceBetween(lat1, lon1, lat2, lon2, results);
-        return results[0];
-    }
-
-    // 2. Расчет пути за последние 24 часа (в километрах)
-    private double getDistanceLast24h(String uniqueId, String tableName) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        double totalDistance = 0;
-
-        // Определяем колонку (как мы договорились: если есть ":", это MAC, иначе CellID)
-        String column = uniqueId.contains(":") ? "bssid" : "cell_id";
-        long twentyFourHoursAgo = System.currentTimeMillis() - 86400000;
-
-        // Выбираем все точки этого устройства за последние 24 часа в хронологическом порядке
-        Cursor cursor = db.query("\"" + tableName + "\"",
-                new String[]{"latitude", "longitude"},
-                column + " = ? AND timestamp > ?",
-                new String[]{uniqueId, String.valueOf(twentyFourHoursAgo)},
-                null, null, "timestamp ASC");
-
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                double prevLat = cursor.getDouble(0);
-                double prevLon = cursor.getDouble(1);
-
+    /**
+     * Пишет точки истории устройства JSON-массивом прямо из курсора, без промежуточного списка.
+     * Возвращает число точек.
+     */
+    public int writeDeviceHistory(String tableName, String deviceKey, String deviceType,
+                                  android.util.JsonWriter writer) throws java.io.IOException {
+        DeviceHistoryQuery spec = buildDeviceHistoryQuery(deviceKey, deviceType);
+        SimpleDateFormat detectedFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        int count = 0;
+        writer.beginArray();
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(mContext).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
+            Cursor cursor = null;
+            try {
+                List<String> args = new ArrayList<>();
+                cursor = db.rawQuery("SELECT latitude, longitude, timestamp FROM " +
+                        RawPartitions.source(db, tableName, spec.whereClause, spec.args, args) +
+                        " ORDER BY timestamp ASC", args.toArray(new String[0]));
                 while (cursor.moveToNext()) {
-                    double curLat = cursor.getDouble(0);
-                    double curLon = cursor.getDouble(1);
+                    long timestamp = cursor.getLong(2);
+                    writer.beginObject();
+                    writer.name("latitude").value(cursor.getDouble(0));
+                    writer.name("longitude").value(cursor.getDouble(1));
+                    writer.name("timestamp").value(timestamp);
+                    writer.name("detected_at").value(detectedFormat.format(new Date(timestamp)));
+                    writer.endObject();
+                    count++;
+                }
+            } finally {
+                if (cursor != null) cursor.close();
+            }
+        }
+        writer.endArray();
+        return count;
+    }
 
-                    double jumpMeters = calculateDistance(prevLat, prevLon, curLat, curLon);
+    /**
+     * Потоковый экспорт папки в архив FolderArchive. out закрывается.
+     * Возвращает число строк или -1 при ошибке.
+     */
+    public long exportFolder(String folderName, java.io.OutputStream out,
+                             FolderArchive.ProgressListener listener) {
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(mContext).acquire()) {
+            long rows = FolderArchive.write(lease.getDatabase(), folderName, out, listener);
+            Log.d(TAG, "Exported " + rows + " rows from " + folderName);
+            return rows;
+        } catch (Exception e) {
+            Log.e(TAG, "Error exporting folder " + folderName + ": " + e.getMessage());
+            return -1;
+        }
+    }
 
-                    // Пропускаем слишком близкие точки
-                    if (jumpMeters < 10.0) {
-                        prevLat = curLat;
-                        prevLon = curLon;
-                        continue;
+    /**
+     * Восстанавливает папку из архива FolderArchive. Строки пишутся пачками по IMPORT_BATCH_SIZE,
+     * каждая пачка — своя транзакция: сканеры не ждут весь импорт. Наблюдения идут мимо
+     * дедупликации, детектора движения и уведомлений — статусы берутся из архива.
+     * Состояние движения импортированных устройств не ведётся построчно: после импорта оно
+     * сбрасывается и при следующем наблюдении восстанавливается из raw-таблицы целиком.
+     * Если папка с таким именем уже есть, к имени добавляется номер. При ошибке недоимпортированная
+     * папка удаляется. Возвращает имя созданной папки или null.
+     */
+    public String importFolder(java.io.InputStream in, FolderArchive.ProgressListener listener) {
+        String folderName = null;
+        long rows = 0;
+        try (FolderArchive.Reader reader = new FolderArchive.Reader(in)) {
+            SQLiteDatabase db = this.getWritableDatabase();
+            folderName = availableFolderName(db, reader.folderName());
+            createFolderRawTableIfNotExists(db, folderName);
+            createFolderUniqueTableIfNotExists(db, getUniqueTableName(folderName));
+
+            ContentValues values = reader.next();
+            while (values != null) {
+                db.beginTransaction();
+                try {
+                    int batch = 0;
+                    while (values != null && batch < IMPORT_BATCH_SIZE) {
+                        importRow(db, folderName, values);
+                        batch++;
+                        rows++;
+                        values = reader.next();
                     }
-
-                    totalDistance += jumpMeters;
-
-                    prevLat = curLat;
-                    prevLon = curLon;
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    SchemaCatalog.onTransactionEnded(db);
                 }
+                if (listener != null) listener.onArchiveProgress(rows);
             }
-            cursor.close();
-        }
 
+            // Состояние, которое сканер успел построить во время импорта, не видело всех строк
+            MOVEMENT_TRACKER.invalidateFolder(db, folderName);
+            Log.d(TAG, "Imported " + rows + " rows into " + folderName);
+            notifyDevicesChanged(folderName);
+            return folderName;
+        } catch (Exception e) {
+            Log.e(TAG, "Error importing folder archive: " + e.getMessage());
+            invalidateWriteCaches();
+            if (folderName != null) {
+                deleteTable(folderName);
+            }
+            return null;
+        }
+    }
 
-        // Возвращаем результат в километрах
-        return totalDistance / 1000.0;
+    private void importRow(SQLiteDatabase db, String folderName, ContentValues values) {
+        values.put("folder_name", folderName);
+        String deviceKey = resolveDeviceKey(values);
+        long id = insertRawRow(db, folderName, DEVICE_DICTIONARY.encode(db, deviceKey, values));
+        if (id != -1) {
+            addToFolderUniqueDevices(db, folderName, values);
+        }
     }
-    public String getDeviceExportJson(String tableName, String mac) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        org.json.JSONObject root = new org.json.JSONObject();
-        try {
-            Cursor cursor = db.rawQuery("SELECT * FROM \"" + tableName + "\" WHERE bssid = ? ORDER BY timestamp ASC", new String[]{mac});
 
-            org.json.JSONArray historyArray = new org.json.JSONArray();
-            if (cursor != null && cursor.moveToFirst()) {
-                root.put("name", cursor.getString(cursor.getColumnIndexOrThrow("name")));
-                root.put("mac", mac);
-                root.put("type", cursor.getString(cursor.getColumnIndexOrThrow("type")));
-                root.put("status", cursor.getString(cursor.getColumnIndexOrThrow("status")));
+    private String availableFolderName(SQLiteDatabase db, String requested) {
+        String base = requested == null ? "" : requested.replace("\"", "").trim();
+        if (base.isEmpty() || isServiceTable(base) || RawPartitions.isReservedName(base)
+                || base.endsWith("_unique")) {
+            base = "import";
+        }
+        String name = base;
+        for (int n = 2; tableExists(db, name); n++) {
+            name = base + " (" + n + ")";
+        }
+        return name;
+    }
 
-                do {
-                    org.json.JSONObject point = new org.json.JSONObject();
-                    point.put("lat", cursor.getDouble(cursor.getColumnIndexOrThrow("latitude")));
-                    point.put("lon", cursor.getDouble(cursor.getColumnIndexOrThrow("longitude")));
-                    point.put("timestamp", cursor.getLong(cursor.getColumnIndexOrThrow("timestamp")));
-                    historyArray.put(point);
-                } while (cursor.moveToNext());
+    // Потоковый детектор сессий: без чтения истории из SQLite, с гистерезисом по медиане скорости
+    private String classifyStreamingMovement(String uniqueId, double curLat, double curLon,
+                                             Float curAcc, long curTime) {
+        if (uniqueId == null || !uniqueId.contains(":")) return "GREY";
+        return StreamingMovementClassifier.getInstance(mContext)
+                .classify(uniqueId, curLat, curLon, curAcc != null ? curAcc : 0f, curTime);
+    }
 
-                root.put("points_history", historyArray);
-                cursor.close();
-            }
-            return root.toString(4);
-        } catch (Exception e) {
-            return null;
+    private String evaluateStreamingTargetStatus(SQLiteDatabase db, String uniqueId, String streamingStatus) {
+        if (uniqueId == null || !uniqueId.contains(":")) return "GREY";
+        if (isGpsSpoofIgnored(db, uniqueId)) {
+            Log.d("MATH_CHECK", "ID: " + uniqueId + " - ignored as GPS spoofing");
+            return "GREY";
         }
+        return streamingStatus;
     }
 
     // 3. Проверка условий Target
@@ -2297,29 +2600,23 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             return "GREY";
         }
 
-        String column = uniqueId.contains(":") ? "bssid" : "cell_id";
-
-        Cursor cursor = db.query("\"" + tableName + "\"",
-                new String[]{"latitude", "longitude", "timestamp"},
-                "CAST(" + column + " AS TEXT) = ?",
-                new String[]{uniqueId},
-                null, null, "timestamp DESC", "2");
+        DeviceMovementTracker.MovementState state = MOVEMENT_TRACKER.getState(db, tableName, uniqueId);
 
         double speedKmH = 0;
         double dist24h = 0;
 
         try {
-            if (cursor != null && cursor.moveToFirst()) {
-                boolean isSecondPoint = cursor.getCount() == 1;
-                double prevLat = cursor.getDouble(0);
-                double prevLon = cursor.getDouble(1);
-                long prevTime = cursor.getLong(2);
+            if (state != null && state.hasPoints()) {
+                boolean isSecondPoint = state.pointCount == 1;
+                double prevLat = state.lastLatitude;
+                double prevLon = state.lastLongitude;
+                long prevTime = state.lastTimestamp;
 
                 // 1. Считаем дистанцию текущего прыжка
-                double currentJumpMeters = calculateDistance(prevLat, prevLon, curLat, curLon);
+                double currentJumpMeters = DeviceMovementTracker.distanceMeters(prevLat, prevLon, curLat, curLon);
 
                 // Если между точками меньше 10 метров - пропускаем
-                if (currentJumpMeters < 10.0) {
+                if (currentJumpMeters < DeviceMovementTracker.MIN_JUMP_METERS) {
                     Log.d("MATH_CHECK", "ID: " + uniqueId + " - прыжок < 10 м, пропускаем точку");
                     return "GREY";
                 }
@@ -2361,8 +2658,8 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
                     return "TARGET";
                 }
 
-                // 4. Считаем накопленный путь за 24 часа
-                dist24h = getDistanceLast24h(uniqueId, tableName) + (currentJumpMeters / 1000.0);
+                // 4. Накопленный путь за 24 часа берём из инкрементального состояния
+                dist24h = state.distanceLast24hKm(System.currentTimeMillis()) + (currentJumpMeters / 1000.0);
 
                 Log.d("MATH_CHECK", String.format(
                         Locale.US,
@@ -2390,8 +2687,6 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         } catch (Exception e) {
             Log.e(TAG, "Error in evaluateTargetStatus: " + e.getMessage());
             return "GREY";
-        } finally {
-            if (cursor != null) cursor.close();
         }
     }
     private void sendSystemNotification(String title, String message) {
@@ -2473,7 +2768,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             }
 
             UniqueDevicesHelper helper =
-                    new UniqueDevicesHelper(mContext, getUniqueTableName(folderName));
+                    new UniqueDevicesHelper(mContext, getUniqueTableName(folderName), statementCache);
             helper.addOrUpdateDevice(db, deviceData);
         } catch (Exception e) {
             Log.e(TAG, "Ошибка добавления в уникальные устройства: " + e.getMessage());
@@ -2483,7 +2778,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
     public void addToFolderUniqueDevices(SQLiteDatabase db, String folderName, ContentValues deviceData) {
         try {
             String uniqueTableName = getUniqueTableName(folderName);
-            UniqueDevicesHelper helper = new UniqueDevicesHelper(mContext, uniqueTableName);
+            UniqueDevicesHelper helper = new UniqueDevicesHelper(mContext, uniqueTableName, statementCache);
             helper.addOrUpdateDevice(db, deviceData);
         } catch (Exception e) {
             Log.e(TAG, "Ошибка добавления в уникальные устройства папки: " + e.getMessage());
@@ -2509,6 +2804,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             if (db != null && db.isOpen()) {
                 try {
                     db.endTransaction();
+                    SchemaCatalog.onTransactionEnded(db);
                 } catch (Exception e) {
                     Log.e(TAG, "Error ending transaction: " + e.getMessage());
                 }
@@ -2535,7 +2831,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
             if (bssid != null && !bssid.trim().isEmpty()) {
                 query = "SELECT status FROM \"" + tableName + "\" " +
-                        "WHERE UPPER(COALESCE(bssid, '')) = ? " +
+                        "WHERE UPPER(bssid) = ? AND bssid IS NOT NULL " +
                         "ORDER BY timestamp DESC LIMIT 1";
                 args = new String[]{uniqueId};
             } else {
@@ -2592,7 +2888,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
         try {
             String column = uniqueId.contains(":") ? "bssid" : "cell_id";
-            String query = "SELECT * FROM \"" + tableName + "\" WHERE " + column + " = ? " +
+            String query = "SELECT * FROM " + DeviceDictionary.source(tableName) + " WHERE " + column + " = ? " +
                     "ORDER BY timestamp DESC LIMIT 1";
 
             cursor = db.rawQuery(query, new String[]{uniqueId});
@@ -2638,7 +2934,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             if (deviceKey.contains(":")) {
                 cursor = db.rawQuery(
                         "SELECT type, name, latitude, longitude, bssid " +
-                                "FROM \"" + tableName + "\" " +
+                                "FROM " + DeviceDictionary.source(tableName) + " " +
                                 "WHERE UPPER(COALESCE(bssid, '')) = ? " +
                                 "ORDER BY timestamp DESC LIMIT 1",
                         new String[]{deviceKey}
@@ -2646,7 +2942,7 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             } else {
                 cursor = db.rawQuery(
                         "SELECT type, name, latitude, longitude, cell_id " +
-                                "FROM \"" + tableName + "\" " +
+                                "FROM " + DeviceDictionary.source(tableName) + " " +
                                 "WHERE CAST(cell_id AS TEXT) = ? " +
                                 "ORDER BY timestamp DESC LIMIT 1",
                         new String[]{deviceKey}
@@ -2670,56 +2966,20 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
-    //единый метод получения статуса из target_devices / safe_devices
+    //единый метод получения статуса из target_devices / safe_devices / blacklist_devices
     public String getStatusFromServiceTables(String deviceKey) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = null;
+        deviceKey = normalizeDeviceKey(deviceKey);
+        if (deviceKey == null || deviceKey.isEmpty()) {
+            return "GREY";
+        }
 
         try {
-            deviceKey = normalizeDeviceKey(deviceKey);
-            if (deviceKey == null || deviceKey.isEmpty()) {
-                return "GREY";
-            }
-
-            cursor = db.rawQuery(
-                    "SELECT 1 FROM blacklist_devices WHERE UPPER(device_key) = ? LIMIT 1",
-                    new String[]{deviceKey}
-            );
-            if (cursor != null && cursor.moveToFirst()) {
-                return "BLACKLIST";
-            }
-            if (cursor != null) {
-                cursor.close();
-                cursor = null;
-            }
-
-            cursor = db.rawQuery(
-                    "SELECT 1 FROM target_devices WHERE UPPER(device_key) = ? LIMIT 1",
-                    new String[]{deviceKey}
-            );
-            if (cursor != null && cursor.moveToFirst()) {
-                return "TARGET";
-            }
-            if (cursor != null) {
-                cursor.close();
-                cursor = null;
-            }
-
-            cursor = db.rawQuery(
-                    "SELECT 1 FROM safe_devices WHERE UPPER(device_key) = ? LIMIT 1",
-                    new String[]{deviceKey}
-            );
-            if (cursor != null && cursor.moveToFirst()) {
-                return "SAFE";
-            }
-
+            STATUS_REGISTRY.ensureLoaded(this.getReadableDatabase());
         } catch (Exception e) {
             Log.e(TAG, "Error getting status from service tables: " + e.getMessage());
-        } finally {
-            if (cursor != null) cursor.close();
+            return "GREY";
         }
-
-        return "GREY";
+        return STATUS_REGISTRY.statusOf(deviceKey);
     }
 
     // метод для получения deviceKey
@@ -2738,9 +2998,13 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
         SQLiteDatabase db = this.getWritableDatabase();
         createPersistentStatusTables(db);
-        fillStatusesFromTable(db, "blacklist_devices", "BLACKLIST", normalizedKeys, statuses);
-        fillStatusesFromTable(db, "target_devices", "TARGET", normalizedKeys, statuses);
-        fillStatusesFromTable(db, "safe_devices", "SAFE", normalizedKeys, statuses);
+        STATUS_REGISTRY.ensureLoaded(db);
+        for (String key : normalizedKeys) {
+            int mask = STATUS_REGISTRY.maskOf(key);
+            if (mask != 0) {
+                statuses.put(key, StatusRegistry.statusForMask(mask));
+            }
+        }
         return statuses;
     }
 
@@ -2779,7 +3043,9 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getWritableDatabase();
         try {
             createPersistentStatusTables(db);
-            return db.delete(tableName, "UPPER(device_key) = ?", new String[]{normalizedKey});
+            int removed = db.delete(tableName, "UPPER(device_key) = ?", new String[]{normalizedKey});
+            STATUS_REGISTRY.remove(normalizedKey, StatusRegistry.maskForStatus(status));
+            return removed;
         } catch (Exception e) {
             Log.e(TAG, "Error removing persistent status key: " + e.getMessage());
             return 0;
@@ -2799,50 +3065,6 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         return null;
     }
 
-    private void fillStatusesFromTable(SQLiteDatabase db,
-                                       String tableName,
-                                       String status,
-                                       List<String> normalizedKeys,
-                                       Map<String, String> statuses) {
-        final int chunkSize = 400;
-        for (int offset = 0; offset < normalizedKeys.size(); offset += chunkSize) {
-            int end = Math.min(offset + chunkSize, normalizedKeys.size());
-            StringBuilder placeholders = new StringBuilder();
-            String[] args = new String[end - offset];
-            for (int i = offset; i < end; i++) {
-                if (i > offset) placeholders.append(',');
-                placeholders.append('?');
-                args[i - offset] = normalizedKeys.get(i);
-            }
-
-            Cursor cursor = null;
-            try {
-                cursor = db.rawQuery(
-                        "SELECT UPPER(device_key) FROM " + tableName +
-                                " WHERE UPPER(device_key) IN (" + placeholders + ")",
-                        args
-                );
-                while (cursor != null && cursor.moveToNext()) {
-                    String key = cursor.getString(0);
-                    if ("BLACKLIST".equals(status)) {
-                        statuses.put(key, status);
-                        continue;
-                    }
-                    if ("BLACKLIST".equals(statuses.get(key))) {
-                        continue;
-                    }
-                    if ("SAFE".equals(status) && "TARGET".equals(statuses.get(key))) {
-                        continue;
-                    }
-                    statuses.put(key, status);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error bulk loading statuses from " + tableName + ": " + e.getMessage());
-            } finally {
-                if (cursor != null) cursor.close();
-            }
-        }
-    }
 
     public String buildDeviceKeyFromRow(
             String bssid,
@@ -2887,9 +3109,11 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
         Cursor cursor = null;
 
         try {
-            String query = "SELECT name, latitude, longitude, timestamp, bssid FROM \"" + tableName + "\" " +
-                    "WHERE bssid = ? ORDER BY timestamp ASC";
-            cursor = db.rawQuery(query, new String[]{mac});
+            List<String> args = new ArrayList<>();
+            String query = "SELECT name, latitude, longitude, timestamp, bssid FROM " +
+                    RawPartitions.source(db, tableName, "bssid = ?", new String[]{mac}, args) + " " +
+                    "ORDER BY timestamp ASC";
+            cursor = db.rawQuery(query, args.toArray(new String[0]));
 
             while (cursor.moveToNext()) {
                 String name = cursor.getString(cursor.getColumnIndexOrThrow("name"));
@@ -2904,7 +3128,6 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             Log.e(TAG, "Error getting device history: " + e.getMessage());
         } finally {
             if (cursor != null) cursor.close();
-            db.close();
         }
 
         return history;
@@ -2926,12 +3149,14 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 
                 if (uniqueId.contains(":")) {
                     // Это MAC-адрес
-                    query = "SELECT name, bssid, type, latitude, longitude, timestamp, status FROM \"" + tableName + "\" " +
+                    query = "SELECT name, bssid, type, latitude, longitude, timestamp, status FROM " +
+                            DeviceDictionary.source(tableName) + " " +
                             "WHERE bssid = ? ORDER BY timestamp DESC LIMIT 1";
                     args = new String[]{uniqueId};
                 } else {
                     // Это cell_id
-                    query = "SELECT name, cell_id, type, latitude, longitude, timestamp, status FROM \"" + tableName + "\" " +
+                    query = "SELECT name, cell_id, type, latitude, longitude, timestamp, status FROM " +
+                            DeviceDictionary.source(tableName) + " " +
                             "WHERE CAST(cell_id AS TEXT) = ? ORDER BY timestamp DESC LIMIT 1";
                     args = new String[]{uniqueId};
                 }
@@ -2955,7 +3180,6 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
             Log.e(TAG, "Error getting device info for notification: " + e.getMessage());
         } finally {
             if (cursor != null && !cursor.isClosed()) cursor.close();
-            db.close();
         }
 
         return deviceInfo;
@@ -0,0 +1,197 @@
+package com.example.santiway.upload_data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Пространственный индекс наблюдений: R*Tree "<сырая таблица>_rtree" по (широта, долгота, время)
+ * для каждой физической сырой таблицы — горячей и партиций. Синхронизируется триггерами на сырой
+ * таблице, поэтому путь записи о нём не знает. Точки без координат (0, 0) в индекс не попадают.
+ *
+ * R*Tree хранит границы в 32-битных float с округлением наружу: индекс отбирает надмножество,
+ * точные условия по координатам и времени проверяются по строкам сырой таблицы.
+ * Если модуль rtree в SQLite устройства не собран, candidateFilter возвращает null и запросы
+ * карты идут по обычным индексам сырой таблицы.
+ */
+final class ObservationSpatialIndex {
+    private static final String TAG = "ObservationSpatialIndex";
+
+    static final String TABLE_SUFFIX = "_rtree";
+    private static final String[] SHADOW_SUFFIXES = {"_node", "_rowid", "_parent"};
+
+    private static final Set<String> READY = Collections.synchronizedSet(new HashSet<>());
+    private static volatile boolean unavailable = false;
+
+    private static final String VALID_POINT = "(new.latitude != 0 OR new.longitude != 0)";
+    private static final String POINT_VALUES = "new.id, new.latitude, new.latitude, new.longitude, new.longitude, " +
+            "COALESCE(new.timestamp, 0), COALESCE(new.timestamp, 0)";
+
+    private ObservationSpatialIndex() {
+    }
+
+    static String indexTableName(String rawTable) {
+        return rawTable + TABLE_SUFFIX;
+    }
+
+    /**
+     * R*Tree и их теневые таблицы (_node, _rowid, _parent) по схеме, а не по имени: папка,
+     * чьё имя кончается на _rtree, остаётся в списках папок.
+     */
+    static Set<String> indexTables(SQLiteDatabase db) {
+        Set<String> tables = new HashSet<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' " +
+                    "AND sql LIKE 'CREATE VIRTUAL TABLE%USING rtree%'", null);
+            while (cursor.moveToNext()) {
+                String rtree = cursor.getString(0);
+                tables.add(rtree);
+                for (String shadow : SHADOW_SUFFIXES) {
+                    tables.add(rtree + shadow);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error listing spatial index tables: " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return tables;
+    }
+
+    /**
+     * Создаёт индекс и триггеры для сырой таблицы, если их нет, и заполняет индекс её строками.
+     * Возвращает false, если R*Tree недоступен.
+     */
+    static boolean ensure(SQLiteDatabase db, String rawTable) {
+        if (unavailable) return false;
+        if (READY.contains(rawTable)) return true;
+
+        String rtree = indexTableName(rawTable);
+        try {
+            SchemaCatalog catalog = SchemaCatalog.of(db);
+            if (!catalog.tableExists(db, rtree)) {
+                db.execSQL("CREATE VIRTUAL TABLE \"" + rtree + "\" USING rtree(" +
+                        "id, min_lat, max_lat, min_lon, max_lon, min_ts, max_ts)");
+                // Теневые таблицы R*Tree создаются самим модулем
+                catalog.invalidate(db);
+                db.execSQL("INSERT INTO \"" + rtree + "\" " +
+                        "SELECT id, latitude, latitude, longitude, longitude, " +
+                        "COALESCE(timestamp, 0), COALESCE(timestamp, 0) " +
+                        "FROM \"" + rawTable + "\" WHERE latitude != 0 OR longitude != 0");
+            }
+            createTriggers(db, rawTable, rtree);
+            READY.add(rawTable);
+            return true;
+        } catch (Exception e) {
+            if (e.getMessage() != null && e.getMessage().contains("no such module")) {
+                unavailable = true;
+                Log.w(TAG, "R*Tree module is not available, map queries use regular indexes");
+            } else {
+                Log.e(TAG, "Error creating spatial index for " + rawTable + ": " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Переносит индекс вслед за переименованной сырой таблицей (запечатывание партиции,
+     * переименование папки). Триггеры уехали вместе с таблицей, но пишут в R*Tree со старым
+     * именем — они пересоздаются.
+     */
+    static void rename(SQLiteDatabase db, String oldRawTable, String newRawTable) {
+        READY.remove(oldRawTable);
+        READY.remove(newRawTable);
+        if (unavailable) return;
+
+        String oldRtree = indexTableName(oldRawTable);
+        String newRtree = indexTableName(newRawTable);
+        dropTriggers(db, oldRtree);
+        SchemaCatalog catalog = SchemaCatalog.of(db);
+        if (!catalog.tableExists(db, oldRtree)) return;
+
+        db.execSQL("ALTER TABLE \"" + oldRtree + "\" RENAME TO \"" + newRtree + "\"");
+        catalog.invalidate(db);
+        createTriggers(db, newRawTable, newRtree);
+        READY.add(newRawTable);
+    }
+
+    /**
+     * Удаляет индекс таблицы. Перед массовой очисткой сырой таблицы это сохраняет быстрый
+     * DELETE без построчных триггеров; индекс затем создаётся заново через ensure.
+     */
+    static void drop(SQLiteDatabase db, String rawTable) {
+        READY.remove(rawTable);
+        String rtree = indexTableName(rawTable);
+        try {
+            dropTriggers(db, rtree);
+            db.execSQL("DROP TABLE IF EXISTS \"" + rtree + "\"");
+        } catch (Exception e) {
+            Log.e(TAG, "Error dropping spatial index " + rtree + ": " + e.getMessage());
+        }
+        SchemaCatalog.of(db).invalidate(db);
+    }
+
+    /**
+     * После отката транзакции с DDL индексы проверяются заново.
+     */
+    static void invalidate() {
+        READY.clear();
+    }
+
+    /**
+     * Условие на id строк сырой таблицы, попадающих в прямоугольник и интервал, или null,
+     * если у таблицы нет индекса. Параметры добавляются в args. west > east — прямоугольник
+     * через антимеридиан: долготу индекс не ограничивает, её проверяет вызывающий код.
+     */
+    static String candidateFilter(SQLiteDatabase db, String rawTable, List<String> args,
+                                  double south, double west, double north, double east,
+                                  Long from, Long to) {
+        if (unavailable) return null;
+        String rtree = indexTableName(rawTable);
+        if (!SchemaCatalog.of(db).tableExists(db, rtree)) return null;
+
+        StringBuilder filter = new StringBuilder("id IN (SELECT id FROM \"" + rtree + "\" " +
+                "WHERE max_lat >= ? AND min_lat <= ?");
+        args.add(String.valueOf(south));
+        args.add(String.valueOf(north));
+        if (west <= east) {
+            filter.append(" AND max_lon >= ? AND min_lon <= ?");
+            args.add(String.valueOf(west));
+            args.add(String.valueOf(east));
+        }
+        if (from != null) {
+            filter.append(" AND max_ts >= ?");
+            args.add(String.valueOf(from));
+        }
+        if (to != null) {
+            filter.append(" AND min_ts <= ?");
+            args.add(String.valueOf(to));
+        }
+        return filter.append(')').toString();
+    }
+
+    private static void createTriggers(SQLiteDatabase db, String rawTable, String rtree) {
+        String table = "\"" + rawTable + "\"";
+        String index = "\"" + rtree + "\"";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + rtree + "_ai\" AFTER INSERT ON " + table +
+                " WHEN " + VALID_POINT +
+                " BEGIN INSERT OR REPLACE INTO " + index + " VALUES (" + POINT_VALUES + "); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + rtree + "_ad\" AFTER DELETE ON " + table +
+                " BEGIN DELETE FROM " + index + " WHERE id = old.id; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS \"" + rtree + "_au\" AFTER UPDATE OF latitude, longitude, timestamp ON " +
+                table + " BEGIN DELETE FROM " + index + " WHERE id = old.id; " +
+                "INSERT INTO " + index + " SELECT " + POINT_VALUES + " WHERE " + VALID_POINT + "; END");
+    }
+
+    private static void dropTriggers(SQLiteDatabase db, String rtree) {
+        db.execSQL("DROP TRIGGER IF EXISTS \"" + rtree + "_ai\"");
+        db.execSQL("DROP TRIGGER IF EXISTS \"" + rtree + "_ad\"");
+        db.execSQL("DROP TRIGGER IF EXISTS \"" + rtree + "_au\"");
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.santiway.upload_data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Дневные партиции сырых таблиц папок.
+ *
+ * Таблица "<папка>" остаётся горячей партицией: в неё пишут сканеры, и код, которому
+ * нужны только свежие данные (дедупликация, движение, уведомления), работает с ней как раньше.
+ * Раз в сутки горячая таблица переименовывается в "<папка>__pYYYYMMDD" (это O(1), данные не
+ * копируются) и создаётся новая пустая. Каталог raw_partitions хранит диапазон времени каждой
+ * партиции: по нему история, поиск серых устройств и выгрузка отбрасывают лишние партиции,
+ * а очистка по сроку хранения удаляет партиции целиком через DROP TABLE.
+ */
+public final class RawPartitions {
+    private static final String TAG = "RawPartitions";
+
+    public static final String CATALOG_TABLE = "raw_partitions";
+    static final String SEPARATOR = "__p";
+
+    /** Явный список колонок: у таблиц разного возраста порядок колонок может отличаться */
+    static final String COLUMNS = "id, type, name, bssid, signal_strength, frequency, capabilities, vendor, " +
+            "cell_id, lac, mcc, mnc, psc, pci, tac, earfcn, arfcn, signal_quality, network_type, " +
+            "is_registered, is_neighbor, latitude, longitude, altitude, location_accuracy, timestamp, " +
+            "status, is_uploaded, folder_name";
+
+    private RawPartitions() {
+    }
+
+    static void ensureCatalog(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + CATALOG_TABLE + " (" +
+                "table_name TEXT PRIMARY KEY," +
+                "folder_name TEXT NOT NULL," +
+                "seal_day TEXT NOT NULL," +
+                "min_ts INTEGER NOT NULL," +
+                "max_ts INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_raw_partitions_folder ON " + CATALOG_TABLE +
+                "(folder_name, max_ts)");
+    }
+
+    /**
+     * Имена всех партиций по каталогу: папка, чьё имя только похоже на партицию, сюда не попадает.
+     */
+    public static Set<String> partitionNames(SQLiteDatabase db) {
+        Set<String> names = new HashSet<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT table_name FROM " + CATALOG_TABLE, null);
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } catch (Exception e) {
+            // Каталога ещё нет — партиций тоже
+            Log.d(TAG, "No partition catalog: " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * Имя новой папки не должно совпасть с будущей партицией другой папки.
+     */
+    static boolean isReservedName(String folderName) {
+        return folderName != null && folderName.contains(SEPARATOR);
+    }
+
+    /**
+     * Физические таблицы папки, пересекающиеся с [from, to] (null — без границы):
+     * сначала горячая, затем партиции от новых к старым.
+     */
+    public static List<String> tables(SQLiteDatabase db, String folderName, Long from, Long to) {
+        List<String> tables = new ArrayList<>();
+        tables.add(folderName);
+
+        StringBuilder sql = new StringBuilder("SELECT table_name FROM " + CATALOG_TABLE + " WHERE folder_name = ?");
+        List<String> args = new ArrayList<>();
+        args.add(folderName);
+        if (from != null) {
+            sql.append(" AND max_ts >= ?");
+            args.add(String.valueOf(from));
+        }
+        if (to != null) {
+            sql.append(" AND min_ts <= ?");
+            args.add(String.valueOf(to));
+        }
+        sql.append(" ORDER BY max_ts DESC");
+
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql.toString(), args.toArray(new String[0]));
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        } catch (Exception e) {
+            // Каталога ещё нет — у папки только горячая таблица
+            Log.d(TAG, "No partition catalog: " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return tables;
+    }
+
+    public static List<String> tables(SQLiteDatabase db, String folderName) {
+        return tables(db, folderName, null, null);
+    }
+
+    /**
+     * Источник для FROM: горячая таблица или UNION ALL нужных партиций, с атрибутами из словаря устройств.
+     * Условие where вписывается в каждую ветку отдельно, как в getObservationsInBounds: SQLite 3.9
+     * на Android 7 не обязан переносить WHERE внешнего запроса внутрь составного подзапроса, и тогда
+     * каждая партиция читалась бы целиком. Границы from/to тоже проверяются в каждой ветке.
+     * whereArgs повторяются для каждой ветки; параметры всех веток по порядку дописываются в args.
+     */
+    public static String source(SQLiteDatabase db, String folderName, Long from, Long to,
+                                String where, String[] whereArgs, List<String> args) {
+        StringBuilder union = new StringBuilder("(");
+        List<String> tables = tables(db, folderName, from, to);
+        for (int i = 0; i < tables.size(); i++) {
+            if (i > 0) union.append(" UNION ALL ");
+            union.append("SELECT * FROM ").append(DeviceDictionary.source(tables.get(i)))
+                    .append(" WHERE ").append(where);
+            if (whereArgs != null) Collections.addAll(args, whereArgs);
+            if (from != null) {
+                union.append(" AND timestamp >= ?");
+                args.add(String.valueOf(from));
+            }
+            if (to != null) {
+                union.append(" AND timestamp <= ?");
+                args.add(String.valueOf(to));
+            }
+        }
+        return union.append(')').toString();
+    }
+
+    public static String source(SQLiteDatabase db, String folderName,
+                                String where, String[] whereArgs, List<String> args) {
+        return source(db, folderName, null, null, where, whereArgs, args);
+    }
+
+    /**
+     * День последнего запечатывания папки или null. От него зависят имена индексов горячей
+     * таблицы: индексы уезжают вместе с переименованной партицией, и новой таблице нужны другие имена.
+     */
+    static String lastSealDay(SQLiteDatabase db, String folderName) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT MAX(seal_day) FROM " + CATALOG_TABLE + " WHERE folder_name = ?",
+                    new String[]{folderName});
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } catch (Exception e) {
+            return null;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /**
+     * Переименовывает горячую таблицу в партицию, если в ней есть записи до начала текущих суток
+     * и сегодня папку ещё не запечатывали. Новую горячую таблицу создаёт вызывающий код.
+     * Возвращает имя партиции или null. Вызывать внутри транзакции.
+     */
+    static String sealIfDue(SQLiteDatabase db, String folderName, long now) {
+        String today = dayKey(now);
+        if (today.equals(lastSealDay(db, folderName))) return null;
+
+        long minTs;
+        long maxTs;
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT MIN(timestamp), MAX(timestamp) FROM \"" + folderName + "\"", null);
+            if (!cursor.moveToFirst() || cursor.isNull(0)) return null;
+            minTs = cursor.getLong(0);
+            maxTs = cursor.getLong(1);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        if (minTs >= startOfDay(now)) return null;
+
+        String partition = folderName + SEPARATOR + today;
+        db.execSQL("ALTER TABLE \"" + folderName + "\" RENAME TO \"" + partition + "\"");
+        SchemaCatalog.of(db).onTableRenamed(db, folderName, partition);
+        ObservationSpatialIndex.rename(db, folderName, partition);
+
+        ContentValues values = new ContentValues();
+        values.put("table_name", partition);
+        values.put("folder_name", folderName);
+        values.put("seal_day", today);
+        values.put("min_ts", minTs);
+        values.put("max_ts", maxTs);
+        db.insertOrThrow(CATALOG_TABLE, null, values);
+
+        Log.d(TAG, "Sealed " + folderName + " as " + partition + " [" + minTs + ".." + maxTs + "]");
+        return partition;
+    }
+
+    /**
+     * Продолжает AUTOINCREMENT новой горячей таблицы с последнего id партиции:
+     * id остаются уникальными в пределах папки.
+     */
+    static void continueSequence(SQLiteDatabase db, String partition, String hotTable) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = ?", new String[]{partition});
+            if (!cursor.moveToFirst()) return;
+            long seq = cursor.getLong(0);
+            db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?", new Object[]{hotTable});
+            db.execSQL("INSERT INTO sqlite_sequence(name, seq) VALUES (?, ?)", new Object[]{hotTable, seq});
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /**
+     * Удаляет партиции, целиком вышедшие за срок хранения. Партиция, частично попадающая
+     * в срок, живёт до следующего запечатывания — не больше суток сверх срока.
+     */
+    static int dropExpired(SQLiteDatabase db, long cutoffTime) {
+        List<String> expired = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT table_name FROM " + CATALOG_TABLE + " WHERE max_ts < ?",
+                    new String[]{String.valueOf(cutoffTime)});
+            while (cursor.moveToNext()) {
+                expired.add(cursor.getString(0));
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+        for (String partition : expired) {
+            dropPartition(db, partition);
+        }
+        return expired.size();
+    }
+
+    static void dropFolder(SQLiteDatabase db, String folderName) {
+        for (String table : tables(db, folderName)) {
+            if (!table.equals(folderName)) {
+                dropPartition(db, table);
+            }
+        }
+    }
+
+    static void renameFolder(SQLiteDatabase db, String oldName, String newName) {
+        for (String table : tables(db, oldName)) {
+            if (table.equals(oldName)) continue;
+            String renamed = newName + table.substring(oldName.length());
+            db.execSQL("ALTER TABLE \"" + table + "\" RENAME TO \"" + renamed + "\"");
+            SchemaCatalog.of(db).onTableRenamed(db, table, renamed);
+            ObservationSpatialIndex.rename(db, table, renamed);
+            db.execSQL("UPDATE " + CATALOG_TABLE + " SET table_name = ?, folder_name = ? WHERE table_name = ?",
+                    new Object[]{renamed, newName, table});
+        }
+    }
+
+    private static void dropPartition(SQLiteDatabase db, String partition) {
+        db.execSQL("DROP TABLE IF EXISTS \"" + partition + "\"");
+        SchemaCatalog.of(db).onTableDropped(db, partition);
+        ObservationSpatialIndex.drop(db, partition);
+        db.delete(CATALOG_TABLE, "table_name = ?", new String[]{partition});
+        Log.d(TAG, "Dropped partition " + partition);
+    }
+
+    static String dayKey(long time) {
+        return new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date(time));
+    }
+
+    static long startOfDay(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.santiway.upload_data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул read-only соединений к UnifiedScanner.db для списков, поиска и выгрузки.
+ * База работает в WAL, поэтому читатели из пула не ждут писателя (сканеры пишут через
+ * соединение MainDatabaseHelper) и не блокируют его. Соединения открываются лениво,
+ * не больше POOL_SIZE; остальные читатели ждут освобождения с таймаутом.
+ *
+ * Использование:
+ * <pre>
+ * try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(context).acquire()) {
+ *     Cursor cursor = lease.getDatabase().rawQuery(...);
+ * }
+ * </pre>
+ */
+public final class ReadConnectionPool {
+    private static final String TAG = "ReadConnectionPool";
+    private static final int POOL_SIZE = 4;
+    private static final long ACQUIRE_TIMEOUT_MS = 10_000L;
+
+    private static ReadConnectionPool instance;
+
+    private final Context appContext;
+    private final String databasePath;
+    private final ArrayBlockingQueue<SQLiteDatabase> idle = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private ReadConnectionPool(Context context) {
+        this.appContext = context.getApplicationContext();
+        this.databasePath = appContext.getDatabasePath(MainDatabaseHelper.DATABASE_NAME).getPath();
+    }
+
+    public static synchronized ReadConnectionPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReadConnectionPool(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Берёт соединение из пула. Lease обязательно закрывать — соединение вернётся в пул,
+     * сама база при этом не закрывается.
+     */
+    public Lease acquire() {
+        long startedAt = System.nanoTime();
+        SQLiteDatabase db = idle.poll();
+        if (db == null) {
+            db = openIfCapacity();
+        }
+        if (db == null) {
+            try {
+                db = idle.poll(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (db == null) {
+                timeoutCount.incrementAndGet();
+                throw new SQLiteException("No read connection available after " + ACQUIRE_TIMEOUT_MS + " ms");
+            }
+            recordWait(System.nanoTime() - startedAt);
+        }
+
+        acquireCount.incrementAndGet();
+        inUse.incrementAndGet();
+        return new Lease(db);
+    }
+
+    private SQLiteDatabase openIfCapacity() {
+        while (true) {
+            int current = opened.get();
+            if (current >= POOL_SIZE) return null;
+            if (opened.compareAndSet(current, current + 1)) break;
+        }
+        try {
+            ensureDatabaseCreated();
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(databasePath, null, SQLiteDatabase.OPEN_READONLY);
+            Log.d(TAG, "Read connection opened (" + opened.get() + "/" + POOL_SIZE + ")");
+            return db;
+        } catch (RuntimeException e) {
+            opened.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * read-only соединение не умеет создавать файл и схему — это делает MainDatabaseHelper.
+     */
+    private void ensureDatabaseCreated() {
+        if (new File(databasePath).exists()) return;
+        MainDatabaseHelper.getInstance(appContext).getWritableDatabase();
+    }
+
+    private void release(SQLiteDatabase db) {
+        inUse.decrementAndGet();
+        if (db.isOpen() && !db.inTransaction() && idle.offer(db)) return;
+
+        // Соединение закрыли снаружи или оно оказалось лишним — освобождаем место в пуле
+        if (db.isOpen()) db.close();
+        opened.decrementAndGet();
+    }
+
+    private void recordWait(long nanos) {
+        waitCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxWaitNanos.get();
+        } while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos));
+    }
+
+    public Stats getStats() {
+        return new Stats(
+                POOL_SIZE,
+                opened.get(),
+                inUse.get(),
+                acquireCount.get(),
+                waitCount.get(),
+                TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()),
+                timeoutCount.get()
+        );
+    }
+
+    public final class Lease implements AutoCloseable {
+        private SQLiteDatabase db;
+
+        private Lease(SQLiteDatabase db) {
+            this.db = db;
+        }
+
+        public SQLiteDatabase getDatabase() {
+            if (db == null) throw new IllegalStateException("Lease already released");
+            return db;
+        }
+
+        @Override
+        public void close() {
+            if (db == null) return;
+            SQLiteDatabase released = db;
+            db = null;
+            release(released);
+        }
+    }
+
+    /**
+     * Снимок метрик конкуренции за соединения (для экрана настроек).
+     */
+    public static final class Stats {
+        public final int poolSize;
+        public final int opened;
+        public final int inUse;
+        public final long acquires;
+        public final long waits;
+        public final long totalWaitMs;
+        public final long maxWaitMs;
+        public final long timeouts;
+
+        Stats(int poolSize, int opened, int inUse, long acquires, long waits,
+              long totalWaitMs, long maxWaitMs, long timeouts) {
+            this.poolSize = poolSize;
+            this.opened = opened;
+            this.inUse = inUse;
+            this.acquires = acquires;
+            this.waits = waits;
+            this.totalWaitMs = totalWaitMs;
+            this.maxWaitMs = maxWaitMs;
+            this.timeouts = timeouts;
+        }
+
+        /** Среднее ожидание на одно получение соединения, включая получения без ожидания */
+        public double averageWaitMs() {
+            return acquires == 0 ? 0.0 : (double) totalWaitMs / acquires;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.santiway.upload_data;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Кэш схемы одного файла БД: список таблиц и их колонки. Таблицы читаются из sqlite_master
+ * один раз, колонки — PRAGMA table_info при первом обращении к таблице. Дальше каталог
+ * обновляют наши собственные DDL-вызовы (onTableCreated / onTableRenamed / onTableDropped /
+ * onColumnAdded), поэтому списки папок, ретенция и миграции колонок не ходят в sqlite_master.
+ *
+ * Чтение идёт без блокировок из неизменяемых снимков. Запросы к БД выполняются вне монитора
+ * каталога (иначе поток с открытой транзакцией и поток, ждущий соединение, заблокировали бы
+ * друг друга); загруженный снимок публикуется, только если за время чтения не было изменений.
+ *
+ * Снимок описывает закоммиченную схему — ту, что видят соединения read-only пула. DDL внутри
+ * транзакции снимок не трогает: до коммита пул его не видит, а после отката его нет вовсе.
+ * Поток-владелец транзакции до её конца читает схему напрямую со своего соединения, а после
+ * endTransaction() вызывающий код сообщает об этом через onTransactionEnded(), и каталог
+ * перечитывается. Так читатель пула не опубликует список таблиц, устаревший к моменту коммита.
+ *
+ * В проверочном режиме (отладочная сборка) каждый ответ сверяется с реальной схемой,
+ * расхождение пишется в лог, и каталог перечитывается.
+ */
+public final class SchemaCatalog {
+    private static final String TAG = "SchemaCatalog";
+    private static final Map<String, SchemaCatalog> CATALOGS = new HashMap<>();
+    private static volatile boolean verifyEnabled = false;
+
+    private volatile Set<String> tables;
+    private volatile Map<String, Set<String>> columns = Collections.emptyMap();
+    private long version = 0L;
+    /** Поток, чья незавершённая транзакция выполнила DDL; null — таких нет */
+    private Thread pendingOwner;
+
+    private SchemaCatalog() {
+    }
+
+    /**
+     * Каталог файла БД; общий для пишущего соединения и read-only пула.
+     */
+    public static SchemaCatalog of(SQLiteDatabase db) {
+        String path = db.getPath();
+        synchronized (CATALOGS) {
+            SchemaCatalog catalog = CATALOGS.get(path);
+            if (catalog == null) {
+                catalog = new SchemaCatalog();
+                CATALOGS.put(path, catalog);
+            }
+            return catalog;
+        }
+    }
+
+    /**
+     * Включает проверочный режим в отладочной сборке.
+     */
+    public static void enableVerificationIfDebuggable(Context context) {
+        boolean debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        if (debuggable && !verifyEnabled) {
+            verifyEnabled = true;
+            Log.d(TAG, "Schema catalog verification enabled");
+        }
+    }
+
+    /**
+     * Сбрасывает все каталоги: после отката транзакции с DDL схема могла вернуться назад.
+     */
+    public static void invalidateAll() {
+        synchronized (CATALOGS) {
+            for (SchemaCatalog catalog : CATALOGS.values()) {
+                catalog.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Вызывается после endTransaction() транзакций, которые могли выполнить DDL.
+     * Когда закрыта внешняя транзакция, отложенные изменения схемы сбрасывают снимок: после
+     * коммита он перечитается с новой схемой, после отката — с прежней.
+     */
+    public static void onTransactionEnded(SQLiteDatabase db) {
+        of(db).finishPending(db);
+    }
+
+    /**
+     * Имена таблиц в порядке sqlite_master.
+     */
+    public List<String> tables(SQLiteDatabase db) {
+        if (readsOwnTransaction(db)) return new ArrayList<>(readTables(db));
+        Set<String> snapshot = loadedTables(db);
+        if (verifyEnabled) {
+            Set<String> actual = readTables(db);
+            if (!actual.equals(snapshot)) {
+                reportMismatch("tables", snapshot, actual);
+                snapshot = actual;
+            }
+        }
+        return new ArrayList<>(snapshot);
+    }
+
+    public boolean tableExists(SQLiteDatabase db, String table) {
+        if (readsOwnTransaction(db)) return readTables(db).contains(table);
+        boolean exists = loadedTables(db).contains(table);
+        if (verifyEnabled) {
+            boolean actual = readTables(db).contains(table);
+            if (actual != exists) {
+                reportMismatch("table " + table, exists, actual);
+                return actual;
+            }
+        }
+        return exists;
+    }
+
+    public boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        String normalized = column.toLowerCase(Locale.US);
+        if (readsOwnTransaction(db)) return readColumns(db, table).contains(normalized);
+        boolean present = loadedColumns(db, table).contains(normalized);
+        if (verifyEnabled) {
+            boolean actual = readColumns(db, table).contains(normalized);
+            if (actual != present) {
+                reportMismatch("column " + table + "." + column, present, actual);
+                return actual;
+            }
+        }
+        return present;
+    }
+
+    public synchronized void onTableCreated(SQLiteDatabase db, String table) {
+        if (deferUntilTransactionEnds(db)) return;
+        Set<String> current = tables;
+        if (current != null && !current.contains(table)) {
+            Set<String> next = new LinkedHashSet<>(current);
+            next.add(table);
+            tables = Collections.unmodifiableSet(next);
+        }
+        // CREATE TABLE IF NOT EXISTS мог не выполниться — колонки перечитаются при обращении
+        removeColumns(table);
+        version++;
+    }
+
+    public synchronized void onTableDropped(SQLiteDatabase db, String table) {
+        if (deferUntilTransactionEnds(db)) return;
+        Set<String> current = tables;
+        if (current != null && current.contains(table)) {
+            Set<String> next = new LinkedHashSet<>(current);
+            next.remove(table);
+            tables = Collections.unmodifiableSet(next);
+        }
+        removeColumns(table);
+        version++;
+    }
+
+    public synchronized void onTableRenamed(SQLiteDatabase db, String from, String to) {
+        if (deferUntilTransactionEnds(db)) return;
+        Set<String> current = tables;
+        if (current != null) {
+            Set<String> next = new LinkedHashSet<>();
+            for (String table : current) {
+                next.add(table.equals(from) ? to : table);
+            }
+            tables = Collections.unmodifiableSet(next);
+        }
+        Set<String> moved = columns.get(from);
+        removeColumns(from);
+        if (moved != null) {
+            Map<String, Set<String>> next = new HashMap<>(columns);
+            next.put(to, moved);
+            columns = Collections.unmodifiableMap(next);
+        }
+        version++;
+    }
+
+    public synchronized void onColumnAdded(SQLiteDatabase db, String table, String column) {
+        if (deferUntilTransactionEnds(db)) return;
+        Set<String> current = columns.get(table);
+        if (current != null) {
+            Set<String> nextColumns = new HashSet<>(current);
+            nextColumns.add(column.toLowerCase(Locale.US));
+            Map<String, Set<String>> next = new HashMap<>(columns);
+            next.put(table, Collections.unmodifiableSet(nextColumns));
+            columns = Collections.unmodifiableMap(next);
+        }
+        version++;
+    }
+
+    /**
+     * Полное перечитывание при следующем обращении: после миграций и DDL, который
+     * создаёт служебные таблицы сам (FTS).
+     */
+    public synchronized void invalidate(SQLiteDatabase db) {
+        if (deferUntilTransactionEnds(db)) return;
+        invalidate();
+    }
+
+    private synchronized void invalidate() {
+        tables = null;
+        columns = Collections.emptyMap();
+        version++;
+    }
+
+    /**
+     * DDL в открытой транзакции: снимок остаётся закоммиченным, изменение применит
+     * onTransactionEnded(). Вызывается под монитором каталога.
+     */
+    private boolean deferUntilTransactionEnds(SQLiteDatabase db) {
+        if (!db.inTransaction()) return false;
+        Thread current = Thread.currentThread();
+        if (pendingOwner != null && pendingOwner != current) {
+            // Прошлый владелец не сообщил о конце транзакции — его изменения уже в базе
+            invalidate();
+        }
+        pendingOwner = current;
+        return true;
+    }
+
+    private synchronized void finishPending(SQLiteDatabase db) {
+        if (pendingOwner != Thread.currentThread() || db.inTransaction()) return;
+        pendingOwner = null;
+        invalidate();
+    }
+
+    /**
+     * Поток внутри своей транзакции с DDL видит незакоммиченную схему, которой нет в снимке.
+     */
+    private boolean readsOwnTransaction(SQLiteDatabase db) {
+        synchronized (this) {
+            if (pendingOwner != Thread.currentThread()) return false;
+        }
+        if (db.inTransaction()) return true;
+        // Транзакция закончилась без onTransactionEnded()
+        finishPending(db);
+        return false;
+    }
+
+    private void removeColumns(String table) {
+        if (!columns.containsKey(table)) return;
+        Map<String, Set<String>> next = new HashMap<>(columns);
+        next.remove(table);
+        columns = Collections.unmodifiableMap(next);
+    }
+
+    private Set<String> loadedTables(SQLiteDatabase db) {
+        Set<String> snapshot = tables;
+        if (snapshot != null) return snapshot;
+
+        long seen;
+        synchronized (this) {
+            seen = version;
+        }
+        Set<String> loaded = Collections.unmodifiableSet(readTables(db));
+        synchronized (this) {
+            if (version == seen && tables == null) {
+                tables = loaded;
+            }
+        }
+        return loaded;
+    }
+
+    private Set<String> loadedColumns(SQLiteDatabase db, String table) {
+        Set<String> cached = columns.get(table);
+        if (cached != null) return cached;
+
+        long seen;
+        synchronized (this) {
+            seen = version;
+        }
+        Set<String> loaded = Collections.unmodifiableSet(readColumns(db, table));
+        synchronized (this) {
+            if (version == seen) {
+                Map<String, Set<String>> next = new HashMap<>(columns);
+                next.put(table, loaded);
+                columns = Collections.unmodifiableMap(next);
+            }
+        }
+        return loaded;
+    }
+
+    private static Set<String> readTables(SQLiteDatabase db) {
+        Set<String> result = new LinkedHashSet<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+            while (cursor.moveToNext()) {
+                result.add(cursor.getString(0));
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return result;
+    }
+
+    private static Set<String> readColumns(SQLiteDatabase db, String table) {
+        Set<String> result = new HashSet<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("PRAGMA table_info(\"" + table + "\")", null);
+            int nameIndex = cursor.getColumnIndex("name");
+            while (nameIndex >= 0 && cursor.moveToNext()) {
+                result.add(cursor.getString(nameIndex).toLowerCase(Locale.US));
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return result;
+    }
+
+    private void reportMismatch(String what, Object cached, Object actual) {
+        Log.e(TAG, "Schema catalog mismatch for " + what + ": cached=" + cached + ", actual=" + actual);
+        invalidate();
+    }
+}
@@ -11,6 +11,12 @@ import android.content.SharedPreferences;
 public final class ServerUploadConfig {
     private static final String PREFS_NAME = "AppSettings";
     private static final String KEY_SERVER_UPLOAD_ENABLED = "server_upload_enabled";
+    private static final String KEY_LEGACY_UPLOAD_FLAGS = "upload_legacy_is_uploaded_flags";
+    private static final String KEY_GZIP_UPLOADS = "upload_gzip_request_bodies";
+    private static final String KEY_BINARY_UPLOADS = "upload_binary_encoding";
+    private static final String KEY_UPLOAD_WINDOW = "upload_in_flight_batches";
+    private static final int DEFAULT_UPLOAD_WINDOW = 4;
+    private static final int MAX_UPLOAD_WINDOW = 16;
 
     private ServerUploadConfig() {
     }
@@ -33,4 +39,93 @@ public final class ServerUploadConfig {
                 .putBoolean(KEY_SERVER_UPLOAD_ENABLED, enabled)
                 .apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Режим совместимости выгрузки: выборка по is_uploaded = 0 и пометка каждой строки.
+     * По умолчанию выключен — выгрузка идёт по водяным знакам UploadOutbox.
+     */
+    public static boolean isLegacyUploadFlagsEnabled(Context context) {
+        if (context == null) return false;
+
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(KEY_LEGACY_UPLOAD_FLAGS, false);
+    }
+
+    public static void setLegacyUploadFlagsEnabled(Context context, boolean enabled) {
+        if (context == null) return;
+
+        context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(KEY_LEGACY_UPLOAD_FLAGS, enabled)
+                .apply();
+    }
+
+    /**
+     * Сжимать тела запросов выгрузки gzip (Content-Encoding: gzip). Включается, только если
+     * сервер умеет распаковывать тела запросов, поэтому по умолчанию выключено.
+     */
+    public static boolean isGzipUploadsEnabled(Context context) {
+        if (context == null) return false;
+
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(KEY_GZIP_UPLOADS, false);
+    }
+
+    public static void setGzipUploadsEnabled(Context context, boolean enabled) {
+        if (context == null) return;
+
+        context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(KEY_GZIP_UPLOADS, enabled)
+                .apply();
+    }
+
+    /**
+     * Разрешена ли двоичная кодировка пачек (DeviceBatchCodec). Она включается, только когда
+     * сервер объявил её заголовком Accept-Post, поэтому по умолчанию разрешена; выключение
+     * оставляет JSON при любом сервере.
+     */
+    public static boolean isBinaryUploadsEnabled(Context context) {
+        if (context == null) return false;
+
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(KEY_BINARY_UPLOADS, true);
+    }
+
+    public static void setBinaryUploadsEnabled(Context context, boolean enabled) {
+        if (context == null) return;
+
+        context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(KEY_BINARY_UPLOADS, enabled)
+                .apply();
+    }
+
+    /**
+     * Сколько пачек выгрузки может одновременно ждать ответа сервера (1 — по одной, как раньше).
+     */
+    public static int getUploadWindow(Context context) {
+        if (context == null) return DEFAULT_UPLOAD_WINDOW;
+
+        int window = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(KEY_UPLOAD_WINDOW, DEFAULT_UPLOAD_WINDOW);
+        return Math.max(1, Math.min(MAX_UPLOAD_WINDOW, window));
+    }
+
+    public static void setUploadWindow(Context context, int window) {
+        if (context == null) return;
+
+        context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putInt(KEY_UPLOAD_WINDOW, Math.max(1, Math.min(MAX_UPLOAD_WINDOW, window)))
+                .apply();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.santiway.upload_data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Скомпилированные SQLiteStatement горячих путей записи: вставка в сырую таблицу папки,
+ * обновление _unique и синхронизация служебных таблиц статусов.
+ *
+ * Команды хранятся отдельно для каждого потока: SQLiteStatement не потокобезопасен, а общая
+ * блокировка вокруг bind + execute могла бы встать в дедлок с транзакцией другого потока.
+ * Запись почти всегда идёт из одного потока очереди сканера, поэтому компиляция — один раз на папку.
+ * После переименования, удаления или очистки папки команды её таблиц перекомпилируются
+ * (invalidateTable увеличивает поколение таблицы).
+ */
+final class StatementCache {
+    private static final Map<String, Integer> GENERATIONS = new HashMap<>();
+
+    private static final class Entry {
+        final SQLiteStatement statement;
+        final int generation;
+
+        Entry(SQLiteStatement statement, int generation) {
+            this.statement = statement;
+            this.generation = generation;
+        }
+    }
+
+    private static final class State {
+        SQLiteDatabase owner;
+        final Map<String, Entry> statements = new HashMap<>();
+    }
+
+    private final ThreadLocal<State> state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    /**
+     * Сбрасывает команды таблицы во всех потоках и экземплярах кэша.
+     */
+    static void invalidateTable(String table) {
+        synchronized (GENERATIONS) {
+            GENERATIONS.put(table, generation(table) + 1);
+        }
+    }
+
+    private static int generation(String table) {
+        synchronized (GENERATIONS) {
+            Integer generation = GENERATIONS.get(table);
+            return generation == null ? 0 : generation;
+        }
+    }
+
+    /**
+     * Команда для sql, готовая к привязке параметров; table — таблица, от которой она зависит.
+     * Привязки прошлого вызова сброшены.
+     */
+    SQLiteStatement get(SQLiteDatabase db, String table, String sql) {
+        State current = state.get();
+        if (current.owner != db) {
+            // Соединение переоткрыто: команды прежнего объекта БД больше не годятся
+            closeAll(current);
+            current.owner = db;
+        }
+
+        int generation = generation(table);
+        Entry entry = current.statements.get(sql);
+        if (entry != null && entry.generation != generation) {
+            entry.statement.close();
+            entry = null;
+        }
+        if (entry == null) {
+            entry = new Entry(db.compileStatement(sql), generation);
+            current.statements.put(sql, entry);
+        } else {
+            entry.statement.clearBindings();
+        }
+        return entry.statement;
+    }
+
+    SQLiteStatement bind(SQLiteDatabase db, String table, String sql, Object[] args) {
+        SQLiteStatement statement = get(db, table, sql);
+        for (int i = 0; i < args.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, args[i]);
+        }
+        return statement;
+    }
+
+    private static void closeAll(State current) {
+        for (Entry entry : current.statements.values()) {
+            entry.statement.close();
+        }
+        current.statements.clear();
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.santiway.upload_data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Общая для процесса копия target_devices / safe_devices / blacklist_devices.
+ * Для каждого ключа хранится маска таблиц, в которых он лежит. Чтение идёт
+ * без блокировок из неизменяемого снимка; запись (write-through из MainDatabaseHelper
+ * после SQL) подменяет снимок целиком и увеличивает версию. Статусы меняются редко,
+ * поэтому копирование снимка при записи дешевле, чем три запроса на каждое наблюдение.
+ */
+final class StatusRegistry {
+    private static final String TAG = "StatusRegistry";
+
+    static final int TARGET = 1;
+    static final int SAFE = 2;
+    static final int BLACKLIST = 4;
+
+    private volatile Map<String, Integer> snapshot;
+    private volatile long version = 0L;
+
+    /**
+     * Загружает реестр при первом обращении. db — соединение вызывающего кода,
+     * чтобы внутри его транзакции были видны ещё не закоммиченные изменения.
+     */
+    void ensureLoaded(SQLiteDatabase db) {
+        if (snapshot != null) return;
+        synchronized (this) {
+            if (snapshot == null) {
+                publish(load(db));
+            }
+        }
+    }
+
+    /**
+     * Сбрасывает снимок после отката транзакции: write-through уже применил изменения,
+     * которых в БД не оказалось. Следующее обращение перечитает таблицы.
+     */
+    synchronized void invalidate() {
+        snapshot = null;
+        version++;
+    }
+
+    /**
+     * Номер снимка: растёт при каждой записи и сбросе.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Маска таблиц ключа; ключ должен быть нормализован (trim + upper).
+     */
+    int maskOf(String normalizedKey) {
+        Map<String, Integer> current = snapshot;
+        if (current == null || normalizedKey == null) return 0;
+        Integer mask = current.get(normalizedKey);
+        return mask == null ? 0 : mask;
+    }
+
+    /**
+     * Статус с тем же приоритетом, что и прежние запросы: BLACKLIST, затем TARGET, затем SAFE.
+     */
+    String statusOf(String normalizedKey) {
+        return statusForMask(maskOf(normalizedKey));
+    }
+
+    static String statusForMask(int mask) {
+        if ((mask & BLACKLIST) != 0) return "BLACKLIST";
+        if ((mask & TARGET) != 0) return "TARGET";
+        if ((mask & SAFE) != 0) return "SAFE";
+        return "GREY";
+    }
+
+    static int maskForStatus(String status) {
+        String normalized = status == null ? "GREY" : status.trim().toUpperCase(Locale.US);
+        switch (normalized) {
+            case "TARGET":
+            case "ALERT":
+                return TARGET;
+            case "SAFE":
+                return SAFE;
+            case "BLACKLIST":
+                return BLACKLIST;
+            default:
+                return 0;
+        }
+    }
+
+    synchronized void add(String normalizedKey, int bit) {
+        update(normalizedKey, maskOf(normalizedKey) | bit);
+    }
+
+    synchronized void remove(String normalizedKey, int bit) {
+        update(normalizedKey, maskOf(normalizedKey) & ~bit);
+    }
+
+    private void update(String normalizedKey, int mask) {
+        Map<String, Integer> current = snapshot;
+        if (current == null || normalizedKey == null) return;
+
+        Integer previous = current.get(normalizedKey);
+        if ((previous == null ? 0 : previous) == mask) return;
+
+        Map<String, Integer> next = new HashMap<>(current);
+        if (mask == 0) {
+            next.remove(normalizedKey);
+        } else {
+            next.put(normalizedKey, mask);
+        }
+        publish(next);
+    }
+
+    private void publish(Map<String, Integer> next) {
+        snapshot = Collections.unmodifiableMap(next);
+        version++;
+    }
+
+    private static Map<String, Integer> load(SQLiteDatabase db) {
+        Map<String, Integer> masks = new HashMap<>();
+        loadTable(db, "target_devices", TARGET, masks);
+        loadTable(db, "safe_devices", SAFE, masks);
+        loadTable(db, "blacklist_devices", BLACKLIST, masks);
+        Log.d(TAG, "Status registry loaded: " + masks.size() + " keys");
+        return masks;
+    }
+
+    private static void loadTable(SQLiteDatabase db, String table, int bit, Map<String, Integer> masks) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT UPPER(TRIM(device_key)) FROM " + table, null);
+            while (cursor.moveToNext()) {
+                String key = cursor.getString(0);
+                if (key == null || key.isEmpty()) continue;
+                Integer mask = masks.get(key);
+                masks.put(key, (mask == null ? 0 : mask) | bit);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading " + table + ": " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+}
@@ -3,29 +3,55 @@ package com.example.santiway.upload_data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.example.santiway.DeviceListActivity;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 public class UniqueDevicesHelper {
     private static final String TAG = "UniqueDevicesHelper";
     private static final Set<String> TABLES_READY = Collections.synchronizedSet(new HashSet<>());
+    /** Колонки наблюдения, которые переносятся в таблицу уникальных устройств */
+    private static final String[] UPSERT_COLUMNS = {
+            "type", "name", "bssid", "cell_id", "signal_strength", "frequency",
+            "capabilities", "vendor", "lac", "mcc", "mnc",
+            "psc", "pci", "tac", "earfcn", "arfcn", "signal_quality",
+            "network_type", "is_registered", "is_neighbor", "latitude",
+            "longitude", "altitude", "location_accuracy", "status",
+            "is_uploaded", "folder_name"
+    };
+    private static final Map<String, String> UPSERT_SQL = new HashMap<>();
+    private static final Map<String, String> UPDATE_SQL = new HashMap<>();
+    private static final Map<String, String> INSERT_SQL = new HashMap<>();
+    private static volatile Boolean upsertSupported;
     private final String uniqueTableName;
     private final Context context;
+    private final StatementCache statements;
     private boolean tableChecked = false;
 
     public UniqueDevicesHelper(Context context, String uniqueTableName) {
+        this(context, uniqueTableName, null);
+    }
 
+    /**
+     * statements — кэш скомпилированных команд пишущего соединения (путь записи сканера)
+     */
+    UniqueDevicesHelper(Context context, String uniqueTableName, StatementCache statements) {
         this.context = context;
         this.uniqueTableName = uniqueTableName;
+        this.statements = statements;
     }
 
     /**
@@ -77,15 +103,25 @@ public class UniqueDevicesHelper {
                     "total_scans INTEGER DEFAULT 1," +
                     "avg_signal_strength REAL DEFAULT 0," +
                     "last_location_change LONG DEFAULT 0," +
+                    "anomaly_score REAL," +
+                    "anomaly_label INTEGER," +
+                    "anomaly_scored_at LONG DEFAULT 0," +
                     "CHECK (latitude != 0 AND longitude != 0)" +
                     ");";
 
             db.execSQL(createTableQuery);
+            SchemaCatalog.of(db).onTableCreated(db, uniqueTableName);
 
             db.execSQL("CREATE INDEX IF NOT EXISTS \"" + safeIndexBase + "_uid\" ON " + safeTableName + "(unique_identifier)");
             db.execSQL("CREATE INDEX IF NOT EXISTS \"" + safeIndexBase + "_last_seen\" ON " + safeTableName + "(last_seen)");
             db.execSQL("CREATE INDEX IF NOT EXISTS \"" + safeIndexBase + "_type\" ON " + safeTableName + "(type)");
 
+            addAnomalyColumnsIfMissing(db);
+            // Индекс покрывает сортировку страницы аномалий целиком, прежний (label, score) лишний
+            db.execSQL("DROP INDEX IF EXISTS \"" + safeIndexBase + "_anomaly\"");
+            db.execSQL("CREATE INDEX IF NOT EXISTS \"" + safeIndexBase + "_anomaly_page\" ON " + safeTableName + "(anomaly_label, anomaly_score, last_seen)");
+            DeviceSearchIndex.ensure(db, uniqueTableName);
+
             tableChecked = true;
             Log.d(TAG, "Таблица уникальных устройств создана или уже существует: " + uniqueTableName);
         } catch (Exception e) {
@@ -93,6 +129,43 @@ public class UniqueDevicesHelper {
         }
     }
 
+    /**
+     * Схему и поисковый индекс создаёт пишущее соединение: чтение идёт через read-only пул.
+     * После первого вызова для таблицы это только проверка кэшей.
+     */
+    private void ensureTableReady() {
+        if ((tableChecked || TABLES_READY.contains(uniqueTableName)) && DeviceSearchIndex.isKnown(uniqueTableName)) {
+            return;
+        }
+        try {
+            SQLiteDatabase db = MainDatabaseHelper.getInstance(context).getWritableDatabase();
+            createTableIfNeeded(db);
+            DeviceSearchIndex.ensure(db, uniqueTableName);
+        } catch (Exception e) {
+            Log.e(TAG, "Ошибка подготовки таблицы unique: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Таблицы, созданные до появления скоринга, получают колонки аномалий через ALTER TABLE
+     */
+    private void addAnomalyColumnsIfMissing(SQLiteDatabase db) {
+        SchemaCatalog catalog = SchemaCatalog.of(db);
+        String safeTableName = "\"" + uniqueTableName + "\"";
+        if (!catalog.hasColumn(db, uniqueTableName, "anomaly_score")) {
+            db.execSQL("ALTER TABLE " + safeTableName + " ADD COLUMN anomaly_score REAL");
+            catalog.onColumnAdded(db, uniqueTableName, "anomaly_score");
+        }
+        if (!catalog.hasColumn(db, uniqueTableName, "anomaly_label")) {
+            db.execSQL("ALTER TABLE " + safeTableName + " ADD COLUMN anomaly_label INTEGER");
+            catalog.onColumnAdded(db, uniqueTableName, "anomaly_label");
+        }
+        if (!catalog.hasColumn(db, uniqueTableName, "anomaly_scored_at")) {
+            db.execSQL("ALTER TABLE " + safeTableName + " ADD COLUMN anomaly_scored_at LONG DEFAULT 0");
+            catalog.onColumnAdded(db, uniqueTableName, "anomaly_scored_at");
+        }
+    }
+
     /**
      * Обновляет или добавляет устройство в таблицу уникальных устройств
      */
@@ -154,227 +227,413 @@ public class UniqueDevicesHelper {
                 return;
             }
 
-            Cursor cursor = null;
-
-            try {
-                // 2. Ищем устройство по новому unique_identifier
-                cursor = db.query(
-                        "\"" + uniqueTableName + "\"",
-                        new String[]{
-                                "id",
-                                "total_scans",
-                                "avg_signal_strength",
-                                "name",
-                                "latitude",
-                                "longitude",
-                                "bssid",
-                                "cell_id"
-                        },
-                        "UPPER(unique_identifier) = ?",
-                        new String[]{uniqueIdentifier},
-                        null,
-                        null,
-                        null
-                );
-
-                long currentTime = System.currentTimeMillis();
-                ContentValues values = new ContentValues();
-
-                // 3. Копируем исходные поля
-                copyFields(deviceData, values);
-
-                // 4. Явно проставляем ключевые поля
-                values.put("unique_identifier", uniqueIdentifier);
-
-                if (bssid != null && !bssid.isEmpty()) {
-                    values.put("bssid", bssid);
-                }
-
-                if (cellId != null) {
-                    values.put("cell_id", cellId);
+            // 2. Одна команда INSERT ... ON CONFLICT DO UPDATE: счётчик, среднее и last_seen считает SQLite
+            Object[] args = new Object[UPSERT_COLUMNS.length + 2];
+            for (int i = 0; i < UPSERT_COLUMNS.length; i++) {
+                args[i] = deviceData.get(UPSERT_COLUMNS[i]);
+            }
+            if (bssid != null && !bssid.isEmpty()) {
+                args[indexOf("bssid")] = bssid;
+            }
+            if (cellId != null) {
+                args[indexOf("cell_id")] = cellId;
+            }
+            // Если статуса нет — пусть остается GREY как технический дефолт
+            Object status = args[indexOf("status")];
+            if (status == null || status.toString().trim().isEmpty()) {
+                args[indexOf("status")] = "GREY";
+            }
+            args[UPSERT_COLUMNS.length] = uniqueIdentifier;
+            args[UPSERT_COLUMNS.length + 1] = seenAt(deviceData);
+
+            // Без координат строку не вставить (NOT NULL и CHECK проверяются раньше ON CONFLICT),
+            // но известное устройство всё равно получает last_seen и total_scans
+            boolean located = args[indexOf("latitude")] != null && args[indexOf("longitude")] != null;
+            if (located && supportsUpsert(db)) {
+                if (statements != null) {
+                    statements.bind(db, uniqueTableName, upsertSql(uniqueTableName), args).execute();
+                } else {
+                    db.execSQL(upsertSql(uniqueTableName), args);
                 }
-
-                // Если статуса нет — пусть остается GREY как технический дефолт
-                String status = values.getAsString("status");
-                if (status == null || status.trim().isEmpty()) {
-                    values.put("status", "GREY");
+            } else if (statements != null) {
+                // SQLite до 3.24 (Android до 11) не знает UPSERT: то же обновление отдельной командой
+                if (statements.bind(db, uniqueTableName, updateSql(uniqueTableName), args).executeUpdateDelete() == 0) {
+                    if (located) {
+                        statements.bind(db, uniqueTableName, insertSql(uniqueTableName), args).executeInsert();
+                    } else {
+                        Log.d(TAG, "Новое устройство без координат не добавлено: " + uniqueIdentifier);
+                    }
                 }
-
-                if (cursor != null && cursor.moveToFirst()) {
-                    // 5. Устройство уже есть -> обновляем агрегированные поля
-                    int id = cursor.getInt(cursor.getColumnIndexOrThrow("id"));
-                    int totalScans = cursor.getInt(cursor.getColumnIndexOrThrow("total_scans"));
-
-                    Integer oldAvgSignal = null;
-                    int avgSignalIndex = cursor.getColumnIndex("avg_signal_strength");
-                    if (avgSignalIndex >= 0 && !cursor.isNull(avgSignalIndex)) {
-                        oldAvgSignal = cursor.getInt(avgSignalIndex);
+            } else {
+                SQLiteStatement update = db.compileStatement(updateSql(uniqueTableName));
+                try {
+                    for (int i = 0; i < args.length; i++) {
+                        DatabaseUtils.bindObjectToProgram(update, i + 1, args[i]);
                     }
-
-                    Integer newSignal = values.getAsInteger("signal_strength");
-                    if (newSignal != null) {
-                        int updatedAvg;
-                        if (oldAvgSignal != null) {
-                            updatedAvg = (oldAvgSignal * totalScans + newSignal) / (totalScans + 1);
+                    if (update.executeUpdateDelete() == 0) {
+                        if (located) {
+                            db.execSQL(insertSql(uniqueTableName), args);
                         } else {
-                            updatedAvg = newSignal;
+                            Log.d(TAG, "Новое устройство без координат не добавлено: " + uniqueIdentifier);
                         }
-                        values.put("avg_signal_strength", updatedAvg);
                     }
+                } finally {
+                    update.close();
+                }
+            }
 
-                    values.put("total_scans", totalScans + 1);
-                    values.put("last_seen", currentTime);
+        } catch (SQLException e) {
+            // Ошибку записи отдаём наверх: вызывающий откатывает вместе с ней и сырую строку
+            Log.e(TAG, "Ошибка addOrUpdateDevice: " + e.getMessage(), e);
+            throw e;
+        } catch (Exception e) {
+            Log.e(TAG, "Ошибка addOrUpdateDevice: " + e.getMessage(), e);
+        }
+    }
 
-                    // Если имя пустое, сохраняем старое
-                    String currentName = values.getAsString("name");
-                    if (currentName == null || currentName.trim().isEmpty()) {
-                        int nameIndex = cursor.getColumnIndex("name");
-                        if (nameIndex >= 0 && !cursor.isNull(nameIndex)) {
-                            values.put("name", cursor.getString(nameIndex));
-                        }
-                    }
+    /**
+     * Время наблюдения из строки: при импорте архива first_seen/last_seen должны остаться
+     * временем сканирования, а не моментом импорта. Без timestamp — текущее время.
+     */
+    private static long seenAt(ContentValues deviceData) {
+        Long timestamp = deviceData.getAsLong("timestamp");
+        return timestamp != null && timestamp > 0 ? timestamp : System.currentTimeMillis();
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < UPSERT_COLUMNS.length; i++) {
+            if (UPSERT_COLUMNS[i].equals(column)) return i;
+        }
+        throw new IllegalArgumentException(column);
+    }
 
-                    db.update(
-                            "\"" + uniqueTableName + "\"",
-                            values,
-                            "id = ?",
-                            new String[]{String.valueOf(id)}
-                    );
+    private static boolean supportsUpsert(SQLiteDatabase db) {
+        Boolean supported = upsertSupported;
+        if (supported == null) {
+            supported = false;
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery("SELECT sqlite_version()", null);
+                if (cursor.moveToFirst()) {
+                    String[] parts = cursor.getString(0).split("\\.");
+                    int major = Integer.parseInt(parts[0]);
+                    int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+                    supported = major > 3 || (major == 3 && minor >= 24);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Не удалось определить версию SQLite: " + e.getMessage());
+            } finally {
+                if (cursor != null) cursor.close();
+            }
+            upsertSupported = supported;
+        }
+        return supported;
+    }
 
-                } else {
-                    // 6. Новое устройство -> вставляем
-                    values.put("first_seen", currentTime);
-                    values.put("last_seen", currentTime);
+    /*
+     * Параметры команд нумерованные: ?1..?N — колонки UPSERT_COLUMNS, затем unique_identifier
+     * и время наблюдения. Текст команды для таблицы один и тот же, поэтому Android берёт
+     * подготовленную команду из кэша соединения, а не разбирает её заново.
+     */
 
-                    if (values.getAsInteger("total_scans") == null) {
-                        values.put("total_scans", 1);
-                    }
+    private static String upsertSql(String table) {
+        return cachedSql(UPSERT_SQL, table, () -> insertSql(table) +
+                " ON CONFLICT(unique_identifier) DO UPDATE SET " + updateAssignments());
+    }
 
-                    Integer signal = values.getAsInteger("signal_strength");
-                    if (signal != null && values.getAsInteger("avg_signal_strength") == null) {
-                        values.put("avg_signal_strength", signal);
-                    }
+    private static String updateSql(String table) {
+        return cachedSql(UPDATE_SQL, table, () -> "UPDATE \"" + table + "\" SET " + updateAssignments() +
+                " WHERE unique_identifier = ?" + (UPSERT_COLUMNS.length + 1));
+    }
 
-                    db.insert(
-                            "\"" + uniqueTableName + "\"",
-                            null,
-                            values
-                    );
+    private static String insertSql(String table) {
+        return cachedSql(INSERT_SQL, table, () -> {
+            int key = UPSERT_COLUMNS.length + 1;
+            int now = UPSERT_COLUMNS.length + 2;
+            StringBuilder columns = new StringBuilder();
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < UPSERT_COLUMNS.length; i++) {
+                String column = UPSERT_COLUMNS[i];
+                columns.append(column).append(", ");
+                if ("is_uploaded".equals(column)) {
+                    values.append("COALESCE(?").append(i + 1).append(", 0), ");
+                } else if ("folder_name".equals(column)) {
+                    values.append("COALESCE(?").append(i + 1).append(", ''), ");
+                } else {
+                    values.append('?').append(i + 1).append(", ");
                 }
+            }
+            columns.append("unique_identifier, first_seen, last_seen, total_scans, avg_signal_strength");
+            values.append('?').append(key).append(", ?").append(now).append(", ?").append(now)
+                    .append(", 1, ?").append(indexOf("signal_strength") + 1);
+            return "INSERT INTO \"" + table + "\" (" + columns + ") VALUES (" + values + ")";
+        });
+    }
 
-            } finally {
-                if (cursor != null) cursor.close();
+    /**
+     * SET-часть обновления. Выражения видят строку до обновления, поэтому total_scans
+     * в формуле среднего — прежнее число сканов.
+     */
+    private static String updateAssignments() {
+        StringBuilder set = new StringBuilder();
+        for (int i = 0; i < UPSERT_COLUMNS.length; i++) {
+            String column = UPSERT_COLUMNS[i];
+            String value = "?" + (i + 1);
+            if ("name".equals(column)) {
+                // Пустое имя не затирает известное
+                set.append("name = CASE WHEN TRIM(COALESCE(").append(value).append(", '')) = '' ")
+                        .append("THEN COALESCE(name, ").append(value).append(") ELSE ").append(value).append(" END, ");
+            } else {
+                set.append(column).append(" = COALESCE(").append(value).append(", ").append(column).append("), ");
             }
+        }
+        String signal = "?" + (indexOf("signal_strength") + 1);
+        set.append("avg_signal_strength = CASE WHEN ").append(signal).append(" IS NULL THEN avg_signal_strength ")
+                .append("WHEN avg_signal_strength IS NULL THEN ").append(signal).append(' ')
+                .append("ELSE (avg_signal_strength * COALESCE(total_scans, 0) + ").append(signal)
+                .append(") / (COALESCE(total_scans, 0) + 1) END, ");
+        set.append("total_scans = COALESCE(total_scans, 0) + 1, ");
+        // Импорт пишет наблюдения не по порядку времени: границы только расширяются
+        String seen = "?" + (UPSERT_COLUMNS.length + 2);
+        set.append("first_seen = MIN(COALESCE(first_seen, ").append(seen).append("), ").append(seen).append("), ");
+        set.append("last_seen = MAX(COALESCE(last_seen, 0), ").append(seen).append(")");
+        return set.toString();
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Ошибка addOrUpdateDevice: " + e.getMessage(), e);
+    private interface SqlBuilder {
+        String build();
+    }
+
+    private static String cachedSql(Map<String, String> cache, String table, SqlBuilder builder) {
+        synchronized (cache) {
+            String sql = cache.get(table);
+            if (sql == null) {
+                sql = builder.build();
+                cache.put(table, sql);
+            }
+            return sql;
         }
     }
 
     /**
-     * Копирует поля из одного ContentValues в другой
+     * Миграция: приводит unique_identifier к виду trim + upper и схлопывает строки, которые
+     * после этого совпали. Остаётся последняя вставленная строка; счётчик сканов суммируется,
+     * first_seen и last_seen берутся по всей группе. После неё поиск идёт точным сравнением
+     * по UNIQUE-индексу, без UPPER().
      */
-    private void copyFields(ContentValues source, ContentValues destination) {
-        String[] fields = {
-                "type", "name", "bssid", "cell_id", "signal_strength", "frequency",
-                "capabilities", "vendor", "lac", "mcc", "mnc",
-                "psc", "pci", "tac", "earfcn", "arfcn", "signal_quality",
-                "network_type", "is_registered", "is_neighbor", "latitude",
-                "longitude", "altitude", "location_accuracy", "status",
-                "is_uploaded", "folder_name"
-        };
-
-        for (String field : fields) {
-            if (source.containsKey(field)) {
-                Object value = source.get(field);
-                if (value != null) {
-                    if (value instanceof String) {
-                        // Для MAC-адресов приводим к верхнему регистру
-                        if ("bssid".equals(field)) {
-                            destination.put(field, ((String) value).toUpperCase(Locale.US));
-                        } else {
-                            destination.put(field, (String) value);
-                        }
-                    } else if (value instanceof Integer) {
-                        destination.put(field, (Integer) value);
-                    } else if (value instanceof Long) {
-                        destination.put(field, (Long) value);
-                    } else if (value instanceof Double) {
-                        destination.put(field, (Double) value);
-                    } else if (value instanceof Float) {
-                        destination.put(field, (Float) value);
-                    } else if (value instanceof Boolean) {
-                        destination.put(field, (Boolean) value);
-                    }
-                }
-            }
+    static void normalizeIdentifiers(SQLiteDatabase db, String uniqueTableName) {
+        String table = "\"" + uniqueTableName + "\"";
+        String normalized = "UPPER(TRIM(unique_identifier))";
+        db.beginTransaction();
+        try {
+            db.execSQL("DROP TABLE IF EXISTS temp.unique_merge");
+            db.execSQL("CREATE TEMP TABLE unique_merge AS " +
+                    "SELECT " + normalized + " AS uid, MAX(id) AS keep_id, " +
+                    "SUM(COALESCE(total_scans, 1)) AS scans, MIN(first_seen) AS first_seen, " +
+                    "MAX(last_seen) AS last_seen " +
+                    "FROM " + table + " WHERE unique_identifier IS NOT NULL " +
+                    "GROUP BY " + normalized + " HAVING COUNT(*) > 1");
+            db.execSQL("UPDATE " + table + " SET " +
+                    "total_scans = (SELECT scans FROM temp.unique_merge m WHERE m.keep_id = id), " +
+                    "first_seen = (SELECT first_seen FROM temp.unique_merge m WHERE m.keep_id = id), " +
+                    "last_seen = (SELECT last_seen FROM temp.unique_merge m WHERE m.keep_id = id) " +
+                    "WHERE id IN (SELECT keep_id FROM temp.unique_merge)");
+            db.execSQL("DELETE FROM " + table + " WHERE unique_identifier IS NOT NULL " +
+                    "AND " + normalized + " IN (SELECT uid FROM temp.unique_merge) " +
+                    "AND id NOT IN (SELECT keep_id FROM temp.unique_merge)");
+            db.execSQL("UPDATE " + table + " SET unique_identifier = " + normalized + " " +
+                    "WHERE unique_identifier != " + normalized);
+            db.execSQL("DROP TABLE temp.unique_merge");
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Ошибка нормализации unique_identifier в " + uniqueTableName + ": " + e.getMessage(), e);
+        } finally {
+            db.endTransaction();
         }
     }
 
     /**
-     * Получает список всех уникальных устройств для отображения
+     * Получает страницу уникальных устройств для отображения.
+     * pageToken — nextPageToken предыдущей страницы или null для первой.
      */
-    public List<DeviceListActivity.Device> getDevicesPage(int offset, int limit) {
-        return queryDevicesPage(null, offset, limit);
+    public DevicePage getDevicesPage(String pageToken, int limit) {
+        return queryDevicesPage(null, false, pageToken, limit);
+    }
+
+    public DevicePage getDevicesPageWithSearch(String query, String pageToken, int limit) {
+        return queryDevicesPage(query, false, pageToken, limit);
     }
 
-    public List<DeviceListActivity.Device> getDevicesPageWithSearch(String query, int offset, int limit) {
-        return queryDevicesPage(query, offset, limit);
+    /**
+     * Устройства, помеченные моделью как аномальные, от самого аномального к менее аномальному
+     */
+    public DevicePage getAnomalousDevicesPage(String query, String pageToken, int limit) {
+        return queryDevicesPage(query, true, pageToken, limit);
     }
 
-    private List<DeviceListActivity.Device> queryDevicesPage(String query, int offset, int limit) {
+    /**
+     * Keyset-пагинация: вместо OFFSET следующая страница начинается строго после
+     * ключа сортировки (last_seen, id) последней выданной строки. Индекс по last_seen
+     * неявно содержит rowid, поэтому глубина прокрутки не влияет на время запроса.
+     * Поиск идёт по FTS-индексу папки (DeviceSearchIndex); при FTS5 результаты
+     * сначала упорядочены по bm25, и ранг становится частью ключа страницы.
+     */
+    private DevicePage queryDevicesPage(String query, boolean anomaliesOnly, String pageToken, int limit) {
         List<DeviceListActivity.Device> deviceList = new ArrayList<>();
-        MainDatabaseHelper dbHelper = new MainDatabaseHelper(context);
-        SQLiteDatabase db = null;
+        String nextToken = null;
         Cursor cursor = null;
 
-        int safeOffset = Math.max(0, offset);
         int safeLimit = limit <= 0 ? 50 : limit;
+        DevicePage.Key after = DevicePage.decodeToken(pageToken);
 
-        try {
-            db = dbHelper.getReadableDatabase();
-            createTableIfNeeded(db);
+        ensureTableReady();
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(context).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
 
             String normalizedQuery = query == null ? "" : query.trim().toUpperCase(Locale.US);
             boolean hasQuery = !normalizedQuery.isEmpty();
-            String sql = "SELECT type, name, bssid, cell_id, unique_identifier, " +
-                    "latitude, longitude, last_seen, status, total_scans, network_type " +
+            int engine = hasQuery ? DeviceSearchIndex.getEngine(uniqueTableName) : DeviceSearchIndex.ENGINE_NONE;
+            String match = hasQuery ? DeviceSearchIndex.buildMatchQuery(normalizedQuery, engine) : null;
+            String rank = match != null && !anomaliesOnly
+                    ? DeviceSearchIndex.rankExpression(uniqueTableName, engine)
+                    : null;
+            String fts = "\"" + DeviceSearchIndex.ftsTableName(uniqueTableName) + "\"";
+
+            // Колонка первого ключа сортировки: скор аномальности, ранг поиска или только время
+            String scoreColumn = anomaliesOnly ? "anomaly_score" : (rank != null ? "search_rank" : null);
+
+            String sql = "SELECT id, type, name, bssid, cell_id, unique_identifier, " +
+                    "latitude, longitude, last_seen, status, total_scans, network_type, anomaly_score" +
+                    (rank != null ? ", search_rank " : " ") +
                     "FROM \"" + uniqueTableName + "\" ";
 
             List<String> args = new ArrayList<>();
-            if (hasQuery) {
+            List<String> conditions = new ArrayList<>();
+            if (rank != null) {
+                sql += "JOIN (SELECT rowid AS fts_id, " + rank + " AS search_rank FROM " + fts +
+                        " WHERE " + fts + " MATCH ?) ON fts_id = id ";
+                args.add(match);
+            }
+            if (anomaliesOnly) {
+                conditions.add("anomaly_label = -1 AND anomaly_score IS NOT NULL");
+            }
+            if (match != null && rank == null) {
+                conditions.add("id IN (SELECT rowid FROM " + fts + " WHERE " + fts + " MATCH ?)");
+                args.add(match);
+            } else if (hasQuery && match == null) {
+                // FTS недоступен или в запросе нет слов — прежний поиск подстрокой
                 String likeQuery = "%" + normalizedQuery + "%";
-                sql += "WHERE UPPER(COALESCE(name, '')) LIKE ? " +
+                conditions.add("(UPPER(COALESCE(name, '')) LIKE ? " +
                         "   OR UPPER(COALESCE(bssid, '')) LIKE ? " +
                         "   OR UPPER(COALESCE(unique_identifier, '')) LIKE ? " +
                         "   OR CAST(COALESCE(cell_id, '') AS TEXT) LIKE ? " +
-                        "   OR UPPER(COALESCE(network_type, '')) LIKE ? ";
+                        "   OR UPPER(COALESCE(network_type, '')) LIKE ?)");
                 args.add(likeQuery);
                 args.add(likeQuery);
                 args.add(likeQuery);
                 args.add(likeQuery);
                 args.add(likeQuery);
             }
+            if (after != null) {
+                // Лишняя граница last_seen <= ? даёт SQLite начать поиск по индексу с ключа страницы:
+                // одно OR-условие он проверяет на каждой строке индекса от начала, как OFFSET
+                String seenId = "last_seen <= ? AND (last_seen < ? OR (last_seen = ? AND id < ?))";
+                if (scoreColumn != null && !Double.isNaN(after.score)) {
+                    // У ранга bm25 нет affinity колонки, поэтому параметр приводится к REAL явно
+                    conditions.add(scoreColumn + " >= CAST(? AS REAL) AND (" + scoreColumn +
+                            " > CAST(? AS REAL) OR (" + scoreColumn + " = CAST(? AS REAL) AND " + seenId + "))");
+                    args.add(Double.toString(after.score));
+                    args.add(Double.toString(after.score));
+                    args.add(Double.toString(after.score));
+                } else {
+                    conditions.add(seenId);
+                }
+                args.add(String.valueOf(after.time));
+                args.add(String.valueOf(after.time));
+                args.add(String.valueOf(after.time));
+                args.add(String.valueOf(after.id));
+            }
 
-            sql += "ORDER BY last_seen DESC LIMIT ? OFFSET ?";
+            if (!conditions.isEmpty()) {
+                sql += "WHERE " + String.join(" AND ", conditions) + " ";
+            }
+
+            sql += scoreColumn != null
+                    ? "ORDER BY " + scoreColumn + " ASC, last_seen DESC, id DESC LIMIT ?"
+                    : "ORDER BY last_seen DESC, id DESC LIMIT ?";
             args.add(String.valueOf(safeLimit));
-            args.add(String.valueOf(safeOffset));
 
             cursor = db.rawQuery(sql, args.toArray(new String[0]));
 
             if (cursor != null && cursor.moveToFirst()) {
+                int idIndex = cursor.getColumnIndexOrThrow("id");
+                int lastSeenIndex = cursor.getColumnIndexOrThrow("last_seen");
+                int scoreIndex = scoreColumn != null ? cursor.getColumnIndexOrThrow(scoreColumn) : -1;
                 do {
                     deviceList.add(deviceFromCursor(cursor));
                 } while (cursor.moveToNext());
+
+                if (deviceList.size() >= safeLimit) {
+                    cursor.moveToLast();
+                    double score = scoreIndex >= 0 && !cursor.isNull(scoreIndex)
+                            ? cursor.getDouble(scoreIndex)
+                            : Double.NaN;
+                    nextToken = DevicePage.encodeToken(score,
+                            cursor.getLong(lastSeenIndex), cursor.getLong(idIndex));
+                }
             }
         } catch (Exception e) {
             Log.e(TAG, "Error loading unique devices page: " + e.getMessage(), e);
         } finally {
             if (cursor != null) cursor.close();
-            if (db != null && db.isOpen()) db.close();
         }
 
-        return deviceList;
+        return new DevicePage(deviceList, nextToken);
+    }
+
+    /**
+     * Идентификаторы устройств (как в Device.getMac, в верхнем регистре), найденные
+     * поисковым индексом. null — FTS недоступен, вызывающий код фильтрует сам.
+     */
+    public Set<String> findMatchingDeviceIds(String query) {
+        Cursor cursor = null;
+
+        ensureTableReady();
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(context).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
+
+            String match = DeviceSearchIndex.buildMatchQuery(query, DeviceSearchIndex.getEngine(uniqueTableName));
+            if (match == null) return null;
+
+            String fts = "\"" + DeviceSearchIndex.ftsTableName(uniqueTableName) + "\"";
+            cursor = db.rawQuery(
+                    "SELECT type, bssid, cell_id, unique_identifier FROM \"" + uniqueTableName + "\" " +
+                            "WHERE id IN (SELECT rowid FROM " + fts + " WHERE " + fts + " MATCH ?)",
+                    new String[]{match}
+            );
+
+            Set<String> ids = new HashSet<>();
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(0);
+                String mac = cursor.getString(1);
+                String uniqueIdentifier = cursor.getString(3);
+                String id;
+                if ("Cell".equalsIgnoreCase(type)) {
+                    id = (uniqueIdentifier != null && !uniqueIdentifier.trim().isEmpty())
+                            ? uniqueIdentifier
+                            : String.valueOf(cursor.getLong(2));
+                } else {
+                    id = mac == null ? "" : mac;
+                }
+                ids.add(id.trim().toUpperCase(Locale.US));
+            }
+            return ids;
+        } catch (Exception e) {
+            Log.e(TAG, "Error searching unique devices: " + e.getMessage(), e);
+            return null;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
     }
 
     private DeviceListActivity.Device deviceFromCursor(Cursor cursor) {
@@ -403,7 +662,7 @@ public class UniqueDevicesHelper {
         String finalDisplayName = displayName + " [" + totalScans + "]";
         String finalStatus = (status != null && !status.trim().isEmpty()) ? status : "GREY";
 
-        return new DeviceListActivity.Device(
+        DeviceListActivity.Device device = new DeviceListActivity.Device(
                 finalDisplayName,
                 type,
                 "",
@@ -412,17 +671,65 @@ public class UniqueDevicesHelper {
                 finalStatus,
                 lastSeen
         );
+
+        int scoreIndex = cursor.getColumnIndex("anomaly_score");
+        if (scoreIndex >= 0 && !cursor.isNull(scoreIndex)) {
+            device.setAnomalyScore(cursor.getFloat(scoreIndex));
+        }
+        return device;
+    }
+
+    /**
+     * Следующая порция устройств, у которых last_seen изменился с прошлого скоринга.
+     * Обход по id (keyset), чтобы один проход не перечитывал уже обработанные строки.
+     */
+    public Cursor queryChangedForScoring(SQLiteDatabase db, long afterId, int limit) {
+        createTableIfNeeded(db);
+        return db.rawQuery(
+                "SELECT id, type, signal_strength, frequency, location_accuracy, first_seen, last_seen, " +
+                        "total_scans, avg_signal_strength, last_location_change " +
+                        "FROM \"" + uniqueTableName + "\" " +
+                        "WHERE id > ? AND COALESCE(anomaly_scored_at, 0) != COALESCE(last_seen, 0) " +
+                        "ORDER BY id LIMIT ?",
+                new String[]{String.valueOf(afterId), String.valueOf(limit)}
+        );
+    }
+
+    /**
+     * Записывает скоры пачки одной транзакцией. anomaly_scored_at = last_seen на момент чтения,
+     * поэтому устройство снова попадёт в скоринг только после нового наблюдения.
+     */
+    public void saveAnomalyScores(SQLiteDatabase db, long[] ids, long[] lastSeen,
+                                  float[] scores, int[] labels, int count) {
+        if (count <= 0) return;
+
+        SQLiteStatement statement = db.compileStatement(
+                "UPDATE \"" + uniqueTableName + "\" " +
+                        "SET anomaly_score = ?, anomaly_label = ?, anomaly_scored_at = ? WHERE id = ?");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                statement.clearBindings();
+                statement.bindDouble(1, scores[i]);
+                statement.bindLong(2, labels[i]);
+                statement.bindLong(3, lastSeen[i]);
+                statement.bindLong(4, ids[i]);
+                statement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
     }
 
     public List<DeviceListActivity.Device> getAllDevices() {
         List<DeviceListActivity.Device> deviceList = new ArrayList<>();
-        MainDatabaseHelper dbHelper = new MainDatabaseHelper(context);
-        SQLiteDatabase db = null;
         Cursor cursor = null;
 
-        try {
-            db = dbHelper.getReadableDatabase();
-            createTableIfNeeded(db);
+        ensureTableReady();
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(context).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
 
             String sql = "SELECT type, name, bssid, cell_id, unique_identifier, " +
                     "latitude, longitude, last_seen, status, total_scans, network_type " +
@@ -478,7 +785,6 @@ public class UniqueDevicesHelper {
             Log.e(TAG, "Ошибка получения списка устройств: " + e.getMessage(), e);
         } finally {
             if (cursor != null) cursor.close();
-            if (db != null && db.isOpen()) db.close();
         }
 
         return deviceList;
@@ -486,13 +792,11 @@ public class UniqueDevicesHelper {
 
     public List<DeviceListActivity.Device> getAllDevicesWithSearch(String query) {
         List<DeviceListActivity.Device> deviceList = new ArrayList<>();
-        MainDatabaseHelper dbHelper = new MainDatabaseHelper(context);
-        SQLiteDatabase db = null;
         Cursor cursor = null;
 
-        try {
-            db = dbHelper.getReadableDatabase();
-            createTableIfNeeded(db);
+        ensureTableReady();
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(context).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
 
             String normalizedQuery = query == null ? "" : query.trim().toUpperCase(Locale.US);
             String likeQuery = "%" + normalizedQuery + "%";
@@ -558,7 +862,6 @@ public class UniqueDevicesHelper {
             Log.e(TAG, "Ошибка поиска устройств: " + e.getMessage(), e);
         } finally {
             if (cursor != null) cursor.close();
-            if (db != null && db.isOpen()) db.close();
         }
 
         return deviceList;
@@ -568,15 +871,11 @@ public class UniqueDevicesHelper {
      * Получает статистику по конкретному устройству
      */
     public DeviceStats getDeviceStats(String identifier) {
-        MainDatabaseHelper dbHelper = new MainDatabaseHelper(context);
-        SQLiteDatabase db = null;
         Cursor cursor = null;
 
-        try {
-            db = dbHelper.getReadableDatabase();
-
-            // Убеждаемся, что таблица существует
-            createTableIfNeeded(db);
+        ensureTableReady();
+        try (ReadConnectionPool.Lease lease = ReadConnectionPool.getInstance(context).acquire()) {
+            SQLiteDatabase db = lease.getDatabase();
 
             String uniqueIdentifier = identifier == null ? "" : identifier.trim().toUpperCase(Locale.US);
 
@@ -605,7 +904,6 @@ public class UniqueDevicesHelper {
             Log.e(TAG, "Ошибка получения статистики: " + e.getMessage());
         } finally {
             if (cursor != null) cursor.close();
-            if (db != null && db.isOpen()) db.close();
         }
         return null;
     }
@@ -614,20 +912,16 @@ public class UniqueDevicesHelper {
      * Удаляет все записи из таблицы уникальных устройств
      */
     public void clearAllDevices() {
-        MainDatabaseHelper dbHelper = new MainDatabaseHelper(context);
-        SQLiteDatabase db = null;
         try {
-            db = dbHelper.getWritableDatabase();
+            SQLiteDatabase db = MainDatabaseHelper.getInstance(context).getWritableDatabase();
 
             // Убеждаемся, что таблица существует
             createTableIfNeeded(db);
 
-            db.delete(uniqueTableName, null, null);
+            db.delete("\"" + uniqueTableName + "\"", null, null);
             Log.d(TAG, "Все уникальные устройства удалены");
         } catch (Exception e) {
             Log.e(TAG, "Ошибка очистки таблицы: " + e.getMessage());
-        } finally {
-            if (db != null && db.isOpen()) db.close();
         }
     }
 
@@ -0,0 +1,79 @@
+package com.example.santiway.upload_data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Учёт подтверждений при нескольких пачках в полёте. Пачки одной папки занимают соседние
+ * диапазоны id (from; to], но сервер может ответить на них в любом порядке. Водяной знак
+ * папки сдвигается только по непрерывному началу подтверждённых диапазонов: пачка, на которую
+ * ответ пришёл раньше предыдущей, ждёт её, а неудачная пачка держит знак до следующей выгрузки.
+ */
+final class UploadAckTracker {
+
+    /** Диапазон id одной папки в пачке: от водяного знака (не включая) до последнего прочитанного id */
+    static final class Range {
+        final long fromExclusive;
+        final long toInclusive;
+
+        Range(long fromExclusive, long toInclusive) {
+            this.fromExclusive = fromExclusive;
+            this.toInclusive = toInclusive;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + fromExclusive + ";" + toInclusive + "]";
+        }
+    }
+
+    private static final class Segment {
+        final long toInclusive;
+        boolean acknowledged;
+
+        Segment(long toInclusive) {
+            this.toInclusive = toInclusive;
+        }
+    }
+
+    private final Map<String, TreeMap<Long, Segment>> pending = new HashMap<>();
+
+    /**
+     * Регистрирует диапазоны пачки до её отправки. Пачки регистрируются в порядке чтения.
+     */
+    synchronized void register(Map<String, Range> ranges) {
+        for (Map.Entry<String, Range> entry : ranges.entrySet()) {
+            TreeMap<Long, Segment> segments = pending.get(entry.getKey());
+            if (segments == null) {
+                segments = new TreeMap<>();
+                pending.put(entry.getKey(), segments);
+            }
+            segments.put(entry.getValue().fromExclusive, new Segment(entry.getValue().toInclusive));
+        }
+    }
+
+    /**
+     * Отмечает пачку подтверждённой. Возвращает новые водяные знаки папок, у которых
+     * непрерывное начало подтверждённых диапазонов стало длиннее; остальные папки не попадают.
+     */
+    synchronized Map<String, Long> acknowledge(Map<String, Range> ranges) {
+        Map<String, Long> advanced = new HashMap<>();
+        for (Map.Entry<String, Range> entry : ranges.entrySet()) {
+            TreeMap<Long, Segment> segments = pending.get(entry.getKey());
+            if (segments == null) continue;
+            Segment segment = segments.get(entry.getValue().fromExclusive);
+            if (segment == null) continue;
+            segment.acknowledged = true;
+
+            Long watermark = null;
+            while (!segments.isEmpty() && segments.firstEntry().getValue().acknowledged) {
+                watermark = segments.pollFirstEntry().getValue().toInclusive;
+            }
+            if (watermark != null) {
+                advanced.put(entry.getKey(), watermark);
+            }
+        }
+        return advanced;
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.santiway.upload_data;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Размер пачки выгрузки, подстраиваемый по измерениям запросов (AIMD с целевой задержкой):
+ * успешный запрос быстрее TARGET_LATENCY_MS увеличивает пачку на ADDITIVE_STEP, более медленный
+ * уменьшает её пропорционально превышению, ошибка — вдвое. Сверху размер ограничен объёмом тела
+ * MAX_BODY_BYTES по среднему размеру записи. Для каждого типа сети свой профиль, профили
+ * переживают перезапуск приложения: после переключения с Wi-Fi на 2G выгрузка сразу берёт
+ * размер, уже найденный для 2G.
+ *
+ * Состояние профилей хранит Store: на устройстве — SharedPreferences, в JVM-тестах — память.
+ */
+public final class UploadBatchSizer {
+    private static final String TAG = "UploadBatchSizer";
+    private static final String PREFS_NAME = "UploadBatchProfiles";
+
+    static final int MIN_BATCH_SIZE = 10;
+    static final int MAX_BATCH_SIZE = 1000;
+    static final int ADDITIVE_STEP = 20;
+    static final long TARGET_LATENCY_MS = 4000;
+    static final long MAX_BODY_BYTES = 512 * 1024;
+    /** Выше этой доли ошибок пачка не растёт, даже если запросы быстрые */
+    private static final double MAX_GROWTH_FAILURE_RATE = 0.2;
+    /** Вес нового измерения в скользящих средних */
+    private static final double EWMA_WEIGHT = 0.2;
+    /** Downstream-оценка ниже этого порога на сотовой сети без READ_PHONE_STATE считается 2G/3G */
+    private static final int SLOW_CELLULAR_KBPS = 2000;
+
+    public enum NetworkProfile {
+        WIFI("Wi-Fi", 200),
+        LTE("LTE/5G", 100),
+        SLOW("2G/3G", 25);
+
+        public final String label;
+        final int initialBatchSize;
+
+        NetworkProfile(String label, int initialBatchSize) {
+            this.label = label;
+            this.initialBatchSize = initialBatchSize;
+        }
+    }
+
+    /** Ключ-значение профилей; put записывает все значения одним изменением */
+    interface Store {
+        boolean contains(String key);
+
+        int getInt(String key, int defaultValue);
+
+        float getFloat(String key, float defaultValue);
+
+        void put(Map<String, Number> values);
+    }
+
+    private static final class PreferencesStore implements Store {
+        private final SharedPreferences prefs;
+
+        PreferencesStore(SharedPreferences prefs) {
+            this.prefs = prefs;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return prefs.contains(key);
+        }
+
+        @Override
+        public int getInt(String key, int defaultValue) {
+            return prefs.getInt(key, defaultValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defaultValue) {
+            return prefs.getFloat(key, defaultValue);
+        }
+
+        @Override
+        public void put(Map<String, Number> values) {
+            SharedPreferences.Editor editor = prefs.edit();
+            for (Map.Entry<String, Number> value : values.entrySet()) {
+                if (value.getValue() instanceof Integer) {
+                    editor.putInt(value.getKey(), value.getValue().intValue());
+                } else {
+                    editor.putFloat(value.getKey(), value.getValue().floatValue());
+                }
+            }
+            editor.apply();
+        }
+    }
+
+    private static UploadBatchSizer instance;
+
+    private final Context appContext;
+    private final Store store;
+
+    private UploadBatchSizer(Context context) {
+        this(context.getApplicationContext(), new PreferencesStore(
+                context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)));
+    }
+
+    /**
+     * appContext нужен только currentNetwork(); расчёт размера пачки обходится одним store.
+     */
+    UploadBatchSizer(Context appContext, Store store) {
+        this.appContext = appContext;
+        this.store = store;
+    }
+
+    public static synchronized UploadBatchSizer getInstance(Context context) {
+        if (instance == null) {
+            instance = new UploadBatchSizer(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Профиль текущей сети. Сотовая сеть различается по типу радиоканала, а без разрешения
+     * READ_PHONE_STATE — по оценке пропускной способности канала.
+     */
+    public NetworkProfile currentNetwork() {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm == null) return NetworkProfile.LTE;
+            Network network = cm.getActiveNetwork();
+            NetworkCapabilities caps = network != null ? cm.getNetworkCapabilities(network) : null;
+            if (caps == null) return NetworkProfile.LTE;
+
+            if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)
+                    || caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+                return NetworkProfile.WIFI;
+            }
+            if (!caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+                return NetworkProfile.LTE;
+            }
+
+            if (ContextCompat.checkSelfPermission(appContext, Manifest.permission.READ_PHONE_STATE)
+                    == PackageManager.PERMISSION_GRANTED) {
+                TelephonyManager tm = (TelephonyManager) appContext.getSystemService(Context.TELEPHONY_SERVICE);
+                if (tm != null) {
+                    return profileForRadio(tm.getDataNetworkType());
+                }
+            }
+            return caps.getLinkDownstreamBandwidthKbps() < SLOW_CELLULAR_KBPS
+                    ? NetworkProfile.SLOW : NetworkProfile.LTE;
+        } catch (Exception e) {
+            Log.e(TAG, "Error detecting network type: " + e.getMessage());
+            return NetworkProfile.LTE;
+        }
+    }
+
+    private static NetworkProfile profileForRadio(int networkType) {
+        switch (networkType) {
+            case TelephonyManager.NETWORK_TYPE_LTE:
+            case TelephonyManager.NETWORK_TYPE_IWLAN:
+            case TelephonyManager.NETWORK_TYPE_UNKNOWN:
+                return NetworkProfile.LTE;
+            default:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q &&
+                        networkType == TelephonyManager.NETWORK_TYPE_NR) {
+                    return NetworkProfile.LTE;
+                }
+                return NetworkProfile.SLOW;
+        }
+    }
+
+    public synchronized int batchSize(NetworkProfile profile) {
+        return store.getInt(key(profile, "batch_size"), profile.initialBatchSize);
+    }
+
+    /**
+     * Успешный запрос: devices записей, bytes байт тела, latencyMs от отправки до ответа.
+     */
+    synchronized void recordSuccess(NetworkProfile profile, int devices, long bytes, long latencyMs) {
+        if (devices <= 0) return;
+        latencyMs = Math.max(1, latencyMs);
+
+        int size = batchSize(profile);
+        double latency = ewma(profile, "latency_ms", latencyMs);
+        double bytesPerDevice = ewma(profile, "bytes_per_device", (double) bytes / devices);
+        double throughput = ewma(profile, "devices_per_sec", devices * 1000.0 / latencyMs);
+        double failureRate = ewma(profile, "failure_rate", 0.0);
+
+        if (latencyMs > TARGET_LATENCY_MS) {
+            size = (int) (size * Math.max(0.5, (double) TARGET_LATENCY_MS / latencyMs));
+        } else if (devices * 2 >= size && failureRate < MAX_GROWTH_FAILURE_RATE) {
+            // Растём только на заполненных пачках: короткий хвост очереди ничего не говорит о канале
+            size += ADDITIVE_STEP;
+        }
+        int bodyLimit = (int) Math.min(MAX_BATCH_SIZE, MAX_BODY_BYTES / Math.max(1.0, bytesPerDevice));
+        size = clamp(size, bodyLimit);
+
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put(key(profile, "batch_size"), size);
+        values.put(key(profile, "latency_ms"), (float) latency);
+        values.put(key(profile, "bytes_per_device"), (float) bytesPerDevice);
+        values.put(key(profile, "devices_per_sec"), (float) throughput);
+        values.put(key(profile, "failure_rate"), (float) failureRate);
+        store.put(values);
+        Log.d(TAG, profile.label + ": " + devices + " devices in " + latencyMs + " ms, next batch " + size);
+    }
+
+    /**
+     * Неудачная попытка (ошибка сети или ответ не 2xx): пачка уменьшается вдвое.
+     */
+    synchronized void recordFailure(NetworkProfile profile) {
+        int size = clamp(batchSize(profile) / 2, MAX_BATCH_SIZE);
+        double failureRate = ewma(profile, "failure_rate", 1.0);
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put(key(profile, "batch_size"), size);
+        values.put(key(profile, "failure_rate"), (float) failureRate);
+        store.put(values);
+        Log.d(TAG, profile.label + ": upload attempt failed, next batch " + size);
+    }
+
+    public synchronized Stats getStats(NetworkProfile profile) {
+        return new Stats(profile, batchSize(profile),
+                store.getFloat(key(profile, "latency_ms"), 0f),
+                store.getFloat(key(profile, "devices_per_sec"), 0f),
+                store.getFloat(key(profile, "failure_rate"), 0f));
+    }
+
+    public static final class Stats {
+        public final NetworkProfile profile;
+        public final int batchSize;
+        public final double latencyMs;
+        public final double devicesPerSecond;
+        public final double failureRate;
+
+        Stats(NetworkProfile profile, int batchSize, double latencyMs,
+              double devicesPerSecond, double failureRate) {
+            this.profile = profile;
+            this.batchSize = batchSize;
+            this.latencyMs = latencyMs;
+            this.devicesPerSecond = devicesPerSecond;
+            this.failureRate = failureRate;
+        }
+    }
+
+    private double ewma(NetworkProfile profile, String name, double sample) {
+        String key = key(profile, name);
+        if (!store.contains(key)) return sample;
+        return store.getFloat(key, 0f) * (1 - EWMA_WEIGHT) + sample * EWMA_WEIGHT;
+    }
+
+    private static int clamp(int size, int upper) {
+        return Math.max(MIN_BATCH_SIZE, Math.min(Math.max(MIN_BATCH_SIZE, upper), size));
+    }
+
+    private static String key(NetworkProfile profile, String name) {
+        return profile.name().toLowerCase(Locale.US) + "_" + name;
+    }
+}
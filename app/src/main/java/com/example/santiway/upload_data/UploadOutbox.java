@@ -0,0 +1,245 @@
+package com.example.santiway.upload_data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Водяные знаки выгрузки: для каждой папки — id, до которого включительно все наблюдения
+ * уже на сервере. id строк папки растут монотонно через горячую таблицу и все партиции
+ * (RawPartitions.continueSequence), поэтому выгрузка читает диапазоны "id > watermark" по
+ * первичному ключу, а подтверждение сервера сдвигает одну строку upload_outbox вместо
+ * UPDATE is_uploaded по каждому наблюдению.
+ *
+ * Папка без строки в outbox получает водяной знак по флагам is_uploaded (catchUp): так
+ * подхватываются данные, выгруженные до появления outbox, и импортированные папки.
+ *
+ * Строка, исправленная после чтения (триангуляция уточняет недавнее наблюдение), попадает
+ * в список DIRTY_TABLE: водяной знак её уже мог перешагнуть, поэтому выгрузка читает этот
+ * список отдельно. revision растёт при каждом исправлении — подтверждение старой версии
+ * не снимает с очереди новую.
+ */
+final class UploadOutbox {
+    private static final String TAG = "UploadOutbox";
+
+    static final String TABLE = "upload_outbox";
+    static final String DIRTY_TABLE = "upload_outbox_dirty";
+
+    /** Исправленная строка папки, ожидающая повторной выгрузки */
+    static final class DirtyRow {
+        final String folderName;
+        final long rowId;
+        final long revision;
+
+        DirtyRow(String folderName, long rowId, long revision) {
+            this.folderName = folderName;
+            this.rowId = rowId;
+            this.revision = revision;
+        }
+    }
+
+    private UploadOutbox() {
+    }
+
+    static void ensureTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+                "folder_name TEXT PRIMARY KEY," +
+                "watermark INTEGER NOT NULL," +
+                "updated_at INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + DIRTY_TABLE + " (" +
+                "folder_name TEXT NOT NULL," +
+                "row_id INTEGER NOT NULL," +
+                "revision INTEGER NOT NULL," +
+                "PRIMARY KEY (folder_name, row_id))");
+    }
+
+    /**
+     * Водяные знаки всех папок одним запросом.
+     */
+    static Map<String, Long> watermarks(SQLiteDatabase db) {
+        Map<String, Long> result = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT folder_name, watermark FROM " + TABLE, null);
+            while (cursor.moveToNext()) {
+                result.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } catch (Exception e) {
+            // Таблица появляется с версией БД 15; до миграции считаем, что знаков нет
+            Log.d(TAG, "No upload outbox: " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return result;
+    }
+
+    /**
+     * Сдвигает водяной знак папки вперёд; назад он не двигается.
+     */
+    static void advance(SQLiteDatabase db, String folderName, long watermark) {
+        ContentValues values = new ContentValues();
+        values.put("folder_name", folderName);
+        values.put("watermark", watermark);
+        values.put("updated_at", System.currentTimeMillis());
+        db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        db.execSQL("UPDATE " + TABLE + " SET watermark = ?, updated_at = ? " +
+                        "WHERE folder_name = ? AND watermark < ?",
+                new Object[]{watermark, System.currentTimeMillis(), folderName, watermark});
+    }
+
+    /**
+     * Подтягивает водяной знак к первой строке папки, ещё не помеченной is_uploaded,
+     * а если таких нет — к последнему id. Таблицы идут от старых партиций к горячей,
+     * каждая просматривается по первичному ключу от текущего знака. Вызывать в транзакции
+     * пишущего соединения: между поиском и записью знака не должно появиться новых строк.
+     */
+    static long catchUp(SQLiteDatabase db, String folderName) {
+        Long stored = watermarks(db).get(folderName);
+        long watermark = stored != null ? stored : 0L;
+
+        List<String> tables = RawPartitions.tables(db, folderName);
+        Collections.reverse(tables);
+
+        Long firstPending = null;
+        long maxId = watermark;
+        for (String table : tables) {
+            // "+" отключает индекс (is_uploaded, timestamp): нужен обход по id от водяного знака
+            Long pending = queryLong(db, "SELECT id FROM \"" + table + "\" " +
+                    "WHERE id > ? AND +is_uploaded = 0 ORDER BY id LIMIT 1", watermark);
+            if (pending != null) {
+                firstPending = pending;
+                break;
+            }
+            Long tableMax = queryLong(db, "SELECT MAX(id) FROM \"" + table + "\"", null);
+            if (tableMax != null) maxId = Math.max(maxId, tableMax);
+        }
+
+        long next = firstPending != null ? firstPending - 1 : maxId;
+        advance(db, folderName, Math.max(watermark, next));
+        return Math.max(watermark, next);
+    }
+
+    /**
+     * Строка папки изменилась и должна уйти на сервер ещё раз. Вызывать в транзакции,
+     * которая её меняет. revision — время изменения, но всегда больше предыдущего.
+     */
+    static void markDirty(SQLiteDatabase db, String folderName, long rowId) {
+        db.execSQL("INSERT OR REPLACE INTO " + DIRTY_TABLE + "(folder_name, row_id, revision) " +
+                        "VALUES (?1, ?2, MAX(?3, COALESCE((SELECT revision + 1 FROM " + DIRTY_TABLE +
+                        " WHERE folder_name = ?1 AND row_id = ?2), 0)))",
+                new Object[]{folderName, rowId, System.currentTimeMillis()});
+    }
+
+    /**
+     * Исправленные строки папки с id не выше upTo, по возрастанию id, не больше limit.
+     * Строки выше upTo выгрузка ещё прочитает обычным порядком — уже с исправлением.
+     */
+    static List<DirtyRow> dirtyRows(SQLiteDatabase db, String folderName, long upTo, int limit) {
+        List<DirtyRow> rows = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT row_id, revision FROM " + DIRTY_TABLE + " " +
+                            "WHERE folder_name = ? AND row_id <= ? ORDER BY row_id LIMIT ?",
+                    new String[]{folderName, String.valueOf(upTo), String.valueOf(limit)});
+            while (cursor.moveToNext()) {
+                rows.add(new DirtyRow(folderName, cursor.getLong(0), cursor.getLong(1)));
+            }
+        } catch (Exception e) {
+            Log.d(TAG, "No dirty upload rows: " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return rows;
+    }
+
+    static int dirtyCount(SQLiteDatabase db, String folderName, long upTo) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT COUNT(*) FROM " + DIRTY_TABLE + " WHERE folder_name = ? AND row_id <= ?",
+                    new String[]{folderName, String.valueOf(upTo)});
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } catch (Exception e) {
+            Log.d(TAG, "No dirty upload rows: " + e.getMessage());
+            return 0;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    /**
+     * Сервер принял версию row.revision: более позднее исправление остаётся в очереди.
+     */
+    static void clearDirty(SQLiteDatabase db, DirtyRow row) {
+        db.execSQL("DELETE FROM " + DIRTY_TABLE + " WHERE folder_name = ? AND row_id = ? AND revision <= ?",
+                new Object[]{row.folderName, row.rowId, row.revision});
+    }
+
+    /**
+     * Исправления строк, удалённых по сроку хранения: revision — время исправления, а оно
+     * не раньше времени наблюдения.
+     */
+    static void pruneDirty(SQLiteDatabase db, long cutoffTime) {
+        db.execSQL("DELETE FROM " + DIRTY_TABLE + " WHERE revision < ?", new Object[]{cutoffTime});
+    }
+
+    /**
+     * Папка очищена: исправлять на сервере больше нечего, водяной знак остаётся.
+     */
+    static void dropDirty(SQLiteDatabase db, String folderName) {
+        db.execSQL("DELETE FROM " + DIRTY_TABLE + " WHERE folder_name = ?", new Object[]{folderName});
+    }
+
+    /**
+     * Перед выгрузкой по флагам строки ниже водяного знака помечаются is_uploaded, кроме
+     * исправленных: иначе режим совместимости отправил бы заново всё, что уже подтверждено
+     * по водяному знаку. После первого прохода таких строк почти нет — индекс (is_uploaded, ...)
+     * отдаёт только неотправленные.
+     */
+    static void syncUploadFlags(SQLiteDatabase db, String folderName) {
+        Long watermark = watermarks(db).get(folderName);
+        if (watermark == null) return;
+        for (String table : RawPartitions.tables(db, folderName)) {
+            db.execSQL("UPDATE \"" + table + "\" SET is_uploaded = 1 " +
+                            "WHERE is_uploaded = 0 AND id <= ? AND id NOT IN " +
+                            "(SELECT row_id FROM " + DIRTY_TABLE + " WHERE folder_name = ?)",
+                    new Object[]{watermark, folderName});
+        }
+    }
+
+    static void rename(SQLiteDatabase db, String oldFolder, String newFolder) {
+        db.execSQL("DELETE FROM " + TABLE + " WHERE folder_name = ?", new Object[]{newFolder});
+        db.execSQL("UPDATE " + TABLE + " SET folder_name = ? WHERE folder_name = ?",
+                new Object[]{newFolder, oldFolder});
+        db.execSQL("DELETE FROM " + DIRTY_TABLE + " WHERE folder_name = ?", new Object[]{newFolder});
+        db.execSQL("UPDATE " + DIRTY_TABLE + " SET folder_name = ? WHERE folder_name = ?",
+                new Object[]{newFolder, oldFolder});
+    }
+
+    /**
+     * После удаления папки id новой папки с тем же именем начнутся заново — знак сбрасывается.
+     */
+    static void drop(SQLiteDatabase db, String folderName) {
+        db.execSQL("DELETE FROM " + TABLE + " WHERE folder_name = ?", new Object[]{folderName});
+        dropDirty(db, folderName);
+    }
+
+    private static Long queryLong(SQLiteDatabase db, String sql, Long arg) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, arg != null ? new String[]{String.valueOf(arg)} : null);
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+            return null;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+}
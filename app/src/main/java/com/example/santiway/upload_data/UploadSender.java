@@ -0,0 +1,150 @@
+package com.example.santiway.upload_data;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Асинхронная отправка пачек выгрузки через диспетчер OkHttp. Неудачная попытка планируется
+ * заново на общем планировщике с удвоением паузы; ни один поток при этом не спит.
+ * Двоичное тело, отклонённое с 415, сразу уходит в JSON той же попыткой.
+ * Что делать с ответом (Accept-Post, замеры UploadBatchSizer, сборка JSON) решает Listener.
+ */
+final class UploadSender {
+    private static final String TAG = "UploadSender";
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+
+    interface Listener {
+        /** Любой ответ сервера на выгрузку, до разбора кода */
+        void onResponse(Response response);
+
+        /** Сервер отклонил двоичное тело: та же пачка в JSON или null, если собрать не удалось */
+        BatchRequest onBinaryRejected(BatchRequest rejected);
+
+        /** Итог одной попытки */
+        void onAttempt(BatchRequest upload, boolean success, long latencyMs);
+    }
+
+    /** Журнал отправки: на устройстве — android.util.Log, в JVM-тестах — запись в список */
+    interface Logger {
+        Logger ANDROID = (priority, message) -> Log.println(priority, TAG, message);
+
+        void log(int priority, String message);
+    }
+
+    interface BatchCallback {
+        void onBatchFinished(boolean success);
+    }
+
+    /** Готовый запрос пачки и то, что нужно UploadBatchSizer для замера и откату на JSON */
+    static final class BatchRequest {
+        final Request request;
+        final List<DeviceUploadManager.PendingUpload> items;
+        final int count;
+        final long bytes;
+        final boolean binary;
+        final UploadBatchSizer.NetworkProfile network;
+
+        BatchRequest(Request request, List<DeviceUploadManager.PendingUpload> items, long bytes, boolean binary,
+                     UploadBatchSizer.NetworkProfile network) {
+            this.request = request;
+            this.items = items;
+            this.count = items.size();
+            this.bytes = bytes;
+            this.binary = binary;
+            this.network = network;
+        }
+    }
+
+    private final OkHttpClient client;
+    private final ScheduledExecutorService scheduler;
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final Listener listener;
+    private final Logger logger;
+
+    UploadSender(OkHttpClient client, ScheduledExecutorService scheduler, int maxAttempts,
+                 long initialBackoffMs, Listener listener) {
+        this(client, scheduler, maxAttempts, initialBackoffMs, listener, Logger.ANDROID);
+    }
+
+    UploadSender(OkHttpClient client, ScheduledExecutorService scheduler, int maxAttempts,
+                 long initialBackoffMs, Listener listener, Logger logger) {
+        this.client = client;
+        this.scheduler = scheduler;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.listener = listener;
+        this.logger = logger;
+    }
+
+    /**
+     * Отправляет пачку; callback вызывается один раз — после успеха или последней неудачной попытки.
+     */
+    void send(BatchRequest upload, BatchCallback callback) {
+        sendWithRetry(upload, 1, initialBackoffMs, callback);
+    }
+
+    private void sendWithRetry(BatchRequest upload, int attempt, long backoff, BatchCallback callback) {
+        logger.log(Log.DEBUG, "Upload attempt " + attempt + " (" + upload.count + " devices)");
+        final long startedAt = System.nanoTime();
+        client.newCall(upload.request).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    logger.log(Log.DEBUG, "Response code: " + r.code());
+                    listener.onResponse(r);
+                    if (upload.binary && r.code() == HTTP_UNSUPPORTED_MEDIA_TYPE) {
+                        // Сервер перестал понимать двоичную кодировку: та же пачка сразу уходит в JSON
+                        logger.log(Log.WARN, "Binary upload rejected - falling back to JSON");
+                        BatchRequest json = listener.onBinaryRejected(upload);
+                        if (json != null) {
+                            sendWithRetry(json, attempt, backoff, callback);
+                            return;
+                        }
+                    }
+                    if (r.isSuccessful()) {
+                        logger.log(Log.INFO, "✅ SUCCESS: Uploaded " + upload.count + " devices");
+                        listener.onAttempt(upload, true,
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+                        callback.onBatchFinished(true);
+                        return;
+                    }
+                    String responseBody = r.body() != null ? r.body().string() : "null";
+                    logger.log(Log.ERROR, "❌ Upload failed with code: " + r.code() + ", body: " + responseBody);
+                } catch (Exception e) {
+                    logger.log(Log.ERROR, "Error reading upload response: " + e.getMessage());
+                }
+                retryOrFail(upload, attempt, backoff, startedAt, callback);
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                logger.log(Log.ERROR, "Upload error (attempt " + attempt + "): " + e.getMessage());
+                retryOrFail(upload, attempt, backoff, startedAt, callback);
+            }
+        });
+    }
+
+    private void retryOrFail(BatchRequest upload, int attempt, long backoff, long startedAt,
+                             BatchCallback callback) {
+        listener.onAttempt(upload, false, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        if (attempt >= maxAttempts) {
+            logger.log(Log.ERROR, "❌ Failed to upload after " + maxAttempts + " attempts");
+            callback.onBatchFinished(false);
+            return;
+        }
+        scheduler.schedule(
+                () -> sendWithRetry(upload, attempt + 1, backoff * 2, callback),
+                backoff, TimeUnit.MILLISECONDS);
+    }
+}
@@ -10,7 +10,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.database.sqlite.SQLiteDatabase;
 import android.location.Location;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
@@ -27,7 +26,7 @@ import androidx.core.app.NotificationCompat;
 import com.example.santiway.LocaleHelper;
 import com.example.santiway.R;
 import com.example.santiway.gsm_protocol.LocationManager;
-import com.example.santiway.upload_data.MainDatabaseHelper;
+import com.example.santiway.upload_data.DeviceIngestQueue;
 
 import java.util.HashSet;
 import java.util.List;
@@ -38,7 +37,7 @@ public class WifiForegroundService extends Service {
     private static final String CHANNEL_ID = "wifi_scanner_channel";
     private static final int NOTIFICATION_ID = 1001;
 
-    private MainDatabaseHelper databaseHelper;
+    private DeviceIngestQueue ingestQueue;
     private WifiManager wifiManager;
     private BroadcastReceiver wifiScanReceiver;
     private Handler handler;
@@ -59,7 +58,7 @@ public class WifiForegroundService extends Service {
 
         wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
         handler = new Handler(Looper.getMainLooper());
-        databaseHelper = new MainDatabaseHelper(this);
+        ingestQueue = DeviceIngestQueue.getInstance(this);
 
         // Получаем экземпляр LocationManager
         locationManager = LocationManager.getInstance(this);
@@ -267,11 +266,7 @@ public class WifiForegroundService extends Service {
         double altitude = locationManager.getAltitude();
         float accuracy = locationManager.getAccuracy();
 
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
-        boolean ownsTransaction = !db.inTransaction();
-        try {
-            if (ownsTransaction) db.beginTransaction();
-            for (ScanResult result : scanResults) {
+        for (ScanResult result : scanResults) {
             // Фильтруем по силе сигнала
             if (result.level < minSignalStrength) {
                 filteredCount++;
@@ -291,10 +286,6 @@ public class WifiForegroundService extends Service {
                     savedCount++;
                 }
             }
-            }
-            if (ownsTransaction) db.setTransactionSuccessful();
-        } finally {
-            if (ownsTransaction && db.inTransaction()) db.endTransaction();
         }
 
         Log.d(TAG, "Saved " + savedCount + " networks to table: " + currentTableName +
@@ -323,14 +314,12 @@ public class WifiForegroundService extends Service {
             device.setLocationAccuracy(accuracy);
             device.setTimestamp(System.currentTimeMillis());
 
-            long resultId = databaseHelper.addWifiDevice(device, currentTableName);
-
-            if (resultId != -1) {
-                Log.d(TAG, "✓ Saved: " + device.getSsid() + " (" + device.getBssid() +
+            if (ingestQueue.enqueueWifi(device, currentTableName)) {
+                Log.d(TAG, "✓ Queued: " + device.getSsid() + " (" + device.getBssid() +
                         ") at [" + latitude + ", " + longitude + "]");
                 return true;
             } else {
-                Log.w(TAG, "✗ Failed to save: " + device.getSsid());
+                Log.w(TAG, "✗ Failed to queue: " + device.getSsid());
                 return false;
             }
         } catch (Exception e) {
@@ -436,11 +425,6 @@ public class WifiForegroundService extends Service {
         }
         processedInCurrentScan = new HashSet<>();
 
-        // Close database
-        if (databaseHelper != null) {
-            databaseHelper.close();
-        }
-
         Log.d(TAG, "Service cleanup completed");
     }
 
@@ -0,0 +1,181 @@
+package com.example.santiway.anomaly_scoring;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+
+/**
+ * Java-обёртка над anomaly.onnx (порт AnomalyOnnx.predictBatch из android-ML-anomaly-detector).
+ * В отличие от оригинала принимает уже упакованный плоский буфер признаков и пишет
+ * результаты в переданные массивы, чтобы пакетный скоринг не создавал мусор на каждой строке.
+ * Порядок признаков берётся из метаданных модели (AnomalyFeatureSpec), а не задаётся в коде.
+ */
+public class OnnxAnomalyScorer implements AutoCloseable {
+    private static final String TAG = "OnnxAnomalyScorer";
+    static final String MODEL_ASSET = "anomaly.onnx";
+    static final String METADATA_ASSET = "models/metadata.json.gz";
+
+    private final OrtEnvironment env;
+    private final OrtSession session;
+    private final String inputName;
+    private final AnomalyFeatureSpec featureSpec;
+    private final int featureCount;
+
+    private OnnxAnomalyScorer(OrtEnvironment env, OrtSession session, String inputName,
+                              AnomalyFeatureSpec featureSpec) {
+        this.env = env;
+        this.session = session;
+        this.inputName = inputName;
+        this.featureSpec = featureSpec;
+        this.featureCount = featureSpec.width();
+    }
+
+    /**
+     * Загружает модель и её метаданные из assets. Возвращает null, если модели нет, она не читается
+     * или её вход не описан признаками, которые умеет считать приложение, — в этом случае
+     * стадия скоринга просто пропускается.
+     */
+    public static OnnxAnomalyScorer open(Context context) {
+        byte[] model;
+        try (InputStream in = context.getAssets().open(MODEL_ASSET)) {
+            model = readAll(in);
+        } catch (Exception e) {
+            Log.w(TAG, "Anomaly model unavailable: " + e.getMessage());
+            return null;
+        }
+        if (model.length == 0) {
+            Log.w(TAG, "Model asset is empty: " + MODEL_ASSET);
+            return null;
+        }
+
+        try (Reader metadata = new InputStreamReader(new GZIPInputStream(new BufferedInputStream(
+                context.getAssets().open(METADATA_ASSET))), StandardCharsets.UTF_8)) {
+            OnnxAnomalyScorer scorer = create(model, metadata);
+            Log.d(TAG, "ONNX loaded: input=" + scorer.inputName + ", features=" + scorer.featureCount +
+                    ", outputs=" + scorer.session.getOutputNames());
+            return scorer;
+        } catch (Exception e) {
+            Log.w(TAG, "Anomaly model input spec unavailable (" + METADATA_ASSET + "): " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Сессия над байтами модели с порядком признаков из metadata. Без Android — для JVM-тестов.
+     */
+    static OnnxAnomalyScorer create(byte[] model, Reader metadata) throws Exception {
+        OrtEnvironment env = OrtEnvironment.getEnvironment();
+        OrtSession session = env.createSession(model, new OrtSession.SessionOptions());
+        try {
+            String inputName = session.getInputNames().iterator().next();
+            int modelWidth = resolveFeatureCount(session.getInputInfo().get(inputName));
+            return new OnnxAnomalyScorer(env, session, inputName, AnomalyFeatureSpec.parse(metadata, modelWidth));
+        } catch (Exception e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    AnomalyFeatureSpec getFeatureSpec() {
+        return featureSpec;
+    }
+
+    /**
+     * Скорит rows строк из features (row-major, featureCount значений на строку).
+     * Меньший скор — более аномальное устройство; label == -1 означает аномалию.
+     */
+    public void scoreBatch(float[] features, int rows, float[] outScores, int[] outLabels) throws Exception {
+        if (rows <= 0) return;
+
+        long[] shape = new long[]{rows, featureCount};
+        FloatBuffer buffer = FloatBuffer.wrap(features, 0, rows * featureCount);
+
+        try (OnnxTensor input = OnnxTensor.createTensor(env, buffer, shape);
+             OrtSession.Result result = session.run(Collections.singletonMap(inputName, input))) {
+            boolean hasScores = false;
+            boolean hasLabels = false;
+
+            for (Map.Entry<String, OnnxValue> entry : result) {
+                Object value = entry.getValue().getValue();
+                if (value instanceof long[]) {
+                    long[] labels = (long[]) value;
+                    for (int i = 0; i < rows && i < labels.length; i++) outLabels[i] = (int) labels[i];
+                    hasLabels = true;
+                } else if (value instanceof float[]) {
+                    System.arraycopy((float[]) value, 0, outScores, 0, Math.min(rows, ((float[]) value).length));
+                    hasScores = true;
+                } else if (value instanceof float[][]) {
+                    float[][] matrix = (float[][]) value;
+                    for (int i = 0; i < rows && i < matrix.length; i++) {
+                        outScores[i] = matrix[i].length > 0 ? matrix[i][0] : 0f;
+                    }
+                    hasScores = true;
+                } else if (value instanceof long[][]) {
+                    long[][] matrix = (long[][]) value;
+                    for (int i = 0; i < rows && i < matrix.length; i++) {
+                        outLabels[i] = matrix[i].length > 0 ? (int) matrix[i][0] : 1;
+                    }
+                    hasLabels = true;
+                }
+            }
+
+            // Значения по умолчанию как в AnomalyOnnx: норма и нулевой скор
+            if (!hasScores) Arrays.fill(outScores, 0, rows, 0f);
+            if (!hasLabels) Arrays.fill(outLabels, 0, rows, 1);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            session.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Error closing ONNX session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ширина входа [batch, features] из сессии; 0, если она не задана в модели.
+     */
+    private static int resolveFeatureCount(NodeInfo info) {
+        if (info != null && info.getInfo() instanceof TensorInfo) {
+            long[] shape = ((TensorInfo) info.getInfo()).getShape();
+            if (shape.length == 2 && shape[1] > 0) {
+                return (int) shape[1];
+            }
+        }
+        return 0;
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[16 * 1024];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
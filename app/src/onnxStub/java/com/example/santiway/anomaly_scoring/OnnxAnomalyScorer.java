@@ -0,0 +1,42 @@
+package com.example.santiway.anomaly_scoring;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Заглушка для сборки без ONNX Runtime (santiway.anomalyScoring=false): тот же API, что у
+ * src/onnx, но модели нет никогда — open() возвращает null, и стадия скоринга пропускается.
+ */
+public class OnnxAnomalyScorer implements AutoCloseable {
+    static final String MODEL_ASSET = "anomaly.onnx";
+    static final String METADATA_ASSET = "models/metadata.json.gz";
+
+    private OnnxAnomalyScorer() {
+    }
+
+    public static OnnxAnomalyScorer open(Context context) {
+        return null;
+    }
+
+    static OnnxAnomalyScorer create(byte[] model, Reader metadata) throws Exception {
+        throw new IOException("ONNX Runtime is not bundled in this build");
+    }
+
+    public int getFeatureCount() {
+        return 0;
+    }
+
+    AnomalyFeatureSpec getFeatureSpec() {
+        return null;
+    }
+
+    public void scoreBatch(float[] features, int rows, float[] outScores, int[] outLabels) throws Exception {
+        throw new IOException("ONNX Runtime is not bundled in this build");
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.santiway.anomaly_scoring;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Порядок признаков берётся из метаданных модели и сверяется с шириной её входа.
+ */
+public class AnomalyFeatureSpecTest {
+
+    @Test
+    public void fillsFeaturesInModelOrder() throws IOException {
+        AnomalyFeatureSpec spec = parse(
+                "{\"n_features\": 3, \"feature_names\": [\"signal_strength\", \"IS_WIFI\", \"log_total_scans\"]}", 3);
+
+        float[] known = new float[AnomalyFeatureSpec.KNOWN_COUNT];
+        known[AnomalyFeatureSpec.SIGNAL_STRENGTH] = -70f;
+        known[AnomalyFeatureSpec.IS_WIFI] = 1f;
+        known[AnomalyFeatureSpec.LOG_TOTAL_SCANS] = 2.5f;
+        known[AnomalyFeatureSpec.FREQUENCY] = 2412f;
+
+        float[] buffer = new float[7];
+        spec.fill(known, buffer, 2);
+
+        assertEquals(3, spec.width());
+        assertEquals("is_wifi", spec.name(1));
+        assertArrayEquals(new float[]{0f, 0f, -70f, 1f, 2.5f, 0f, 0f}, buffer, 0f);
+    }
+
+    @Test
+    public void dynamicModelWidthUsesMetadata() throws IOException {
+        AnomalyFeatureSpec spec = parse("{\"feature_names\": [\"frequency_ghz\", \"is_cell\"]}", 0);
+        assertEquals(2, spec.width());
+    }
+
+    @Test
+    public void rejectsModelWidthMismatch() {
+        assertRejected("{\"feature_names\": [\"is_wifi\", \"is_cell\"]}", 10);
+    }
+
+    @Test
+    public void rejectsDeclaredCountMismatch() {
+        assertRejected("{\"n_features\": 10, \"feature_names\": [\"is_wifi\"]}", 0);
+    }
+
+    @Test
+    public void rejectsUnknownFeature() {
+        assertRejected("{\"feature_names\": [\"is_wifi\", \"rssi_variance\"]}", 2);
+    }
+
+    @Test
+    public void rejectsMetadataWithoutNames() {
+        assertRejected("{\"n_features\": 10, \"severity_thresholds\": {}}", 10);
+        assertRejected("", 10);
+        assertRejected("[1, 2", 10);
+    }
+
+    private static AnomalyFeatureSpec parse(String json, int modelWidth) throws IOException {
+        return AnomalyFeatureSpec.parse(new StringReader(json), modelWidth);
+    }
+
+    private static void assertRejected(String json, int modelWidth) {
+        try {
+            parse(json, modelWidth);
+            fail("Expected rejected metadata: " + json);
+        } catch (IOException expected) {
+            // ожидаемо
+        }
+    }
+}
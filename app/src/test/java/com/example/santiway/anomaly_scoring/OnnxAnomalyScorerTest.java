@@ -0,0 +1,96 @@
+package com.example.santiway.anomaly_scoring;
+
+import com.example.santiway.BuildConfig;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * JVM-стенд: прогоняет anomaly.onnx из assets приложения на синтетических устройствах через
+ * настольную сборку onnxruntime и печатает пропускную способность в устройствах/с.
+ * Без santiway.anomalyScoring=true и модели в assets тест пропускается.
+ */
+public class OnnxAnomalyScorerTest {
+    private static final File ASSETS = new File("src/main/assets");
+    private static final int DEVICES = 20_000;
+    private static final int BATCH_SIZE = 256;
+
+    @Test
+    public void scoresSyntheticDevicesInBatches() throws Exception {
+        assumeTrue("anomaly scoring is disabled in this build", BuildConfig.ANOMALY_SCORING);
+        File modelFile = new File(ASSETS, OnnxAnomalyScorer.MODEL_ASSET);
+        File metadataFile = new File(ASSETS, OnnxAnomalyScorer.METADATA_ASSET);
+        assumeTrue("no anomaly.onnx in app assets", modelFile.isFile() && modelFile.length() > 0);
+        assumeTrue("no model metadata in app assets", metadataFile.isFile() && metadataFile.length() > 0);
+
+        byte[] model = Files.readAllBytes(modelFile.toPath());
+        try (Reader metadata = new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(metadataFile)), StandardCharsets.UTF_8);
+             OnnxAnomalyScorer scorer = OnnxAnomalyScorer.create(model, metadata)) {
+            AnomalyFeatureSpec spec = scorer.getFeatureSpec();
+            int width = scorer.getFeatureCount();
+
+            float[] known = new float[AnomalyFeatureSpec.KNOWN_COUNT];
+            float[] features = new float[BATCH_SIZE * width];
+            float[] scores = new float[BATCH_SIZE];
+            int[] labels = new int[BATCH_SIZE];
+            Random random = new Random(5);
+
+            long startedAt = System.nanoTime();
+            int anomalies = 0;
+            for (int scored = 0; scored < DEVICES; ) {
+                int rows = Math.min(BATCH_SIZE, DEVICES - scored);
+                for (int row = 0; row < rows; row++) {
+                    syntheticDevice(random, known);
+                    spec.fill(known, features, row * width);
+                }
+                scorer.scoreBatch(features, rows, scores, labels);
+                for (int row = 0; row < rows; row++) {
+                    assertTrue("score is not finite", Float.isFinite(scores[row]));
+                    assertTrue("unexpected label " + labels[row], labels[row] == 1 || labels[row] == -1);
+                    if (labels[row] == -1) anomalies++;
+                }
+                scored += rows;
+            }
+            double seconds = (System.nanoTime() - startedAt) / 1e9;
+            System.out.println(String.format(Locale.US,
+                    "Scored %d synthetic devices (%d features, batch %d) in %.2f s: %.0f devices/sec, %d anomalies",
+                    DEVICES, width, BATCH_SIZE, seconds, DEVICES / seconds, anomalies));
+        }
+    }
+
+    private static void syntheticDevice(Random random, float[] known) {
+        int kind = random.nextInt(3);
+        int scans = 1 + random.nextInt(500);
+        double lifetimeHours = random.nextDouble() * 72;
+        double sinceMoveHours = random.nextDouble() * lifetimeHours;
+        int frequency = kind == 0 ? (random.nextBoolean() ? 2412 : 5180) : 0;
+
+        known[AnomalyFeatureSpec.IS_WIFI] = kind == 0 ? 1f : 0f;
+        known[AnomalyFeatureSpec.IS_BLUETOOTH] = kind == 1 ? 1f : 0f;
+        known[AnomalyFeatureSpec.IS_CELL] = kind == 2 ? 1f : 0f;
+        known[AnomalyFeatureSpec.TOTAL_SCANS] = scans;
+        known[AnomalyFeatureSpec.LOG_TOTAL_SCANS] = (float) Math.log1p(scans);
+        known[AnomalyFeatureSpec.AVG_SIGNAL_STRENGTH] = -40f - random.nextInt(60);
+        known[AnomalyFeatureSpec.SIGNAL_STRENGTH] = -40f - random.nextInt(60);
+        known[AnomalyFeatureSpec.LIFETIME_HOURS] = (float) lifetimeHours;
+        known[AnomalyFeatureSpec.LOG_LIFETIME_HOURS] = (float) Math.log1p(lifetimeHours);
+        known[AnomalyFeatureSpec.HOURS_SINCE_MOVE] = (float) sinceMoveHours;
+        known[AnomalyFeatureSpec.LOG_HOURS_SINCE_MOVE] = (float) Math.log1p(sinceMoveHours);
+        known[AnomalyFeatureSpec.LOCATION_ACCURACY] = 3f + random.nextFloat() * 40f;
+        known[AnomalyFeatureSpec.FREQUENCY] = frequency;
+        known[AnomalyFeatureSpec.FREQUENCY_GHZ] = frequency / 1000f;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.santiway.movement_detector;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Гистерезис типа движения по устройству: переживает простой и снимок сессий.
+ */
+public class MovementAnomalyDetectorTest {
+    private static final String MAC = "AA:BB:CC:DD:EE:FF";
+    private static final long START = 1_700_000_000_000L;
+    private static final long MINUTE_MS = 60_000L;
+    /** Около 1 км по широте за минуту — 60 км/ч */
+    private static final double DRIVING_STEP = 0.009;
+
+    @Test
+    public void movementTypeSurvivesIdleReset() {
+        MovementAnomalyDetector detector = new MovementAnomalyDetector(100);
+        long time = drive(detector, 55.0, START, 6);
+        assertEquals(MovementType.DRIVING, detector.getMovementType(MAC));
+
+        // Простой дольше 15 минут начинает новую сессию, но тип движения MAC остаётся
+        time += 30 * MINUTE_MS;
+        assertNull(detector.processObservation(MAC, 56.0, 37.0, 5f, time));
+        assertEquals(MovementType.DRIVING, detector.getMovementType(MAC));
+
+        // Скорость 20 км/ч между порогами 18 и 22 не переключает тип обратно в WALKING
+        double latitude = 56.0;
+        for (int i = 0; i < 5; i++) {
+            time += MINUTE_MS;
+            latitude += 0.003;
+            detector.processObservation(MAC, latitude, 37.0, 5f, time);
+        }
+        assertEquals(MovementType.DRIVING, detector.getMovementType(MAC));
+    }
+
+    @Test
+    public void drivingSessionAlertsOnDrivingThreshold() {
+        MovementAnomalyDetector detector = new MovementAnomalyDetector(100);
+        MovementAnomalyDetector.AnomalyResult result = null;
+        double latitude = 55.0;
+        long time = START;
+        detector.processObservation(MAC, latitude, 37.0, 5f, time);
+        for (int i = 0; i < 15 && result == null; i++) {
+            time += MINUTE_MS;
+            latitude += DRIVING_STEP;
+            result = detector.processObservation(MAC, latitude, 37.0, 5f, time);
+        }
+        assertNotNull(result);
+        assertEquals(MovementType.DRIVING, result.movementType);
+    }
+
+    @Test
+    public void snapshotKeepsMovementTypes() throws IOException {
+        MovementAnomalyDetector detector = new MovementAnomalyDetector(100);
+        drive(detector, 55.0, START, 6);
+        detector.evictIdle(START + 24 * 60 * MINUTE_MS);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        detector.writeSnapshot(new DataOutputStream(bytes));
+        MovementAnomalyDetector restored = new MovementAnomalyDetector(100);
+        restored.readSnapshot(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(0, restored.getSessionCount());
+        assertEquals(MovementType.DRIVING, restored.getMovementType(MAC));
+    }
+
+    @Test
+    public void readsFirstSnapshotVersion() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(1);
+        out.writeInt(1);
+        out.writeUTF(MAC);
+        out.writeLong(START);
+        out.writeDouble(55.0);
+        out.writeDouble(37.0);
+        out.writeLong(START);
+        out.writeDouble(0.0);
+        out.writeInt(0);
+        out.writeInt(0);
+        for (int i = 0; i < 5; i++) {
+            out.writeDouble(0.0);
+        }
+        out.writeInt(MovementType.DRIVING.ordinal());
+        out.writeBoolean(false);
+
+        MovementAnomalyDetector detector = new MovementAnomalyDetector(100);
+        detector.readSnapshot(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(1, detector.getSessionCount());
+        assertEquals(MovementType.DRIVING, detector.getMovementType(MAC));
+    }
+
+    private static long drive(MovementAnomalyDetector detector, double latitude, long time, int steps) {
+        detector.processObservation(MAC, latitude, 37.0, 5f, time);
+        for (int i = 0; i < steps; i++) {
+            time += MINUTE_MS;
+            latitude += DRIVING_STEP;
+            detector.processObservation(MAC, latitude, 37.0, 5f, time);
+        }
+        return time;
+    }
+}
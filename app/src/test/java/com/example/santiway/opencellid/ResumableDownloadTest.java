@@ -0,0 +1,262 @@
+package com.example.santiway.opencellid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Докачка против локального HTTP-сервера: первый ответ обрывается на середине,
+ * следующая попытка должна прийти с Range + If-Range и склеить файл из .part и остатка.
+ * Сервер — голый сокет, а не com.sun.net.httpserver: только так соединение можно
+ * действительно оборвать посреди тела, как это делает мобильная сеть.
+ */
+public class ResumableDownloadTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private ServerSocket server;
+    private Thread acceptor;
+    private String url;
+    private File partial;
+    private MemoryCheckpoint checkpoint;
+
+    // Состояние «файла на сервере» и журнал запросов
+    private volatile byte[] body;
+    private volatile String etag;
+    private volatile int truncateAt = -1;
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> ifRanges = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        body = payload(64 * 1024);
+        etag = "\"v1\"";
+        server = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::serve, "resumable-download-test");
+        acceptor.start();
+        url = "http://127.0.0.1:" + server.getLocalPort() + "/cells.csv";
+        partial = temp.newFile("cells.part");
+        partial.delete();
+        checkpoint = new MemoryCheckpoint();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        acceptor.join(5000);
+    }
+
+    @Test
+    public void resumesAfterTruncatedResponse() throws IOException {
+        truncateAt = 20000;
+        try (ResumableDownload download = new ResumableDownload(url, partial, checkpoint)) {
+            readAll(download.open());
+            fail("Truncated response must fail");
+        } catch (IOException expected) {
+            // обрыв соединения
+        }
+        assertEquals(20000, partial.length());
+        assertEquals(etag, checkpoint.validator);
+
+        truncateAt = -1;
+        byte[] result;
+        long resumedFrom;
+        try (ResumableDownload download = new ResumableDownload(url, partial, checkpoint)) {
+            result = readAll(download.open());
+            resumedFrom = download.resumedFrom();
+            download.complete();
+        }
+
+        assertEquals(20000, resumedFrom);
+        assertArrayEquals(body, result);
+        assertEquals("bytes=20000-", ranges.get(1));
+        assertEquals("\"v1\"", ifRanges.get(1));
+        assertFalse(partial.exists());
+        assertNull(checkpoint.url);
+    }
+
+    @Test
+    public void restartsWhenFileChangedOnServer() throws IOException {
+        truncateAt = 20000;
+        try (ResumableDownload download = new ResumableDownload(url, partial, checkpoint)) {
+            readAll(download.open());
+            fail("Truncated response must fail");
+        } catch (IOException expected) {
+            // обрыв соединения
+        }
+
+        truncateAt = -1;
+        body = payload(50 * 1024);
+        body[0] = 'X';
+        etag = "\"v2\"";
+        byte[] result;
+        long resumedFrom;
+        try (ResumableDownload download = new ResumableDownload(url, partial, checkpoint)) {
+            result = readAll(download.open());
+            resumedFrom = download.resumedFrom();
+        }
+
+        // If-Range не совпал: сервер отдал новый файл целиком, старый хвост не подклеен
+        assertEquals(0, resumedFrom);
+        assertArrayEquals(body, result);
+        assertEquals("\"v1\"", ifRanges.get(1));
+        assertEquals("\"v2\"", checkpoint.validator);
+        assertEquals(body.length, partial.length());
+    }
+
+    @Test
+    public void reusesCompletePartialOn416() throws IOException {
+        try (ResumableDownload download = new ResumableDownload(url, partial, checkpoint)) {
+            readAll(download.open());
+            // процесс убит до complete(): .part целый, контрольная точка осталась
+        }
+        assertEquals(body.length, partial.length());
+
+        byte[] result;
+        try (ResumableDownload download = new ResumableDownload(url, partial, checkpoint)) {
+            result = readAll(download.open());
+            download.complete();
+        }
+
+        assertEquals("bytes=" + body.length + "-", ranges.get(1));
+        assertArrayEquals(body, result);
+    }
+
+    @Test
+    public void otherUrlStartsFromScratch() throws IOException {
+        checkpoint.save(url + "?old", "\"v1\"");
+        java.nio.file.Files.write(partial.toPath(), new byte[]{1, 2, 3});
+
+        byte[] result;
+        try (ResumableDownload download = new ResumableDownload(url, partial, checkpoint)) {
+            result = readAll(download.open());
+        }
+
+        assertNull(ranges.get(0));
+        assertArrayEquals(body, result);
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                handle(socket);
+            } catch (IOException ignored) {
+                // сокет закрыт в tearDown или клиент ушёл сам
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+        String range = null;
+        String ifRange = null;
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("range")) range = value;
+            if (name.equals("if-range")) ifRange = value;
+        }
+        ranges.add(range);
+        ifRanges.add(ifRange);
+
+        byte[] content = body;
+        OutputStream out = socket.getOutputStream();
+        int from = 0;
+        String status = "200 OK";
+        String extra = "";
+        if (range != null && etag.equals(ifRange)) {
+            from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            if (from >= content.length) {
+                out.write(("HTTP/1.1 416 Range Not Satisfiable\r\nETag: " + etag
+                        + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                return;
+            }
+            status = "206 Partial Content";
+            extra = "Content-Range: bytes " + from + "-" + (content.length - 1) + "/" + content.length + "\r\n";
+        }
+
+        int length = content.length - from;
+        out.write(("HTTP/1.1 " + status + "\r\nETag: " + etag + "\r\n" + extra
+                + "Content-Length: " + length + "\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        // Обрыв посреди тела: сокет закрывается, не дописав Content-Length
+        int limit = truncateAt >= 0 ? Math.min(length, truncateAt) : length;
+        out.write(content, from, limit);
+        out.flush();
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] payload(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+
+    private static final class MemoryCheckpoint implements ResumableDownload.Checkpoint {
+        String url;
+        String validator;
+
+        @Override
+        public String url() {
+            return url;
+        }
+
+        @Override
+        public String validator() {
+            return validator;
+        }
+
+        @Override
+        public void save(String url, String validator) {
+            this.url = url;
+            this.validator = validator;
+        }
+
+        @Override
+        public void clear() {
+            url = null;
+            validator = null;
+        }
+    }
+}
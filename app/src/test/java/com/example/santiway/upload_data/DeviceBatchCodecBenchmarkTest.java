@@ -0,0 +1,115 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import okio.Buffer;
+
+/**
+ * JVM-стенд: размер пачки в JSON и в двоичной кодировке (с gzip и без) и скорость
+ * кодирования и разбора на синтетическом обходе — 40 устройств, к которым возвращаются
+ * на ходу. Печатает байты и строки/с; проверяет только, что двоичная пачка меньше JSON.
+ */
+public class DeviceBatchCodecBenchmarkTest {
+    private static final String API_KEY = "bench-api-key-0123456789abcdef";
+    private static final String PHONE_MAC = "02:00:00:00:00:00";
+    private static final String INSTALL_ID = "android-bench";
+    private static final int DEVICES = 40;
+    private static final int[] BATCH_SIZES = {100, 500};
+    private static final int ITERATIONS = 200;
+
+    @Test
+    public void binaryBatchIsSmallerThanJson() throws IOException {
+        for (int size : BATCH_SIZES) {
+            List<DeviceUploadManager.PendingUpload> items = walk(size, new Random(size));
+            long json = DeviceUploadBody.create(items, API_KEY, PHONE_MAC, INSTALL_ID, false).contentLength();
+            long jsonGzip = DeviceUploadBody.create(items, API_KEY, PHONE_MAC, INSTALL_ID, true).contentLength();
+            long binary = DeviceUploadBody.createBinary(items, API_KEY, PHONE_MAC, INSTALL_ID, false).contentLength();
+            long binaryGzip = DeviceUploadBody.createBinary(items, API_KEY, PHONE_MAC, INSTALL_ID, true).contentLength();
+
+            System.out.println(String.format(Locale.US,
+                    "%d rows: JSON %.1f KB, JSON+gzip %.1f KB, binary %.1f KB, binary+gzip %.1f KB",
+                    size, json / 1024.0, jsonGzip / 1024.0, binary / 1024.0, binaryGzip / 1024.0));
+            assertTrue(binary < json);
+            assertTrue(binaryGzip < jsonGzip);
+        }
+    }
+
+    @Test
+    public void encodeAndDecodeThroughput() throws IOException {
+        List<DeviceUploadManager.PendingUpload> items = walk(500, new Random(7));
+        // Прогрев JIT, чтобы первая кодировка не платила за компиляцию
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            DeviceUploadBody.create(items, API_KEY, PHONE_MAC, INSTALL_ID, false);
+            DeviceUploadBody.createBinary(items, API_KEY, PHONE_MAC, INSTALL_ID, false);
+        }
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            DeviceUploadBody.create(items, API_KEY, PHONE_MAC, INSTALL_ID, false);
+        }
+        double jsonSeconds = (System.nanoTime() - startedAt) / 1e9;
+
+        startedAt = System.nanoTime();
+        Buffer encoded = new Buffer();
+        for (int i = 0; i < ITERATIONS; i++) {
+            encoded.clear();
+            DeviceUploadBody.createBinary(items, API_KEY, PHONE_MAC, INSTALL_ID, false).writeTo(encoded);
+        }
+        double binarySeconds = (System.nanoTime() - startedAt) / 1e9;
+
+        byte[] payload = encoded.readByteArray();
+        int decodedRows = 0;
+        startedAt = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            decodedRows += DeviceBatchDecoder.decode(new Buffer().write(payload)).size();
+        }
+        double decodeSeconds = (System.nanoTime() - startedAt) / 1e9;
+
+        long rows = (long) items.size() * ITERATIONS;
+        assertEquals(rows, decodedRows);
+        System.out.println(String.format(Locale.US,
+                "Encode JSON %.0f rows/s, encode binary %.0f rows/s, decode binary %.0f rows/s",
+                rows / jsonSeconds, rows / binarySeconds, rows / decodeSeconds));
+    }
+
+    /**
+     * Обход пешком: устройства повторяются, координаты и время меняются понемногу.
+     */
+    private static List<DeviceUploadManager.PendingUpload> walk(int rows, Random random) {
+        SimpleDateFormat isoFormat = DeviceBatchCodec.isoFormat();
+        long seconds = 1718000000L;
+        double lat = 55.7512345;
+        double lon = 37.6112345;
+        List<DeviceUploadManager.PendingUpload> items = new ArrayList<>(rows);
+        for (int id = 1; id <= rows; id++) {
+            int device = random.nextInt(DEVICES);
+            seconds += random.nextInt(3);
+            lat += (random.nextDouble() - 0.5) * 2e-5;
+            lon += (random.nextDouble() - 0.5) * 2e-5;
+
+            ApiDevice apiDevice = new ApiDevice();
+            apiDevice.setDevice_id(String.format(Locale.US, "AA:BB:CC:DD:EE:%02X", device));
+            apiDevice.setDevice_name("net-" + device);
+            apiDevice.setNetwork_type(device % 4 == 0 ? "Bluetooth" : "Wi-Fi");
+            apiDevice.setSignal_strength(-40 - random.nextInt(50));
+            apiDevice.setLatitude(lat);
+            apiDevice.setLongitude(lon);
+            apiDevice.setDetected_at(isoFormat.format(new Date(seconds * 1000)));
+            apiDevice.setFolder_name("Main");
+            apiDevice.setSystem_folder_name("Main");
+            items.add(new DeviceUploadManager.PendingUpload(id, "Main", "Main", apiDevice));
+        }
+        return items;
+    }
+}
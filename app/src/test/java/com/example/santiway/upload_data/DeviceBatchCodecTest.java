@@ -0,0 +1,138 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import okio.Buffer;
+
+/**
+ * encode → decode: двоичная пачка разбирается в тот же массив, что JSON-тело той же пачки.
+ * Координаты совпадают с точностью до округления к 1e-7 градуса.
+ */
+public class DeviceBatchCodecTest {
+    private static final String API_KEY = "test-key";
+    private static final String PHONE_MAC = "02:00:00:00:00:00";
+    private static final String INSTALL_ID = "android-test";
+    private static final double COORDINATE_TOLERANCE = 0.5 / DeviceBatchCodec.COORDINATE_SCALE + 1e-12;
+
+    @Test
+    public void nullFieldsRoundTrip() throws IOException {
+        List<DeviceUploadManager.PendingUpload> items = new ArrayList<>();
+        items.add(item(1, "Main", "AA:BB:CC:00:00:01", -50, 55.75, 37.61, "2024-06-10T06:13:20Z"));
+        // Пустая строка: ни одного необязательного поля, папка ключа — из имени таблицы
+        items.add(new DeviceUploadManager.PendingUpload(2, "Main_20240610", null, new ApiDevice()));
+        items.add(item(3, "Main", "AA:BB:CC:00:00:03", null, null, 37.62, null));
+        items.add(item(4, "Main", null, -60, 55.76, null, "2024-06-10T06:13:25Z"));
+
+        assertRoundTrip(items, API_KEY, PHONE_MAC);
+        assertRoundTrip(items, API_KEY, null);
+    }
+
+    @Test
+    public void rawDetectedAtRoundTrip() throws IOException {
+        List<DeviceUploadManager.PendingUpload> items = Arrays.asList(
+                item(1, "Main", "AA", -50, 55.75, 37.61, "2024-06-10T06:13:20Z"),
+                // Формат не воспроизведёт эти строки байт в байт — они уходят как есть
+                item(2, "Main", "BB", -51, 55.75, 37.61, "2024-06-10 06:13:21"),
+                item(3, "Main", "CC", -52, 55.75, 37.61, "2024-06-10T06:13:22.500Z"),
+                item(4, "Main", "DD", -53, 55.75, 37.61, "не время"),
+                // Дельта секунд продолжается от последней разобранной строки, а не от сырой
+                item(5, "Main", "EE", -54, 55.75, 37.61, "2024-06-10T06:13:30Z"));
+
+        JsonArray decoded = assertRoundTrip(items, API_KEY, PHONE_MAC);
+        assertEquals("2024-06-10 06:13:21", decoded.get(1).getAsJsonObject().get("detected_at").getAsString());
+        assertEquals("2024-06-10T06:13:30Z", decoded.get(4).getAsJsonObject().get("detected_at").getAsString());
+    }
+
+    @Test
+    public void negativeDeltasRoundTrip() throws IOException {
+        List<DeviceUploadManager.PendingUpload> items = new ArrayList<>();
+        // Исправленные строки идут до диапазона: id и время убывают, координаты переходят через ноль
+        items.add(corrected(item(900, "Main", "AA", 5, 0.0000001, -0.0000001, "2024-06-10T06:13:20Z"), 1718000000000L));
+        items.add(corrected(item(12, "Walk", "BB", -90, -33.8688197, 151.2092955, "2024-06-09T23:59:59Z"), 1718000000001L));
+        items.add(item(13, "Walk", "CC", -91, -33.8688198, -179.9999999, "1970-01-01T00:00:00Z"));
+        items.add(item(901, "Main", "AA", -40, 89.9999999, 179.9999999, "2024-06-10T06:13:21Z"));
+        items.add(item(902, "Main", "BB", 0, -89.9999999, 0.0, "2024-06-10T06:13:19Z"));
+
+        JsonArray decoded = assertRoundTrip(items, API_KEY, PHONE_MAC);
+        assertEquals(items.get(1).idempotencyKey(INSTALL_ID),
+                decoded.get(1).getAsJsonObject().get("idempotency_key").getAsString());
+    }
+
+    @Test
+    public void rejectsForeignPayload() {
+        Buffer garbage = new Buffer().writeUtf8("[{\"device_id\":\"AA\"}]");
+        try {
+            DeviceBatchDecoder.decode(garbage);
+            fail("JSON body decoded as a device batch");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("Not a device batch"));
+        }
+    }
+
+    /**
+     * Сравнивает разобранную двоичную пачку с JSON-телом тех же строк и возвращает разобранную.
+     */
+    private static JsonArray assertRoundTrip(List<DeviceUploadManager.PendingUpload> items,
+                                             String apiKey, String phoneMac) throws IOException {
+        Buffer binary = new Buffer();
+        DeviceUploadBody.createBinary(items, apiKey, phoneMac, INSTALL_ID, false).writeTo(binary);
+        JsonArray decoded = DeviceBatchDecoder.decode(binary);
+        assertTrue("trailing bytes after the last row", binary.exhausted());
+
+        Buffer json = new Buffer();
+        DeviceUploadBody.create(items, apiKey, phoneMac, INSTALL_ID, false).writeTo(json);
+        JsonArray expected = new JsonParser().parse(json.readUtf8()).getAsJsonArray();
+
+        assertEquals(expected.size(), decoded.size());
+        for (int i = 0; i < expected.size(); i++) {
+            JsonObject want = expected.get(i).getAsJsonObject();
+            JsonObject got = decoded.get(i).getAsJsonObject();
+            assertEquals("fields of row " + i, want.keySet(), got.keySet());
+            for (Map.Entry<String, JsonElement> field : want.entrySet()) {
+                String name = field.getKey();
+                JsonElement value = got.get(name);
+                if ((name.equals("latitude") || name.equals("longitude")) && !field.getValue().isJsonNull()) {
+                    assertEquals(name + " of row " + i, field.getValue().getAsDouble(), value.getAsDouble(),
+                            COORDINATE_TOLERANCE);
+                } else {
+                    assertEquals(name + " of row " + i, field.getValue(), value);
+                }
+            }
+        }
+        return decoded;
+    }
+
+    private static DeviceUploadManager.PendingUpload item(long id, String folder, String deviceId, Integer signal,
+                                                          Double latitude, Double longitude, String detectedAt) {
+        ApiDevice device = new ApiDevice();
+        device.setDevice_id(deviceId);
+        device.setDevice_name(deviceId != null ? "net-" + deviceId : null);
+        device.setNetwork_type("Wi-Fi");
+        device.setSignal_strength(signal);
+        device.setLatitude(latitude);
+        device.setLongitude(longitude);
+        device.setDetected_at(detectedAt);
+        device.setFolder_name(folder);
+        device.setSystem_folder_name(folder);
+        return new DeviceUploadManager.PendingUpload(id, folder, folder, device);
+    }
+
+    private static DeviceUploadManager.PendingUpload corrected(DeviceUploadManager.PendingUpload item, long revision) {
+        return new DeviceUploadManager.PendingUpload(item.rowId, item.tableName, item.folderName, item.device, revision);
+    }
+}
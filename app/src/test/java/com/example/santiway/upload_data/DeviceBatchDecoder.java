@@ -0,0 +1,124 @@
+package com.example.santiway.upload_data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import okio.BufferedSource;
+
+/**
+ * Эталонный разбор DeviceBatchCodec для серверной стороны: возвращает тот же массив объектов,
+ * что пришёл бы в JSON-теле DeviceUploadBody. Координаты — с точностью 1e-7.
+ */
+final class DeviceBatchDecoder {
+
+    private DeviceBatchDecoder() {
+    }
+
+    static JsonArray decode(BufferedSource source) throws IOException {
+        if (!source.readByteString(DeviceBatchCodec.MAGIC.size()).equals(DeviceBatchCodec.MAGIC)) {
+            throw new IOException("Not a device batch");
+        }
+        int version = source.readByte() & 0xff;
+        if (version != DeviceBatchCodec.VERSION) {
+            throw new IOException("Unsupported device batch version " + version);
+        }
+
+        int stringCount = (int) readVarint(source);
+        List<String> strings = new ArrayList<>(stringCount);
+        for (int i = 0; i < stringCount; i++) {
+            strings.add(source.readUtf8(readVarint(source)));
+        }
+        String apiKey = lookup(strings, readVarint(source));
+        String phoneMac = lookup(strings, readVarint(source));
+        String installId = lookup(strings, readVarint(source));
+
+        SimpleDateFormat isoFormat = DeviceBatchCodec.isoFormat();
+        long rowCount = readVarint(source);
+        JsonArray rows = new JsonArray();
+        long seconds = 0;
+        long lat = 0;
+        long lon = 0;
+        long rowId = 0;
+        for (long r = 0; r < rowCount; r++) {
+            int flags = (int) readVarint(source);
+            JsonObject row = new JsonObject();
+            row.add("device_id", string(lookup(strings, readVarint(source))));
+            row.add("device_name", string(lookup(strings, readVarint(source))));
+            row.add("network_type", string(lookup(strings, readVarint(source))));
+            String folder = lookup(strings, readVarint(source));
+            String systemFolder = lookup(strings, readVarint(source));
+            String keyFolder = lookup(strings, readVarint(source));
+            rowId += readSignedVarint(source);
+            long revision = readVarint(source);
+
+            row.add("signal_strength", (flags & DeviceBatchCodec.FLAG_SIGNAL) != 0
+                    ? new JsonPrimitive(readSignedVarint(source)) : JsonNull.INSTANCE);
+            String detectedAt = null;
+            if ((flags & DeviceBatchCodec.FLAG_DETECTED_SECONDS) != 0) {
+                seconds += readSignedVarint(source);
+                detectedAt = isoFormat.format(new Date(seconds * 1000));
+            }
+            if ((flags & DeviceBatchCodec.FLAG_DETECTED_RAW) != 0) {
+                detectedAt = lookup(strings, readVarint(source));
+            }
+            JsonPrimitive latitude = null;
+            if ((flags & DeviceBatchCodec.FLAG_LATITUDE) != 0) {
+                lat += readSignedVarint(source);
+                latitude = new JsonPrimitive(lat / DeviceBatchCodec.COORDINATE_SCALE);
+            }
+            JsonPrimitive longitude = null;
+            if ((flags & DeviceBatchCodec.FLAG_LONGITUDE) != 0) {
+                lon += readSignedVarint(source);
+                longitude = new JsonPrimitive(lon / DeviceBatchCodec.COORDINATE_SCALE);
+            }
+
+            row.add("latitude", latitude != null ? latitude : JsonNull.INSTANCE);
+            row.add("longitude", longitude != null ? longitude : JsonNull.INSTANCE);
+            row.add("detected_at", string(detectedAt));
+            row.add("folder_name", string(folder));
+            row.add("system_folder_name", string(systemFolder));
+            row.add("user_api", string(apiKey));
+            row.add("user_phone_mac", string(phoneMac));
+            row.addProperty("is_alert", false);
+            row.addProperty("is_ignored", false);
+            row.addProperty("idempotency_key",
+                    DeviceUploadManager.PendingUpload.idempotencyKey(installId, keyFolder, rowId, revision));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static String lookup(List<String> strings, long index) throws IOException {
+        if (index == 0) return null;
+        if (index > strings.size()) throw new IOException("String index out of range: " + index);
+        return strings.get((int) index - 1);
+    }
+
+    private static JsonElement string(String value) {
+        return value != null ? new JsonPrimitive(value) : JsonNull.INSTANCE;
+    }
+
+    private static long readVarint(BufferedSource source) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = source.readByte() & 0xff;
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static long readSignedVarint(BufferedSource source) throws IOException {
+        long raw = readVarint(source);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
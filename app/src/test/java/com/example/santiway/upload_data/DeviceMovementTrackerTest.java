@@ -0,0 +1,206 @@
+package com.example.santiway.upload_data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Проигрывание трека через MovementState против прежнего пути, который на каждое наблюдение
+ * перечитывал историю устройства: две последние точки и путь за 24 часа по всем точкам окна.
+ * Расстояния считаются haversine в тесте — android.location.Location на JVM недоступен,
+ * а addPoint получает длину прыжка уже посчитанной.
+ */
+public class DeviceMovementTrackerTest {
+    private static final long MINUTE_MS = 60_000L;
+    private static final long BUCKET_MS = 15L * MINUTE_MS;
+
+    private static final class Point {
+        final double latitude;
+        final double longitude;
+        final long timestamp;
+
+        Point(double latitude, double longitude, long timestamp) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.timestamp = timestamp;
+        }
+    }
+
+    @Test
+    public void replayWithinWindowMatchesHistoryScan() {
+        List<Point> track = track(new Random(42), 600, 2 * MINUTE_MS);
+        DeviceMovementTracker.MovementState state = new DeviceMovementTracker.MovementState();
+        List<Point> history = new ArrayList<>();
+
+        for (Point point : track) {
+            if (!history.isEmpty()) {
+                Point previous = history.get(history.size() - 1);
+                // Прежний путь: последняя точка и признак "вторая точка" из SELECT ... LIMIT 2
+                assertEquals(previous.latitude, state.lastLatitude, 0);
+                assertEquals(previous.longitude, state.lastLongitude, 0);
+                assertEquals(previous.timestamp, state.lastTimestamp);
+                assertEquals(history.size(), state.pointCount);
+
+                double oldKm = historyDistanceKm(history, point.timestamp);
+                assertEquals(oldKm, state.distanceLast24hKm(point.timestamp), 1e-3);
+                assertEquals(verdict(previous, oldKm, point),
+                        verdict(new Point(state.lastLatitude, state.lastLongitude, state.lastTimestamp),
+                                state.distanceLast24hKm(point.timestamp), point));
+            }
+            add(state, point);
+            history.add(point);
+        }
+    }
+
+    @Test
+    public void windowEdgeIsBucketGranular() {
+        // 40 часов: старые корзины выходят из окна, расхождение — не больше одной 15-минутной корзины
+        List<Point> track = track(new Random(7), 1200, 2 * MINUTE_MS);
+        DeviceMovementTracker.MovementState state = new DeviceMovementTracker.MovementState();
+        List<Point> history = new ArrayList<>();
+        int verdictMismatches = 0;
+
+        for (Point point : track) {
+            if (!history.isEmpty()) {
+                double oldKm = historyDistanceKm(history, point.timestamp);
+                double newKm = state.distanceLast24hKm(point.timestamp);
+                assertEquals(oldKm, newKm, maxDistanceKm(history, point.timestamp) + 1e-3);
+
+                Point previous = history.get(history.size() - 1);
+                if (!verdict(previous, oldKm, point)
+                        .equals(verdict(previous, newKm, point))) {
+                    verdictMismatches++;
+                }
+            }
+            add(state, point);
+            history.add(point);
+        }
+        // Трек уходит далеко за пороги 1 и 10 км, поэтому граница окна вердикт не меняет
+        assertEquals(0, verdictMismatches);
+    }
+
+    @Test
+    public void latePointOnlyCounts() {
+        DeviceMovementTracker.MovementState state = new DeviceMovementTracker.MovementState();
+        long start = 1_700_000_000_000L;
+        add(state, new Point(55.75, 37.61, start));
+        add(state, new Point(55.76, 37.61, start + 10 * MINUTE_MS));
+        double before = state.distanceLast24hKm(start + 10 * MINUTE_MS);
+
+        add(state, new Point(55.70, 37.50, start + 5 * MINUTE_MS));
+
+        assertEquals(3, state.pointCount);
+        assertEquals(55.76, state.lastLatitude, 0);
+        assertEquals(start + 10 * MINUTE_MS, state.lastTimestamp);
+        assertEquals(before, state.distanceLast24hKm(start + 10 * MINUTE_MS), 0);
+    }
+
+    @Test
+    public void ringBlobRoundTrip() {
+        DeviceMovementTracker.MovementState state = new DeviceMovementTracker.MovementState();
+        for (Point point : track(new Random(3), 300, 3 * MINUTE_MS)) {
+            add(state, point);
+        }
+
+        DeviceMovementTracker.MovementState restored = new DeviceMovementTracker.MovementState();
+        restored.readRingBlob(state.ringBlob());
+        restored.headBucket = state.headBucket;
+
+        assertArrayEquals(state.ringMeters, restored.ringMeters, 0f);
+        assertEquals(state.distanceLast24hKm(state.lastTimestamp),
+                restored.distanceLast24hKm(state.lastTimestamp), 0);
+    }
+
+    @Test
+    public void malformedRingBlobLeavesRingEmpty() {
+        DeviceMovementTracker.MovementState state = new DeviceMovementTracker.MovementState();
+        state.readRingBlob(new byte[7]);
+        state.readRingBlob(null);
+
+        for (float meters : state.ringMeters) {
+            assertEquals(0f, meters, 0f);
+        }
+    }
+
+    /**
+     * Тот же порядок правил, что в MainDatabaseHelper.evaluateTargetStatus. Признак второй точки
+     * нужен только проверке GPS-спуфинга и сверяется отдельно через pointCount.
+     */
+    private static String verdict(Point previous, double dist24hBaseKm, Point current) {
+        double jumpMeters = haversineMeters(previous, current);
+        if (jumpMeters < DeviceMovementTracker.MIN_JUMP_METERS) return "GREY";
+        double timeHours = (double) (current.timestamp - previous.timestamp) / 3600000.0;
+        double speedKmH = timeHours > 0 ? (jumpMeters / 1000.0) / timeHours : 0;
+        if (jumpMeters > 1000.0 && speedKmH < 20.0) return "TARGET";
+        if (jumpMeters > 10000.0 && speedKmH > 20.0) return "TARGET";
+        double dist24h = dist24hBaseKm + jumpMeters / 1000.0;
+        if (speedKmH > 20.0 && dist24h > 10.0) return "TARGET";
+        if (speedKmH <= 20.0 && dist24h > 1.0) return "TARGET";
+        return "GREY";
+    }
+
+    /** Прежний getDistanceLast24h: точки окна по времени, прыжки короче 10 м пропускаются */
+    private static double historyDistanceKm(List<Point> history, long now) {
+        double meters = 0;
+        Point previous = null;
+        for (Point point : history) {
+            if (point.timestamp <= now - DeviceMovementTracker.WINDOW_MS) continue;
+            if (previous != null) {
+                double jump = haversineMeters(previous, point);
+                if (jump >= DeviceMovementTracker.MIN_JUMP_METERS) meters += jump;
+            }
+            previous = point;
+        }
+        return meters / 1000.0;
+    }
+
+    /** Путь, пройденный в корзине на границе окна, плюс прыжок через границу */
+    private static double maxDistanceKm(List<Point> history, long now) {
+        long edge = now - DeviceMovementTracker.WINDOW_MS;
+        double meters = 0;
+        for (int i = 1; i < history.size(); i++) {
+            long timestamp = history.get(i).timestamp;
+            if (timestamp >= edge - BUCKET_MS && timestamp <= edge + BUCKET_MS) {
+                meters += haversineMeters(history.get(i - 1), history.get(i));
+            }
+        }
+        return meters / 1000.0;
+    }
+
+    private static void add(DeviceMovementTracker.MovementState state, Point point) {
+        double jump = state.hasPoints()
+                ? haversineMeters(new Point(state.lastLatitude, state.lastLongitude, 0), point)
+                : 0;
+        state.addPoint(point.latitude, point.longitude, point.timestamp, jump);
+    }
+
+    /** Прогулка с остановками: часть шагов короче 10 м, часть — поездки */
+    private static List<Point> track(Random random, int points, long stepMs) {
+        List<Point> track = new ArrayList<>(points);
+        double latitude = 55.75;
+        double longitude = 37.61;
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < points; i++) {
+            track.add(new Point(latitude, longitude, timestamp));
+            double step = random.nextInt(4) == 0 ? 0.00002 : 0.0005 + random.nextDouble() * 0.002;
+            latitude += (random.nextDouble() - 0.5) * step;
+            longitude += (random.nextDouble() - 0.5) * step;
+            timestamp += stepMs + random.nextInt(30_000);
+        }
+        return track;
+    }
+
+    private static double haversineMeters(Point a, Point b) {
+        double dLat = Math.toRadians(b.latitude - a.latitude);
+        double dLon = Math.toRadians(b.longitude - a.longitude);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(a.latitude)) * Math.cos(Math.toRadians(b.latitude))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * 6371000.0 * Math.asin(Math.sqrt(h));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Токен keyset-пагинации: что закодировал хелпер БД, то и должно вернуться на следующей странице,
+ * а испорченный токен — откатить список на первую страницу, а не уронить запрос.
+ */
+public class DevicePageTest {
+
+    @Test
+    public void timeTokenRoundTripsWithoutScore() {
+        String token = DevicePage.encodeToken(Double.NaN, 1718000000123L, 42L);
+
+        DevicePage.Key key = DevicePage.decodeToken(token);
+
+        assertNotNull(key);
+        assertTrue(Double.isNaN(key.score));
+        assertEquals(1718000000123L, key.time);
+        assertEquals(42L, key.id);
+    }
+
+    @Test
+    public void rankTokenKeepsScoreExactly() {
+        double[] scores = {0.0, -0.0, 0.1, -0.734512, 1e-9, 12345.678901234, Double.MIN_VALUE, -1e300};
+        for (double score : scores) {
+            DevicePage.Key key = DevicePage.decodeToken(DevicePage.encodeToken(score, 5L, 7L));
+
+            assertNotNull("score " + score, key);
+            // Ключ сравнивается в SQL строго, поэтому нужен тот же double, а не близкий
+            assertEquals("score " + score, Double.doubleToLongBits(score), Double.doubleToLongBits(key.score));
+            assertEquals(5L, key.time);
+            assertEquals(7L, key.id);
+        }
+    }
+
+    @Test
+    public void extremeTimeAndIdRoundTrip() {
+        DevicePage.Key key = DevicePage.decodeToken(DevicePage.encodeToken(0.5, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        assertNotNull(key);
+        assertEquals(Long.MIN_VALUE, key.time);
+        assertEquals(Long.MAX_VALUE, key.id);
+    }
+
+    @Test
+    public void emptyTokenMeansFirstPage() {
+        assertNull(DevicePage.decodeToken(null));
+        assertNull(DevicePage.decodeToken(""));
+    }
+
+    @Test
+    public void malformedTokenMeansFirstPage() {
+        String[] tokens = {
+                "garbage",
+                "1:2",
+                "0.5:1:2:3",
+                "abc:1:2",
+                "0.5:notatime:2",
+                "0.5:1:",
+                ":1:2.5",
+                "::",
+                "0.5:99999999999999999999:1"
+        };
+        for (String token : tokens) {
+            assertNull(token, DevicePage.decodeToken(token));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.santiway.upload_data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Окно дедупликации: границы соседних корзин, прогрев папки, переименование и сброс.
+ */
+public class DuplicateWindowIndexTest {
+    private static final long WINDOW_MS = 60_000L;
+    private static final String FOLDER = "Основная";
+    private static final String KEY = "aa:bb:cc:dd:ee:ff";
+
+    private DuplicateWindowIndex index;
+    /** Начало корзины b; далеко в будущем, чтобы папка была прогрета */
+    private long bucketStart;
+
+    @Before
+    public void setUp() {
+        index = new DuplicateWindowIndex(WINDOW_MS);
+        long future = System.currentTimeMillis() + 10 * WINDOW_MS;
+        bucketStart = Math.floorDiv(future, WINDOW_MS) * WINDOW_MS;
+    }
+
+    @Test
+    public void sameBucketIsDuplicate() {
+        index.record(FOLDER, KEY, bucketStart);
+        assertTrue(index.containsWithinWindow(FOLDER, KEY, bucketStart + WINDOW_MS - 1));
+        assertFalse(index.containsWithinWindow(FOLDER, "other", bucketStart + 1));
+    }
+
+    @Test
+    public void previousBucketUsesItsLatestTimestamp() {
+        // Корзина b-1: запись за 10 с до конца корзины
+        long recorded = bucketStart - 10_000L;
+        index.record(FOLDER, KEY, recorded);
+
+        assertTrue(index.containsWithinWindow(FOLDER, KEY, recorded + WINDOW_MS));
+        assertFalse(index.containsWithinWindow(FOLDER, KEY, recorded + WINDOW_MS + 1));
+    }
+
+    @Test
+    public void nextBucketUsesItsEarliestTimestamp() {
+        // Корзина b+1: запись через 10 с после её начала
+        long recorded = bucketStart + WINDOW_MS + 10_000L;
+        index.record(FOLDER, KEY, recorded);
+
+        assertTrue(index.containsWithinWindow(FOLDER, KEY, recorded - WINDOW_MS));
+        assertFalse(index.containsWithinWindow(FOLDER, KEY, recorded - WINDOW_MS - 1));
+    }
+
+    @Test
+    public void bucketsFurtherThanOneAwayAreIgnored() {
+        index.record(FOLDER, KEY, bucketStart - WINDOW_MS - 1);
+        index.record(FOLDER, KEY, bucketStart + 2 * WINDOW_MS);
+
+        assertFalse(index.containsWithinWindow(FOLDER, KEY, bucketStart + WINDOW_MS / 2));
+    }
+
+    @Test
+    public void rangeWidensWithinBucket() {
+        index.record(FOLDER, KEY, bucketStart + 50_000L);
+        index.record(FOLDER, KEY, bucketStart + 5_000L);
+
+        // Проверка из b-1 смотрит на минимум корзины b
+        assertTrue(index.containsWithinWindow(FOLDER, KEY, bucketStart - 55_000L));
+        // Проверка из b+1 смотрит на максимум корзины b
+        assertTrue(index.containsWithinWindow(FOLDER, KEY, bucketStart + WINDOW_MS + 50_000L));
+    }
+
+    @Test
+    public void coldFolderFallsBackToDatabase() {
+        long now = System.currentTimeMillis();
+        assertFalse(index.isWarm(FOLDER, now));
+        // Окно вокруг момента после старта индекса + окно уже целиком видно индексу
+        assertTrue(index.isWarm(FOLDER, now + 2 * WINDOW_MS));
+    }
+
+    @Test
+    public void timestampBelowRetainedBucketsIsCold() {
+        index.record(FOLDER, KEY, bucketStart + 10 * WINDOW_MS);
+
+        // Хранятся корзины от b+6: проверке из b+6 нужна уже выброшенная b+5
+        assertTrue(index.isWarm(FOLDER, bucketStart + 7 * WINDOW_MS));
+        assertFalse(index.isWarm(FOLDER, bucketStart + 6 * WINDOW_MS));
+        assertFalse(index.isWarm(FOLDER, bucketStart));
+    }
+
+    @Test
+    public void timestampPastNewestBucketIsCold() {
+        index.record(FOLDER, KEY, bucketStart);
+
+        assertTrue(index.isWarm(FOLDER, bucketStart + WINDOW_MS + WINDOW_MS / 2));
+        // Дальше окна за новейшей корзиной индекс не отличит пустоту от записей мимо него
+        assertFalse(index.isWarm(FOLDER, bucketStart + 2 * WINDOW_MS));
+    }
+
+    @Test
+    public void invalidateAllMakesEveryFolderCold() {
+        index.record(FOLDER, KEY, bucketStart);
+        index.record("Новая", KEY, bucketStart);
+        index.invalidateAll();
+
+        assertFalse(index.containsWithinWindow(FOLDER, KEY, bucketStart));
+        assertFalse(index.containsWithinWindow("Новая", KEY, bucketStart));
+        assertFalse(index.isWarm(FOLDER, System.currentTimeMillis()));
+    }
+
+    @Test
+    public void unknownFolderHasNoDuplicates() {
+        assertFalse(index.containsWithinWindow("missing", KEY, bucketStart));
+    }
+
+    @Test
+    public void renameMovesWindow() {
+        index.record(FOLDER, KEY, bucketStart);
+        index.rename(FOLDER, "Новая");
+
+        assertFalse(index.containsWithinWindow(FOLDER, KEY, bucketStart));
+        assertTrue(index.containsWithinWindow("Новая", KEY, bucketStart));
+    }
+
+    @Test
+    public void invalidateDropsWindowAndWarmth() {
+        index.record(FOLDER, KEY, bucketStart);
+        index.invalidate(FOLDER);
+
+        assertFalse(index.containsWithinWindow(FOLDER, KEY, bucketStart));
+        // После сброса папка снова холодная: записи до сброса индекс уже не видел
+        assertFalse(index.isWarm(FOLDER, System.currentTimeMillis()));
+    }
+
+    @Test
+    public void oldBucketsArePruned() {
+        index.record(FOLDER, KEY, bucketStart);
+        index.record(FOLDER, "later", bucketStart + 10 * WINDOW_MS);
+
+        assertFalse(index.containsWithinWindow(FOLDER, KEY, bucketStart));
+    }
+}
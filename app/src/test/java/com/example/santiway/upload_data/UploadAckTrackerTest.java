@@ -0,0 +1,77 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Подтверждения пачек в произвольном порядке: знак папки сдвигается только по непрерывному
+ * началу подтверждённых диапазонов и никогда не перескакивает неподтверждённую пачку.
+ */
+public class UploadAckTrackerTest {
+
+    @Test
+    public void lateFirstBatchReleasesWholePrefix() {
+        UploadAckTracker tracker = new UploadAckTracker();
+        Map<String, UploadAckTracker.Range> first = range("Main", 0, 100);
+        Map<String, UploadAckTracker.Range> second = range("Main", 100, 200);
+        Map<String, UploadAckTracker.Range> third = range("Main", 200, 300);
+        tracker.register(first);
+        tracker.register(second);
+        tracker.register(third);
+
+        assertTrue(tracker.acknowledge(third).isEmpty());
+        assertTrue(tracker.acknowledge(second).isEmpty());
+        assertEquals(Collections.singletonMap("Main", 300L), tracker.acknowledge(first));
+    }
+
+    @Test
+    public void unacknowledgedBatchHoldsWatermark() {
+        UploadAckTracker tracker = new UploadAckTracker();
+        Map<String, UploadAckTracker.Range> first = range("Main", 0, 100);
+        Map<String, UploadAckTracker.Range> second = range("Main", 100, 200);
+        Map<String, UploadAckTracker.Range> third = range("Main", 200, 300);
+        tracker.register(first);
+        tracker.register(second);
+        tracker.register(third);
+
+        assertEquals(Collections.singletonMap("Main", 100L), tracker.acknowledge(first));
+        // Вторая пачка не подтверждена: третья ждёт её, знак остаётся на 100
+        assertTrue(tracker.acknowledge(third).isEmpty());
+    }
+
+    @Test
+    public void foldersAdvanceIndependently() {
+        UploadAckTracker tracker = new UploadAckTracker();
+        Map<String, UploadAckTracker.Range> mixed = new LinkedHashMap<>();
+        mixed.put("Main", new UploadAckTracker.Range(0, 50));
+        mixed.put("Walk", new UploadAckTracker.Range(10, 20));
+        Map<String, UploadAckTracker.Range> mainOnly = range("Main", 50, 80);
+        Map<String, UploadAckTracker.Range> walkOnly = range("Walk", 20, 40);
+        tracker.register(mixed);
+        tracker.register(mainOnly);
+        tracker.register(walkOnly);
+
+        assertTrue(tracker.acknowledge(mainOnly).isEmpty());
+
+        // Общая пачка открывает обе папки сразу, каждую до своего конца
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("Main", 80L);
+        expected.put("Walk", 20L);
+        assertEquals(expected, tracker.acknowledge(mixed));
+
+        assertEquals(Collections.singletonMap("Walk", 40L), tracker.acknowledge(walkOnly));
+    }
+
+    private static Map<String, UploadAckTracker.Range> range(String folder, long fromExclusive, long toInclusive) {
+        Map<String, UploadAckTracker.Range> ranges = new LinkedHashMap<>();
+        ranges.put(folder, new UploadAckTracker.Range(fromExclusive, toInclusive));
+        return ranges;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AIMD размера пачки на хранилище в памяти: рост на заполненной быстрой пачке, уменьшение
+ * вдвое при ошибке и пропорционально — при медленном ответе, границы MIN/MAX и объёма тела,
+ * отдельное состояние для каждого NetworkProfile.
+ */
+public class UploadBatchSizerTest {
+    private static final UploadBatchSizer.NetworkProfile WIFI = UploadBatchSizer.NetworkProfile.WIFI;
+    private static final UploadBatchSizer.NetworkProfile LTE = UploadBatchSizer.NetworkProfile.LTE;
+    private static final UploadBatchSizer.NetworkProfile SLOW = UploadBatchSizer.NetworkProfile.SLOW;
+    private static final long FAST_MS = 500;
+    private static final long BYTES_PER_DEVICE = 100;
+
+    private MemoryStore store;
+    private UploadBatchSizer sizer;
+
+    @Before
+    public void setUp() {
+        store = new MemoryStore();
+        sizer = new UploadBatchSizer(null, store);
+    }
+
+    @Test
+    public void initialSizeComesFromProfile() {
+        assertEquals(WIFI.initialBatchSize, sizer.batchSize(WIFI));
+        assertEquals(LTE.initialBatchSize, sizer.batchSize(LTE));
+        assertEquals(SLOW.initialBatchSize, sizer.batchSize(SLOW));
+    }
+
+    @Test
+    public void fastFullBatchGrowsByStep() {
+        int size = sizer.batchSize(WIFI);
+        succeed(WIFI, size, FAST_MS);
+        assertEquals(size + UploadBatchSizer.ADDITIVE_STEP, sizer.batchSize(WIFI));
+        succeed(WIFI, size + UploadBatchSizer.ADDITIVE_STEP, FAST_MS);
+        assertEquals(size + 2 * UploadBatchSizer.ADDITIVE_STEP, sizer.batchSize(WIFI));
+    }
+
+    @Test
+    public void shortTailDoesNotGrow() {
+        int size = sizer.batchSize(WIFI);
+        // Меньше половины пачки — хвост очереди, о канале он ничего не говорит
+        succeed(WIFI, size / 2 - 1, FAST_MS);
+        assertEquals(size, sizer.batchSize(WIFI));
+    }
+
+    @Test
+    public void failureHalves() {
+        int size = sizer.batchSize(WIFI);
+        sizer.recordFailure(WIFI);
+        assertEquals(size / 2, sizer.batchSize(WIFI));
+        sizer.recordFailure(WIFI);
+        assertEquals(size / 4, sizer.batchSize(WIFI));
+    }
+
+    @Test
+    public void slowResponseShrinksProportionallyButAtMostByHalf() {
+        int size = sizer.batchSize(WIFI);
+        // Вдвое дольше цели — пачка вдвое меньше
+        succeed(WIFI, size, UploadBatchSizer.TARGET_LATENCY_MS * 2);
+        assertEquals(size / 2, sizer.batchSize(WIFI));
+
+        // Ответ на грани таймаута: не больше чем вдвое за раз
+        int halved = sizer.batchSize(WIFI);
+        succeed(WIFI, halved, UploadBatchSizer.TARGET_LATENCY_MS * 10);
+        assertEquals(halved / 2, sizer.batchSize(WIFI));
+    }
+
+    @Test
+    public void failuresSuppressGrowth() {
+        sizer.recordFailure(WIFI);
+        int size = sizer.batchSize(WIFI);
+        // Доля ошибок ещё выше порога: быстрая полная пачка размер не увеличивает
+        succeed(WIFI, size, FAST_MS);
+        assertEquals(size, sizer.batchSize(WIFI));
+    }
+
+    @Test
+    public void sizeNeverDropsBelowMinimum() {
+        for (int i = 0; i < 10; i++) {
+            sizer.recordFailure(SLOW);
+        }
+        assertEquals(UploadBatchSizer.MIN_BATCH_SIZE, sizer.batchSize(SLOW));
+
+        succeed(SLOW, UploadBatchSizer.MIN_BATCH_SIZE, UploadBatchSizer.TARGET_LATENCY_MS * 10);
+        assertEquals(UploadBatchSizer.MIN_BATCH_SIZE, sizer.batchSize(SLOW));
+    }
+
+    @Test
+    public void sizeNeverExceedsMaximum() {
+        for (int i = 0; i < 100; i++) {
+            succeed(WIFI, sizer.batchSize(WIFI), FAST_MS);
+        }
+        assertEquals(UploadBatchSizer.MAX_BATCH_SIZE, sizer.batchSize(WIFI));
+    }
+
+    @Test
+    public void bodyLimitCapsSizeByAverageRowSize() {
+        long bytesPerDevice = 2048;
+        int limit = (int) (UploadBatchSizer.MAX_BODY_BYTES / bytesPerDevice);
+        for (int i = 0; i < 20; i++) {
+            int size = sizer.batchSize(WIFI);
+            sizer.recordSuccess(WIFI, size, size * bytesPerDevice, FAST_MS);
+        }
+        assertEquals(limit, sizer.batchSize(WIFI));
+    }
+
+    @Test
+    public void profilesKeepSeparateState() {
+        sizer.recordFailure(SLOW);
+        succeed(WIFI, sizer.batchSize(WIFI), FAST_MS);
+
+        assertEquals(SLOW.initialBatchSize / 2, sizer.batchSize(SLOW));
+        assertEquals(WIFI.initialBatchSize + UploadBatchSizer.ADDITIVE_STEP, sizer.batchSize(WIFI));
+        assertEquals(LTE.initialBatchSize, sizer.batchSize(LTE));
+        assertEquals(0.0, sizer.getStats(LTE).failureRate, 0.0);
+        assertEquals(1.0, sizer.getStats(SLOW).failureRate, 1e-6);
+
+        // Переключение обратно на 2G берёт уже найденный для него размер, в том числе после перезапуска
+        UploadBatchSizer restarted = new UploadBatchSizer(null, store);
+        assertEquals(SLOW.initialBatchSize / 2, restarted.batchSize(SLOW));
+        assertEquals(WIFI.initialBatchSize + UploadBatchSizer.ADDITIVE_STEP, restarted.batchSize(WIFI));
+    }
+
+    private void succeed(UploadBatchSizer.NetworkProfile profile, int devices, long latencyMs) {
+        sizer.recordSuccess(profile, devices, devices * BYTES_PER_DEVICE, latencyMs);
+    }
+
+    private static final class MemoryStore implements UploadBatchSizer.Store {
+        private final Map<String, Number> values = new HashMap<>();
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public int getInt(String key, int defaultValue) {
+            Number value = values.get(key);
+            return value != null ? value.intValue() : defaultValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defaultValue) {
+            Number value = values.get(key);
+            return value != null ? value.floatValue() : defaultValue;
+        }
+
+        @Override
+        public void put(Map<String, Number> update) {
+            values.putAll(update);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.santiway.upload_data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * Отправка пачек против MockWebServer с задержками ответов: подтверждения в обратном порядке,
+ * повтор после 5xx с тем же телом, откат двоичного тела на JSON после 415
+ * и ключи идемпотентности, не зависящие от границ пачки. Журнал отправителя пишется в список,
+ * поэтому android.util.Log тесту не нужен.
+ */
+public class UploadSenderTest {
+    private static final String API_KEY = "test-key";
+    private static final String PHONE_MAC = "02:00:00:00:00:00";
+    private static final String INSTALL_ID = "android-test";
+    private static final String BATCH_HEADER = "X-Test-Batch";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BACKOFF_MS = 10;
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final String ATTEMPT_PREFIX = "Upload attempt ";
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private ScheduledExecutorService scheduler;
+    private UploadSender sender;
+    private final List<Boolean> attempts = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger binaryRejections = new AtomicInteger();
+    private final List<String> log = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        sender = new UploadSender(client, scheduler, MAX_ATTEMPTS, BACKOFF_MS, new UploadSender.Listener() {
+            @Override
+            public void onResponse(Response response) {
+            }
+
+            @Override
+            public UploadSender.BatchRequest onBinaryRejected(UploadSender.BatchRequest rejected) {
+                binaryRejections.incrementAndGet();
+                return request(rejected.items, false, null);
+            }
+
+            @Override
+            public void onAttempt(UploadSender.BatchRequest upload, boolean success, long latencyMs) {
+                attempts.add(success);
+            }
+        }, (priority, message) -> log.add(message));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        scheduler.shutdownNow();
+        client.dispatcher().executorService().shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void reorderedAcksAdvanceWatermarkOnlyOverPrefix() throws Exception {
+        // Чем раньше пачка, тем дольше сервер держит ответ на неё
+        final long[] delaysMs = {600, 300, 0};
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                int batch = Integer.parseInt(request.getHeader(BATCH_HEADER));
+                return new MockResponse().setResponseCode(200)
+                        .setHeadersDelay(delaysMs[batch], TimeUnit.MILLISECONDS);
+            }
+        });
+
+        UploadAckTracker tracker = new UploadAckTracker();
+        List<Map<String, UploadAckTracker.Range>> ranges = new ArrayList<>();
+        for (int batch = 0; batch < delaysMs.length; batch++) {
+            Map<String, UploadAckTracker.Range> range = new HashMap<>();
+            range.put("Main", new UploadAckTracker.Range(batch * 100L, (batch + 1) * 100L));
+            ranges.add(range);
+            tracker.register(range);
+        }
+
+        List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        List<Map<String, Long>> advanced = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(delaysMs.length);
+        for (int batch = 0; batch < delaysMs.length; batch++) {
+            final int index = batch;
+            UploadSender.BatchRequest upload =
+                    request(items("Main", batch * 100L + 1, (batch + 1) * 100L), false, batch);
+            sender.send(upload, success -> {
+                if (success) {
+                    synchronized (completed) {
+                        completed.add(index);
+                        advanced.add(tracker.acknowledge(ranges.get(index)));
+                    }
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(2, 1, 0), completed);
+        assertTrue(advanced.get(0).isEmpty());
+        assertTrue(advanced.get(1).isEmpty());
+        assertEquals(Collections.singletonMap("Main", 300L), advanced.get(2));
+    }
+
+    @Test
+    public void serverErrorIsRetriedWithSameBody() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeadersDelay(50, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        List<DeviceUploadManager.PendingUpload> rows = items("Main", 1, 20);
+        assertTrue(sendAndWait(request(rows, false, null)));
+
+        assertEquals(3, server.getRequestCount());
+        String first = server.takeRequest().getBody().readUtf8();
+        assertEquals(first, server.takeRequest().getBody().readUtf8());
+        assertEquals(first, server.takeRequest().getBody().readUtf8());
+        // Повтор несёт те же ключи строк, что и первая попытка, — сервер отбросит уже принятые
+        assertEquals(expectedKeys(rows), keys(new JsonParser().parse(first).getAsJsonArray()));
+        assertEquals(Arrays.asList(false, false, true), attempts);
+        assertEquals(Arrays.asList(1, 2, 3), loggedAttempts());
+    }
+
+    @Test
+    public void lastServerErrorFailsBatch() throws Exception {
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            server.enqueue(new MockResponse().setResponseCode(502));
+        }
+
+        List<DeviceUploadManager.PendingUpload> rows = items("Main", 1, 5);
+        assertFalse(sendAndWait(request(rows, false, null)));
+
+        assertEquals(MAX_ATTEMPTS, server.getRequestCount());
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            JsonArray sent = new JsonParser().parse(server.takeRequest().getBody().readUtf8()).getAsJsonArray();
+            assertEquals(expectedKeys(rows), keys(sent));
+        }
+        assertEquals(Arrays.asList(false, false, false), attempts);
+        assertEquals(Arrays.asList(1, 2, 3), loggedAttempts());
+        assertTrue(log.contains("❌ Failed to upload after " + MAX_ATTEMPTS + " attempts"));
+    }
+
+    @Test
+    public void binaryRejectedWith415IsResentAsJson() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(415));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        List<DeviceUploadManager.PendingUpload> rows = items("Main", 1, 10);
+        assertTrue(sendAndWait(request(rows, true, null)));
+
+        assertEquals(2, server.getRequestCount());
+        RecordedRequest binary = server.takeRequest();
+        RecordedRequest json = server.takeRequest();
+        assertEquals(DeviceBatchCodec.MEDIA_TYPE, binary.getHeader("Content-Type"));
+        assertTrue(json.getHeader("Content-Type").startsWith("application/json"));
+        assertEquals(1, binaryRejections.get());
+        // 415 — не неудачная попытка: замер только один, успешный
+        assertEquals(Collections.singletonList(true), attempts);
+        // Откат на JSON идёт в той же попытке, а не как повтор
+        assertEquals(Arrays.asList(1, 1), loggedAttempts());
+        assertTrue(log.contains("Binary upload rejected - falling back to JSON"));
+
+        // Обе кодировки несут одни и те же ключи строк
+        JsonArray decoded = DeviceBatchDecoder.decode(binary.getBody());
+        JsonArray sent = new JsonParser().parse(json.getBody().readUtf8()).getAsJsonArray();
+        assertEquals(expectedKeys(rows), keys(sent));
+        assertEquals(expectedKeys(rows), keys(decoded));
+    }
+
+    @Test
+    public void rowKeysDoNotDependOnBatchBoundaries() throws Exception {
+        List<DeviceUploadManager.PendingUpload> all = items("Main", 1, 4);
+        JsonArray whole = jsonBody(all);
+        JsonArray head = jsonBody(all.subList(0, 2));
+        JsonArray tail = jsonBody(all.subList(2, 4));
+
+        List<String> split = new ArrayList<>(keys(head));
+        split.addAll(keys(tail));
+        assertEquals(keys(whole), split);
+        assertEquals(4, new HashSet<>(split).size());
+
+        // Исправленная строка — новый ключ, иначе сервер отбросит её как повтор
+        DeviceUploadManager.PendingUpload original = all.get(0);
+        DeviceUploadManager.PendingUpload corrected = new DeviceUploadManager.PendingUpload(
+                original.rowId, original.tableName, original.folderName, original.device, 1718000000000L);
+        assertNotEquals(original.idempotencyKey(INSTALL_ID), corrected.idempotencyKey(INSTALL_ID));
+    }
+
+    private boolean sendAndWait(UploadSender.BatchRequest upload) throws InterruptedException {
+        AtomicBoolean result = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        sender.send(upload, success -> {
+            result.set(success);
+            done.countDown();
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private UploadSender.BatchRequest request(List<DeviceUploadManager.PendingUpload> items, boolean binary,
+                                              Integer batch) {
+        DeviceUploadBody body;
+        try {
+            body = binary
+                    ? DeviceUploadBody.createBinary(items, API_KEY, PHONE_MAC, INSTALL_ID, false)
+                    : DeviceUploadBody.create(items, API_KEY, PHONE_MAC, INSTALL_ID, false);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        Request.Builder builder = new Request.Builder()
+                .url(server.url("/api/devices/"))
+                .post(body)
+                .addHeader("Content-Type", String.valueOf(body.contentType()));
+        if (batch != null) {
+            builder.addHeader(BATCH_HEADER, String.valueOf(batch));
+        }
+        return new UploadSender.BatchRequest(builder.build(), items, body.contentLength(), body.isBinary(),
+                UploadBatchSizer.NetworkProfile.WIFI);
+    }
+
+    private static JsonArray jsonBody(List<DeviceUploadManager.PendingUpload> items) throws IOException {
+        Buffer buffer = new Buffer();
+        DeviceUploadBody.create(items, API_KEY, PHONE_MAC, INSTALL_ID, false).writeTo(buffer);
+        return new JsonParser().parse(buffer.readUtf8()).getAsJsonArray();
+    }
+
+    /** Номера попыток из строк журнала "Upload attempt N (...)" в порядке отправки */
+    private List<Integer> loggedAttempts() {
+        List<Integer> numbers = new ArrayList<>();
+        synchronized (log) {
+            for (String line : log) {
+                if (line.startsWith(ATTEMPT_PREFIX)) {
+                    int end = line.indexOf(' ', ATTEMPT_PREFIX.length());
+                    numbers.add(Integer.parseInt(line.substring(ATTEMPT_PREFIX.length(), end)));
+                }
+            }
+        }
+        return numbers;
+    }
+
+    private static List<String> expectedKeys(List<DeviceUploadManager.PendingUpload> items) {
+        List<String> keys = new ArrayList<>();
+        for (DeviceUploadManager.PendingUpload item : items) {
+            keys.add(item.idempotencyKey(INSTALL_ID));
+        }
+        return keys;
+    }
+
+    private static List<String> keys(JsonArray rows) {
+        List<String> keys = new ArrayList<>();
+        for (JsonElement row : rows) {
+            keys.add(row.getAsJsonObject().get("idempotency_key").getAsString());
+        }
+        return keys;
+    }
+
+    private static List<DeviceUploadManager.PendingUpload> items(String folder, long fromId, long toId) {
+        List<DeviceUploadManager.PendingUpload> items = new ArrayList<>();
+        for (long id = fromId; id <= toId; id++) {
+            ApiDevice device = new ApiDevice();
+            device.setDevice_id(String.format(Locale.US, "AA:BB:CC:DD:%02X:%02X", (id / 256) % 256, id % 256));
+            device.setDevice_name("net-" + id);
+            device.setNetwork_type("Wi-Fi");
+            device.setSignal_strength(-40 - (int) (id % 50));
+            device.setLatitude(55.75 + id * 1e-5);
+            device.setLongitude(37.61 + id * 1e-5);
+            device.setDetected_at("2024-06-10T06:13:20Z");
+            device.setFolder_name(folder);
+            device.setSystem_folder_name(folder);
+            items.add(new DeviceUploadManager.PendingUpload(id, folder, folder, device));
+        }
+        return items;
+    }
+}